@@ -54,6 +54,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 
 import javax.imageio.ImageIO;
@@ -80,6 +83,7 @@ public class CameraView extends JComponent implements CameraListener {
     private static final String PREF_RETICLE = "CamerView.reticle";
     private static final String PREF_ZOOM_INCREMENT = "CamerView.zoomIncrement";
     private static final String PREF_RENDERING_QUALITY = "CamerView.renderingQuality";
+    private static final String PREF_MAX_DISPLAY_FPS = "CamerView.maxDisplayFps";
     private static final double DEFAULT_ZOOM_INCREMENT = 0.01;
 
     private static final String DEFAULT_RETICLE_KEY = "DEFAULT_RETICLE_KEY";
@@ -111,7 +115,29 @@ public class CameraView extends JComponent implements CameraListener {
     /**
      * The last frame received, reported by the Camera.
      */
-    private BufferedImage lastFrame;
+    private volatile BufferedImage lastFrame;
+
+    /**
+     * The latest frame received from the camera, not yet taken over by paintComponent(). A frame that is 
+     * replaced here before the EDT got to paint it, is dropped.
+     */
+    private final AtomicReference<BufferedImage> pendingFrame = new AtomicReference<>();
+
+    /**
+     * Set while a repaint for a pending frame is requested but not yet done, so frames arriving in 
+     * the meantime do not queue up more repaints.
+     */
+    private final AtomicBoolean renderRequested = new AtomicBoolean();
+
+    /**
+     * The visible part of lastFrame, scaled. Only rescaled when the frame or the scaling changes, other
+     * repaints (selection, reticle, drag jogging etc.) just draw the cached image.
+     */
+    private BufferedImage scaledFrame;
+    private BufferedImage scaledFrameSource;
+    private Rectangle scaledFrameBounds;
+    private int scaledFrameWidth, scaledFrameHeight;
+    private RenderingQuality scaledFrameQuality;
 
     private LinkedHashMap<Object, Reticle> reticles = new LinkedHashMap<>();
 
@@ -207,6 +233,12 @@ public class CameraView extends JComponent implements CameraListener {
     long lastFrameReceivedTime = 0;
     MovingAverage fpsAverage = new MovingAverage(24);
     double fps = 0;
+    long lastFrameRenderedTime = 0;
+    MovingAverage renderedFpsAverage = new MovingAverage(24);
+    double renderedFps = 0;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile long lastRenderRequestTimeNs = 0;
+    private double maxDisplayFps = 0;
     public enum RenderingQuality {
         Low, High, BestScale
     }
@@ -252,6 +284,10 @@ public class CameraView extends JComponent implements CameraListener {
         return PREF_RENDERING_QUALITY + "." + camera.getId();
     }
 
+    private String getMaxDisplayFpsPrefKey() {
+        return PREF_MAX_DISPLAY_FPS + "." + camera.getId();
+    }
+
     public void addActionListener(CameraViewActionListener listener) {
         if (!actionListeners.contains(listener)) {
             actionListeners.add(listener);
@@ -299,7 +335,7 @@ public class CameraView extends JComponent implements CameraListener {
         catch (Exception e) {
             // ignore errors
         }
-
+        maxDisplayFps = prefs.getDouble(getMaxDisplayFpsPrefKey(), 0);
     }
 
     public Camera getCamera() {
@@ -380,6 +416,29 @@ public class CameraView extends JComponent implements CameraListener {
         prefs.put(getQualityRenderingPrefKey(), renderingQuality.toString());
         this.renderingQuality = renderingQuality;
         calculateScalingData();
+        repaint();
+    }
+
+    public double getMaxDisplayFps() {
+        return maxDisplayFps;
+    }
+
+    /**
+     * Limits the rate at which camera frames are displayed in this view, independent of the camera 
+     * capture fps. Frames arriving faster are dropped.
+     * 
+     * @param maxDisplayFps The maximum display fps, or 0 for unlimited.
+     */
+    public void setMaxDisplayFps(double maxDisplayFps) {
+        prefs.putDouble(getMaxDisplayFpsPrefKey(), maxDisplayFps);
+        this.maxDisplayFps = maxDisplayFps;
+    }
+
+    /**
+     * @return The number of camera frames that were replaced by a newer one, before they were displayed.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
     }
 
     /**
@@ -488,6 +547,10 @@ public class CameraView extends JComponent implements CameraListener {
         return selection;
     }
 
+    /**
+     * Called on the camera thread. The frame is only handed over to the EDT, replacing any frame that 
+     * was not yet painted, so the camera thread never waits for the rendering. 
+     */
     @Override
     public void frameReceived(BufferedImage img) {
         if (cameraViewFilter != null) {
@@ -496,6 +559,48 @@ public class CameraView extends JComponent implements CameraListener {
         if (img == null) {
             return;
         }
+        if (pendingFrame.getAndSet(img) != null) {
+            droppedFrames.incrementAndGet();
+        }
+        fps = 1000.0 / fpsAverage.next(System.currentTimeMillis() - lastFrameReceivedTime);
+        lastFrameReceivedTime = System.currentTimeMillis();
+        requestRender();
+    }
+
+    /**
+     * Requests a repaint for the pending frame, unless one is already requested. If a maximum display fps 
+     * is set, the repaint is delayed accordingly. 
+     */
+    private void requestRender() {
+        if (!renderRequested.compareAndSet(false, true)) {
+            // The EDT will pick up the latest frame anyway.
+            return;
+        }
+        long delayNs = 0;
+        if (maxDisplayFps > 0) {
+            delayNs = lastRenderRequestTimeNs + (long) (1e9 / maxDisplayFps) - System.nanoTime();
+        }
+        if (delayNs > 0) {
+            scheduledExecutor.schedule(() -> {
+                lastRenderRequestTimeNs = System.nanoTime();
+                repaint();
+            }, delayNs, TimeUnit.NANOSECONDS);
+        }
+        else {
+            lastRenderRequestTimeNs = System.nanoTime();
+            repaint();
+        }
+    }
+
+    /**
+     * Takes over the pending frame, if any. Must be called on the EDT. 
+     */
+    private void takePendingFrame() {
+        renderRequested.set(false);
+        BufferedImage img = pendingFrame.getAndSet(null);
+        if (img == null) {
+            return;
+        }
         BufferedImage oldFrame = lastFrame;
         lastFrame = img;
         if (oldFrame == null
@@ -503,17 +608,16 @@ public class CameraView extends JComponent implements CameraListener {
                         || camera.getUnitsPerPixel() != lastUnitsPerPixel)) {
             calculateScalingData();
         }
-        fps = 1000.0 / fpsAverage.next(System.currentTimeMillis() - lastFrameReceivedTime);
-        lastFrameReceivedTime = System.currentTimeMillis();
-        repaint();
+        renderedFps = 1000.0 / renderedFpsAverage.next(System.currentTimeMillis() - lastFrameRenderedTime);
+        lastFrameRenderedTime = System.currentTimeMillis();
     }
 
     /**
      * Calculates a bunch of scaling data that we cache to speed up painting. This is recalculated
-     * when the size of the component or the size of the source changes. This method is
-     * synchronized, along with paintComponent() so that the updates to the cached data are atomic.
+     * when the size of the component or the size of the source changes. Like paintComponent(), this 
+     * is only called on the EDT, so the updates to the cached data are atomic.
      */
-    private synchronized void calculateScalingData() {
+    private void calculateScalingData() {
         BufferedImage image = lastFrame;
 
         if (image == null) {
@@ -575,8 +679,9 @@ public class CameraView extends JComponent implements CameraListener {
     }
 
     @Override
-    protected synchronized void paintComponent(Graphics g) {
+    protected void paintComponent(Graphics g) {
         super.paintComponent(g);
+        takePendingFrame();
         BufferedImage image = lastFrame;
         Insets ins = getInsets();
         int width = getWidth() - ins.left - ins.right;
@@ -586,20 +691,13 @@ public class CameraView extends JComponent implements CameraListener {
         g2d.fillRect(ins.left, ins.top, width, height);
         if (image != null) {
             // Only render if there is a valid image.
-            if (renderingQuality == RenderingQuality.Low) {
-                g2d.drawImage(lastFrame, imageX, imageY, scaledWidth, scaledHeight, null);
+            BufferedImage scaledImage = getScaledFrame(image, 
+                    new Rectangle(ins.left, ins.top, width, height));
+            if (scaledImage != null) {
+                g2d.drawImage(scaledImage, scaledFrameBounds.x, scaledFrameBounds.y, null);
             }
-            else {
-                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (renderingQuality != RenderingQuality.Low) {
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                AffineTransform t = new AffineTransform();
-                double scaleW = ((double)scaledWidth)/image.getWidth();
-                double scaleH = ((double)scaledHeight)/image.getHeight();
-                // Scaled
-                t.translate(imageX, imageY);
-                t.scale(scaleW, scaleH);
-                g2d.drawImage(lastFrame, t, null);
             }
 
             double c = MainFrame.get().getMachineControls().getSelectedTool().getLocation()
@@ -648,6 +746,58 @@ public class CameraView extends JComponent implements CameraListener {
         }
     }
     
+    /**
+     * Returns the visible part of the image, scaled according to the current scaling data and rendering 
+     * quality. The scaled image is cached and only rescaled when the frame, the zoom or the view size 
+     * changed. 
+     * 
+     * @param image
+     * @param viewBounds
+     * @return The scaled image, to be drawn at scaledFrameBounds, or null if nothing is visible.
+     */
+    private BufferedImage getScaledFrame(BufferedImage image, Rectangle viewBounds) {
+        Rectangle bounds = new Rectangle(imageX, imageY, scaledWidth, scaledHeight).intersection(viewBounds);
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        if (scaledFrame != null 
+                && scaledFrameSource == image
+                && bounds.equals(scaledFrameBounds)
+                && scaledFrameWidth == scaledWidth
+                && scaledFrameHeight == scaledHeight
+                && scaledFrameQuality == renderingQuality) {
+            return scaledFrame;
+        }
+        if (scaledFrame == null 
+                || scaledFrame.getWidth() != bounds.width 
+                || scaledFrame.getHeight() != bounds.height) {
+            scaledFrame = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g2d = scaledFrame.createGraphics();
+        try {
+            if (renderingQuality != RenderingQuality.Low) {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            }
+            AffineTransform t = new AffineTransform();
+            double scaleW = ((double)scaledWidth)/image.getWidth();
+            double scaleH = ((double)scaledHeight)/image.getHeight();
+            // Scaled, relative to the visible part.
+            t.translate(imageX - bounds.x, imageY - bounds.y);
+            t.scale(scaleW, scaleH);
+            g2d.drawImage(image, t, null);
+        }
+        finally {
+            g2d.dispose();
+        }
+        scaledFrameSource = image;
+        scaledFrameBounds = bounds;
+        scaledFrameWidth = scaledWidth;
+        scaledFrameHeight = scaledHeight;
+        scaledFrameQuality = renderingQuality;
+        return scaledFrame;
+    }
+
     private boolean isPointInsideRectangle(int pointX, int pointY, int rectX1, int rectY1, int rectX2, int rectY2) {
         return pointX >= rectX1 && pointX <= rectX2 && pointY >= rectY1 && pointY <= rectY2;
     }
@@ -1021,11 +1171,13 @@ public class CameraView extends JComponent implements CameraListener {
         if (image == null) {
             return;
         }
-        String text = String.format("Resolution: %d x %d\nZoom: %d%%\nFPS: %.1f\nHistogram:", 
+        String text = String.format("Resolution: %d x %d\nZoom: %d%%\nFPS: %.1f\nDisplay FPS: %.1f, dropped %d\nHistogram:", 
                 image.getWidth(),
                 image.getHeight(), 
                 (int) (zoom * 100),
-                fps);
+                fps,
+                renderedFps,
+                droppedFrames.get());
         Insets insets = new Insets(10, 10, 10, 10);
         int interLineSpacing = 4;
         int cornerRadius = 8;
@@ -49,6 +49,7 @@ public class CameraViewPopupMenu extends JPopupMenu {
     private JMenu reticleMenu;
     private JMenu reticleOptionsMenu;
     private JMenu renderingQualityMenu;
+    private JMenu maxDisplayFpsMenu;
 
     public CameraViewPopupMenu(CameraView cameraView) {
         this.cameraView = cameraView;
@@ -61,6 +62,10 @@ public class CameraViewPopupMenu extends JPopupMenu {
 
         add(renderingQualityMenu);
 
+        maxDisplayFpsMenu = createMaxDisplayFpsMenu();
+
+        add(maxDisplayFpsMenu);
+
         reticleMenu = createReticleMenu();
 
         add(reticleMenu);
@@ -200,6 +205,27 @@ public class CameraViewPopupMenu extends JPopupMenu {
         return subMenu;
     }
 
+    private JMenu createMaxDisplayFpsMenu() {
+        JMenu subMenu = new JMenu("Maximum Display FPS");
+        ButtonGroup buttonGroup = new ButtonGroup();
+        for (double maxDisplayFps : new double[] { 0, 30, 15, 10, 5 }) {
+            JRadioButtonMenuItem menuItem = new JRadioButtonMenuItem(
+                    maxDisplayFps == 0 ? "Unlimited" : String.valueOf((int) maxDisplayFps));
+            buttonGroup.add(menuItem);
+            if (cameraView.getMaxDisplayFps() == maxDisplayFps) {
+                menuItem.setSelected(true);
+            }
+            menuItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    cameraView.setMaxDisplayFps(maxDisplayFps);
+                }
+            });
+            subMenu.add(menuItem);
+        }
+        return subMenu;
+    }
+
     private JMenu createReticleMenu() {
         JMenu menu = new JMenu("Reticle");
 
@@ -36,7 +36,6 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.Set;
 
 import javax.swing.JComponent;
 
@@ -242,56 +241,51 @@ public class SimpleGraphView extends JComponent implements MouseMotionListener,
                     // Draw the actual curves.
                     for (DataRow dataRow : dataScale.getDataRows()) {
                         if ((dataRow.getDisplayCycleMask() & displayCycle) != 0) {
-                            Set<Double> xAxis = dataRow.getXAxis();
-                            if (xAxis != null) {
-                                // Convert to pixel coordinates
-                                int size = dataRow.size();
-                                if (size >= 2) {
-                                    double [] xfPlot = new double [size]; 
-                                    double [] yfPlot = new double [size];
-                                    int i = 0;
-                                    for (double x : xAxis) {
-                                        double y = dataRow.getDataPoint(x);
-                                        xfPlot[i] = xOrigin+(x-min.x)*xScale; 
-                                        yfPlot[i] = yOrigin-(y-min.y)*yScale;
-                                        i++;
-                                    }
-                                    // Analyze the curve and only plot relevant curve points.
-                                    int [] xPlot = new int [size]; 
-                                    int [] yPlot = new int [size];
-                                    int s = 0;
-                                    // Always add first point.
-                                    xPlot[s] = (int) xfPlot[0];
-                                    yPlot[s] = (int) yfPlot[0];
-                                    s++;
-                                    for (i = 1; i < size-1; i++) {
-                                        double dx0 = xfPlot[i]-xfPlot[i-1];
-                                        double dy0 = yfPlot[i]-yfPlot[i-1];
-                                        double dx1 = xfPlot[i+1]-xfPlot[i];
-                                        double dy1 = yfPlot[i+1]-yfPlot[i];
-                                        double n0 = Math.sqrt(dx0*dx0+dy0*dy0); 
-                                        double n1 = Math.sqrt(dx1*dx1+dy1*dy1); 
-                                        double cosine = ((dx0*dx1) + (dy0*dy1))/n0/n1;
-                                        if (cosine < 0.99 
-                                                || Math.abs(xfPlot[i]-xPlot[s-1]) > 12 || Math.abs(yfPlot[i]-yPlot[s-1]) > 1.5) {
-                                            // Corner point or relevant change.
-                                            xPlot[s] = (int) xfPlot[i];
-                                            yPlot[s] = (int) yfPlot[i];
-                                            s++;
-                                        }
-                                    }
-                                    // Always add last point.
-                                    xPlot[s] = (int) xfPlot[size-1];
-                                    yPlot[s] = (int) yfPlot[size-1];
-                                    s++;
-                                    // Draw as polyline.
-                                    g2d.setColor(dataRow.getColor());
-                                    g2d.drawPolyline(xPlot, yPlot, s);
-                                    if (selectedX != null) {
-                                        drawYIndicator(g2d, dfm, fontAscent, w, min, max, yOrigin, yScale, yUnit, 
-                                                dataRow.getInterpolated(selectedX), dataRow.getColor());
+                            // Decimate to the pixel columns, then convert to pixel coordinates.
+                            int columns = (int)Math.ceil((max.x-min.x)*xScale)+1;
+                            double [] xfPlot = new double [DataRow.getDecimatedCapacity(columns)]; 
+                            double [] yfPlot = new double [xfPlot.length];
+                            int size = dataRow.getDecimated(min.x, max.x, columns, xfPlot, yfPlot);
+                            if (size >= 2) {
+                                for (int i = 0; i < size; i++) {
+                                    xfPlot[i] = xOrigin+(xfPlot[i]-min.x)*xScale; 
+                                    yfPlot[i] = yOrigin-(yfPlot[i]-min.y)*yScale;
+                                }
+                                // Analyze the curve and only plot relevant curve points.
+                                int [] xPlot = new int [size]; 
+                                int [] yPlot = new int [size];
+                                int s = 0;
+                                // Always add first point.
+                                xPlot[s] = (int) xfPlot[0];
+                                yPlot[s] = (int) yfPlot[0];
+                                s++;
+                                for (int i = 1; i < size-1; i++) {
+                                    double dx0 = xfPlot[i]-xfPlot[i-1];
+                                    double dy0 = yfPlot[i]-yfPlot[i-1];
+                                    double dx1 = xfPlot[i+1]-xfPlot[i];
+                                    double dy1 = yfPlot[i+1]-yfPlot[i];
+                                    double n0 = Math.sqrt(dx0*dx0+dy0*dy0); 
+                                    double n1 = Math.sqrt(dx1*dx1+dy1*dy1); 
+                                    double cosine = ((dx0*dx1) + (dy0*dy1))/n0/n1;
+                                    if (cosine < 0.99 
+                                            || Math.abs(xfPlot[i]-xPlot[s-1]) > 12 || Math.abs(yfPlot[i]-yPlot[s-1]) > 1.5) {
+                                        // Corner point or relevant change.
+                                        xPlot[s] = (int) xfPlot[i];
+                                        yPlot[s] = (int) yfPlot[i];
+                                        s++;
                                     }
                                 }
+                                // Always add last point.
+                                xPlot[s] = (int) xfPlot[size-1];
+                                yPlot[s] = (int) yfPlot[size-1];
+                                s++;
+                                // Draw as polyline.
+                                g2d.setColor(dataRow.getColor());
+                                g2d.drawPolyline(xPlot, yPlot, s);
+                                if (selectedX != null) {
+                                    drawYIndicator(g2d, dfm, fontAscent, w, min, max, yOrigin, yScale, yUnit, 
+                                            dataRow.getInterpolated(selectedX), dataRow.getColor());
+                                }
                             }
                         }
                     }
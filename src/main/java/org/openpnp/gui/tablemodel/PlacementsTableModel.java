@@ -35,7 +35,6 @@ import org.openpnp.model.Part;
 import org.openpnp.model.Placement;
 import org.openpnp.model.Placement.ErrorHandling;
 import org.openpnp.model.Placement.Type;
-import org.openpnp.spi.Feeder;
 
 public class PlacementsTableModel extends AbstractTableModel {
     final Configuration configuration;
@@ -175,14 +174,7 @@ public class PlacementsTableModel extends AbstractTableModel {
                     
         }
         if (placement.getType() == Placement.Type.Placement && placement.isEnabled()) {
-            boolean found = false;
-            for (Feeder feeder : Configuration.get().getMachine().getFeeders()) {
-                if (feeder.getPart() == placement.getPart() && feeder.isEnabled()) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+            if (Configuration.get().getMachine().getEnabledFeeders(placement.getPart()).isEmpty()) {
                 return Status.MissingFeeder;
             }
 
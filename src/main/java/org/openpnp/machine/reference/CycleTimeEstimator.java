@@ -0,0 +1,197 @@
+package org.openpnp.machine.reference;
+
+import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.PlannedPlacementStep;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.Step;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MotionPlanner.CompletionType;
+import org.openpnp.spi.PnpJobPlanner.PlannedPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.util.NanosecondTime;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Estimates the cycle time of a job offline, by running it through the ReferencePnpJobProcessor on a
+ * simulated machine, i.e. one with only NullDrivers.
+ *
+ * The motion is planned by the machine's own motion planner, i.e. with the real motion profiles. Nozzle
+ * dwell times, camera settle times and simulated actuations are taken as configured. But instead of
+ * waiting for them in real time, the NanosecondTime virtual clock just skips ahead. Computations, such as
+ * the motion planning itself and the vision processing, still take their real time, as they would on the
+ * real machine.
+ *
+ * Each step of the job processor is timed from when it starts until it returns. As the motion is executed
+ * asynchronously, a step is charged with the time it blocked the job, which is not necessarily the time
+ * of the motion it queued.
+ */
+public class CycleTimeEstimator {
+    public static class Estimate {
+        private final Job job;
+        private double totalTime;
+        private double wallTime;
+        private int partsPlaced;
+        private final Map<String, Double> stepTimes = new LinkedHashMap<>();
+        private final Map<String, Integer> stepCounts = new LinkedHashMap<>();
+        private final Map<JobPlacement, Double> placementTimes = new LinkedHashMap<>();
+
+        Estimate(Job job) {
+            this.job = job;
+        }
+
+        void addStepTime(Step step, JobPlacement jobPlacement, double time) {
+            String name = step.getClass().getSimpleName();
+            stepTimes.merge(name, time, Double::sum);
+            stepCounts.merge(name, 1, Integer::sum);
+            if (jobPlacement != null) {
+                placementTimes.merge(jobPlacement, time, Double::sum);
+            }
+        }
+
+        /**
+         * @return The estimated time for the job, in seconds.
+         */
+        public double getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return The real time it took to compute the estimate, in seconds.
+         */
+        public double getWallTime() {
+            return wallTime;
+        }
+
+        public int getPartsPlaced() {
+            return partsPlaced;
+        }
+
+        public double getPartsPerHour() {
+            return totalTime > 0 ? partsPlaced*3600.0/totalTime : 0;
+        }
+
+        /**
+         * @return The estimated time per job processor step type, in seconds, in the order the steps were
+         * first taken.
+         */
+        public Map<String, Double> getStepTimes() {
+            return Collections.unmodifiableMap(stepTimes);
+        }
+
+        /**
+         * @return How many times each job processor step type was taken.
+         */
+        public Map<String, Integer> getStepCounts() {
+            return Collections.unmodifiableMap(stepCounts);
+        }
+
+        /**
+         * @return The estimated time per placement, in seconds, i.e. the sum of the steps processing that
+         * placement. Steps processing whole cycles, like planning and fiducial checks, are not included.
+         */
+        public Map<JobPlacement, Double> getPlacementTimes() {
+            return Collections.unmodifiableMap(placementTimes);
+        }
+
+        @Override
+        public String toString() {
+            DecimalFormat df = new DecimalFormat("###,##0.000");
+            StringBuilder sb = new StringBuilder();
+            sb.append("Estimated ");
+            sb.append(df.format(totalTime));
+            sb.append(" s for ");
+            sb.append(partsPlaced);
+            sb.append(" parts (");
+            sb.append(new DecimalFormat("###,##0").format(getPartsPerHour()));
+            sb.append(" CPH), computed in ");
+            sb.append(df.format(wallTime));
+            sb.append(" s\n");
+            for (Map.Entry<String, Double> entry : stepTimes.entrySet()) {
+                sb.append(String.format("  %-28s %5dx %10s s\n", entry.getKey(),
+                        stepCounts.get(entry.getKey()), df.format(entry.getValue())));
+            }
+            for (Map.Entry<JobPlacement, Double> entry : placementTimes.entrySet()) {
+                // The same placement can appear on several boards, so number the board locations.
+                int board = job.getBoardLocations().indexOf(entry.getKey().getBoardLocation()) + 1;
+                sb.append(String.format("  %-28s %10s s\n", "#" + board + " " + entry.getKey(),
+                        df.format(entry.getValue())));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final ReferencePnpJobProcessor jobProcessor;
+
+    public CycleTimeEstimator(ReferencePnpJobProcessor jobProcessor) {
+        this.jobProcessor = jobProcessor;
+    }
+
+    /**
+     * Runs the job to the end on the simulated machine and returns the estimated times. The machine must
+     * be enabled and homed.
+     *
+     * @param job
+     * @return
+     * @throws Exception if the machine is not simulated, or if the job fails.
+     */
+    public Estimate estimate(Job job) throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        for (Driver driver : machine.getDrivers()) {
+            if (!(driver instanceof NullDriver)) {
+                throw new Exception("Cycle time estimation needs a simulated machine, driver "
+                        + driver.getName() + " is not a NullDriver.");
+            }
+        }
+        if (!machine.isEnabled()) {
+            throw new Exception("Machine must be enabled.");
+        }
+
+        Estimate estimate = new Estimate(job);
+        boolean virtualClock = NanosecondTime.isVirtualClock();
+        NanosecondTime.setVirtualClock(true);
+        long wallTime0 = System.nanoTime();
+        try {
+            // Start from stillstand, so any motion left over is not charged to the job.
+            machine.getMotionPlanner().waitForCompletion(null, CompletionType.WaitForStillstand);
+            long t0 = NanosecondTime.getRuntime();
+            jobProcessor.initialize(job);
+            boolean more;
+            do {
+                Step step = jobProcessor.getCurrentStep();
+                JobPlacement jobPlacement = null;
+                if (step instanceof PlannedPlacementStep) {
+                    PlannedPlacement plannedPlacement = ((PlannedPlacementStep) step).getCurrentPlannedPlacement();
+                    if (plannedPlacement != null) {
+                        jobPlacement = plannedPlacement.jobPlacement;
+                    }
+                }
+                long t = NanosecondTime.getRuntime();
+                try {
+                    more = jobProcessor.next();
+                }
+                catch (Exception e) {
+                    jobProcessor.abort();
+                    throw e;
+                }
+                estimate.addStepTime(step, jobPlacement, (NanosecondTime.getRuntime() - t)*1e-9);
+            }
+            while (more);
+            machine.getMotionPlanner().waitForCompletion(null, CompletionType.WaitForStillstand);
+            estimate.totalTime = (NanosecondTime.getRuntime() - t0)*1e-9;
+            estimate.partsPlaced = jobProcessor.totalPartsPlaced;
+        }
+        finally {
+            NanosecondTime.setVirtualClock(virtualClock);
+            estimate.wallTime = (System.nanoTime() - wallTime0)*1e-9;
+        }
+        Logger.info(estimate.toString());
+        return estimate;
+    }
+}
@@ -0,0 +1,566 @@
+package org.openpnp.machine.reference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PnpJobPlanner;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.util.Utils2D;
+import org.pmw.tinylog.Logger;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Root;
+
+/**
+ * A planner that plans the whole remaining job at once, rather than greedily one cycle at a time.
+ *
+ * Placements are grouped into nozzle tip campaigns: a nozzle keeps its nozzle tip as long as there
+ * are placements left for it, and only then changes to the nozzle tip that has the most placements
+ * left. The placements of a cycle are chosen so their feeders (and secondarily their place locations)
+ * are close together, and the picks and places within the cycle are ordered by travel distance.
+ *
+ * If the job placements are handed over sorted by part height (see JobOrderHint.PartHeight), no part
+ * is placed before a lower part.
+ *
+ * The plan is kept between calls and the cycles are handed out one by one. If the pending job
+ * placements or the loaded nozzle tips are not as planned, the rest of the job is planned again.
+ */
+@Root
+public class OptimizingPnpJobPlanner implements PnpJobPlanner {
+    /**
+     * Weight of the distance between place locations relative to the distance between feeders, when
+     * choosing the placements of a cycle.
+     */
+    @Attribute(required = false)
+    protected double placeDistanceWeight = 0.5;
+
+    /**
+     * Cycles with up to this many placements are ordered by exhaustive search, larger ones by nearest
+     * neighbor.
+     */
+    private static final int maxExhaustiveOrderSize = 6;
+
+    private Head plannedHead;
+    private List<Cycle> plannedCycles;
+    /**
+     * The job placements that no nozzle can handle, and are therefore not in the planned cycles.
+     */
+    private Set<JobPlacement> unplannablePlacements = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * A planned cycle along with the nozzle tips it expects to be loaded before it starts.
+     */
+    public static class Cycle {
+        private final List<PlannedPlacement> plannedPlacements;
+        private final Map<Nozzle, NozzleTip> nozzleTipsBefore;
+        private final int nozzleTipChanges;
+
+        public Cycle(List<PlannedPlacement> plannedPlacements, Map<Nozzle, NozzleTip> nozzleTipsBefore,
+                int nozzleTipChanges) {
+            this.plannedPlacements = plannedPlacements;
+            this.nozzleTipsBefore = nozzleTipsBefore;
+            this.nozzleTipChanges = nozzleTipChanges;
+        }
+
+        public List<PlannedPlacement> getPlannedPlacements() {
+            return plannedPlacements;
+        }
+
+        public Map<Nozzle, NozzleTip> getNozzleTipsBefore() {
+            return nozzleTipsBefore;
+        }
+
+        public int getNozzleTipChanges() {
+            return nozzleTipChanges;
+        }
+    }
+
+    /**
+     * The job placement with the data the planner needs over and over, computed once.
+     */
+    protected static class PlanningPlacement {
+        final JobPlacement jobPlacement;
+        final Location pickLocation;
+        final Location placeLocation;
+        final double height;
+        final Set<NozzleTip> nozzleTips;
+
+        PlanningPlacement(JobPlacement jobPlacement, Location pickLocation) {
+            this.jobPlacement = jobPlacement;
+            this.pickLocation = pickLocation;
+            this.placeLocation = getPlaceLocation(jobPlacement);
+            this.height = jobPlacement.getPartHeight();
+            Part part = jobPlacement.getPlacement().getPart();
+            this.nozzleTips = (part.getPackage() == null) ? Collections.emptySet()
+                    : part.getPackage().getCompatibleNozzleTips();
+        }
+    }
+
+    @Override
+    public synchronized List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements) {
+        if (!isPlanValid(head, jobPlacements)) {
+            long t = System.currentTimeMillis();
+            plannedHead = head;
+            plannedCycles = new ArrayList<>(planJob(head, jobPlacements));
+            unplannablePlacements = Collections.newSetFromMap(new IdentityHashMap<>());
+            unplannablePlacements.addAll(jobPlacements);
+            unplannablePlacements.removeAll(getPlannedPlacements());
+            Logger.debug("Planned {} placements in {} cycles in {}ms", jobPlacements.size(),
+                    plannedCycles.size(), (System.currentTimeMillis() - t));
+        }
+        if (plannedCycles.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(plannedCycles.remove(0).getPlannedPlacements());
+    }
+
+    /**
+     * @return The job placements in the remaining planned cycles.
+     */
+    private Set<JobPlacement> getPlannedPlacements() {
+        Set<JobPlacement> planned = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Cycle cycle : plannedCycles) {
+            for (PlannedPlacement plannedPlacement : cycle.getPlannedPlacements()) {
+                planned.add(plannedPlacement.jobPlacement);
+            }
+        }
+        return planned;
+    }
+
+    /**
+     * @return True if the remaining planned cycles still match the pending job placements and the
+     * loaded nozzle tips. Pending job placements that could not be planned before are not expected
+     * in the plan.
+     */
+    protected boolean isPlanValid(Head head, List<JobPlacement> jobPlacements) {
+        if (plannedCycles == null || plannedCycles.isEmpty() || plannedHead != head) {
+            return false;
+        }
+        Set<JobPlacement> planned = getPlannedPlacements();
+        int pending = 0;
+        for (JobPlacement jobPlacement : jobPlacements) {
+            if (!unplannablePlacements.contains(jobPlacement)) {
+                if (!planned.contains(jobPlacement)) {
+                    return false;
+                }
+                pending++;
+            }
+        }
+        if (pending != planned.size()) {
+            return false;
+        }
+        for (Map.Entry<Nozzle, NozzleTip> entry : plannedCycles.get(0).getNozzleTipsBefore().entrySet()) {
+            if (entry.getKey().getNozzleTip() != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Plans the given job placements into cycles, starting with the nozzle tips currently loaded.
+     * This does not change any state, so it can also be used to evaluate a job offline.
+     *
+     * @param head
+     * @param jobPlacements The pending job placements in the order of the JobOrderHint.
+     * @return The cycles. Placements that cannot be handled by any nozzle are left out.
+     */
+    public List<Cycle> planJob(Head head, List<JobPlacement> jobPlacements) {
+        List<Nozzle> nozzles = head.getNozzles();
+        Map<Nozzle, NozzleTip> nozzleTips = new LinkedHashMap<>();
+        for (Nozzle nozzle : nozzles) {
+            nozzleTips.put(nozzle, nozzle.getNozzleTip());
+        }
+        Location location = getStartLocation(head);
+
+        List<List<PlanningPlacement>> groups = getOrderGroups(jobPlacements);
+        boolean heightOrdered = groups.size() > 1;
+        List<Cycle> cycles = new ArrayList<>();
+        List<PlanningPlacement> eligible = new ArrayList<>();
+        int nextGroup = 0;
+        while (!eligible.isEmpty() || nextGroup < groups.size()) {
+            if (eligible.isEmpty()) {
+                eligible.addAll(groups.get(nextGroup++));
+            }
+            Map<Nozzle, NozzleTip> nozzleTipsBefore = new LinkedHashMap<>(nozzleTips);
+            Map<Nozzle, PlanningPlacement> assignments = new LinkedHashMap<>();
+            fillCycle(nozzles, nozzleTips, eligible, groups.subList(nextGroup, groups.size()), assignments);
+            // If all the eligible placements are taken and nozzles are left free, the next
+            // group can join the cycle, as all its parts are at least as high.
+            while (eligible.isEmpty() && assignments.size() < nozzles.size()
+                    && nextGroup < groups.size()) {
+                eligible.addAll(groups.get(nextGroup++));
+                fillCycle(nozzles, nozzleTips, eligible, groups.subList(nextGroup, groups.size()),
+                        assignments);
+            }
+            if (assignments.isEmpty()) {
+                // None of the eligible placements can be handled by any nozzle.
+                Logger.warn("No compatible nozzle and nozzle tip found for {} placements, not planned.",
+                        eligible.size());
+                eligible.clear();
+                continue;
+            }
+            List<Map.Entry<Nozzle, PlanningPlacement>> order =
+                    orderCycle(location, new ArrayList<>(assignments.entrySet()), heightOrdered);
+            List<PlannedPlacement> plannedPlacements = new ArrayList<>();
+            int nozzleTipChanges = 0;
+            for (Map.Entry<Nozzle, PlanningPlacement> entry : order) {
+                Nozzle nozzle = entry.getKey();
+                plannedPlacements.add(new PlannedPlacement(nozzle, nozzleTips.get(nozzle),
+                        entry.getValue().jobPlacement));
+                if (nozzleTips.get(nozzle) != nozzleTipsBefore.get(nozzle)) {
+                    nozzleTipChanges++;
+                }
+                location = entry.getValue().placeLocation;
+            }
+            cycles.add(new Cycle(plannedPlacements, nozzleTipsBefore, nozzleTipChanges));
+        }
+        return cycles;
+    }
+
+    /**
+     * Splits the job placements into groups that must be placed in order. If the job placements are
+     * sorted by part height, each part height is a group, otherwise all are in one group.
+     */
+    protected List<List<PlanningPlacement>> getOrderGroups(List<JobPlacement> jobPlacements) {
+        Map<Part, Integer> feederTurns = new HashMap<>();
+        List<PlanningPlacement> placements = new ArrayList<>();
+        boolean heightOrdered = true;
+        for (JobPlacement jobPlacement : jobPlacements) {
+            PlanningPlacement placement = new PlanningPlacement(jobPlacement,
+                    getPickLocation(jobPlacement, feederTurns));
+            if (!placements.isEmpty() && placement.height < placements.get(placements.size() - 1).height) {
+                heightOrdered = false;
+            }
+            placements.add(placement);
+        }
+        List<List<PlanningPlacement>> groups = new ArrayList<>();
+        if (!heightOrdered) {
+            groups.add(placements);
+            return groups;
+        }
+        List<PlanningPlacement> group = null;
+        for (PlanningPlacement placement : placements) {
+            if (group == null || placement.height != group.get(0).height) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(placement);
+        }
+        return groups;
+    }
+
+    /**
+     * Assigns eligible placements to the free nozzles. First the nozzles that can keep their nozzle tip,
+     * then the others with a nozzle tip change. Assigned placements are removed from eligible.
+     * The later groups are only looked at to decide which nozzle tips are best kept loaded.
+     */
+    protected void fillCycle(List<Nozzle> nozzles, Map<Nozzle, NozzleTip> nozzleTips,
+            List<PlanningPlacement> eligible, List<List<PlanningPlacement>> later,
+            Map<Nozzle, PlanningPlacement> assignments) {
+        // Start the cycle with the first eligible placement, to keep close to the job order.
+        if (assignments.isEmpty()) {
+            for (PlanningPlacement placement : eligible) {
+                Nozzle nozzle = findNozzle(nozzles, nozzleTips, placement, assignments);
+                if (nozzle != null) {
+                    assign(nozzle, placement, eligible, assignments);
+                    break;
+                }
+            }
+        }
+        // Fill the nozzles that do not need a nozzle tip change.
+        for (Nozzle nozzle : nozzles) {
+            if (!assignments.containsKey(nozzle) && nozzleTips.get(nozzle) != null) {
+                PlanningPlacement placement = findNearest(nozzleTips.get(nozzle), eligible, assignments);
+                if (placement != null) {
+                    assign(nozzle, placement, eligible, assignments);
+                }
+            }
+        }
+        // Change the nozzle tips of the remaining free nozzles to the ones with the most work left.
+        // Empty nozzles go first, then those whose nozzle tip has the least work left in the job.
+        List<Nozzle> free = new ArrayList<>();
+        Map<Nozzle, Integer> work = new HashMap<>();
+        for (Nozzle nozzle : nozzles) {
+            if (!assignments.containsKey(nozzle)) {
+                free.add(nozzle);
+                NozzleTip nozzleTip = nozzleTips.get(nozzle);
+                int count = -1;
+                if (nozzleTip != null) {
+                    count = countCompatible(nozzleTip, eligible);
+                    for (List<PlanningPlacement> group : later) {
+                        count += countCompatible(nozzleTip, group);
+                    }
+                }
+                work.put(nozzle, count);
+            }
+        }
+        free.sort((a, b) -> Integer.compare(work.get(a), work.get(b)));
+        for (Nozzle nozzle : free) {
+            if (!assignments.containsKey(nozzle)) {
+                NozzleTip nozzleTip = findNozzleTip(nozzle, nozzleTips, eligible);
+                if (nozzleTip != null) {
+                    nozzleTips.put(nozzle, nozzleTip);
+                    assign(nozzle, findNearest(nozzleTip, eligible, assignments), eligible, assignments);
+                }
+            }
+        }
+    }
+
+    private Nozzle findNozzle(List<Nozzle> nozzles, Map<Nozzle, NozzleTip> nozzleTips,
+            PlanningPlacement placement, Map<Nozzle, PlanningPlacement> assignments) {
+        for (Nozzle nozzle : nozzles) {
+            if (!assignments.containsKey(nozzle) && nozzleTips.get(nozzle) != null
+                    && placement.nozzleTips.contains(nozzleTips.get(nozzle))) {
+                return nozzle;
+            }
+        }
+        return null;
+    }
+
+    private void assign(Nozzle nozzle, PlanningPlacement placement, List<PlanningPlacement> eligible,
+            Map<Nozzle, PlanningPlacement> assignments) {
+        assignments.put(nozzle, placement);
+        eligible.remove(placement);
+    }
+
+    /**
+     * Finds the nozzle tip for a nozzle tip change on the given nozzle, that can handle the most
+     * eligible placements. Nozzle tips loaded on other nozzles are not considered.
+     */
+    protected NozzleTip findNozzleTip(Nozzle nozzle, Map<Nozzle, NozzleTip> nozzleTips,
+            List<PlanningPlacement> eligible) {
+        NozzleTip best = null;
+        int bestCount = 0;
+        for (NozzleTip nozzleTip : nozzle.getCompatibleNozzleTips()) {
+            boolean loadedElsewhere = false;
+            for (Map.Entry<Nozzle, NozzleTip> entry : nozzleTips.entrySet()) {
+                if (entry.getKey() != nozzle && entry.getValue() == nozzleTip) {
+                    loadedElsewhere = true;
+                }
+            }
+            if (loadedElsewhere) {
+                continue;
+            }
+            int count = countCompatible(nozzleTip, eligible);
+            if (count > bestCount) {
+                best = nozzleTip;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private static int countCompatible(NozzleTip nozzleTip, List<PlanningPlacement> placements) {
+        int count = 0;
+        for (PlanningPlacement placement : placements) {
+            if (placement.nozzleTips.contains(nozzleTip)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the eligible placement for the nozzle tip that is nearest to those already assigned in the
+     * cycle, or the first one, if none are assigned yet.
+     */
+    protected PlanningPlacement findNearest(NozzleTip nozzleTip, List<PlanningPlacement> eligible,
+            Map<Nozzle, PlanningPlacement> assignments) {
+        PlanningPlacement best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (PlanningPlacement placement : eligible) {
+            if (!placement.nozzleTips.contains(nozzleTip)) {
+                continue;
+            }
+            if (assignments.isEmpty()) {
+                return placement;
+            }
+            double cost = 0;
+            for (PlanningPlacement assigned : assignments.values()) {
+                cost += getDistance(placement.pickLocation, assigned.pickLocation)
+                        + placeDistanceWeight*getDistance(placement.placeLocation, assigned.placeLocation);
+            }
+            if (cost < bestCost) {
+                best = placement;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Orders the placements of a cycle to minimize the travel from the start location over all the
+     * pick locations and then all the place locations, in the same order.
+     */
+    protected List<Map.Entry<Nozzle, PlanningPlacement>> orderCycle(Location start,
+            List<Map.Entry<Nozzle, PlanningPlacement>> entries, boolean heightOrdered) {
+        if (entries.size() <= 1) {
+            return entries;
+        }
+        if (entries.size() > maxExhaustiveOrderSize) {
+            return orderCycleNearestNeighbor(start, entries, heightOrdered);
+        }
+        List<Map.Entry<Nozzle, PlanningPlacement>> best = new ArrayList<>(entries);
+        double [] bestCost = new double[] { Double.POSITIVE_INFINITY };
+        permute(start, entries, new ArrayList<>(), new boolean[entries.size()], heightOrdered, best, bestCost);
+        return best;
+    }
+
+    private void permute(Location start, List<Map.Entry<Nozzle, PlanningPlacement>> entries,
+            List<Map.Entry<Nozzle, PlanningPlacement>> order, boolean [] used, boolean heightOrdered,
+            List<Map.Entry<Nozzle, PlanningPlacement>> best, double [] bestCost) {
+        if (order.size() == entries.size()) {
+            double cost = getCycleTravel(start, order);
+            if (cost < bestCost[0]) {
+                bestCost[0] = cost;
+                best.clear();
+                best.addAll(order);
+            }
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (used[i]) {
+                continue;
+            }
+            Map.Entry<Nozzle, PlanningPlacement> entry = entries.get(i);
+            if (heightOrdered && !order.isEmpty()
+                    && entry.getValue().height < order.get(order.size() - 1).getValue().height) {
+                continue;
+            }
+            used[i] = true;
+            order.add(entry);
+            permute(start, entries, order, used, heightOrdered, best, bestCost);
+            order.remove(order.size() - 1);
+            used[i] = false;
+        }
+    }
+
+    private List<Map.Entry<Nozzle, PlanningPlacement>> orderCycleNearestNeighbor(Location start,
+            List<Map.Entry<Nozzle, PlanningPlacement>> entries, boolean heightOrdered) {
+        List<Map.Entry<Nozzle, PlanningPlacement>> remaining = new ArrayList<>(entries);
+        if (heightOrdered) {
+            remaining.sort((a, b) -> Double.compare(a.getValue().height, b.getValue().height));
+        }
+        List<Map.Entry<Nozzle, PlanningPlacement>> order = new ArrayList<>();
+        Location location = start;
+        while (!remaining.isEmpty()) {
+            Map.Entry<Nozzle, PlanningPlacement> best = null;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (Map.Entry<Nozzle, PlanningPlacement> entry : remaining) {
+                if (heightOrdered && entry.getValue().height > remaining.get(0).getValue().height) {
+                    break;
+                }
+                double distance = getDistance(location, entry.getValue().pickLocation);
+                if (distance < bestDistance) {
+                    best = entry;
+                    bestDistance = distance;
+                }
+            }
+            remaining.remove(best);
+            order.add(best);
+            if (best.getValue().pickLocation != null) {
+                location = best.getValue().pickLocation;
+            }
+        }
+        return order;
+    }
+
+    private static double getCycleTravel(Location start, List<Map.Entry<Nozzle, PlanningPlacement>> order) {
+        double distance = 0;
+        Location location = start;
+        for (Map.Entry<Nozzle, PlanningPlacement> entry : order) {
+            distance += getDistance(location, entry.getValue().pickLocation);
+            if (entry.getValue().pickLocation != null) {
+                location = entry.getValue().pickLocation;
+            }
+        }
+        for (Map.Entry<Nozzle, PlanningPlacement> entry : order) {
+            distance += getDistance(location, entry.getValue().placeLocation);
+            location = entry.getValue().placeLocation;
+        }
+        return distance;
+    }
+
+    /**
+     * @return The linear distance in millimeters, or 0 if any of the locations is unknown.
+     */
+    public static double getDistance(Location a, Location b) {
+        if (a == null || b == null) {
+            return 0;
+        }
+        return a.convertToUnits(LengthUnit.Millimeters).getLinearDistanceTo(b);
+    }
+
+    /**
+     * Predicts the feeder the job processor will pick the job placement from, using its feeder
+     * selection, if it is a ReferencePnpJobProcessor, otherwise the first enabled feeder. For
+     * FeederSelection.Nearest, the nozzle is assumed to come from the place location, for
+     * FeederSelection.RoundRobin, the picks are counted in job order.
+     *
+     * @param jobPlacement
+     * @param feederTurns The picks per part so far in the planning, updated.
+     * @return The pick location of the feeder, or null if unknown.
+     */
+    public Location getPickLocation(JobPlacement jobPlacement, Map<Part, Integer> feederTurns) {
+        try {
+            Machine machine = Configuration.get().getMachine();
+            Part part = jobPlacement.getPlacement().getPart();
+            List<Feeder> feeders = machine.getEnabledFeeders(part);
+            if (feeders.isEmpty()) {
+                return null;
+            }
+            if (!(machine.getPnpJobProcessor() instanceof ReferencePnpJobProcessor)) {
+                return feeders.get(0).getPickLocation();
+            }
+            ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) machine.getPnpJobProcessor();
+            int turn = feederTurns.computeIfAbsent(part, (p) -> jobProcessor.getFeederTurn(p));
+            feederTurns.put(part, turn + 1);
+            return jobProcessor.selectFeeder(feeders, getPlaceLocation(jobPlacement), turn)
+                    .getPickLocation();
+        }
+        catch (Exception e) {
+            Logger.trace(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return The place location of the job placement on the machine.
+     */
+    public static Location getPlaceLocation(JobPlacement jobPlacement) {
+        return Utils2D.calculateBoardPlacementLocation(jobPlacement.getBoardLocation(),
+                jobPlacement.getPlacement().getLocation());
+    }
+
+    protected Location getStartLocation(Head head) {
+        try {
+            return head.getDefaultCamera().getLocation();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    public double getPlaceDistanceWeight() {
+        return placeDistanceWeight;
+    }
+
+    public void setPlaceDistanceWeight(double placeDistanceWeight) {
+        this.placeDistanceWeight = placeDistanceWeight;
+    }
+}
@@ -121,6 +121,10 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
     private Mat undistortionMap2;
 
     private LensCalibration lensCalibration;
+
+    private final Object transformLock = new Object();
+    private Mat transformSource;
+    private FusedTransform fusedTransform;
     
     public ReferenceCamera() {
     }
@@ -131,24 +135,26 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
      */
     @Override
     public BufferedImage capture() {
-        try {
-            Map<String, Object> globals = new HashMap<>();
-            globals.put("camera", this);
-            Configuration.get().getScripting().on("Camera.BeforeCapture", globals);
-        }
-        catch (Exception e) {
-            Logger.warn(e);
-        }
+        fireCaptureEvent("Camera.BeforeCapture");
         BufferedImage image = captureForPreview();
+        fireCaptureEvent("Camera.AfterCapture");
+        return image;
+    }
+
+    /**
+     * Performs the scripting event before or after a capture.
+     * 
+     * @param event Either "Camera.BeforeCapture" or "Camera.AfterCapture".
+     */
+    protected void fireCaptureEvent(String event) {
         try {
             Map<String, Object> globals = new HashMap<>();
             globals.put("camera", this);
-            Configuration.get().getScripting().on("Camera.AfterCapture", globals);
+            Configuration.get().getScripting().on(event, globals);
         }
         catch (Exception e) {
             Logger.warn(e);
         }
-        return image;
     }
     
     /**
@@ -331,8 +337,57 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
         this.deinterlace = deinterlace;
     }
 
-    // TODO Optimization: We could skip the convert to and from Mat if no transforms are needed.
+    /**
+     * Applies the local transformations to the image. Except while calibrating, the geometric transformations are
+     * applied in one pass, using the FusedTransform. 
+     * 
+     * @param image
+     * @return
+     */
     protected BufferedImage transformImage(BufferedImage image) {
+        if (calibrating) {
+            return transformImageChained(image);
+        }
+        // Without transformations, only images that are not in one of the OpenCV compatible types need converting.
+        if (isTransformed()
+                || (image.getType() != BufferedImage.TYPE_3BYTE_BGR && image.getType() != BufferedImage.TYPE_BYTE_GRAY)) {
+            synchronized (transformLock) {
+                transformSource = OpenCvUtils.toMat(image, transformSource);
+                if (fusedTransform == null || !fusedTransform.isValidFor(transformSource)) {
+                    if (fusedTransform != null) {
+                        fusedTransform.release();
+                    }
+                    fusedTransform = new FusedTransform(transformSource);
+                }
+                image = OpenCvUtils.toBufferedImage(fusedTransform.apply(transformSource));
+            }
+        }
+        // save the new image dimensions
+        width = image.getWidth();
+        height = image.getHeight();
+        return image;
+    }
+
+    /**
+     * @return True if any transformation is set.
+     */
+    protected boolean isTransformed() {
+        return cropWidth != 0 || cropHeight != 0
+                || calibration.isEnabled()
+                || (scaleWidth != 0 && scaleHeight != 0)
+                || rotation != 0D
+                || offsetX != 0 || offsetY != 0
+                || deinterlace
+                || flipX || flipY;
+    }
+
+    /**
+     * Applies the local transformations to the image, one after the other. 
+     * 
+     * @param image
+     * @return
+     */
+    protected BufferedImage transformImageChained(BufferedImage image) {
         Mat mat = OpenCvUtils.toMat(image);
 
         mat = crop(mat);
@@ -484,6 +539,276 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
         return dst;
     }
 
+    /**
+     * The crop, undistortion, scale, rotation, offset, deinterlace and flip transformations, compiled into one
+     * remap. For each pixel of the transformed image, the map holds the location in the source image. It is
+     * computed by going back through the transformations, in reverse order. Like in the chained transformations, 
+     * locations that fall outside of any intermediate image are black. 
+     * 
+     * The map only depends on the source image size and type and on the camera settings. It is rebuilt when these
+     * change. The destination Mat is reused for every frame.
+     * 
+     * If only crop, scale and flip are set, these are cheaper to apply directly, as a sub-matrix, a resize and a flip,
+     * than any remap. 
+     */
+    private class FusedTransform {
+        // Marks a location outside of the source image. Remap fills it with the black border. 
+        static final float outside = -100f;
+
+        // The source and settings this was compiled for.
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int sourceType;
+        private final int cropWidth;
+        private final int cropHeight;
+        private final boolean undistort;
+        private final int scaleWidth;
+        private final int scaleHeight;
+        private final double rotation;
+        private final int offsetX;
+        private final int offsetY;
+        private final boolean deinterlace;
+        private final boolean flipX;
+        private final boolean flipY;
+
+        private Mat map1 = new Mat();
+        private Mat map2 = new Mat();
+        private Mat destination = new Mat();
+
+        // Direct application, when there is no remap.
+        private boolean direct;
+        private Rect cropRect;
+        private Size scaleSize;
+        private Mat scaled;
+
+        FusedTransform(Mat source) {
+            this.sourceWidth = source.cols();
+            this.sourceHeight = source.rows();
+            this.sourceType = source.type();
+            this.cropWidth = ReferenceCamera.this.cropWidth;
+            this.cropHeight = ReferenceCamera.this.cropHeight;
+            this.undistort = calibration.isEnabled();
+            this.scaleWidth = ReferenceCamera.this.scaleWidth;
+            this.scaleHeight = ReferenceCamera.this.scaleHeight;
+            this.rotation = ReferenceCamera.this.rotation;
+            this.offsetX = ReferenceCamera.this.offsetX;
+            this.offsetY = ReferenceCamera.this.offsetY;
+            this.deinterlace = ReferenceCamera.this.deinterlace;
+            this.flipX = ReferenceCamera.this.flipX;
+            this.flipY = ReferenceCamera.this.flipY;
+            compile();
+        }
+
+        boolean isValidFor(Mat source) {
+            return sourceWidth == source.cols()
+                    && sourceHeight == source.rows()
+                    && sourceType == source.type()
+                    && cropWidth == ReferenceCamera.this.cropWidth
+                    && cropHeight == ReferenceCamera.this.cropHeight
+                    && undistort == calibration.isEnabled()
+                    && scaleWidth == ReferenceCamera.this.scaleWidth
+                    && scaleHeight == ReferenceCamera.this.scaleHeight
+                    && rotation == ReferenceCamera.this.rotation
+                    && offsetX == ReferenceCamera.this.offsetX
+                    && offsetY == ReferenceCamera.this.offsetY
+                    && deinterlace == ReferenceCamera.this.deinterlace
+                    && flipX == ReferenceCamera.this.flipX
+                    && flipY == ReferenceCamera.this.flipY;
+        }
+
+        private void compile() {
+            // Crop, same as in crop().
+            int cw = (cropWidth != 0) ? cropWidth : sourceWidth;
+            int ch = (cropHeight != 0) ? cropHeight : sourceHeight;
+            int cropX = (int) ((sourceWidth / 2D) - (cw / 2));
+            int cropY = (int) ((sourceHeight / 2D) - (ch / 2));
+
+            direct = (!undistort && rotation == 0D && offsetX == 0 && offsetY == 0 && !deinterlace);
+            if (direct) {
+                cropRect = new Rect(cropX, cropY, cw, ch);
+                if (scaleWidth != 0 && scaleHeight != 0) {
+                    scaleSize = new Size(scaleWidth, scaleHeight);
+                    scaled = new Mat();
+                }
+                return;
+            }
+
+            // Undistortion.
+            float[] undistortX = null;
+            float[] undistortY = null;
+            if (undistort) {
+                if (undistortionMap1 != null && (undistortionMap1.cols() != cw || undistortionMap1.rows() != ch)) {
+                    clearUndistortionMaps();
+                }
+                if (undistortionMap1 == null || undistortionMap2 == null) {
+                    undistortionMap1 = new Mat();
+                    undistortionMap2 = new Mat();
+                    Mat rectification = Mat.eye(3, 3, CvType.CV_32F);
+                    Calib3d.initUndistortRectifyMap(calibration.getCameraMatrixMat(),
+                            calibration.getDistortionCoefficientsMat(), rectification,
+                            calibration.getCameraMatrixMat(), new Size(cw, ch), CvType.CV_32FC1, undistortionMap1,
+                            undistortionMap2);
+                    rectification.release();
+                }
+                undistortX = new float[cw*ch];
+                undistortY = new float[cw*ch];
+                undistortionMap1.get(0, 0, undistortX);
+                undistortionMap2.get(0, 0, undistortY);
+            }
+
+            // Scale.
+            int sw = cw;
+            int sh = ch;
+            if (scaleWidth != 0 && scaleHeight != 0) {
+                sw = scaleWidth;
+                sh = scaleHeight;
+            }
+
+            // Rotation, same as in rotate().
+            int rw = sw;
+            int rh = sh;
+            double[] inverse = null;
+            if (rotation != 0D) {
+                Point center = new Point(sw / 2D, sh / 2D);
+                Mat mapMatrix = Imgproc.getRotationMatrix2D(center, rotation, 1.0);
+                Rect bbox = new RotatedRect(center, new Size(sw, sh), rotation).boundingRect();
+                mapMatrix.put(0, 2, mapMatrix.get(0, 2)[0] + bbox.width / 2D - center.x);
+                mapMatrix.put(1, 2, mapMatrix.get(1, 2)[0] + bbox.height / 2D - center.y);
+                Mat inverseMatrix = new Mat();
+                Imgproc.invertAffineTransform(mapMatrix, inverseMatrix);
+                inverse = new double[6];
+                inverseMatrix.get(0, 0, inverse);
+                inverseMatrix.release();
+                mapMatrix.release();
+                rw = bbox.width;
+                rh = bbox.height;
+            }
+
+            // Offset, deinterlace and flip keep the size.
+            int width = rw;
+            int height = rh;
+            float[] mapX = new float[width*height];
+            float[] mapY = new float[width*height];
+            for (int v = 0; v < height; v++) {
+                for (int u = 0; u < width; u++) {
+                    // Flip.
+                    int fu = flipY ? width - 1 - u : u;
+                    int fv = flipX ? height - 1 - v : v;
+                    // Deinterlace.
+                    if (deinterlace) {
+                        fv = (fv % 2 == 0) ? fv / 2 : fv / 2 + height / 2;
+                    }
+                    // Offset.
+                    double x = fu - offsetX;
+                    double y = fv - offsetY;
+                    if (!isInside(x, y, rw, rh)) {
+                        setOutside(mapX, mapY, v*width + u);
+                        continue;
+                    }
+                    // Rotation.
+                    if (inverse != null) {
+                        double xr = inverse[0]*x + inverse[1]*y + inverse[2];
+                        double yr = inverse[3]*x + inverse[4]*y + inverse[5];
+                        x = xr;
+                        y = yr;
+                        if (!isInside(x, y, sw, sh)) {
+                            setOutside(mapX, mapY, v*width + u);
+                            continue;
+                        }
+                    }
+                    // Scale, like resize() with linear interpolation, i.e. with replicated border.
+                    if (sw != cw || sh != ch) {
+                        x = Math.min(Math.max((x + 0.5)*cw/sw - 0.5, 0), cw - 1);
+                        y = Math.min(Math.max((y + 0.5)*ch/sh - 0.5, 0), ch - 1);
+                    }
+                    // Undistortion, interpolating the undistortion map.
+                    if (undistortX != null) {
+                        double xc = Math.min(Math.max(x, 0), cw - 1);
+                        double yc = Math.min(Math.max(y, 0), ch - 1);
+                        int x0 = Math.min((int) xc, cw - 2);
+                        int y0 = Math.min((int) yc, ch - 2);
+                        double fx = xc - x0;
+                        double fy = yc - y0;
+                        int i00 = y0*cw + x0;
+                        int i10 = i00 + cw;
+                        x = (undistortX[i00]*(1 - fx) + undistortX[i00 + 1]*fx)*(1 - fy)
+                                + (undistortX[i10]*(1 - fx) + undistortX[i10 + 1]*fx)*fy;
+                        y = (undistortY[i00]*(1 - fx) + undistortY[i00 + 1]*fx)*(1 - fy)
+                                + (undistortY[i10]*(1 - fx) + undistortY[i10 + 1]*fx)*fy;
+                        if (!isInside(x, y, cw, ch)) {
+                            setOutside(mapX, mapY, v*width + u);
+                            continue;
+                        }
+                    }
+                    // Crop.
+                    mapX[v*width + u] = (float) (x + cropX);
+                    mapY[v*width + u] = (float) (y + cropY);
+                }
+            }
+            Mat floatMapX = new Mat(height, width, CvType.CV_32FC1);
+            Mat floatMapY = new Mat(height, width, CvType.CV_32FC1);
+            floatMapX.put(0, 0, mapX);
+            floatMapY.put(0, 0, mapY);
+            // The fixed point map is faster to remap.
+            Imgproc.convertMaps(floatMapX, floatMapY, map1, map2, CvType.CV_16SC2, false);
+            floatMapX.release();
+            floatMapY.release();
+        }
+
+        private boolean isInside(double x, double y, int width, int height) {
+            // With linear interpolation, a pixel within one pixel outside still gets a share of the image.
+            return x > -1 && y > -1 && x < width && y < height;
+        }
+
+        private void setOutside(float[] mapX, float[] mapY, int index) {
+            mapX[index] = outside;
+            mapY[index] = outside;
+        }
+
+        /**
+         * @param source
+         * @return The transformed image. The Mat is reused for the next frame.
+         */
+        Mat apply(Mat source) {
+            if (direct) {
+                Mat mat = source.submat(cropRect);
+                if (scaleSize != null) {
+                    Imgproc.resize(mat, scaled, scaleSize);
+                    mat.release();
+                    mat = scaled;
+                }
+                if (flipX || flipY) {
+                    int flipCode;
+                    if (flipX && flipY) {
+                        flipCode = -1;
+                    }
+                    else {
+                        flipCode = flipX ? 0 : 1;
+                    }
+                    Core.flip(mat, destination, flipCode);
+                }
+                else {
+                    mat.copyTo(destination);
+                }
+                if (mat != scaled) {
+                    mat.release();
+                }
+                return destination;
+            }
+            Imgproc.remap(source, destination, map1, map2, Imgproc.INTER_LINEAR);
+            return destination;
+        }
+
+        void release() {
+            map1.release();
+            map2.release();
+            destination.release();
+            if (scaled != null) {
+                scaled.release();
+            }
+        }
+    }
+
     private Mat calibrate(Mat mat) {
         if (!calibrating) {
             return mat;
@@ -527,6 +852,16 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
     }
 
     protected void clearCalibrationCache() {
+        synchronized (transformLock) {
+            if (fusedTransform != null) {
+                fusedTransform.release();
+                fusedTransform = null;
+            }
+            clearUndistortionMaps();
+        }
+    }
+
+    private void clearUndistortionMaps() {
         // Clear the calibration cache
         if (undistortionMap1 != null) {
             undistortionMap1.release();
@@ -34,6 +34,7 @@ import org.openpnp.spi.NozzleTip;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.AbstractNozzle;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.SimpleGraph;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -888,7 +889,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
         }
         else {
             // simple method, just dwell
-            Thread.sleep(milliseconds);
+            NanosecondTime.sleep(milliseconds);
         }
     }
 
@@ -922,7 +923,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
         }
         else {
             // simple method, just dwell
-            Thread.sleep(milliseconds);
+            NanosecondTime.sleep(milliseconds);
         }
     }
 
@@ -980,7 +981,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
             }
             else {
                 // simple method, just dwell 
-                Thread.sleep(probingMilliseconds);
+                NanosecondTime.sleep(probingMilliseconds);
                 if (dwellMilliseconds <= 0) {
                     returnedVacuumLevel = readVacuumLevel();
                 }
@@ -1018,7 +1019,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
         else {
             // simple method, just dwell and then read the level
             if (dwellMilliseconds > 0) {
-                Thread.sleep(dwellMilliseconds);
+                NanosecondTime.sleep(dwellMilliseconds);
                 returnedVacuumLevel = readVacuumLevel();
             }
             // return the vacuum level, either from before or after valve closed
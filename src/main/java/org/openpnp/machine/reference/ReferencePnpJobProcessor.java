@@ -25,6 +25,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -52,6 +53,7 @@ import org.openpnp.spi.PnpJobProcessor.JobPlacement.Status;
 import org.openpnp.spi.base.AbstractJobProcessor;
 import org.openpnp.spi.base.AbstractPnpJobProcessor;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.TravellingSalesman;
 import org.openpnp.util.Utils2D;
 import org.openpnp.util.VisionUtils;
@@ -71,12 +73,39 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         Part
     }
 
+    /**
+     * How to choose among several enabled feeders of the same part.
+     */
+    public enum FeederSelection {
+        /**
+         * The first feeder in the machine feeders list, until it is disabled or emptied. 
+         */
+        First,
+        /**
+         * The feeder with the pick location nearest to the nozzle.
+         */
+        Nearest,
+        /**
+         * Take turns, to even out the tape consumption.
+         */
+        RoundRobin
+    }
+
     @Attribute(required = false)
     protected JobOrderHint jobOrder = JobOrderHint.PartHeight;
 
+    @Attribute(required = false)
+    protected FeederSelection feederSelection = FeederSelection.First;
+
     @Attribute(required = false)
     protected int maxVisionRetries = 3;
 
+    /**
+     * Overlap the vision processing of the part alignment of one nozzle with the motion of the next.
+     */
+    @Attribute(required = false)
+    protected boolean pipelinedAlignment = false;
+
     @Element(required = false)
     public PnpJobPlanner planner = new SimplePnpJobPlanner();
 
@@ -89,9 +118,21 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     protected List<JobPlacement> jobPlacements = new ArrayList<>();
 
     private Step currentStep = null;
+
+    /**
+     * The number of picks per part, for FeederSelection.RoundRobin.
+     */
+    protected HashMap<Part, Integer> feederTurns = new HashMap<>();
+
+    /**
+     * Part alignments started ahead by the pipelined alignment, that are not yet completed.
+     */
+    protected HashMap<PlannedPlacement, PartAlignment.PendingAlignment> pendingAlignments = new HashMap<>();
     
     long startTime;
     int totalPartsPlaced;
+    double totalAlignTimeMs;
+    double totalAlignOverlappedTimeMs;
     
     public ReferencePnpJobProcessor() {
     }
@@ -121,6 +162,13 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         return currentStep != null;
     }
 
+    /**
+     * @return The step that the next call to next() will process, or null if the job is done.
+     */
+    synchronized Step getCurrentStep() {
+        return currentStep;
+    }
+
     public synchronized void abort() throws JobProcessorException {
         try {
             new Cleanup().step();
@@ -152,8 +200,12 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         public Step step() throws JobProcessorException {
             startTime = System.currentTimeMillis();
             totalPartsPlaced = 0;
+            totalAlignTimeMs = 0;
+            totalAlignOverlappedTimeMs = 0;
             
             jobPlacements.clear();
+            feederTurns.clear();
+            cancelPendingAlignments();
 
             // Create some shortcuts for things that won't change during the run
             machine = Configuration.get().getMachine();
@@ -304,19 +356,19 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             Machine machine = Configuration.get().getMachine();
             List<Feeder> feederVisitList = new ArrayList<>();
             List<Feeder> feederNoVisitList = new ArrayList<>();
-            // Get all the feeders that are used in the pending placements.
-            for (Feeder feeder : machine.getFeeders()) {
-                if (feeder.isEnabled() && feeder.getPart() != null) {
-                    for (JobPlacement placement : getPendingJobPlacements()) {
-                        if (placement.getPartId().equals(feeder.getPart().getId())) {
-                            if (feeder.getJobPreparationLocation() != null) {
-                                // only feeders with location added to the visit list
-                                feederVisitList.add(feeder);
-                            }
-                            // always also add them to the general (second pass) prep list
-                            feederNoVisitList.add(feeder);
-                        }
+            // Get all the feeders that are used in the pending placements, each one once.
+            Set<Part> parts = new LinkedHashSet<>();
+            for (JobPlacement placement : getPendingJobPlacements()) {
+                parts.add(placement.getPlacement().getPart());
+            }
+            for (Part part : parts) {
+                for (Feeder feeder : machine.getEnabledFeeders(part)) {
+                    if (feeder.getJobPreparationLocation() != null) {
+                        // only feeders with location added to the visit list
+                        feederVisitList.add(feeder);
                     }
+                    // always also add them to the general (second pass) prep list
+                    feederNoVisitList.add(feeder);
                 }
             }
             
@@ -576,7 +628,7 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                  * Find an available feeder. If one cannot be found this will throw. There's nothing
                  * else we can do with this part.
                  */
-                final Feeder feeder = findFeeder(machine, part);
+                final Feeder feeder = selectFeeder(part, nozzle);
                 
                 /**
                  * Run the placement starting script. An error here will throw. That's the user's
@@ -643,6 +695,23 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             throw lastException;
         }
         
+        /**
+         * Select one of the enabled feeders of the part, according to the feederSelection.
+         * 
+         * @param part
+         * @param nozzle
+         * @return
+         * @throws JobProcessorException If no enabled feeder is found.
+         */
+        private Feeder selectFeeder(Part part, Nozzle nozzle) throws JobProcessorException {
+            List<Feeder> feeders = findFeeders(machine, part);
+            int turn = feederTurns.getOrDefault(part, 0);
+            if (feederSelection == FeederSelection.RoundRobin) {
+                feederTurns.put(part, turn + 1);
+            }
+            return ReferencePnpJobProcessor.this.selectFeeder(feeders, nozzle.getLocation(), turn);
+        }
+
         private void feed(Feeder feeder, Nozzle nozzle) throws JobProcessorException {
             Exception lastException = null;
             for (int i = 0; i < 1 + feeder.getFeedRetryCount(); i++) {
@@ -740,13 +809,24 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     }
 
     protected class Align extends PlannedPlacementStep {
+        private long startTime;
+        private double overlappedTimeMs;
+
         public Align(List<PlannedPlacement> plannedPlacements) {
             super(plannedPlacements);
         }
 
         @Override
         public Step stepImpl(PlannedPlacement plannedPlacement) throws JobProcessorException {
+            if (startTime == 0) {
+                startTime = NanosecondTime.getRuntime();
+            }
             if (plannedPlacement == null) {
+                double alignTimeMs = (NanosecondTime.getRuntime() - startTime)*1e-6;
+                totalAlignTimeMs += alignTimeMs;
+                totalAlignOverlappedTimeMs += overlappedTimeMs;
+                Logger.debug("Align took {}ms, {}ms of vision processing overlapped with motion", 
+                        Math.round(alignTimeMs), Math.round(overlappedTimeMs));
                 return new Place(plannedPlacements);
             }
             
@@ -763,22 +843,99 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                 return this;
             }
 
-            align(plannedPlacement, partAlignment);
+            if (isPipelinedAlignment()) {
+                alignPipelined(plannedPlacement, partAlignment);
+            }
+            else {
+                align(plannedPlacement, partAlignment, ReferencePnpJobProcessor.this.getMaxVisionRetries(), null);
+            }
             
             checkPartOn(nozzle);
 
             return this;
         }
         
-        private void align(PlannedPlacement plannedPlacement, PartAlignment partAlignment) throws JobProcessorException {
+        /**
+         * Aligns the planned placement, but before waiting for its vision result, starts the alignment of the
+         * next one, so its motion overlaps with the vision processing. If the pipelined alignment fails, it is
+         * retried with align(), with the pipelined attempt counted as the first. 
+         */
+        private void alignPipelined(PlannedPlacement plannedPlacement, PartAlignment partAlignment) throws JobProcessorException {
+            final Part part = plannedPlacement.jobPlacement.getPlacement().getPart();
+            PartAlignment.PendingAlignment pendingAlignment = pendingAlignments.remove(plannedPlacement);
+            if (pendingAlignment == null) {
+                pendingAlignment = startAlignment(plannedPlacement, partAlignment);
+            }
+            PlannedPlacement next = getNextPlannedPlacement(plannedPlacement);
+            if (next != null && !pendingAlignments.containsKey(next)) {
+                PartAlignment nextPartAlignment = findPartAligner(machine, next.jobPlacement.getPlacement().getPart());
+                if (nextPartAlignment != null) {
+                    pendingAlignments.put(next, startAlignment(next, nextPartAlignment));
+                }
+            }
+            try {
+                plannedPlacement.alignmentOffsets = pendingAlignment.getOffsets();
+                overlappedTimeMs += pendingAlignment.getOverlappedTimeMs();
+                Logger.debug("Align {} with {}, offsets {}", part, plannedPlacement.nozzle, plannedPlacement.alignmentOffsets);
+                return;
+            }
+            catch (Exception e) {
+                Logger.warn("Pipelined alignment of {} failed: {}", part, e.getMessage());
+                align(plannedPlacement, partAlignment, ReferencePnpJobProcessor.this.getMaxVisionRetries() - 1, e);
+            }
+        }
+
+        /**
+         * Starts the alignment. If that fails, the failure is kept for when the result is needed.  
+         */
+        private PartAlignment.PendingAlignment startAlignment(PlannedPlacement plannedPlacement, 
+                PartAlignment partAlignment) {
+            final JobPlacement jobPlacement = plannedPlacement.jobPlacement;
+            final Placement placement = jobPlacement.getPlacement();
+            final Part part = placement.getPart();
+            fireTextStatus("Aligning %s for %s.", part.getId(), placement.getId());
+            try {
+                return VisionUtils.startPartAlignment(
+                        partAlignment,
+                        part,
+                        jobPlacement.getBoardLocation(),
+                        placement.getLocation(), plannedPlacement.nozzle);
+            }
+            catch (Exception e) {
+                return () -> {
+                    throw e;
+                };
+            }
+        }
+
+        private PlannedPlacement getNextPlannedPlacement(PlannedPlacement plannedPlacement) {
+            for (int i = plannedPlacements.indexOf(plannedPlacement) + 1; i < plannedPlacements.size(); i++) {
+                PlannedPlacement next = plannedPlacements.get(i);
+                if (next.jobPlacement.getStatus() == Status.Processing) {
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Aligns the planned placement, retrying up to maxAttempts times.
+         * 
+         * @param plannedPlacement
+         * @param partAlignment
+         * @param maxAttempts
+         * @param lastException The failure of a previous attempt, thrown if there are no more attempts, or null.
+         * @throws JobProcessorException
+         */
+        private void align(PlannedPlacement plannedPlacement, PartAlignment partAlignment, int maxAttempts, 
+                Exception lastException) throws JobProcessorException {
             final Nozzle nozzle = plannedPlacement.nozzle;
             final JobPlacement jobPlacement = plannedPlacement.jobPlacement;
             final Placement placement = jobPlacement.getPlacement();
             final BoardLocation boardLocation = jobPlacement.getBoardLocation();
             final Part part = placement.getPart();
 
-            Exception lastException = null;
-            for (int i = 0; i < ReferencePnpJobProcessor.this.getMaxVisionRetries(); i++) {
+            for (int i = 0; i < maxAttempts; i++) {
                 fireTextStatus("Aligning %s for %s.", part.getId(), placement.getId());
                 try {
                     plannedPlacement.alignmentOffsets = VisionUtils.findPartAlignmentOffsets(
@@ -1018,6 +1175,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     protected class Cleanup implements Step {
         public Step step() throws JobProcessorException {
             fireTextStatus("Cleaning up.");
+
+            cancelPendingAlignments();
             
             try {
                 // Safe Z the machine
@@ -1062,6 +1221,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
 
             Logger.info("Job finished {} parts in {} sec. This is {} CPH", totalPartsPlaced,
                     df.format(dtSec), df.format(totalPartsPlaced / (dtSec / 3600.0)));
+            Logger.info("Alignment took {} sec, {} sec of vision processing overlapped with motion",
+                    df.format(totalAlignTimeMs / 1000.0), df.format(totalAlignOverlappedTimeMs / 1000.0));
 
             try {
                 HashMap<String, Object> params = new HashMap<>();
@@ -1108,6 +1269,13 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         }
     }
     
+    protected void cancelPendingAlignments() {
+        for (PartAlignment.PendingAlignment pendingAlignment : pendingAlignments.values()) {
+            pendingAlignment.cancel();
+        }
+        pendingAlignments.clear();
+    }
+
     protected List<JobPlacement> getPendingJobPlacements() {
         return this.jobPlacements.stream().filter((jobPlacement) -> {
             return jobPlacement.getStatus() == Status.Pending;
@@ -1131,6 +1299,56 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         this.jobOrder = newJobOrder;
     }    
 
+    /**
+     * Select one of the given enabled feeders of a part, according to the feederSelection. This is also used by
+     * planners to predict the pick location.
+     * 
+     * @param feeders The enabled feeders of the part, not empty.
+     * @param location The location of the nozzle before the pick, for FeederSelection.Nearest.
+     * @param turn The number of picks of the part so far, for FeederSelection.RoundRobin.
+     * @return
+     */
+    public Feeder selectFeeder(List<Feeder> feeders, Location location, int turn) {
+        if (feeders.size() == 1 || feederSelection == FeederSelection.First) {
+            return feeders.get(0);
+        }
+        if (feederSelection == FeederSelection.RoundRobin) {
+            return feeders.get(turn % feeders.size());
+        }
+        // Nearest.
+        Feeder nearestFeeder = feeders.get(0);
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (Feeder feeder : feeders) {
+            try {
+                double distance = location.getLinearDistanceTo(feeder.getPickLocation());
+                if (distance < nearestDistance) {
+                    nearestFeeder = feeder;
+                    nearestDistance = distance;
+                }
+            }
+            catch (Exception e) {
+                Logger.warn(e);
+            }
+        }
+        return nearestFeeder;
+    }
+
+    /**
+     * @param part
+     * @return The number of picks of the part so far in the job, for FeederSelection.RoundRobin.
+     */
+    public int getFeederTurn(Part part) {
+        return feederTurns.getOrDefault(part, 0);
+    }
+
+    public FeederSelection getFeederSelection() {
+        return feederSelection;
+    }
+
+    public void setFeederSelection(FeederSelection feederSelection) {
+        this.feederSelection = feederSelection;
+    }
+
     public int getMaxVisionRetries() {
         return maxVisionRetries;
     }
@@ -1139,6 +1357,29 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         this.maxVisionRetries = maxVisionRetries;
     }
 
+    public boolean isPipelinedAlignment() {
+        return pipelinedAlignment;
+    }
+
+    public void setPipelinedAlignment(boolean pipelinedAlignment) {
+        this.pipelinedAlignment = pipelinedAlignment;
+    }
+
+    /**
+     * @return The total wall time of the alignment steps of the last job, in milliseconds.
+     */
+    public double getTotalAlignTimeMs() {
+        return totalAlignTimeMs;
+    }
+
+    /**
+     * @return The vision processing time of the last job that was overlapped with motion by the pipelined
+     * alignment, in milliseconds.
+     */
+    public double getTotalAlignOverlappedTimeMs() {
+        return totalAlignOverlappedTimeMs;
+    }
+
     protected abstract class PlannedPlacementStep implements Step {
         protected final List<PlannedPlacement> plannedPlacements;
         private Set<PlannedPlacement> completed = new HashSet<>();
@@ -1162,16 +1403,13 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         protected abstract Step stepImpl(PlannedPlacement plannedPlacement) throws JobProcessorException;
 
         /**
-         * Find the next uncompleted, non-errored PlannedPlacement and pass it to stepImpl. If stepImpl
-         * completes without error the PlannedPlacement is marked complete and control is returned
-         * to the caller.  
+         * Get the first planned placement from the list that is still in processing status
+         * and that is not marked completed, i.e. the one the next step() will process.
+         * 
+         * @return The planned placement, or null if there are no more to process.
          */
-        public Step step() throws JobProcessorException {
-            /**
-             * Get the first planned placement from the list that is still in processing status
-             * and that is not marked completed.
-             */
-            PlannedPlacement plannedPlacement = plannedPlacements
+        protected PlannedPlacement getCurrentPlannedPlacement() {
+            return plannedPlacements
                     .stream()
                     .filter(p -> {
                         return p.jobPlacement.getStatus() == Status.Processing;
@@ -1181,6 +1419,15 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
                     })
                     .findFirst()
                     .orElse(null);
+        }
+
+        /**
+         * Find the next uncompleted, non-errored PlannedPlacement and pass it to stepImpl. If stepImpl
+         * completes without error the PlannedPlacement is marked complete and control is returned
+         * to the caller.  
+         */
+        public Step step() throws JobProcessorException {
+            PlannedPlacement plannedPlacement = getCurrentPlannedPlacement();
             try {
                 Step result = stepImpl(plannedPlacement);
                 completed.add(plannedPlacement);
@@ -380,7 +380,7 @@ public class SimulationModeMachine extends ReferenceMachine {
         }
         if (realtime) {
             try {
-                Thread.sleep(500);
+                NanosecondTime.sleep(500);
             }
             catch (InterruptedException e) {
             }
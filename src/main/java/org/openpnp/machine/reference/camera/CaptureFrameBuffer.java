@@ -0,0 +1,147 @@
+package org.openpnp.machine.reference.camera;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small ring buffer holding the most recent frames of a camera, together with their capture time. It is written
+ * by a single frame grabber thread and can be read by any number of threads.
+ *
+ * Reading the latest frame is lock-free. Only a reader waiting for a frame that has not yet been captured blocks,
+ * and the grabber only takes the monitor, when there is such a waiting reader.
+ *
+ */
+public class CaptureFrameBuffer {
+    public static class Frame {
+        private final BufferedImage image;
+        private final long captureTime;
+        private final long sequence;
+
+        Frame(BufferedImage image, long captureTime, long sequence) {
+            this.image = image;
+            this.captureTime = captureTime;
+            this.sequence = sequence;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * @return The NanosecondTime.getRuntime() when the frame was captured.
+         */
+        public long getCaptureTime() {
+            return captureTime;
+        }
+
+        /**
+         * @return The running number of the frame, starting with 1.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    private final AtomicReferenceArray<Frame> frames;
+    private volatile long latestSequence = 0;
+    private final AtomicInteger waitingReaders = new AtomicInteger();
+
+    public CaptureFrameBuffer(int size) {
+        frames = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Adds a frame. Must only be called from the single grabber thread.
+     *
+     * @param image
+     * @param captureTime The NanosecondTime.getRuntime() when the frame was captured.
+     * @return The frame.
+     */
+    public Frame put(BufferedImage image, long captureTime) {
+        long sequence = latestSequence + 1;
+        Frame frame = new Frame(image, captureTime, sequence);
+        frames.set((int) (sequence % frames.length()), frame);
+        latestSequence = sequence;
+        if (waitingReaders.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return The latest frame, or null if none was captured yet.
+     */
+    public Frame getLatest() {
+        long sequence = latestSequence;
+        if (sequence == 0) {
+            return null;
+        }
+        return frames.get((int) (sequence % frames.length()));
+    }
+
+    /**
+     * @return The number of frames captured so far.
+     */
+    public long getFrameCount() {
+        return latestSequence;
+    }
+
+    /**
+     * @param time A NanosecondTime.getRuntime().
+     * @return The first buffered frame captured after the given time, or null if there is none.
+     */
+    public Frame getFirstFrameAfter(long time) {
+        Frame first = null;
+        long latest = latestSequence;
+        for (long sequence = latest; sequence > 0 && sequence > latest - frames.length(); sequence--) {
+            Frame frame = frames.get((int) (sequence % frames.length()));
+            if (frame == null || frame.getSequence() != sequence) {
+                // Already overwritten.
+                break;
+            }
+            if (frame.getCaptureTime() - time <= 0) {
+                break;
+            }
+            first = frame;
+        }
+        return first;
+    }
+
+    /**
+     * Waits for the first frame captured after the given time. The timeout is in real-time, regardless of the 
+     * virtual clock.
+     *
+     * @param time A NanosecondTime.getRuntime().
+     * @param timeoutMs
+     * @return The frame or null if none was captured within the timeout.
+     * @throws InterruptedException
+     */
+    public Frame waitForFrameAfter(long time, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            Frame frame = getFirstFrameAfter(time);
+            if (frame != null) {
+                return frame;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            waitingReaders.incrementAndGet();
+            try {
+                synchronized (this) {
+                    if (getFirstFrameAfter(time) == null) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+            }
+            finally {
+                waitingReaders.decrementAndGet();
+            }
+        }
+    }
+}
@@ -20,8 +20,13 @@
 package org.openpnp.machine.reference.camera;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openpnp.CameraListener;
 import org.openpnp.ConfigurationListener;
@@ -33,6 +38,7 @@ import org.openpnp.capture.OpenPnpCapture;
 import org.openpnp.capture.PropertyLimits;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.ReferenceCamera;
+import org.openpnp.machine.reference.camera.CaptureFrameBuffer.Frame;
 import org.openpnp.machine.reference.camera.wizards.OpenPnpCaptureCameraConfigurationWizard;
 import org.openpnp.model.AbstractModelObject;
 import org.openpnp.model.Configuration;
@@ -40,6 +46,7 @@ import org.openpnp.spi.Head;
 import org.openpnp.spi.Machine;
 import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.util.NanosecondTime;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
@@ -48,6 +55,22 @@ import org.simpleframework.xml.core.Commit;
 public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     private OpenPnpCapture capture = new OpenPnpCapture();
     private Thread thread;
+    private Thread grabberThread;
+    private volatile CaptureFrameBuffer frameBuffer;
+    private final AtomicLong lastBroadcastSequence = new AtomicLong();
+
+    // How often the grabber polls the stream for a new frame.
+    private static final long grabberPollMs = 2;
+    // How long a capture waits for a new frame. The timeout is only needed if the stream is somehow in error 
+    // and not producing frames (anymore) which can happen, if you disconnect the USB port and then try to 
+    // capture from a pipeline.
+    private static final long captureTimeoutMs = 500;
+
+    // Metrics, guarded by captureMetricsLock, so they don't contend with the camera monitor.
+    private final Object captureMetricsLock = new Object();
+    private long captureCount;
+    private long captureLatencyTotal;
+    private long captureLatencyMax;
 
     private CaptureDevice device;
     private CaptureFormat format;
@@ -62,6 +85,13 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     @Attribute(required = false)
     private double fps = 10.;
 
+    /**
+     * The time from the exposure of a frame until the stream has it available, subtracted from the frame time 
+     * stamp.
+     */
+    @Attribute(required = false)
+    private long exposureLatencyMs = 0;
+
     @Element(required = false)
     private CapturePropertyHolder backLightCompensation = new CapturePropertyHolder(CaptureProperty.BackLightCompensation);
 
@@ -156,61 +186,110 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     }
 
     @Override
-    public synchronized BufferedImage internalCapture() {
+    public BufferedImage internalCapture() {
+        return captureRawAfter(NanosecondTime.getRuntime());
+    }
+
+    /**
+     * Returns the first frame captured after the given time, so a caller can make sure that no frame is used,
+     * that was taken before the camera or its subject came to a standstill. The frame is taken from the grabber,
+     * so this does not contend with the preview.
+     * 
+     * @param time A NanosecondTime.getRuntime().
+     * @return The untransformed image, or null if the stream is not producing frames.
+     */
+    public BufferedImage captureRawAfter(long time) {
+        Frame frame = captureFrameAfter(time);
+        return frame == null ? null : frame.getImage();
+    }
+
+    /**
+     * Like captureRawAfter(long), but returns the frame with its capture time.
+     * 
+     * @param time A NanosecondTime.getRuntime().
+     * @return The frame, or null if the stream is not producing frames.
+     */
+    protected Frame captureFrameAfter(long time) {
         ensureOpen();
+        CaptureFrameBuffer frameBuffer = this.frameBuffer;
+        if (frameBuffer == null) {
+            return null;
+        }
         try {
-            /**
-             * The timeout is only needed if the stream is somehow in error and not producing frames (anymore) 
-             * which can happen, if you disconnect the USB port and then try to capture from a pipeline.  
-             */
-            long timeout = System.currentTimeMillis()+500;
-            while (!stream.hasNewFrame()) {
-                Thread.yield();
-                if (System.currentTimeMillis() > timeout) {
-                    return null;
-                }
+            long t0 = System.nanoTime();
+            Frame frame = frameBuffer.waitForFrameAfter(time, captureTimeoutMs);
+            if (frame == null) {
+                return null;
             }
-            BufferedImage img = stream.capture();
+            recordCaptureLatency(System.nanoTime() - t0);
             /**
-             * We don't ever want to "waste" an image. So even if the thread is running at a low
+             * We don't ever want to "waste" an image. So even if the preview thread is running at a low
              * frame rate, if we've been forced to capture an image we broadcast it.
              * 
-             * TODO Note that it would be better to do this in ReferenceCamera.capture(), but the
-             * other camera implementations still call internalCapture() from their thread, which
-             * would cause the image to broadcast twice. Eventually they should be refactored as
-             * this one was, to capture frames directly in the loop rather than calling
-             * internalCapture().
-             * 
-             * And further, note that the *reason* the thread doesn't call internalCapture() on
-             * this implementation is due to the hasNewFrame() busy loop up there. We don't want
-             * the thread busy looping and eating tons of CPU.
-             * 
-             * Also note that we have to transform here, since we're broadcasting the image
-             * directly. Most of the other implementations just call captureForPreview() which
-             * handles the transform, but because of the above we can't do that.
+             * Note that we have to transform here, since we're broadcasting the image
+             * directly. 
              */
-            broadcastCapture(transformImage(img));
-            return img;
+            broadcastFrame(frame);
+            return frame;
         }
-        catch (Exception e) {
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
     }
-    
+
+    /**
+     * Takes the settle frames from the continuous stream. The frames still in the buffer from 
+     * before the motion was complete are consumed too, so auto settling can overlap the end of the 
+     * motion, with the help of the motion planner telling which ones were taken mid-motion.
+     */
+    @Override
+    protected SettleFrame captureSettleFrame(long time) {
+        fireCaptureEvent("Camera.BeforeCapture");
+        Frame frame = captureFrameAfter(time);
+        fireCaptureEvent("Camera.AfterCapture");
+        if (frame == null) {
+            return super.captureSettleFrame(time);
+        }
+        return new SettleFrame(transformImage(frame.getImage()), frame.getCaptureTime());
+    }
+
+    /**
+     * Transforms and broadcasts the frame, unless it or a newer one was already broadcast. Without any
+     * transformation, the frame image is passed through as the same instance, which is also returned to the
+     * capture() caller. It is then copied, so the listeners cannot see each other's or the caller's changes.
+     * 
+     * @param frame
+     */
+    protected void broadcastFrame(Frame frame) {
+        if (lastBroadcastSequence.getAndAccumulate(frame.getSequence(), Math::max) < frame.getSequence()) {
+            BufferedImage image = transformImage(frame.getImage());
+            if (image == frame.getImage()) {
+                ColorModel colorModel = image.getColorModel();
+                image = new BufferedImage(colorModel, image.copyData(null), colorModel.isAlphaPremultiplied(), null);
+            }
+            broadcastCapture(image);
+        }
+    }
+
     @Override
     public synchronized void startContinuousCapture(CameraListener listener) {
         ensureOpen();
         super.startContinuousCapture(listener);
     }
 
+    /**
+     * The preview thread. It broadcasts the latest frame of the grabber at the set fps, or when notified, without
+     * ever blocking a capture.
+     */
     public void run() {
         while (!Thread.interrupted()) {
             try {
                 ensureOpen();
-                if (stream.hasNewFrame()) {
-                    BufferedImage img = stream.capture();
-                    img = transformImage(img);
-                    broadcastCapture(img);
+                CaptureFrameBuffer frameBuffer = this.frameBuffer;
+                Frame frame = (frameBuffer == null ? null : frameBuffer.getLatest());
+                if (frame != null) {
+                    broadcastFrame(frame);
                 }
             }
             catch (Exception e) {
@@ -231,7 +310,124 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
             }
         }
     }
-    
+
+    /**
+     * The grabber thread takes every frame from the stream as soon as it is available, and puts it into the 
+     * frame buffer, along with its capture time.
+     * 
+     * The stream has no blocking wait for the next frame, so it is polled every grabberPollMs. The exact exposure
+     * time of a frame is not known. The frame became available after the last poll that found none, and it was 
+     * exposed up to exposureLatencyMs before that. The frame is stamped with this earliest possible time, so it is 
+     * never taken as captured after a given time, when it could have been exposed before it. The stamp is therefore 
+     * up to grabberPollMs plus the actual latency too early, and a capture may wait for one more frame than needed.
+     * 
+     * @param stream
+     * @param frameBuffer
+     */
+    protected void grab(CaptureStream stream, CaptureFrameBuffer frameBuffer) {
+        long lastEmptyPollTime = NanosecondTime.getRuntime();
+        while (!Thread.interrupted()) {
+            try {
+                long pollTime = NanosecondTime.getRuntime();
+                if (stream.hasNewFrame()) {
+                    long t = lastEmptyPollTime - TimeUnit.MILLISECONDS.toNanos(exposureLatencyMs);
+                    BufferedImage img = stream.capture();
+                    if (img != null) {
+                        frameBuffer.put(img, t);
+                    }
+                }
+                else {
+                    lastEmptyPollTime = pollTime;
+                    Thread.sleep(grabberPollMs);
+                }
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            catch (Exception e) {
+                Logger.warn(e, "Camera {} failed to grab a frame.", getName());
+                try {
+                    Thread.sleep(captureTimeoutMs);
+                }
+                catch (InterruptedException e1) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void recordCaptureLatency(long latency) {
+        synchronized (captureMetricsLock) {
+            captureCount++;
+            captureLatencyTotal += latency;
+            captureLatencyMax = Math.max(captureLatencyMax, latency);
+        }
+    }
+
+    /**
+     * @return The number of frames grabbed from the stream since it was opened.
+     */
+    public long getGrabbedFrameCount() {
+        CaptureFrameBuffer frameBuffer = this.frameBuffer;
+        return frameBuffer == null ? 0 : frameBuffer.getFrameCount();
+    }
+
+    /**
+     * @return The CPU time consumed by the grabber thread in milliseconds, or null if not available.
+     */
+    public Double getGrabberCpuTimeMs() {
+        Thread grabberThread = this.grabberThread;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (grabberThread == null || !threadMXBean.isThreadCpuTimeSupported()) {
+            return null;
+        }
+        long cpuTime = threadMXBean.getThreadCpuTime(grabberThread.getId());
+        return cpuTime < 0 ? null : cpuTime*1e-6;
+    }
+
+    /**
+     * @return The number of captures since the last reset.
+     */
+    public long getCaptureCount() {
+        synchronized (captureMetricsLock) {
+            return captureCount;
+        }
+    }
+
+    /**
+     * @return The average time a capture waited for its frame, in milliseconds.
+     */
+    public double getCaptureLatencyAverageMs() {
+        synchronized (captureMetricsLock) {
+            return captureCount == 0 ? 0 : captureLatencyTotal*1e-6/captureCount;
+        }
+    }
+
+    /**
+     * @return The maximum time a capture waited for its frame, in milliseconds.
+     */
+    public double getCaptureLatencyMaxMs() {
+        synchronized (captureMetricsLock) {
+            return captureLatencyMax*1e-6;
+        }
+    }
+
+    public void resetCaptureMetrics() {
+        synchronized (captureMetricsLock) {
+            captureCount = 0;
+            captureLatencyTotal = 0;
+            captureLatencyMax = 0;
+        }
+    }
+
+    private void logCaptureMetrics() {
+        if (getGrabbedFrameCount() > 0) {
+            Logger.debug("Camera {} grabbed {} frames, grabber CPU time {} ms, {} captures, latency avg. {} ms, max. {} ms", 
+                    getName(), getGrabbedFrameCount(), getGrabberCpuTimeMs(), getCaptureCount(), 
+                    String.format("%.1f", getCaptureLatencyAverageMs()), String.format("%.1f", getCaptureLatencyMaxMs()));
+        }
+    }
+
     public synchronized void ensureOpen() {
         if (thread == null) {
             open();
@@ -239,16 +435,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     }
 
     public void open() {
-        if (thread != null) {
-            thread.interrupt();
-            try {
-                thread.join(3000);
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-            thread = null;
-        }
+        stopThreads();
 
         if (stream != null) {
             try {
@@ -259,6 +446,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
             }
         }
         stream = null;
+        frameBuffer = null;
         setPropertiesStream(stream);
 
         clearCalibrationCache();
@@ -313,6 +501,14 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
             e.printStackTrace();
             return;
         }
+        final CaptureStream grabberStream = stream;
+        final CaptureFrameBuffer grabberFrameBuffer = new CaptureFrameBuffer(4);
+        frameBuffer = grabberFrameBuffer;
+        lastBroadcastSequence.set(0);
+        resetCaptureMetrics();
+        grabberThread = new Thread(() -> grab(grabberStream, grabberFrameBuffer), getName()+" frame grabber");
+        grabberThread.setDaemon(true);
+        grabberThread.start();
         thread = new Thread(this);
         thread.setDaemon(true);
         thread.start();
@@ -320,37 +516,22 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
 
     public double estimateCaptureFps() throws Exception {
         ensureOpen();
-        if (stream == null || format == null) {
+        CaptureFrameBuffer frameBuffer = this.frameBuffer;
+        if (stream == null || format == null || frameBuffer == null) {
             throw new Exception("Camera stream not properly initialized."); 
         }
-        // Start warmup capture timer for 1 second.
-        boolean warmup = true;
-        long t0 = System.currentTimeMillis();
-        long timeout = t0 + 1000;
-        long t1 = 0;
-        int capturedFrames = 0;
-        for (int frames = 0; frames < 480; frames++) {
-            stream.capture();
-            while (!stream.hasNewFrame()) {
-            }
-            t1 = System.currentTimeMillis();
-            capturedFrames++;
-            if (t1 > timeout) {
-                if (warmup) {
-                    // Warmup complete. 
-                    warmup = false;
-                    // Start the real capture timer of 2 seconds.
-                    t0 = t1;
-                    timeout = t0 + 2000;
-                    capturedFrames = 0;
-                }
-                else {
-                    break;
-                }
-            }
+        // Warmup for 1 second.
+        Thread.sleep(1000);
+        // Count the frames grabbed in 2 seconds.
+        Frame frame0 = frameBuffer.getLatest();
+        Thread.sleep(2000);
+        Frame frame1 = frameBuffer.getLatest();
+        if (frame0 == null || frame1 == null || frame1.getSequence() == frame0.getSequence()) {
+            throw new Exception("Camera stream not producing frames."); 
         }
         // Compute the fps.
-        return capturedFrames*1000./(t1-t0);
+        return (frame1.getSequence() - frame0.getSequence())*1e9
+                /(frame1.getCaptureTime() - frame0.getCaptureTime());
     }
 
     private void setPropertiesStream(CaptureStream stream) {
@@ -373,6 +554,23 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
     public void close() throws IOException {
         super.close();
 
+        stopThreads();
+
+        if (stream != null) {
+            try {
+                stream.close();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        stream = null;
+        frameBuffer = null;
+
+        capture.close();
+    }
+
+    private void stopThreads() {
         if (thread != null) {
             thread.interrupt();
             try {
@@ -381,19 +579,19 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
             catch (Exception e) {
                 e.printStackTrace();
             }
+            thread = null;
         }
-
-        if (stream != null) {
+        if (grabberThread != null) {
+            logCaptureMetrics();
+            grabberThread.interrupt();
             try {
-                stream.close();
+                grabberThread.join(3000);
             }
             catch (Exception e) {
                 e.printStackTrace();
             }
+            grabberThread = null;
         }
-        stream = null;
-
-        capture.close();
     }
 
     @Override
@@ -441,6 +639,14 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
         firePropertyChange("format", null, format);
     }
 
+    public long getExposureLatencyMs() {
+        return exposureLatencyMs;
+    }
+
+    public void setExposureLatencyMs(long exposureLatencyMs) {
+        this.exposureLatencyMs = exposureLatencyMs;
+    }
+
     public double getFps() {
         return fps;
     }
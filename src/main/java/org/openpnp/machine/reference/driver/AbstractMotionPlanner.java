@@ -24,8 +24,6 @@ package org.openpnp.machine.reference.driver;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -45,6 +43,7 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Motion;
 import org.openpnp.model.Motion.MotionOption;
 import org.openpnp.model.Motion.MoveToCommand;
+import org.openpnp.model.MotionTimeline;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Axis;
 import org.openpnp.spi.Axis.Type;
@@ -59,6 +58,7 @@ import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.Utils2D;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.core.Commit;
 
 /**
  * The AbstractMotionPlanner does all the boring legwork for a typical MotionPlanner and provides the basis for 
@@ -80,14 +80,31 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
     @Attribute(required=false)
     private double maximumPlanHistory = 60; // s
 
+    @Attribute(required=false)
+    private int maximumPlanSize = 10000;
+
+    /**
+     * If > 0, the motion plan is streamed to the drivers in windows of at most this many motions. See 
+     * {@link #getStablePlanEnd(List, int)}.
+     */
+    @Attribute(required=false)
+    private int maximumLookAhead = 0;
+
     private ReferenceMachine machine;
 
     protected LinkedList<Motion> motionCommands = new LinkedList<>();
-    protected TreeMap<Double, Motion> motionPlan = new TreeMap<Double, Motion>();
+    protected MotionTimeline motionPlan = new MotionTimeline(maximumPlanSize, maximumPlanHistory);
 
     private AxesLocation lastDirectionalBacklashOffset = new AxesLocation();
     private List<Driver> lastPlannedDrivers = new ArrayList<Driver>(); 
 
+    private double lastPlanningIdleTime;
+
+    @Commit
+    public void commit() {
+        motionPlan = new MotionTimeline(maximumPlanSize, maximumPlanHistory);
+    }
+
     @Override
     public synchronized void home() throws Exception {
         // Reset lastDirectionalBacklashOffset (we don't actually know it after homing, but it will be known after the first move).
@@ -324,7 +341,9 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
     }
 
     /**
-     * Plan and then execute the pending motion commands. 
+     * Plan and then execute the pending motion commands. If a maximumLookAhead is set, the plan is cut into 
+     * windows, that are planned and then streamed to the drivers one by one, so the controller can already 
+     * execute the first motion, while the tail is still being planned. 
      * 
      * @param completionType
      * @throws Exception
@@ -335,43 +354,65 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
         }
 
         // Put the recorded motion commands into an execution plan. 
-        List<Motion> executionPlan = motionCommands;
+        List<Motion> executionPlan = new ArrayList<>(motionCommands);
 
         // The motion commands are reset.
         motionCommands = new LinkedList<>();
 
-        // Apply any optimization to the execution plan. This is where advanced MotionPlanner sub-classes will shine.
-        optimizeExecutionPlan(executionPlan, completionType);
+        // Instrumentation: the controller is idle from now, or from when the already running plan ends. 
+        double tIdle = Math.max(NanosecondTime.getRuntimeSeconds(), motionPlan.getSnapshot().getLastTime());
+        double tFirstMotion = Double.NaN;
 
-        // Now execute the plan against the drivers.
-        // We also record it into the real-time motionPlan to enable motion prediction and simulation. 
-        double t = NanosecondTime.getRuntimeSeconds();
-        if (motionPlan.isEmpty() == false && motionPlan.lastKey() > t) {
-            // Append to a plan that is still running. 
-            t = motionPlan.lastKey();
-        }
         ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
         List<Head> movedHeads = new ArrayList<>();
         boolean first = true;
-        for (Motion plannedMotion : executionPlan) {
-            if (!plannedMotion.hasOption(MotionOption.Stillstand)) {
-                // Put into timed plan.
-                double dt = plannedMotion.getTime();
-                // Note, all-virtual moves can have dt == 0.0, so we take a nano-second, to make sure a new Map entry is created 
-                // in the motionPlan.
-                t += Math.max(dt, 1e-9);  
-                plannedMotion.setPlannedTime1(t);
-                motionPlan.put(t, plannedMotion);
-                // Execute across drivers.
-                ReferenceHeadMountable  hm = (ReferenceHeadMountable) plannedMotion.getHeadMountable();
-                if (hm != null) {
-                    movedHeads.add(hm.getHead());
-                    if (executeMoveTo(machine, hm, plannedMotion, first)) {
-                        first = false;
+        int windows = 0;
+        for (int from = 0, to; from < executionPlan.size(); from = to) {
+            to = (maximumLookAhead > 0 ? 
+                    getStablePlanEnd(executionPlan, from) 
+                    : executionPlan.size());
+            List<Motion> windowPlan = executionPlan.subList(from, to);
+            windows++;
+
+            // Apply any optimization to the execution plan. This is where advanced MotionPlanner sub-classes will shine.
+            optimizeExecutionPlan(windowPlan, completionType);
+
+            // Now execute the plan against the drivers.
+            // We also record it into the real-time motionPlan to enable motion prediction and simulation. 
+            double t = NanosecondTime.getRuntimeSeconds();
+            double lastTime = motionPlan.getSnapshot().getLastTime();
+            if (lastTime > t) {
+                // Append to a plan that is still running. 
+                t = lastTime;
+            }
+            for (Motion plannedMotion : windowPlan) {
+                if (!plannedMotion.hasOption(MotionOption.Stillstand)) {
+                    // Put into timed plan.
+                    double dt = plannedMotion.getTime();
+                    // Note, all-virtual moves can have dt == 0.0, so we take a nano-second, to make sure a new entry is created 
+                    // in the motionPlan.
+                    t += Math.max(dt, 1e-9);  
+                    plannedMotion.setPlannedTime1(t);
+                    motionPlan.add(plannedMotion);
+                    // Execute across drivers.
+                    ReferenceHeadMountable  hm = (ReferenceHeadMountable) plannedMotion.getHeadMountable();
+                    if (hm != null) {
+                        movedHeads.add(hm.getHead());
+                        if (executeMoveTo(machine, hm, plannedMotion, first)) {
+                            if (first) {
+                                tFirstMotion = NanosecondTime.getRuntimeSeconds();
+                            }
+                            first = false;
+                        }
                     }
                 }
             }
         }
+        if (!Double.isNaN(tFirstMotion)) {
+            lastPlanningIdleTime = Math.max(0, tFirstMotion - tIdle);
+            Logger.debug("Motion plan of {} motions in {} window(s), controller idle for {} ms before first motion.", 
+                    executionPlan.size(), windows, String.format("%.3f", lastPlanningIdleTime*1000));
+        }
         // Publish recorded Diagnostics
         publishDiagnostics();
         // Notify heads.
@@ -379,6 +420,65 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
             machine.fireMachineHeadActivity(movedHead);
         }
     }
+
+    /**
+     * Find the end of the next window of the execution plan that can be planned and executed on its own, starting 
+     * at the given index. 
+     * 
+     * The window ends at the first junction, where the machine comes to a still-stand anyway, i.e. a corner between 
+     * two coordinated motions. The motion before such a junction is planned the same, regardless of what comes 
+     * after it. If no such junction is found within the maximumLookAhead, the window is cut there, and the machine 
+     * will come to a still-stand at that junction. 
+     * 
+     * @param executionPlan
+     * @param from
+     * @return The index after the last motion of the window.
+     */
+    protected int getStablePlanEnd(List<Motion> executionPlan, int from) {
+        int end = Math.min(executionPlan.size(), from + maximumLookAhead);
+        for (int i = from + 1; i < end; i++) {
+            if (isStillstandJunction(executionPlan.get(i - 1), executionPlan.get(i))) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @param motion0
+     * @param motion1
+     * @return True if the junction between the two motions is a still-stand in any planner, i.e. both are 
+     * coordinated motions and not co-linear.
+     */
+    protected boolean isStillstandJunction(Motion motion0, Motion motion1) {
+        if (motion0.hasOption(MotionOption.UncoordinatedMotion) 
+                || motion1.hasOption(MotionOption.UncoordinatedMotion)) {
+            return false;
+        }
+        AxesLocation segment0 = motion0.getLocation0().motionSegmentTo(motion0.getLocation1());
+        AxesLocation segment1 = motion1.getLocation0().motionSegmentTo(motion1.getLocation1());
+        double cosine = segment0.dotProduct(segment1)
+                /(segment0.getEuclideanMetric()*segment1.getEuclideanMetric());
+        // Note, empty segments result in NaN, which is treated as a junction. 
+        return !(cosine >= 1.0 - 1e-8);
+    }
+
+    /**
+     * @return The time in seconds the controller was left idle by the last planning, i.e. from the time the
+     * planning was requested or the previous motion ended, to when the first motion was sent to the drivers.  
+     */
+    public double getLastPlanningIdleTime() {
+        return lastPlanningIdleTime;
+    }
+
+    public int getMaximumLookAhead() {
+        return maximumLookAhead;
+    }
+
+    public void setMaximumLookAhead(int maximumLookAhead) {
+        this.maximumLookAhead = maximumLookAhead;
+    }
+
     /**
      * Subclasses must override this method to implement their advanced planning magic.
      * 
@@ -510,28 +610,31 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
         }
     }
 
+    /**
+     * Note, this does not block, so it can be polled from any thread while the motion planner is busy. 
+     */
     @Override
-    public synchronized Motion getMomentaryMotion(double time) {
-        Map.Entry<Double, Motion> entry1 = motionPlan.higherEntry(time);
-        if (entry1 != null) {
+    public Motion getMomentaryMotion(double time) {
+        MotionTimeline.Snapshot plan = motionPlan.getSnapshot();
+        Motion motion = plan.getMotionAt(time);
+        if (motion != null) {
             // Return the motion.
-            Motion motion = entry1.getValue();
             return motion;
         }
         else {
             // Plan empty or machine stopped before this time.  
-            entry1 = motionPlan.lastEntry();
+            Motion lastMotion = plan.getLastMotion();
             AxesLocation currentLocation; 
-            if (entry1 != null) {
+            if (lastMotion != null) {
                 // Machine stopped before this time, take the last exit location.
-                currentLocation = entry1.getValue().getLocation1();
+                currentLocation = lastMotion.getLocation1();
             }
             else {
                 // Nothing in the plan (yet), just get the current axes location.
                 currentLocation = new AxesLocation(getMachine());
             }
             // Mark it as Stillstand, so callers can wait for it. 
-            Motion motion = new Motion( 
+            motion = new Motion( 
                     null, 
                     currentLocation,
                     currentLocation,
@@ -543,6 +646,38 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
         }
     }
 
+    /**
+     * Predict where the given axis will be at the given real-time, as far as planned. 
+     * 
+     * @param axis
+     * @param time
+     * @return The planned momentary coordinate of the axis. If the plan does not know the axis, it was not moved
+     * and the current driver coordinate is returned.
+     */
+    public double getMomentaryCoordinate(ControllerAxis axis, double time) {
+        Motion motion = getMomentaryMotion(time);
+        double coordinate = motion.getMomentaryCoordinate(axis, time - motion.getPlannedTime0());
+        if (Double.isNaN(coordinate)) {
+            return axis.getDriverCoordinate();
+        }
+        return coordinate;
+    }
+
+    /**
+     * Predict where the machine axes will be at the given real-time, as far as planned. 
+     * 
+     * @param time
+     * @return The planned momentary location of the axes.
+     */
+    public AxesLocation getMomentaryLocation(double time) {
+        Motion motion = getMomentaryMotion(time);
+        return motion.getMomentaryLocation(time - motion.getPlannedTime0());
+    }
+
+    public MotionTimeline getMotionPlan() {
+        return motionPlan;
+    }
+
     @Override
     public void waitForCompletion(HeadMountable hm, CompletionType completionType)
             throws Exception {
@@ -627,10 +762,8 @@ public abstract class AbstractMotionPlanner extends AbstractModelObject implemen
     }
 
     @Override
-    public synchronized void clearMotionPlanOlderThan(double time) {
-        while (motionPlan.isEmpty() == false && motionPlan.firstKey() < time) {
-            motionPlan.remove(motionPlan.firstKey());
-        }
+    public void clearMotionPlanOlderThan(double time) {
+        motionPlan.clearOlderThan(time);
     }
 
     public boolean isInterpolationRetiming() {
@@ -21,9 +21,12 @@
 
 package org.openpnp.machine.reference.driver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -40,6 +43,7 @@ import org.openpnp.spi.Driver;
 import org.openpnp.spi.Machine;
 import org.openpnp.spi.MotionPlanner.CompletionType;
 import org.openpnp.util.Collect;
+import org.openpnp.util.NanosecondTime;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
 import org.pmw.tinylog.Logger;
@@ -94,6 +98,15 @@ import org.simpleframework.xml.stream.Style;
  * the background, fully parallel to continuous motion, the alarm status can be checked in the next 
  * JobProcessor step. 
  * 
+ * CHARACTER-COUNTING FLOW CONTROL:
+ * 
+ * Controllers such as GRBL or Smoothieware have a serial receive buffer of a known size and answer each and 
+ * every line with either an "ok" or an error. With character-counting flow control, the GcodeAsyncDriver keeps 
+ * track of the lines in flight and sends as many as fit into the receive buffer, batched into as few writes as 
+ * possible. Each received confirmation or error is matched back to the oldest line in flight, so errors can be 
+ * attributed to the command that caused them. If a line is not acknowledged in time, the count can no longer be 
+ * trusted. The driver then stops sending and fails, until it is reconnected. 
+ * 
  */
 public class GcodeAsyncDriver extends GcodeDriver {
 
@@ -112,6 +125,12 @@ public class GcodeAsyncDriver extends GcodeDriver {
     @Attribute(required=false)
     private boolean reportedLocationConfirmation = true;
 
+    @Attribute(required=false)
+    private boolean characterCountingFlowControl = false;
+
+    @Attribute(required=false)
+    private int controllerRxBufferSize = 127;
+
     @Attribute(required = false)
     private int interpolationMaxSteps = 32;
 
@@ -148,8 +167,38 @@ public class GcodeAsyncDriver extends GcodeDriver {
     }
     protected LinkedBlockingQueue<CommandLine> commandQueue;
 
+    /**
+     * A line sent in character-counting mode that was not yet acknowledged by the controller.
+     */
+    static class InFlightLine {
+        final CommandLine command;
+        final int bytes;
+        final double sendTime;
+        final long deadline;
+
+        InFlightLine(CommandLine command, int bytes, double sendTime, long deadline) {
+            this.command = command;
+            this.bytes = bytes;
+            this.sendTime = sendTime;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * The lines in flight, oldest first. Also used as the monitor to guard the in-flight state and the metrics. 
+     */
+    private final ArrayDeque<InFlightLine> inFlightLines = new ArrayDeque<>();
+    private int inFlightBytes;
+    private int maxInFlightLines;
+    private int maxInFlightBytes;
+    private long confirmedLines;
+    private long writes;
+    private double totalLineLatency;
+    private double maxLineLatency;
+
     private boolean waitedForCommands;
     private boolean confirmationComplete;
+    private volatile boolean synchronizationLost;
 
     public boolean isConfirmationFlowControl() {
         return confirmationFlowControl;
@@ -161,6 +210,103 @@ public class GcodeAsyncDriver extends GcodeDriver {
         firePropertyChange("confirmationFlowControl", oldValue, confirmationFlowControl);
     }
 
+    public boolean isCharacterCountingFlowControl() {
+        return characterCountingFlowControl;
+    }
+
+    public void setCharacterCountingFlowControl(boolean characterCountingFlowControl) {
+        Object oldValue = this.characterCountingFlowControl;
+        this.characterCountingFlowControl = characterCountingFlowControl;
+        firePropertyChange("characterCountingFlowControl", oldValue, characterCountingFlowControl);
+    }
+
+    public int getControllerRxBufferSize() {
+        return controllerRxBufferSize;
+    }
+
+    public void setControllerRxBufferSize(int controllerRxBufferSize) {
+        Object oldValue = this.controllerRxBufferSize;
+        this.controllerRxBufferSize = controllerRxBufferSize;
+        firePropertyChange("controllerRxBufferSize", oldValue, controllerRxBufferSize);
+    }
+
+    /**
+     * @return The number of lines currently in flight in character-counting mode.
+     */
+    public int getInFlightLines() {
+        synchronized (inFlightLines) {
+            return inFlightLines.size();
+        }
+    }
+
+    /**
+     * @return The number of bytes currently in flight in character-counting mode.
+     */
+    public int getInFlightBytes() {
+        synchronized (inFlightLines) {
+            return inFlightBytes;
+        }
+    }
+
+    public int getMaxInFlightLines() {
+        synchronized (inFlightLines) {
+            return maxInFlightLines;
+        }
+    }
+
+    public int getMaxInFlightBytes() {
+        synchronized (inFlightLines) {
+            return maxInFlightBytes;
+        }
+    }
+
+    /**
+     * @return The number of lines acknowledged by the controller in character-counting mode.
+     */
+    public long getConfirmedLines() {
+        synchronized (inFlightLines) {
+            return confirmedLines;
+        }
+    }
+
+    /**
+     * @return The average number of lines sent per write in character-counting mode.
+     */
+    public double getLinesPerWrite() {
+        synchronized (inFlightLines) {
+            return writes == 0 ? 0 : (double)(confirmedLines + inFlightLines.size())/writes;
+        }
+    }
+
+    /**
+     * @return The average time in seconds from sending a line to its acknowledgment in character-counting mode.
+     */
+    public double getAverageLineLatency() {
+        synchronized (inFlightLines) {
+            return confirmedLines == 0 ? 0 : totalLineLatency/confirmedLines;
+        }
+    }
+
+    /**
+     * @return The maximum time in seconds from sending a line to its acknowledgment in character-counting mode.
+     */
+    public double getMaxLineLatency() {
+        synchronized (inFlightLines) {
+            return maxLineLatency;
+        }
+    }
+
+    public void resetFlowControlMetrics() {
+        synchronized (inFlightLines) {
+            maxInFlightLines = inFlightLines.size();
+            maxInFlightBytes = inFlightBytes;
+            confirmedLines = 0;
+            writes = 0;
+            totalLineLatency = 0;
+            maxLineLatency = 0;
+        }
+    }
+
     public boolean isReportedLocationConfirmation() {
         return reportedLocationConfirmation;
     }
@@ -220,6 +366,9 @@ public class GcodeAsyncDriver extends GcodeDriver {
     protected void connectThreads() throws Exception {
         super.connectThreads();
         commandQueue = new LinkedBlockingQueue<>(maxCommandsQueued);
+        clearInFlightLines();
+        synchronizationLost = false;
+        resetFlowControlMetrics();
         writerThread = new WriterThread();
         writerThread.setDaemon(true);
         writerThread.start();
@@ -236,6 +385,13 @@ public class GcodeAsyncDriver extends GcodeDriver {
         catch (Exception e) {
             Logger.error("disconnect()", e);
         }
+        if (characterCountingFlowControl) {
+            Logger.debug("{} character-counting flow control: {} lines confirmed, {} lines/write, "
+                    + "max in flight {} lines/{} bytes, line latency avg {} ms, max {} ms.", 
+                    getName(), getConfirmedLines(), String.format("%.1f", getLinesPerWrite()),
+                    getMaxInFlightLines(), getMaxInFlightBytes(), 
+                    String.format("%.1f", getAverageLineLatency()*1000), String.format("%.1f", getMaxLineLatency()*1000));
+        }
 
         super.disconnectThreads();
     }
@@ -261,6 +417,10 @@ public class GcodeAsyncDriver extends GcodeDriver {
                     continue;
                 }
                 try {
+                    if (characterCountingFlowControl) {
+                        writeCharacterCounted(command, commandQueue);
+                        continue;
+                    }
                     if (confirmationFlowControl && lastCommand != null) {
                         try {
                             // Before we can send the new command, make sure the wanted confirmation count of the last command was received.
@@ -295,15 +455,190 @@ public class GcodeAsyncDriver extends GcodeDriver {
                     // the exception as an error response, it will be reported when the driver wants to do the next step. 
                     errorResponse = new Line(e.getMessage());
                     //Logger.error("[{}] {}", getCommunications().getConnectionName(), e);
+                    if (characterCountingFlowControl) {
+                        // The controller may still hold the lines in flight, and late confirmations would then 
+                        // acknowledge the wrong lines. Keep the count, so they are still matched, but stop sending. 
+                        // The count is only reset when reconnecting.
+                        Logger.error("[{}] character-counting flow control lost synchronization, {} lines in flight, "
+                                + "stopped sending: {}", getCommunications().getConnectionName(), getInFlightLines(), 
+                                e.getMessage());
+                        synchronizationLost = true;
+                        commandQueue.clear();
+                        return;
+                    }
                 }
             }
             Logger.trace("[{}] disconnectRequested, bye-bye.", getCommunications().getConnectionName());
         }
+
+        /**
+         * Send the command and any further commands already queued, as many as fit into the controller's 
+         * receive buffer, batched into one write. Blocks while the receive buffer is full.
+         * 
+         * @param command
+         * @param commandQueue
+         * @throws Exception
+         */
+        protected void writeCharacterCounted(CommandLine command, LinkedBlockingQueue<CommandLine> commandQueue) 
+                throws Exception {
+            byte[] lineEnding = getCommunications().getLineEndingType().getLineEnding().getBytes();
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            List<CommandLine> batchedCommands = new ArrayList<>();
+            while (command != null) {
+                if (command.line == null) {
+                    // Drain the lines in flight and confirm.
+                    writeBatch(batch, batchedCommands);
+                    waitForInFlightBytes(0);
+                    confirmationComplete = true;
+                    synchronized(GcodeAsyncDriver.this) {
+                        GcodeAsyncDriver.this.notify();
+                    }
+                    return;
+                }
+                if (isRealtimeCommand(command.line)) {
+                    // Not buffered nor confirmed by the controller, so it must not be counted.
+                    writeRealtime(command);
+                    command = commandQueue.poll();
+                    continue;
+                }
+                byte[] bytes = command.line.getBytes();
+                int size = bytes.length + lineEnding.length;
+                if (batch.size() > 0 && getInFlightBytes() + batch.size() + size > controllerRxBufferSize) {
+                    // Does not fit, send what we have.
+                    writeBatch(batch, batchedCommands);
+                }
+                if (batch.size() == 0) {
+                    // Wait until it fits. A line that is larger than the whole buffer is sent alone.
+                    waitForInFlightBytes(Math.max(0, controllerRxBufferSize - size));
+                }
+                batch.write(bytes);
+                batch.write(lineEnding);
+                batchedCommands.add(command);
+                // Batch what is already queued.
+                command = commandQueue.poll();
+            }
+            writeBatch(batch, batchedCommands);
+        }
+
+        /**
+         * Write a realtime command straight away, as the single character, without a line ending. 
+         * 
+         * @param command
+         * @throws IOException
+         */
+        private void writeRealtime(CommandLine command) throws IOException {
+            getCommunications().writeBytes(command.line.getBytes());
+            Logger.trace("[{}] >> {} (realtime)", getCommunications().getConnectionName(), command);
+        }
+
+        private void writeBatch(ByteArrayOutputStream batch, List<CommandLine> batchedCommands) throws IOException {
+            if (batch.size() == 0) {
+                return;
+            }
+            byte[] lineEnding = getCommunications().getLineEndingType().getLineEnding().getBytes();
+            double sendTime = NanosecondTime.getRuntimeSeconds();
+            long now = System.currentTimeMillis();
+            synchronized (inFlightLines) {
+                // Register before writing, so the confirmation can never overtake it.
+                for (CommandLine command : batchedCommands) {
+                    long timeout = (command.getTimeout() == -1 ? infinityTimeoutMilliseconds : command.getTimeout());
+                    InFlightLine inFlightLine = new InFlightLine(command, command.line.getBytes().length + lineEnding.length, 
+                            sendTime, now + timeout);
+                    inFlightLines.add(inFlightLine);
+                    inFlightBytes += inFlightLine.bytes;
+                }
+                maxInFlightLines = Math.max(maxInFlightLines, inFlightLines.size());
+                maxInFlightBytes = Math.max(maxInFlightBytes, inFlightBytes);
+                writes++;
+            }
+            // The counted confirmations are matched in processResponse(), the plain queue is not used.
+            receivedConfirmationsQueue.clear();
+            getCommunications().writeBytes(batch.toByteArray());
+            for (CommandLine command : batchedCommands) {
+                Logger.trace("[{}] >> {}", getCommunications().getConnectionName(), command);
+            }
+            batch.reset();
+            batchedCommands.clear();
+        }
+
+        /**
+         * Wait until the bytes in flight have dropped to the given number. 
+         * 
+         * @param bytes
+         * @throws Exception if the oldest line in flight is not acknowledged in time.
+         */
+        private void waitForInFlightBytes(int bytes) throws Exception {
+            synchronized (inFlightLines) {
+                while (inFlightBytes > bytes && !inFlightLines.isEmpty()) {
+                    InFlightLine oldest = inFlightLines.peek();
+                    long wait = oldest.deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new Exception(getCommunications().getConnectionName()+" timeout waiting for response to "
+                                +oldest.command);
+                    }
+                    inFlightLines.wait(wait);
+                }
+            }
+        }
+    }
+
+    /**
+     * A single character command, like the GRBL realtime status report query "?", feed hold "!" or cycle start "~", 
+     * is acted upon by the controller as soon as it is received. It does not go into the receive buffer and is not 
+     * confirmed, therefore it bypasses the character-counting flow control.
+     * 
+     * @param line
+     * @return
+     */
+    protected boolean isRealtimeCommand(String line) {
+        return line.length() == 1;
+    }
+
+    private void clearInFlightLines() {
+        synchronized (inFlightLines) {
+            inFlightLines.clear();
+            inFlightBytes = 0;
+            inFlightLines.notifyAll();
+        }
+    }
+
+    /**
+     * In character-counting mode, each confirmation or error acknowledges the oldest line in flight. 
+     */
+    @Override
+    protected void processResponse(Line line) {
+        super.processResponse(line);
+        if (characterCountingFlowControl) {
+            GcodeResponseClassifier classifier = getResponseClassifier();
+            boolean error = classifier.isError(line.getLine());
+            if (error || classifier.isConfirmation(line.getLine())) {
+                InFlightLine acknowledged;
+                synchronized (inFlightLines) {
+                    acknowledged = inFlightLines.poll();
+                    if (acknowledged != null) {
+                        inFlightBytes -= acknowledged.bytes;
+                        double latency = line.getTransmissionTime() - acknowledged.sendTime;
+                        confirmedLines++;
+                        totalLineLatency += latency;
+                        maxLineLatency = Math.max(maxLineLatency, latency);
+                        inFlightLines.notifyAll();
+                    }
+                }
+                if (error && acknowledged != null) {
+                    // Attribute the error to the command.
+                    errorResponse = new Line(line.getLine()+" (in response to "+acknowledged.command+")");
+                }
+            }
+        }
     }
 
     @Override
     protected void bailOnError() throws Exception {
         super.bailOnError();
+        if (synchronizationLost) {
+            throw new Exception(getCommunications().getConnectionName()+" lost synchronization with the controller, "
+                    + "it must be reconnected.");
+        }
         if (writerThread == null || ! writerThread.isAlive()) {
             throw new Exception(getCommunications().getConnectionName()+" IO Error on writing to the controller.");
         }
@@ -365,6 +700,10 @@ public class GcodeAsyncDriver extends GcodeDriver {
                     catch (InterruptedException e) {
                         Logger.warn(getName() +" was interrupted while waiting for completion.", e);
                     }
+                    if (!confirmationComplete) {
+                        // The writer may have stopped.
+                        bailOnError();
+                    }
                 }
             }
             Logger.trace("{} confirmation complete.", getName());
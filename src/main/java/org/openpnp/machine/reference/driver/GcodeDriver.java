@@ -1,8 +1,10 @@
 package org.openpnp.machine.reference.driver;
 
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,6 +34,7 @@ import org.openpnp.machine.reference.axis.ReferenceMappedAxis;
 import org.openpnp.machine.reference.driver.wizards.GcodeDriverConsole;
 import org.openpnp.machine.reference.driver.wizards.GcodeDriverGcodes;
 import org.openpnp.machine.reference.driver.wizards.GcodeDriverSettings;
+import org.openpnp.model.AbstractModelObject;
 import org.openpnp.model.AxesLocation;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
@@ -156,8 +159,14 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             setCommand(text);
         }
 
+        /**
+         * The compiled command text, created on first use and invalidated by setCommand().
+         */
+        private GcodeTemplate template;
+
         public void setCommand(String text) {
             this.commands.clear();
+            this.template = null;
             if (text != null) {
                 text = text.trim();
                 text = text.replaceAll("\r", "");
@@ -170,6 +179,15 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             return Joiner.on('\n').join(commands);
         }
 
+        public GcodeTemplate getTemplate() {
+            GcodeTemplate template = this.template;
+            if (template == null) {
+                template = new GcodeTemplate(getCommand());
+                this.template = template;
+            }
+            return template;
+        }
+
         private Command() {
 
         }
@@ -293,10 +311,34 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
     protected LinkedBlockingQueue<Line> receivedConfirmationsQueue = new LinkedBlockingQueue<>();
 
     protected Line errorResponse;
+
+    /**
+     * The compiled response classifier, created on first use and invalidated when commands are set, when the axes 
+     * change, or on connect.
+     */
+    private volatile GcodeResponseClassifier responseClassifier;
+    /**
+     * The machine the response classifier was created for and listens to. Weakly referenced, as a driver that was 
+     * not disconnected must not retain a replaced machine. 
+     */
+    private volatile WeakReference<Machine> responseClassifierMachine = new WeakReference<>(null);
+    /**
+     * Invalidates the response classifier when axes are added to, removed from or reordered on the machine, or 
+     * when an axis is assigned to a different driver or letter.
+     */
+    private final PropertyChangeListener axesListener = (e) -> {
+        responseClassifier = null;
+    };
     private boolean motionPending;
 
     private PrintWriter gcodeLogger;
 
+    /**
+     * Reused to render the MOVE_TO_COMMAND. Moves are only ever issued by the motion planner, one
+     * at a time.
+     */
+    private final StringBuilder moveToCommandBuilder = new StringBuilder(256);
+
     @Commit
     public void commit() {
         super.commit();
@@ -311,6 +353,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
 
     public void createDefaultCommands() {
         commands = new ArrayList<>();
+        responseClassifier = null;
         commands.add(new Command(null, CommandType.COMMAND_CONFIRM_REGEX, "^ok.*"));
         commands.add(new Command(null, CommandType.CONNECT_COMMAND, "G21 ; Set millimeters mode\nG90 ; Set absolute positioning mode\nM82 ; Set absolute mode for extruder"));
         commands.add(new Command(null, CommandType.HOME_COMMAND, "G28 ; Home all axes"));
@@ -353,6 +396,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
      * @throws Exception
      */
     protected void connectThreads() throws Exception {
+        responseClassifier = null;
         readerThread = new ReaderThread();
         readerThread.setDaemon(true);
         readerThread.start();
@@ -562,7 +606,21 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         return c.getCommand();
     }
 
+    /**
+     * @param hm
+     * @param type
+     * @return The compiled template of the command or null if no such command is configured.
+     */
+    public GcodeTemplate getCommandTemplate(HeadMountable hm, CommandType type) {
+        Command c = getCommand(hm, type, true);
+        if (c == null) {
+            return null;
+        }
+        return c.getTemplate();
+    }
+
     public void setCommand(HeadMountable hm, CommandType type, String text) {
+        responseClassifier = null;
         Command c = getCommand(hm, type, false);
         if (text == null || text.trim().length() == 0) {
             if (c != null) {
@@ -593,20 +651,21 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             movedAxesLocation.getLengthCoordinate(axis).convertToUnits(getUnits()).getValue() - axis.getDriverCoordinate()).third;
 
         // Start composing the command, will decide later, whether we actually send it.
-        String command = getCommand(hm, CommandType.MOVE_TO_COMMAND);
-        if (command == null) {
+        GcodeTemplate template = getCommandTemplate(hm, CommandType.MOVE_TO_COMMAND);
+        if (template == null) {
             return;
         }
-        if (hasVariable(command, "BacklashFeedRate")) {
+        if (template.hasVariable("BacklashFeedRate")) {
             throw new Exception(getName()+" configuration upgrade needed: Please remove the extra backlash compensation move from your MOVE_TO_COMMAND. "
                     +"Backlash compensation is now done outside of the drivers.");
         }
 
-        command = substituteVariable(command, "Id", hm.getId());
-        command = substituteVariable(command, "Name", hm.getName());
-        command = substituteVariable(command, "FeedRate", feedRate);
-        command = substituteVariable(command, "Acceleration", acceleration);
-        command = substituteVariable(command, "Jerk", jerk);
+        GcodeTemplate.Bindings command = template.newBindings();
+        command.set("Id", hm.getId());
+        command.set("Name", hm.getName());
+        command.set("FeedRate", feedRate);
+        command.set("Acceleration", acceleration);
+        command.set("Jerk", jerk);
 
         ReferenceMachine machine = (ReferenceMachine) hm.getHead().getMachine();
         // Get a map of the axes of ...
@@ -633,7 +692,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 // position change after all. 
                 // Note, there is no need for separate backlash compensation variables, as these are always 
                 // substituted alongside. 
-                if (hasVariable(command, variable+"F")) {
+                if (template.hasVariable(variable+"F")) {
                     // Force it! Must get it from the mappedAxes. If the mappedAxes do not have it, it is 
                     // still suppressed (this never happens when using letter variables). 
                     axis = mappedAxes.getAxisByVariable(this, variable);
@@ -654,15 +713,15 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 double previousCoordinate = axis.getDriverCoordinate(); 
                 int direction = ((Double)coordinate).compareTo(previousCoordinate);
                 // Substitute the axis variables.
-                command = substituteVariable(command, variable, coordinate);
-                command = substituteVariable(command, variable+"F", coordinate);
-                command = substituteVariable(command, variable+"L", axis.getLetter());
-                if (hasVariable(command, "BacklashOffset"+variable)) {
+                command.set(variable, coordinate);
+                command.set(variable+"F", coordinate);
+                command.set(variable+"L", axis.getLetter());
+                if (template.hasVariable("BacklashOffset"+variable)) {
                     throw new Exception(getName()+" configuration upgrade needed: Please remove the extra backlash compensation move from your MOVE_TO_COMMAND. "
                             +"Backlash compensation is now done outside of the drivers.");
                 }
-                command = substituteVariable(command, variable+"Decreasing", direction < 0 ? true : null);
-                command = substituteVariable(command, variable+"Increasing", direction > 0 ? true : null);
+                command.set(variable+"Decreasing", direction < 0 ? true : null);
+                command.set(variable+"Increasing", direction > 0 ? true : null);
                 if (isSupportingPreMove() && axis instanceof ReferenceControllerAxis) {
                     // Check for a pre-move command.
                     String preMoveCommand = ((ReferenceControllerAxis) axis).getPreMoveCommand();
@@ -674,27 +733,29 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                 // Axis specific jerk limits are needed on TinyG.
                 double axisDistance = coordinate - previousCoordinate;
                 double axisJerk = (jerk != null ? jerk : 0)*Math.abs(axisDistance)/driverDistance;
-                command = substituteVariable(command, variable+"Jerk", axisJerk > 1 ? axisJerk : null);
-                command = substituteVariable(command, variable+"JerkMupm3", axisJerk > 4.63 ? axisJerk*1e-6*Math.pow(60, 3) : null); // TinyG: Megaunits/min^3 
+                command.set(variable+"Jerk", axisJerk > 1 ? axisJerk : null);
+                command.set(variable+"JerkMupm3", axisJerk > 4.63 ? axisJerk*1e-6*Math.pow(60, 3) : null); // TinyG: Megaunits/min^3 
                 // Store the new driver coordinate on the axis.
                 axis.setDriverCoordinate(coordinate);
             }
             else {
                 // Delete the unused axis variables.
-                command = substituteVariable(command, variable, null);
-                command = substituteVariable(command, variable+"F", null);
-                command = substituteVariable(command, variable+"L", null); 
-                command = substituteVariable(command, "BacklashOffset"+variable, null);
-                command = substituteVariable(command, variable+"Decreasing", null);
-                command = substituteVariable(command, variable+"Increasing", null);
-                command = substituteVariable(command, variable+"Jerk", null);
-                command = substituteVariable(command, variable+"JerkMupm3", null);  
+                command.set(variable, null);
+                command.set(variable+"F", null);
+                command.set(variable+"L", null); 
+                command.set("BacklashOffset"+variable, null);
+                command.set(variable+"Decreasing", null);
+                command.set(variable+"Increasing", null);
+                command.set(variable+"Jerk", null);
+                command.set(variable+"JerkMupm3", null);  
             }
         }
         if (doesMove) {
-            // We do actually send the command.
+            // We do actually send the command, rendered in one pass. 
             motionPending = true;
-            sendGcode(command);
+            moveToCommandBuilder.setLength(0);
+            template.render(moveToCommandBuilder, command);
+            sendGcode(moveToCommandBuilder.toString());
         }
     }
 
@@ -1161,37 +1222,78 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
      * @param line
      */
     protected void processResponse(Line line) {
-        String regex = getCommand(null, CommandType.COMMAND_CONFIRM_REGEX);
-        if (regex != null && line.getLine().matches(regex)) {
+        GcodeResponseClassifier classifier = getResponseClassifier();
+        if (classifier.isConfirmation(line.getLine())) {
             receivedConfirmationsQueue.add(line);
         }
-        regex = getCommand(null, CommandType.COMMAND_ERROR_REGEX);
-        if (regex != null && line.getLine().matches(regex)) {
+        if (classifier.isError(line.getLine())) {
             errorResponse = line;
         }
         processPositionReport(line);
     }
 
-    protected boolean processPositionReport(Line line) {
-        String regex = getCommand(null, CommandType.POSITION_REPORT_REGEX); 
-        if (regex == null) {
-            return false;
+    /**
+     * @return The response classifier compiled from the current commands and axes. It is cached, i.e. only
+     * recompiled after it was invalidated. 
+     */
+    protected GcodeResponseClassifier getResponseClassifier() {
+        GcodeResponseClassifier classifier = responseClassifier;
+        ReferenceMachine machine = ((ReferenceMachine) Configuration.get().getMachine());
+        if (classifier == null || machine != responseClassifierMachine.get()) {
+            listenToAxes(machine);
+            classifier = new GcodeResponseClassifier(
+                    getCommand(null, CommandType.COMMAND_CONFIRM_REGEX),
+                    getCommand(null, CommandType.COMMAND_ERROR_REGEX),
+                    getCommand(null, CommandType.POSITION_REPORT_REGEX),
+                    new AxesLocation(machine).getAxes(this));
+            responseClassifier = classifier;
+        }
+        return classifier;
+    }
+
+    /**
+     * Makes sure the axesListener listens to the machine's axes, including those added since the last call.  
+     * 
+     * @param machine
+     */
+    protected void listenToAxes(ReferenceMachine machine) {
+        Machine previousMachine = responseClassifierMachine.get();
+        if (machine != previousMachine) {
+            if (previousMachine instanceof AbstractModelObject) {
+                ((AbstractModelObject) previousMachine).removePropertyChangeListener("axes", axesListener);
+            }
+            machine.addPropertyChangeListener("axes", axesListener);
+            responseClassifierMachine = new WeakReference<>(machine);
+        }
+        for (org.openpnp.spi.Axis axis : machine.getAxes()) {
+            if (axis instanceof ControllerAxis && axis instanceof AbstractModelObject) {
+                AbstractModelObject axisObject = (AbstractModelObject) axis;
+                // Remove first, so it is only added once. 
+                axisObject.removePropertyChangeListener("driver", axesListener);
+                axisObject.addPropertyChangeListener("driver", axesListener);
+                axisObject.removePropertyChangeListener("letter", axesListener);
+                axisObject.addPropertyChangeListener("letter", axesListener);
+            }
         }
+    }
 
-        if (!line.getLine().matches(regex)) {
+    protected boolean processPositionReport(Line line) {
+        GcodeResponseClassifier classifier = getResponseClassifier();
+        Matcher matcher = classifier.matchPositionReport(line.getLine());
+        if (matcher == null) {
             return false;
         }
 
         Logger.trace("Position report: {}", line);
-        ReferenceMachine machine = ((ReferenceMachine) Configuration.get().getMachine());
-        Matcher matcher =
-                Pattern.compile(regex).matcher(line.getLine());
-        matcher.matches();
         AxesLocation position = AxesLocation.zero;
-        for (ControllerAxis axis : new AxesLocation(machine).getAxes(this)) {
+        for (int i = 0; i < classifier.getAxisCount(); i++) {
+            ControllerAxis axis = classifier.getAxis(i);
             try {
-                String variable = axis.getLetter(); 
-                String s = matcher.group(variable);
+                String s = classifier.getAxisCoordinate(matcher, i);
+                if (s == null) {
+                    // Axis is not present in the report.
+                    continue;
+                }
                 Double d = Double.valueOf(s);
                 if (axis.getType() == Type.Rotation) {
                     // Rotation axis is not converted from driver units.
@@ -1201,10 +1303,6 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
                     position = position.put(new AxesLocation(axis, new Length(d, getUnits())));
                 }
             }
-            catch (IllegalArgumentException e) {
-                // Axis is not present in pattern. That's a warning, but might not be supported by controller, so we let it go. 
-                Logger.warn("Axis {} letter {} missing in POSITION_REPORT_REGEX groups.", axis.getName(), axis.getLetter());
-            }
             catch (Exception e) {
                 Logger.warn("Error processing position report for axis {}: {}", axis.getName(), e);
             }
@@ -1234,7 +1332,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
             return command;
         }
         StringBuffer sb = new StringBuffer();
-        Matcher matcher = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}").matcher(command);
+        Matcher matcher = GcodeTemplate.variablePattern.matcher(command);
         while (matcher.find()) {
             String n = matcher.group(1);
             if (!n.equals(name)) {
@@ -1261,7 +1359,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named {
         if (command == null) {
             return false;
         }
-        Matcher matcher = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}").matcher(command);
+        Matcher matcher = GcodeTemplate.variablePattern.matcher(command);
         while (matcher.find()) {
             String n = matcher.group(1);
             if (!n.equals(name)) {
@@ -0,0 +1,306 @@
+package org.openpnp.machine.reference.driver;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.ControllerAxis;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Classifies the lines received from the controller by the COMMAND_CONFIRM_REGEX, COMMAND_ERROR_REGEX and
+ * POSITION_REPORT_REGEX of a {@link GcodeDriver}.
+ *
+ * The regexes are compiled once. Each one is also analyzed for a literal prefix, that any matching line must
+ * start with, so most lines are rejected by a cheap String.startsWith() before any regex is run. For the
+ * position report, the named group index of each axis letter is resolved once.
+ *
+ * The classifier is immutable. The GcodeDriver creates a new one, when the commands or axes change.
+ *
+ */
+public class GcodeResponseClassifier {
+    /**
+     * A compiled response regex. Like String.matches(), the whole line must match.
+     */
+    public static class ResponsePattern {
+        private final Pattern pattern;
+        private final String prefix;
+        private final Map<String, Integer> namedGroups;
+
+        public ResponsePattern(String regex) {
+            this.pattern = Pattern.compile(regex);
+            this.prefix = literalPrefix(regex);
+            Map<String, Integer> namedGroups = new HashMap<>();
+            if (parseGroups(regex, namedGroups) != pattern.matcher("").groupCount()) {
+                // Our simple parser got it wrong, don't use the indices.
+                namedGroups = null;
+            }
+            this.namedGroups = namedGroups;
+        }
+
+        public boolean matches(String line) {
+            return line.startsWith(prefix) && pattern.matcher(line).matches();
+        }
+
+        /**
+         * @param line
+         * @return The matcher that matched the whole line, or null if not matched.
+         */
+        public Matcher match(String line) {
+            if (!line.startsWith(prefix)) {
+                return null;
+            }
+            Matcher matcher = pattern.matcher(line);
+            return matcher.matches() ? matcher : null;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return The literal text any matching line starts with, possibly empty.
+         */
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @param name
+         * @return The index of the named group, -1 if there is no such group, or null if the index is unknown.
+         */
+        public Integer getNamedGroup(String name) {
+            if (namedGroups == null) {
+                return null;
+            }
+            Integer group = namedGroups.get(name);
+            return group == null ? -1 : group;
+        }
+
+        /**
+         * Determine the literal text at the start of the regex, i.e. before any regex syntax. Alternatives on the top level
+         * make the prefix empty.
+         *
+         * @param regex
+         * @return
+         */
+        static String literalPrefix(String regex) {
+            if (hasTopLevelAlternative(regex)) {
+                return "";
+            }
+            int i = regex.startsWith("^") ? 1 : 0;
+            int begin = i;
+            while (i < regex.length() && "\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) < 0) {
+                i++;
+            }
+            int end = i;
+            if (end > begin && i < regex.length() && "?*{".indexOf(regex.charAt(i)) >= 0) {
+                // The last literal char is optional or repeated.
+                end--;
+            }
+            return regex.substring(begin, end);
+        }
+
+        private static boolean hasTopLevelAlternative(String regex) {
+            int depth = 0;
+            boolean inClass = false;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                }
+                else if (inClass) {
+                    if (c == ']') {
+                        inClass = false;
+                    }
+                }
+                else if (c == '[') {
+                    inClass = true;
+                }
+                else if (c == '(') {
+                    depth++;
+                }
+                else if (c == ')') {
+                    depth--;
+                }
+                else if (c == '|' && depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Java 8 has no API to get the index of a named group, so we parse the regex for capturing groups.
+         *
+         * @param regex
+         * @param namedGroups Receives the named group indices.
+         * @return The number of capturing groups, or -1 if the regex is too complex for our parser.
+         */
+        static int parseGroups(String regex, Map<String, Integer> namedGroups) {
+            if (regex.contains("\\Q")) {
+                return -1;
+            }
+            int group = 0;
+            boolean inClass = false;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                }
+                else if (inClass) {
+                    if (c == '[') {
+                        // Nested class.
+                        return -1;
+                    }
+                    if (c == ']') {
+                        inClass = false;
+                    }
+                }
+                else if (c == '[') {
+                    inClass = true;
+                    // A leading ']' is literal.
+                    if (regex.startsWith("^", i + 1)) {
+                        i++;
+                    }
+                    if (regex.startsWith("]", i + 1)) {
+                        i++;
+                    }
+                }
+                else if (c == '(') {
+                    if (!regex.startsWith("?", i + 1)) {
+                        group++;
+                    }
+                    else if (regex.startsWith("?<", i + 1)
+                            && !regex.startsWith("?<=", i + 1) && !regex.startsWith("?<!", i + 1)) {
+                        group++;
+                        int end = regex.indexOf('>', i);
+                        if (end < 0) {
+                            return -1;
+                        }
+                        namedGroups.put(regex.substring(i + 3, end), group);
+                    }
+                }
+            }
+            return group;
+        }
+    }
+
+    private final ResponsePattern confirmation;
+    private final ResponsePattern error;
+    private final ResponsePattern positionReport;
+    private final ControllerAxis[] axes;
+    private final String[] axisLetters;
+    private final int[] axisGroups;
+
+    /**
+     * @param confirmationRegex
+     * @param errorRegex
+     * @param positionReportRegex
+     * @param axes The axes of the driver, whose letters are the position report group names.
+     */
+    public GcodeResponseClassifier(String confirmationRegex, String errorRegex, String positionReportRegex,
+            Collection<ControllerAxis> axes) {
+        this.confirmation = (confirmationRegex == null ? null : new ResponsePattern(confirmationRegex));
+        this.error = (errorRegex == null ? null : new ResponsePattern(errorRegex));
+        this.positionReport = (positionReportRegex == null ? null : new ResponsePattern(positionReportRegex));
+        this.axes = axes.toArray(new ControllerAxis[axes.size()]);
+        this.axisLetters = new String[this.axes.length];
+        this.axisGroups = new int[this.axes.length];
+        for (int i = 0; i < this.axes.length; i++) {
+            ControllerAxis axis = this.axes[i];
+            axisLetters[i] = axis.getLetter();
+            axisGroups[i] = -1;
+            if (positionReport != null && axis.getLetter() != null) {
+                Integer group = positionReport.getNamedGroup(axis.getLetter());
+                if (group == null) {
+                    // Unknown, resolve by name.
+                    axisGroups[i] = 0;
+                }
+                else if (group < 0) {
+                    // Axis is not present in pattern. That's a warning, but might not be supported by controller, so we let it go.
+                    Logger.warn("Axis {} letter {} missing in POSITION_REPORT_REGEX groups.", axis.getName(), axis.getLetter());
+                }
+                else {
+                    axisGroups[i] = group;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the axes of the classifier against the current axes of the driver on the machine, i.e. the same as
+     * new AxesLocation(machine).getAxes(driver), but without creating them. Axes added to or removed from the
+     * machine or the driver, reordered, or with a changed letter invalidate the classifier.
+     *
+     * @param machine
+     * @param driver
+     * @return True if the axes of the classifier are still the same as those of the driver.
+     */
+    public boolean isValidFor(Machine machine, Driver driver) {
+        int i = 0;
+        for (Axis axis : machine.getAxes()) {
+            if (axis instanceof ControllerAxis && ((ControllerAxis) axis).getDriver() == driver) {
+                if (i >= axes.length
+                        || axes[i] != axis
+                        || !Objects.equals(axisLetters[i], axes[i].getLetter())) {
+                    return false;
+                }
+                i++;
+            }
+        }
+        return i == axes.length;
+    }
+
+    public boolean isConfirmation(String line) {
+        return confirmation != null && confirmation.matches(line);
+    }
+
+    public boolean isError(String line) {
+        return error != null && error.matches(line);
+    }
+
+    /**
+     * @param line
+     * @return The matcher of the position report, or null if the line is not a position report.
+     */
+    public Matcher matchPositionReport(String line) {
+        return positionReport == null ? null : positionReport.match(line);
+    }
+
+    public int getAxisCount() {
+        return axes.length;
+    }
+
+    public ControllerAxis getAxis(int index) {
+        return axes[index];
+    }
+
+    /**
+     * @param matcher
+     * @param index
+     * @return The coordinate text of the axis with the given index from a matched position report, or null if
+     * the axis is not reported.
+     */
+    public String getAxisCoordinate(Matcher matcher, int index) {
+        int group = axisGroups[index];
+        if (group < 0) {
+            return null;
+        }
+        if (group == 0) {
+            try {
+                return matcher.group(axisLetters[index]);
+            }
+            catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return matcher.group(group);
+    }
+}
@@ -0,0 +1,270 @@
+package org.openpnp.machine.reference.driver;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Gcode command text, compiled once into a list of literal text fragments and variable slots
+ * in the format {Name:Format}.
+ *
+ * The template is rendered in one pass with a set of {@link Bindings}. It yields the same result
+ * as applying {@link GcodeDriver#substituteVariable(String, String, Object)} for each bound
+ * variable, i.e. a variable bound to null is replaced with "", whereas an unbound variable is
+ * left in the text, as is.
+ *
+ */
+public class GcodeTemplate {
+    static final Pattern variablePattern = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}");
+
+    private final String text;
+    /**
+     * The literal text fragments, one more than there are slots.
+     */
+    private final String[] literals;
+    private final Slot[] slots;
+    /**
+     * Distinct variable names to binding index.
+     */
+    private final HashMap<String, Integer> variableIndex = new HashMap<>();
+
+    private static class Slot {
+        final int index;
+        final String source;
+        final FormatSpec format;
+
+        Slot(int index, String source, FormatSpec format) {
+            this.index = index;
+            this.source = source;
+            this.format = format;
+        }
+    }
+
+    /**
+     * A format given as prefix + %conversion + suffix, pre-analyzed for the most common
+     * conversions so that we don't need to go through String.format() on every substitution.
+     * Anything else falls back to String.format().
+     */
+    private static class FormatSpec {
+        enum Kind {
+            Plain,
+            Decimal,
+            Whole,
+            Generic
+        }
+
+        final String format;
+        final Kind kind;
+        final String prefix;
+        final String suffix;
+        final int precision;
+
+        FormatSpec(String format) {
+            this.format = format;
+            Kind kind = Kind.Generic;
+            String prefix = null;
+            String suffix = null;
+            int precision = 0;
+            int pos = format.indexOf('%');
+            if (pos >= 0 && format.indexOf('%', pos + 1) < 0) {
+                // Exactly one conversion.
+                prefix = format.substring(0, pos);
+                int end = pos + 1;
+                if (format.startsWith("s", end)) {
+                    kind = Kind.Plain;
+                    end++;
+                }
+                else if (format.startsWith("d", end)) {
+                    kind = Kind.Whole;
+                    end++;
+                }
+                else if (format.startsWith(".", end)) {
+                    int digits = end + 1;
+                    while (digits < format.length() && Character.isDigit(format.charAt(digits))) {
+                        digits++;
+                    }
+                    if (digits > end + 1 && digits - end <= 3
+                            && format.startsWith("f", digits)) {
+                        kind = Kind.Decimal;
+                        precision = Integer.parseInt(format.substring(end + 1, digits));
+                        end = digits + 1;
+                    }
+                }
+                suffix = format.substring(end);
+            }
+            this.kind = kind;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.precision = precision;
+        }
+
+        void append(StringBuilder sb, Object value) {
+            switch (kind) {
+                case Plain:
+                    sb.append(prefix).append(value).append(suffix);
+                    return;
+                case Whole:
+                    if (value instanceof Integer || value instanceof Long) {
+                        sb.append(prefix).append(value).append(suffix);
+                        return;
+                    }
+                    break;
+                case Decimal:
+                    if (value instanceof Double) {
+                        double d = (Double) value;
+                        if (!(Double.isNaN(d) || Double.isInfinite(d))) {
+                            sb.append(prefix);
+                            appendDecimal(sb, d, precision);
+                            sb.append(suffix);
+                            return;
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            sb.append(String.format((Locale) null, format, value));
+        }
+
+        /**
+         * Appends the same as String.format((Locale) null, "%.nf", d) would yield, i.e. rounding
+         * HALF_UP on the shortest decimal representation of the double, and retaining the sign of
+         * negative values that round to zero.
+         */
+        static void appendDecimal(StringBuilder sb, double d, int precision) {
+            String s = new BigDecimal(Double.toString(d))
+                    .setScale(precision, RoundingMode.HALF_UP)
+                    .toPlainString();
+            if ((Double.doubleToRawLongBits(d) < 0) && s.charAt(0) != '-') {
+                sb.append('-');
+            }
+            sb.append(s);
+        }
+    }
+
+    /**
+     * The variable values to be substituted in one rendering of the template. Variables that are
+     * not present in the template are silently ignored, so the same code can be used to render
+     * any user configured command text.
+     */
+    public class Bindings {
+        private final Object[] values = new Object[variableIndex.size()];
+        private final boolean[] bound = new boolean[variableIndex.size()];
+
+        public Bindings set(String name, Object value) {
+            Integer index = variableIndex.get(name);
+            if (index != null) {
+                values[index] = value;
+                bound[index] = true;
+            }
+            return this;
+        }
+
+        public void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(bound, false);
+        }
+
+        public GcodeTemplate getTemplate() {
+            return GcodeTemplate.this;
+        }
+    }
+
+    public GcodeTemplate(String text) {
+        this.text = text;
+        List<String> literals = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+        if (text != null) {
+            Matcher matcher = variablePattern.matcher(text);
+            int last = 0;
+            while (matcher.find()) {
+                literals.add(text.substring(last, matcher.start()));
+                String name = matcher.group(1);
+                String format = matcher.group(2);
+                Integer index = variableIndex.get(name);
+                if (index == null) {
+                    index = variableIndex.size();
+                    variableIndex.put(name, index);
+                }
+                slots.add(new Slot(index, matcher.group(),
+                        new FormatSpec(format == null ? "%s" : format)));
+                last = matcher.end();
+            }
+            literals.add(text.substring(last));
+        }
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.slots = slots.toArray(new Slot[slots.size()]);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @param name
+     * @return True if the template contains the variable {Name:Format}.
+     */
+    public boolean hasVariable(String name) {
+        return variableIndex.containsKey(name);
+    }
+
+    public Bindings newBindings() {
+        return new Bindings();
+    }
+
+    /**
+     * Render the template with the given bindings, appending to the StringBuilder.
+     *
+     * @param sb
+     * @param bindings
+     */
+    public void render(StringBuilder sb, Bindings bindings) {
+        if (text == null) {
+            return;
+        }
+        if (bindings.getTemplate() != this) {
+            throw new IllegalArgumentException("Bindings belong to a different template.");
+        }
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(literals[i]);
+            Slot slot = slots[i];
+            if (!bindings.bound[slot.index]) {
+                // Unbound variables are left in the text.
+                sb.append(slot.source);
+            }
+            else {
+                Object value = bindings.values[slot.index];
+                if (value != null) {
+                    slot.format.append(sb, value);
+                }
+            }
+        }
+        sb.append(literals[slots.length]);
+    }
+
+    /**
+     * Render the template with the given bindings.
+     *
+     * @param bindings
+     * @return The rendered text or null if the template text is null.
+     */
+    public String render(Bindings bindings) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        render(sb, bindings);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -57,6 +57,12 @@ import org.simpleframework.xml.Element;
  */
 public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
 
+    /**
+     * The time range of the motion graph, in seconds. Only the most recent data points are kept, so the graph stays 
+     * bounded, even when recording a long continuous motion sequence.
+     */
+    public static final double MOTION_GRAPH_RETENTION = 60.0;
+
     @Attribute(required = false)
     private boolean allowContinuousMotion = false;
     @Attribute(required = false)
@@ -65,6 +71,8 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     private boolean diagnosticsEnabled = false;
     @Attribute(required = false)
     private boolean interpolationRetiming = true;
+    @Attribute(required = false)
+    private boolean parallelSolving = false;
 
     @Attribute(required = false)
     private boolean showApproximation = true;
@@ -141,6 +149,14 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
         this.interpolationRetiming = interpolationRetiming;
     }
 
+    public boolean isParallelSolving() {
+        return parallelSolving;
+    }
+
+    public void setParallelSolving(boolean parallelSolving) {
+        this.parallelSolving = parallelSolving;
+    }
+
     public boolean isDiagnosticsEnabled() {
         return diagnosticsEnabled;
     }
@@ -323,21 +339,26 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     }
 
     protected class PlannerPath extends AbstractMotionPath {
-        private final List<Motion> executionPlan;
+        private final MotionProfile[][] profiles;
 
         public PlannerPath(List<Motion> executionPlan) {
             super();
-            this.executionPlan = executionPlan;
+            // The execution plan may be a linked list, so take an indexed copy. 
+            this.profiles = new MotionProfile[executionPlan.size()][];
+            int i = 0;
+            for (Motion motion : executionPlan) {
+                profiles[i++] = motion.getAxesProfiles();
+            }
         }
 
         @Override
         public int size() {
-            return executionPlan.size();
+            return profiles.length;
         }
 
         @Override
         public MotionProfile[] get(int i) {
-            return executionPlan.get(i).getAxesProfiles();
+            return profiles[i];
         }
     }
 
@@ -363,6 +384,7 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
     protected void optimizeExecutionPlan(List<Motion> executionPlan,
             CompletionType completionType) throws Exception {
         PlannerPath path = new PlannerPath(executionPlan);
+        path.setParallelSolving(parallelSolving);
         path.solve();
     }
 
@@ -381,24 +403,29 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
                 SimpleGraph.DataRow jRow = motionGraph.getRow(axis.getName()+" j", "j");
                 jRow.setDisplayCycleMask(0x2);
                 jRow.setColor(new Color(0xDD, 0xBB, 0x00)); 
+                jRow.setRetention(MOTION_GRAPH_RETENTION);
 
                 SimpleGraph.DataScale aScale =  motionGraph.getScale(axis.getName()+" a");
                 aScale.setSymmetricIfSigned(true);
                 SimpleGraph.DataRow aRow = motionGraph.getRow(axis.getName()+" a", "a");
                 aRow.setDisplayCycleMask(0x2);
                 aRow.setColor(new Color(0xFF, 0x00, 0x00)); 
+                aRow.setRetention(MOTION_GRAPH_RETENTION);
                 aRow = motionGraph.getRow(axis.getName()+" a", "a'");
                 aRow.setDisplayCycleMask(0x1);
                 aRow.setColor(new Color(0xFF, 0x00, 0x00, alphaBlend)); 
+                aRow.setRetention(MOTION_GRAPH_RETENTION);
 
                 SimpleGraph.DataScale vScale =  motionGraph.getScale(axis.getName()+" V");
                 vScale.setSymmetricIfSigned(true);
                 SimpleGraph.DataRow vRow = motionGraph.getRow(axis.getName()+" V", "V");
                 vRow.setDisplayCycleMask(0x2);
                 vRow.setColor(new Color(00, 0x5B, 0xD9)); // the OpenPNP blue
+                vRow.setRetention(MOTION_GRAPH_RETENTION);
                 vRow = motionGraph.getRow(axis.getName()+" V", "V'");
                 vRow.setDisplayCycleMask(0x1);
                 vRow.setColor(new Color(00, 0x5B, 0xD9, alphaBlend)); 
+                vRow.setRetention(MOTION_GRAPH_RETENTION);
 
                 SimpleGraph.DataScale sScale =  motionGraph.getScale(axis.getName());
                 sScale.setColor(new Color(0, 0, 0, 64));
@@ -407,9 +434,11 @@ public class ReferenceAdvancedMotionPlanner extends AbstractMotionPlanner {
                 SimpleGraph.DataRow sRow = motionGraph.getRow(axis.getName(), "s");
                 sRow.setDisplayCycleMask(0x2);
                 sRow.setColor(new Color(00, 0x77, 0x00)); 
+                sRow.setRetention(MOTION_GRAPH_RETENTION);
                 sRow = motionGraph.getRow(axis.getName(), "s'");
                 sRow.setDisplayCycleMask(0x1);
                 sRow.setColor(new Color(00, 0x77, 0x00, alphaBlend));
+                sRow.setRetention(MOTION_GRAPH_RETENTION);
             }
         }
         motionGraph.getT();
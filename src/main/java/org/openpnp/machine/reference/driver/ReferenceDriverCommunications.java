@@ -20,6 +20,8 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.TimeoutException;
 
 import org.simpleframework.xml.Attribute;
@@ -57,11 +59,87 @@ public abstract class ReferenceDriverCommunications {
 
     abstract public void writeBytes(byte[] data) throws IOException;
 
-    abstract public int read() throws TimeoutException, IOException;
+    /**
+     * Read the received bytes into the given array. Blocks for the default timeout until at least one byte is 
+     * available, but does not wait for more bytes than are already available. If the read times out a 
+     * TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     * 
+     * @param data
+     * @param offset
+     * @param length
+     * @return The number of bytes read or -1 if the end of the stream has been reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    abstract protected int readBytes(byte[] data, int offset, int length) throws TimeoutException, IOException;
+
+    /**
+     * The received bytes are read in bulk into this buffer and then consumed from receiveBegin to receiveEnd. 
+     */
+    private final byte[] receiveBuffer = new byte[4096];
+    private int receiveBegin;
+    private int receiveEnd;
+
+    /**
+     * The bytes of a line that spans multiple reads, reused.
+     */
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength;
+
+    private String delimiters;
+    private boolean[] delimiterTable;
+
+    /**
+     * Discard any received bytes that were not yet consumed. Must be called when (re-)connecting.
+     */
+    protected void clearReceiveBuffer() {
+        receiveBegin = 0;
+        receiveEnd = 0;
+        lineLength = 0;
+    }
+
+    /**
+     * Make sure there are received bytes in the buffer. 
+     * 
+     * @return false if the end of the stream has been reached. 
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    private boolean fillReceiveBuffer() throws TimeoutException, IOException {
+        if (receiveBegin < receiveEnd) {
+            return true;
+        }
+        receiveBegin = 0;
+        receiveEnd = 0;
+        int l = readBytes(receiveBuffer, 0, receiveBuffer.length);
+        if (l == -1) {
+            return false;
+        }
+        receiveEnd = l;
+        return true;
+    }
+
+    /**
+     * Read one byte from the input stream. Blocks for the default timeout. If the read times out a
+     * TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     * 
+     * @return The byte as an int in the range 0 to 255, or -1 if the end of the stream has been reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public int read() throws TimeoutException, IOException {
+        if (!fillReceiveBuffer()) {
+            return -1;
+        }
+        return receiveBuffer[receiveBegin++] & 0xff;
+    }
 
     /**
      * Read a line from the input stream. Blocks for the default timeout. If the read times out a
      * TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     * 
+     * Any of the line ending characters ends a line, so responses are split correctly regardless of the 
+     * {@link LineEndingType} the controller uses. Empty lines are skipped. 
      *
      * @return
      * @throws TimeoutException
@@ -78,7 +156,8 @@ public abstract class ReferenceDriverCommunications {
 
     /**
      * Read the input stream until one of the characters is found. Blocks for the default timeout. If the read times out
-     * a TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     * a TimeoutException is thrown. Any other failure to read results in an IOExeption; A partial line received 
+     * before the timeout is kept and continued on the next call. 
      *
      * @param characters list of ending characters
      * @return
@@ -86,21 +165,63 @@ public abstract class ReferenceDriverCommunications {
      * @throws IOException
      */
     public String readUntil(String characters) throws TimeoutException, IOException {
-        StringBuffer line = new StringBuffer();
+        boolean[] delimiterTable = getDelimiterTable(characters);
         while (true) {
-            int ch = read();
-            if (ch == -1) {
+            if (!fillReceiveBuffer()) {
+                lineLength = 0;
                 return null;
             }
-            else if (characters.indexOf((char)ch) >= 0) {
-                if (line.length() > 0) {
-                    return line.toString();
+            // Scan the buffered bytes for the end of the line.
+            byte[] buffer = receiveBuffer;
+            int begin = receiveBegin;
+            int end = receiveEnd;
+            int i = begin;
+            while (i < end && !delimiterTable[buffer[i] & 0xff]) {
+                i++;
+            }
+            if (i == end) {
+                // No line end yet, keep the partial line.
+                appendLine(buffer, begin, end - begin);
+                receiveBegin = end;
+                continue;
+            }
+            // Consume the delimiter.
+            receiveBegin = i + 1;
+            String line;
+            if (lineLength == 0) {
+                if (i == begin) {
+                    // Empty line.
+                    continue;
                 }
+                line = new String(buffer, begin, i - begin, StandardCharsets.ISO_8859_1);
             }
             else {
-                line.append((char) ch);
+                appendLine(buffer, begin, i - begin);
+                line = new String(lineBuffer, 0, lineLength, StandardCharsets.ISO_8859_1);
+                lineLength = 0;
+            }
+            return line;
+        }
+    }
+
+    private void appendLine(byte[] data, int offset, int length) {
+        if (lineLength + length > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length*2, lineLength + length));
+        }
+        System.arraycopy(data, offset, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
+
+    private boolean[] getDelimiterTable(String characters) {
+        if (!characters.equals(delimiters)) {
+            boolean[] table = new boolean[256];
+            for (int i = 0; i < characters.length(); i++) {
+                table[characters.charAt(i) & 0xff] = true;
             }
+            delimiterTable = table;
+            delimiters = characters;
         }
+        return delimiterTable;
     }
 
     public void write(int d) throws IOException {
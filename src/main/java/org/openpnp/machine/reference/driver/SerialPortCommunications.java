@@ -111,6 +111,7 @@ public class SerialPortCommunications extends ReferenceDriverCommunications {
         }
         serialPort.setComPortTimeouts(
                 SerialPort.TIMEOUT_READ_SEMI_BLOCKING | SerialPort.TIMEOUT_WRITE_BLOCKING, 500, 0);
+        clearReceiveBuffer();
     }
 
     public synchronized void disconnect() throws Exception {
@@ -136,16 +137,17 @@ public class SerialPortCommunications extends ReferenceDriverCommunications {
         return portNames.toArray(new String[] {});
     }
 
-    public int read() throws TimeoutException, IOException {
-        byte[] b = new byte[1];
-        int l = serialPort.readBytes(b, 1);
+    @Override
+    protected int readBytes(byte[] data, int offset, int length) throws TimeoutException, IOException {
+        // In semi-blocking mode, this returns as soon as any bytes are available.
+        int l = serialPort.readBytes(data, length, offset);
         if (l == -1) {
             throw new IOException("Read error.");
         }
         if (l == 0) {
             throw new TimeoutException("Read timeout.");
         }
-        return b[0];
+        return l;
     }
 
     public void writeBytes(byte[] data) throws IOException {
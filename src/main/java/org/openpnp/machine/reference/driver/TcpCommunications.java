@@ -1,9 +1,8 @@
 package org.openpnp.machine.reference.driver;
 
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.concurrent.TimeoutException;
@@ -28,7 +27,7 @@ public class TcpCommunications extends ReferenceDriverCommunications {
 
 
     protected Socket clientSocket;
-    protected BufferedReader input;
+    protected InputStream input;
     protected DataOutputStream output;
     protected GcodeServer gcodeServer;
     protected AbstractReferenceDriver driver;
@@ -44,8 +43,9 @@ public class TcpCommunications extends ReferenceDriverCommunications {
         else {
             clientSocket = new Socket(ipAddress,port);
         }
-        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        input = clientSocket.getInputStream();
         output = new DataOutputStream(clientSocket.getOutputStream());
+        clearReceiveBuffer();
     }
 
     public synchronized void disconnect() throws Exception {
@@ -65,9 +65,10 @@ public class TcpCommunications extends ReferenceDriverCommunications {
         return "tcp://" + ipAddress + ":" + port;
     }
 
-    public int read() throws TimeoutException, IOException {
+    @Override
+    protected int readBytes(byte[] data, int offset, int length) throws TimeoutException, IOException {
         try {
-            return input.read();
+            return input.read(data, offset, length);
         }
         catch (IOException ex) {
             if (ex.getCause() instanceof SocketTimeoutException) {
@@ -33,6 +33,8 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
     private JTextField junctionDeviation;
     private JTextField interpolationJerkSteps;
     private JCheckBox reportedLocationConfirmation;
+    private JCheckBox characterCountingFlowControl;
+    private JTextField controllerRxBufferSize;
 
     public GcodeAsyncDriverSettings(GcodeAsyncDriver driver) {
         this.driver = driver;
@@ -50,6 +52,10 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
                 FormSpecs.RELATED_GAP_COLSPEC,
                 FormSpecs.DEFAULT_COLSPEC,},
             new RowSpec[] {
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
@@ -156,6 +162,21 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
         });
         settingsPanel.add(reportedLocationConfirmation, "4, 4");
 
+        JLabel lblCharacterCounting = new JLabel("Character Counting?");
+        lblCharacterCounting.setToolTipText("<html>\r\n<p>Send as many commands as fit into the controller's receive buffer, and count the<br/>\r\n\"ok\"s (or errors) to know how much of the buffer is free again. Takes precedence<br/>\r\nover Confirmation Flow Control.</p>\r\n<p>This requires a controller that answers each and every line with either a confirmation<br/>\r\nor an error, such as GRBL or Smoothieware.</p>\r\n</html>");
+        settingsPanel.add(lblCharacterCounting, "2, 6, right, default");
+
+        characterCountingFlowControl = new JCheckBox("");
+        settingsPanel.add(characterCountingFlowControl, "4, 6");
+
+        JLabel lblControllerRxBufferSize = new JLabel("Receive Buffer Size [Bytes]");
+        lblControllerRxBufferSize.setToolTipText("<html>\r\nThe size of the controller's serial receive buffer, used for Character Counting.<br/>\r\nPlease consult the controller's documentation. GRBL has 128 bytes, use one less to be safe.\r\n</html>");
+        settingsPanel.add(lblControllerRxBufferSize, "2, 8, right, default");
+
+        controllerRxBufferSize = new JTextField();
+        settingsPanel.add(controllerRxBufferSize, "4, 8, fill, default");
+        controllerRxBufferSize.setColumns(10);
+
     }
 
     @Override
@@ -167,12 +188,15 @@ public class GcodeAsyncDriverSettings extends AbstractConfigurationWizard {
 
         addWrappedBinding(driver, "confirmationFlowControl", confirmationFlowControl, "selected");
         addWrappedBinding(driver, "reportedLocationConfirmation", reportedLocationConfirmation, "selected");
+        addWrappedBinding(driver, "characterCountingFlowControl", characterCountingFlowControl, "selected");
+        addWrappedBinding(driver, "controllerRxBufferSize", controllerRxBufferSize, "text", intConverter);
         addWrappedBinding(driver, "interpolationMaxSteps", interpolationMaxSteps, "text", intConverter);
         addWrappedBinding(driver, "interpolationJerkSteps", interpolationJerkSteps, "text", intConverter);
         addWrappedBinding(driver, "interpolationTimeStep", interpolationTimeStep, "text", doubleConverterFine);
         addWrappedBinding(driver, "interpolationMinStep", interpolationMinStep, "text", intConverter);
         addWrappedBinding(driver, "junctionDeviation", junctionDeviation, "text", lengthConverter);
 
+        ComponentDecorators.decorateWithAutoSelect(controllerRxBufferSize);
         ComponentDecorators.decorateWithAutoSelect(interpolationMaxSteps);
         ComponentDecorators.decorateWithAutoSelect(interpolationJerkSteps);
         ComponentDecorators.decorateWithAutoSelect(interpolationTimeStep);
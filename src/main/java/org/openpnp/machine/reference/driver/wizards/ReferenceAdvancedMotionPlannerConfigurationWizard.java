@@ -38,6 +38,7 @@ import org.openpnp.gui.components.LocationButtonsPanel;
 import org.openpnp.gui.support.AbstractConfigurationWizard;
 import org.openpnp.gui.support.ActuatorsComboBoxModel;
 import org.openpnp.gui.support.DoubleConverter;
+import org.openpnp.gui.support.IntegerConverter;
 import org.openpnp.gui.support.LengthConverter;
 import org.openpnp.gui.support.MutableLocationProxy;
 import org.openpnp.machine.reference.driver.ReferenceAdvancedMotionPlanner;
@@ -105,6 +106,10 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
     private JTextField textFieldEndRotation;
     private JLabel lblRetime;
     private JCheckBox interpolationRetiming;
+    private JLabel lblParallelSolving;
+    private JCheckBox parallelSolving;
+    private JLabel lblMaximumLookAhead;
+    private JTextField maximumLookAhead;
     private JPanel panel_1;
     private JCheckBox startLocationEnabled;
     private JCheckBox mid1LocationEnabled;
@@ -155,6 +160,10 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
                         FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.PREF_ROWSPEC,
                         FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,}));
 
         JLabel lblContinuousMotion = new JLabel("Allow continous motion?");
@@ -178,6 +187,21 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
         interpolationRetiming = new JCheckBox("");
         panelSettings.add(interpolationRetiming, "4, 6, right, top");
 
+        lblParallelSolving = new JLabel("Parallel Solving?");
+        lblParallelSolving.setToolTipText("<html>\r\nSolve the independent moves and axes of the motion path in parallel,<br/>\r\nusing multiple processor cores. This reduces the planning latency on long<br/>\r\nuncoordinated motion sequences. The planned motion is the same.\r\n</html>");
+        panelSettings.add(lblParallelSolving, "2, 8, right, default");
+
+        parallelSolving = new JCheckBox("");
+        panelSettings.add(parallelSolving, "4, 8");
+
+        lblMaximumLookAhead = new JLabel("Maximum Look-ahead");
+        lblMaximumLookAhead.setToolTipText("<html>\r\nIf set > 0, long motion sequences are planned in windows of at most this many moves.<br/>\r\nEach window is sent to the controller as soon as it is planned, so the machine already<br/>\r\nmoves while the rest is still being planned. Windows end where the machine comes to a<br/>\r\nstill-stand anyway, otherwise a still-stand is forced at the end of the window.<br/>\r\nSet to 0 to plan the whole sequence at once.\r\n</html>");
+        panelSettings.add(lblMaximumLookAhead, "2, 10, right, default");
+
+        maximumLookAhead = new JTextField();
+        panelSettings.add(maximumLookAhead, "4, 10, fill, default");
+        maximumLookAhead.setColumns(10);
+
         panel = new JPanel();
         panel.setBorder(new TitledBorder(UIManager.getBorder("TitledBorder.border"), "Test Motion", TitledBorder.LEADING, TitledBorder.TOP, null, new Color(0, 0, 0)));
         contentPanel.add(panel);
@@ -425,10 +449,13 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
     public void createBindings() {
         LengthConverter lengthConverter = new LengthConverter();
         DoubleConverter doubleConverter = new DoubleConverter(Configuration.get().getLengthDisplayFormat());
+        IntegerConverter intConverter = new IntegerConverter();
 
         addWrappedBinding(motionPlanner, "allowContinuousMotion", allowContinuousMotion, "selected");
         addWrappedBinding(motionPlanner, "allowUncoordinated", allowUncoordinated, "selected");
         addWrappedBinding(motionPlanner, "interpolationRetiming", interpolationRetiming, "selected");
+        addWrappedBinding(motionPlanner, "parallelSolving", parallelSolving, "selected");
+        addWrappedBinding(motionPlanner, "maximumLookAhead", maximumLookAhead, "text", intConverter);
 
         addWrappedBinding(motionPlanner, "startLocationEnabled", startLocationEnabled, "selected");
         addWrappedBinding(motionPlanner, "mid1LocationEnabled", mid1LocationEnabled, "selected");
@@ -495,6 +522,8 @@ public class ReferenceAdvancedMotionPlannerConfigurationWizard extends AbstractC
         addWrappedBinding(endLocation, "rotation", textFieldEndRotation, "text",
                 doubleConverter);
 
+        ComponentDecorators.decorateWithAutoSelect(maximumLookAhead);
+
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(textFieldStartX);
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(textFieldStartY);
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(textFieldStartZ);
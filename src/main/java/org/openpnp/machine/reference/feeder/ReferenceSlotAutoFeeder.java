@@ -117,6 +117,12 @@ public class ReferenceSlotAutoFeeder extends ReferenceAutoFeeder {
         return getFeeder().getPart();
     }
 
+    @Override
+    protected boolean isPartIndexable() {
+        // The part comes from the feeder assigned to the slot in the bank.
+        return false;
+    }
+
     public Bank getBank() {
         if (bank == null) {
             bank = getBanks().get(getBanks().size() - 1);
@@ -1,7 +1,14 @@
 package org.openpnp.machine.reference.vision;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -60,13 +67,129 @@ public class ReferenceBottomVision implements PartAlignment {
     @ElementMap(required = false)
     protected Map<String, PartSettings> partSettingsByPartId = new HashMap<>();
 
+    /**
+     * The pipelines currently used by an alignment. A pipeline that is still in use by a pending pipelined 
+     * alignment, e.g. for the same part on the previous nozzle, is cloned.
+     */
+    private final Set<CvPipeline> pipelinesInUse = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private static ExecutorService executor;
+
     @Override
     public PartAlignmentOffset findOffsets(Part part, BoardLocation boardLocation,
             Location placementLocation, Nozzle nozzle) throws Exception {
+        Alignment alignment = createAlignment(part, boardLocation, placementLocation, nozzle);
+        if (alignment == null) {
+            return new PartAlignmentOffset(new Location(LengthUnit.Millimeters), false);
+        }
+        try {
+            alignment.moveToCamera();
+            RotatedRect rect = processPipelineAndGetResult(alignment.pipeline, alignment.camera, part, nozzle);
+            return alignment.complete(rect, false);
+        }
+        finally {
+            releasePipeline(alignment.pipeline);
+        }
+    }
+
+    /**
+     * Starts a pipelined alignment: moves the part to the camera and captures the image, then processes the 
+     * pipeline on a worker thread, while the caller can move on with the next nozzle. If the first pass is 
+     * out of tolerance, the remaining passes are done in getOffsets(), like in findOffsets().
+     */
+    @Override
+    public PendingAlignment startAlignment(Part part, BoardLocation boardLocation,
+            Location placementLocation, Nozzle nozzle) throws Exception {
+        Alignment alignment = createAlignment(part, boardLocation, placementLocation, nozzle);
+        if (alignment == null) {
+            PartAlignmentOffset offsets = new PartAlignmentOffset(new Location(LengthUnit.Millimeters), false);
+            return () -> offsets;
+        }
+        final CvPipeline pipeline = alignment.pipeline;
+        final Camera camera = alignment.camera;
+        try {
+            alignment.moveToCamera();
+            setPipelineProperties(pipeline, camera, part, nozzle);
+            pipeline.captureInput();
+        }
+        catch (Exception e) {
+            releasePipeline(pipeline);
+            throw e;
+        }
+        final long[] processingTimeNs = new long[1];
+        Future<RotatedRect> future = getExecutor().submit(() -> {
+            long t = System.nanoTime();
+            try {
+                return processPipelineAndGetResult(pipeline, camera, part, nozzle);
+            }
+            finally {
+                processingTimeNs[0] = System.nanoTime() - t;
+            }
+        });
+        return new PendingAlignment() {
+            private long waitTimeNs;
+            private boolean done;
+
+            @Override
+            public PartAlignmentOffset getOffsets() throws Exception {
+                if (done) {
+                    throw new Exception("Alignment already completed.");
+                }
+                done = true;
+                try {
+                    long t = System.nanoTime();
+                    RotatedRect rect;
+                    try {
+                        rect = future.get();
+                    }
+                    catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) {
+                            throw (Exception) e.getCause();
+                        }
+                        throw e;
+                    }
+                    finally {
+                        waitTimeNs = System.nanoTime() - t;
+                    }
+                    // Other nozzles may have been moved to the camera in the meantime.
+                    return alignment.complete(rect, true);
+                }
+                finally {
+                    releasePipeline(pipeline);
+                }
+            }
+
+            @Override
+            public double getOverlappedTimeMs() {
+                return Math.max(0, processingTimeNs[0] - waitTimeNs)*1e-6;
+            }
+
+            @Override
+            public void cancel() {
+                if (!done) {
+                    done = true;
+                    try {
+                        future.get();
+                    }
+                    catch (Exception e) {
+                    }
+                    releasePipeline(pipeline);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return The Alignment for the part on the nozzle, or null if bottom vision is not enabled for the part.
+     * The caller must release the pipeline of the Alignment.  
+     * @throws Exception
+     */
+    private Alignment createAlignment(Part part, BoardLocation boardLocation,
+            Location placementLocation, Nozzle nozzle) throws Exception {
         PartSettings partSettings = getPartSettings(part);
 
         if (!isEnabled() || !partSettings.isEnabled()) {
-            return new PartAlignmentOffset(new Location(LengthUnit.Millimeters), false);
+            return null;
         }
 
         if (part == null || nozzle.getPart() == null) {
@@ -80,14 +203,45 @@ public class ReferenceBottomVision implements PartAlignment {
 
         if ((partSettings.getPreRotateUsage() == PreRotateUsage.Default && preRotate)
                 || (partSettings.getPreRotateUsage() == PreRotateUsage.AlwaysOn)) {
-            return findOffsetsPreRotate(part, boardLocation, placementLocation, nozzle, camera,
-                    partSettings);
+            double wantedAngle = placementLocation.getRotation();
+            if (boardLocation != null) {
+                wantedAngle = Utils2D.calculateBoardPlacementLocation(boardLocation, placementLocation)
+                               .getRotation();
+            }
+            wantedAngle = angleNorm(wantedAngle, 180.);
+            return new Alignment(part, nozzle, camera, partSettings, true, wantedAngle);
         }
         else {
-            return findOffsetsPostRotate(part, boardLocation, placementLocation, nozzle, camera,
-                    partSettings);
+            // Create a location that is the Camera's X, Y, it's Z + part height
+            // and a rotation of 0, unless preRotate is enabled
+            return new Alignment(part, nozzle, camera, partSettings, false, 0.);
         }
     }
+
+    private synchronized CvPipeline acquirePipeline(PartSettings partSettings) throws CloneNotSupportedException {
+        CvPipeline pipeline = partSettings.getPipeline();
+        if (pipelinesInUse.contains(pipeline)) {
+            pipeline = pipeline.clone();
+        }
+        pipelinesInUse.add(pipeline);
+        return pipeline;
+    }
+
+    private synchronized void releasePipeline(CvPipeline pipeline) {
+        pipelinesInUse.remove(pipeline);
+        pipeline.release();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "ReferenceBottomVision");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
     
     public Location getCameraLocationAtPartHeight(Part part, Camera camera, Nozzle nozzle, double angle) {
         return camera.getLocation(nozzle)
@@ -99,87 +253,66 @@ public class ReferenceBottomVision implements PartAlignment {
                 .derive(null, null, null, angle);
     }
 
-    private PartAlignmentOffset findOffsetsPreRotate(Part part, BoardLocation boardLocation,
-            Location placementLocation, Nozzle nozzle, Camera camera, PartSettings partSettings)
-            throws Exception {
-        double wantedAngle = placementLocation.getRotation();
-        if (boardLocation != null) {
-            wantedAngle = Utils2D.calculateBoardPlacementLocation(boardLocation, placementLocation)
-                           .getRotation();
-        }
-        wantedAngle = angleNorm(wantedAngle, 180.);
+    /**
+     * The state of the alignment of one part over one or more vision passes.
+     */
+    private class Alignment {
+        final Part part;
+        final Nozzle nozzle;
+        final PartSettings partSettings;
+        final CvPipeline pipeline;
+        final boolean preRotate;
+        final double wantedAngle;
         // Wanted location.
-        Location wantedLocation = getCameraLocationAtPartHeight(part, camera, nozzle, wantedAngle);
-                
-        Location nozzleLocation = wantedLocation;
-        MovableUtils.moveToLocationAtSafeZ(nozzle, nozzleLocation);
+        final Location wantedLocation;
         final Location center = new Location(maxLinearOffset.getUnits());
+        Camera camera;
+        Location nozzleLocation;
+        // The running, iterative offset.
+        Location offsets;
+        int pass = 0;
+
+        Alignment(Part part, Nozzle nozzle, Camera camera, PartSettings partSettings, boolean preRotate,
+                double wantedAngle) throws CloneNotSupportedException {
+            this.part = part;
+            this.nozzle = nozzle;
+            this.camera = camera;
+            this.partSettings = partSettings;
+            this.preRotate = preRotate;
+            this.wantedAngle = wantedAngle;
+            this.wantedLocation = getCameraLocationAtPartHeight(part, camera, nozzle, wantedAngle);
+            this.nozzleLocation = wantedLocation;
+            this.offsets = new Location(nozzleLocation.getUnits());
+            this.pipeline = acquirePipeline(partSettings);
+        }
 
-        try (CvPipeline pipeline = partSettings.getPipeline()) {
+        void moveToCamera() throws Exception {
+            MovableUtils.moveToLocationAtSafeZ(nozzle, nozzleLocation);
+        }
 
-            // The running, iterative offset.
-            Location offsets = new Location(nozzleLocation.getUnits());
+        /**
+         * Completes the alignment from the result of the first pass, doing more passes if needed.
+         * 
+         * @param rect The result of the first pass.
+         * @param moved True if the nozzle may have been moved away from the camera since the first pass.
+         * @return
+         * @throws Exception
+         */
+        PartAlignmentOffset complete(RotatedRect rect, boolean moved) throws Exception {
+            if (!preRotate) {
+                return completePostRotate(rect);
+            }
             // Try getting a good fix on the part in multiple passes.
-            for(int pass = 0;;) {
-                RotatedRect rect = processPipelineAndGetResult(pipeline, camera, part, nozzle);
-                camera=(Camera)pipeline.getProperty("camera");
-
-                Logger.debug("Bottom vision part {} result rect {}", part.getId(), rect);
-
-                // Create the offsets object. This is the physical distance from
-                // the center of the camera to the located part.
-                offsets = VisionUtils.getPixelCenterOffsets(camera, rect.center.x, rect.center.y);
-
-                double angleOffset = VisionUtils.getPixelAngle(camera, rect.angle) - wantedAngle;
-                // Most OpenCV Pipelines can only tell us the angle of the recognized rectangle in a   
-                // wrapping-around range of 0° .. 90° as it has no notion of which rectangle side 
-                // is which. We can assume that the part is never picked more than +/-45º rotated.
-                // So we change the range wrapping-around to -45° .. +45°. See angleNorm():
-                if (partSettings.getMaxRotation() == MaxRotation.Adjust ) {
-                    angleOffset = angleNorm(angleOffset);
-                } else {
-                    // turning more than 180° in one direction makes no sense
-                    angleOffset = angleNorm(angleOffset, 180);
-                }
-
-                // When we rotate the nozzle later to compensate for the angle offset, the X, Y offsets 
-                // will change too, as the off-center part rotates around the nozzle axis.
-                // So we need to compensate for that.
-                offsets = offsets.rotateXy(-angleOffset)
-                        .derive(null, null,	null, angleOffset);
-                nozzleLocation = nozzleLocation.subtractWithRotation(offsets);
-
-                if (++pass >= maxVisionPasses) {
-                    // Maximum number of passes reached. 
-                    break;
-                }
-                
-                // We not only check the center offset but also the corner offset brought about by the angular offset
-                // so a large part will react more sensitively to angular offsets.
-                Point corners[] = new Point[4];
-                rect.points(corners);
-                Location corner = VisionUtils.getPixelCenterOffsets(camera, corners[0].x, corners[0].y)
-                        .convertToUnits(maxLinearOffset.getUnits());
-                Location cornerWithAngularOffset = corner.rotateXy(angleOffset);
-                if (center.getLinearDistanceTo(offsets) > getMaxLinearOffset().getValue()) {
-                    Logger.debug("Offsets too large {} : center offset {} > {}", 
-                            offsets, center.getLinearDistanceTo(offsets), getMaxLinearOffset().getValue()); 
-                } 
-                else if (corner.getLinearDistanceTo(cornerWithAngularOffset) >  getMaxLinearOffset().getValue()) {
-                    Logger.debug("Offsets too large {} : corner offset {} > {}", 
-                            offsets, corner.getLinearDistanceTo(cornerWithAngularOffset), getMaxLinearOffset().getValue()); 
-                }
-                else if (Math.abs(angleOffset) > getMaxAngularOffset()) {
-                    Logger.debug("Offsets too large {} : angle offset {} > {}", 
-                            offsets, Math.abs(angleOffset), getMaxAngularOffset());
+            while (!evaluatePreRotatePass(rect)) {
+                // Not a good enough fix - try again with corrected position.
+                if (moved) {
+                    MovableUtils.moveToLocationAtSafeZ(nozzle, nozzleLocation);
+                    moved = false;
                 }
                 else {
-                    // We have a good enough fix - go on with that.
-                    break;
+                    nozzle.moveTo(nozzleLocation);
                 }
-
-                // Not a good enough fix - try again with corrected position.
-                nozzle.moveTo(nozzleLocation);
+                rect = processPipelineAndGetResult(pipeline, camera, part, nozzle);
             }
             Logger.debug("Offsets accepted {}", offsets);
             // Calculate cumulative offsets over all the passes.  
@@ -188,19 +321,73 @@ public class ReferenceBottomVision implements PartAlignment {
             displayResult(pipeline, part, offsets, camera);
             return new PartAlignment.PartAlignmentOffset(offsets, true);
         }
-    }
 
-    private PartAlignmentOffset findOffsetsPostRotate(Part part, BoardLocation boardLocation,
-            Location placementLocation, Nozzle nozzle, Camera camera, PartSettings partSettings)
-                    throws Exception {
-        // Create a location that is the Camera's X, Y, it's Z + part height
-        // and a rotation of 0, unless preRotate is enabled
-        Location wantedLocation = getCameraLocationAtPartHeight(part, camera, nozzle, 0.);
-        
-        MovableUtils.moveToLocationAtSafeZ(nozzle, wantedLocation);
+        /**
+         * Evaluates the result of a pre-rotate pass. 
+         * 
+         * @param rect
+         * @return True if the fix is good enough, or the maximum number of passes is reached.
+         */
+        boolean evaluatePreRotatePass(RotatedRect rect) {
+            camera=(Camera)pipeline.getProperty("camera");
 
-        try (CvPipeline pipeline = partSettings.getPipeline()) {
-            RotatedRect rect = processPipelineAndGetResult(pipeline, camera, part, nozzle);
+            Logger.debug("Bottom vision part {} result rect {}", part.getId(), rect);
+
+            // Create the offsets object. This is the physical distance from
+            // the center of the camera to the located part.
+            offsets = VisionUtils.getPixelCenterOffsets(camera, rect.center.x, rect.center.y);
+
+            double angleOffset = VisionUtils.getPixelAngle(camera, rect.angle) - wantedAngle;
+            // Most OpenCV Pipelines can only tell us the angle of the recognized rectangle in a   
+            // wrapping-around range of 0° .. 90° as it has no notion of which rectangle side 
+            // is which. We can assume that the part is never picked more than +/-45º rotated.
+            // So we change the range wrapping-around to -45° .. +45°. See angleNorm():
+            if (partSettings.getMaxRotation() == MaxRotation.Adjust ) {
+                angleOffset = angleNorm(angleOffset);
+            } else {
+                // turning more than 180° in one direction makes no sense
+                angleOffset = angleNorm(angleOffset, 180);
+            }
+
+            // When we rotate the nozzle later to compensate for the angle offset, the X, Y offsets 
+            // will change too, as the off-center part rotates around the nozzle axis.
+            // So we need to compensate for that.
+            offsets = offsets.rotateXy(-angleOffset)
+                    .derive(null, null,	null, angleOffset);
+            nozzleLocation = nozzleLocation.subtractWithRotation(offsets);
+
+            if (++pass >= maxVisionPasses) {
+                // Maximum number of passes reached. 
+                return true;
+            }
+            
+            // We not only check the center offset but also the corner offset brought about by the angular offset
+            // so a large part will react more sensitively to angular offsets.
+            Point corners[] = new Point[4];
+            rect.points(corners);
+            Location corner = VisionUtils.getPixelCenterOffsets(camera, corners[0].x, corners[0].y)
+                    .convertToUnits(maxLinearOffset.getUnits());
+            Location cornerWithAngularOffset = corner.rotateXy(angleOffset);
+            if (center.getLinearDistanceTo(offsets) > getMaxLinearOffset().getValue()) {
+                Logger.debug("Offsets too large {} : center offset {} > {}", 
+                        offsets, center.getLinearDistanceTo(offsets), getMaxLinearOffset().getValue()); 
+            } 
+            else if (corner.getLinearDistanceTo(cornerWithAngularOffset) >  getMaxLinearOffset().getValue()) {
+                Logger.debug("Offsets too large {} : corner offset {} > {}", 
+                        offsets, corner.getLinearDistanceTo(cornerWithAngularOffset), getMaxLinearOffset().getValue()); 
+            }
+            else if (Math.abs(angleOffset) > getMaxAngularOffset()) {
+                Logger.debug("Offsets too large {} : angle offset {} > {}", 
+                        offsets, Math.abs(angleOffset), getMaxAngularOffset());
+            }
+            else {
+                // We have a good enough fix - go on with that.
+                return true;
+            }
+            return false;
+        }
+
+        PartAlignmentOffset completePostRotate(RotatedRect rect) {
             camera=(Camera)pipeline.getProperty("camera");
 
             Logger.debug("Bottom vision part {} result rect {}", part.getId(), rect);
@@ -245,11 +432,16 @@ public class ReferenceBottomVision implements PartAlignment {
         }
     }
 
-    private static RotatedRect processPipelineAndGetResult(CvPipeline pipeline, Camera camera, Part part,
-            Nozzle nozzle) throws Exception {
+    private static void setPipelineProperties(CvPipeline pipeline, Camera camera, Part part, Nozzle nozzle) {
         pipeline.setProperty("camera", camera);
         pipeline.setProperty("part", part);
         pipeline.setProperty("nozzle", nozzle);
+        pipeline.setExecutionMode(CvPipeline.ExecutionMode.Lean);
+    }
+
+    private static RotatedRect processPipelineAndGetResult(CvPipeline pipeline, Camera camera, Part part,
+            Nozzle nozzle) throws Exception {
+        setPipelineProperties(pipeline, camera, part, nozzle);
         pipeline.process();
 
         Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
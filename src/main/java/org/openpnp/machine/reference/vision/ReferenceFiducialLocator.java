@@ -362,6 +362,7 @@ public class ReferenceFiducialLocator implements FiducialLocator {
             pipeline.setProperty("part", part);
             pipeline.setProperty("package", pkg);
             pipeline.setProperty("footprint", footprint);
+            pipeline.setExecutionMode(CvPipeline.ExecutionMode.Lean);
             
             for (int i = 0; i < repeatFiducialRecognition; i++) {
                 List<KeyPoint> keypoints;
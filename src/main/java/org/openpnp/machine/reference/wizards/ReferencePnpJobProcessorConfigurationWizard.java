@@ -20,6 +20,7 @@
 package org.openpnp.machine.reference.wizards;
 
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -31,6 +32,7 @@ import org.openpnp.gui.components.ComponentDecorators;
 import org.openpnp.gui.support.AbstractConfigurationWizard;
 import org.openpnp.gui.support.IntegerConverter;
 import org.openpnp.machine.reference.ReferencePnpJobProcessor;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.FeederSelection;
 import org.openpnp.machine.reference.ReferencePnpJobProcessor.JobOrderHint;
 
 import com.jgoodies.forms.layout.ColumnSpec;
@@ -43,6 +45,8 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
     private final ReferencePnpJobProcessor jobProcessor;
     private JComboBox comboBoxJobOrder;
     private JTextField maxVisionRetriesTextField;
+    private JComboBox comboBoxFeederSelection;
+    private JCheckBox chckbxPipelinedAlignment;
 
     public ReferencePnpJobProcessorConfigurationWizard(ReferencePnpJobProcessor jobProcessor) {
         this.jobProcessor = jobProcessor;
@@ -60,6 +64,8 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
             new RowSpec[] {
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
 
         JLabel lblJobOrder = new JLabel(Translations.getString("MachineSetup.JobProcessors.ReferencePnpJobProcessor.Label.JobOrder"));
@@ -74,6 +80,18 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
         maxVisionRetriesTextField = new JTextField();
         panelGeneral.add(maxVisionRetriesTextField, "4, 3");
         maxVisionRetriesTextField.setColumns(10);
+
+        JLabel lblFeederSelection = new JLabel(Translations.getString("MachineSetup.JobProcessors.ReferencePnpJobProcessor.Label.FeederSelection"));
+        panelGeneral.add(lblFeederSelection, "2, 4, right, default");
+
+        comboBoxFeederSelection = new JComboBox(FeederSelection.values());
+        panelGeneral.add(comboBoxFeederSelection, "4, 4");
+
+        JLabel lblPipelinedAlignment = new JLabel(Translations.getString("MachineSetup.JobProcessors.ReferencePnpJobProcessor.Label.PipelinedAlignment"));
+        panelGeneral.add(lblPipelinedAlignment, "2, 5, right, default");
+
+        chckbxPipelinedAlignment = new JCheckBox("");
+        panelGeneral.add(chckbxPipelinedAlignment, "4, 5");
     }
 
     @Override
@@ -82,6 +100,8 @@ public class ReferencePnpJobProcessorConfigurationWizard extends AbstractConfigu
 
         addWrappedBinding(jobProcessor, "jobOrder", comboBoxJobOrder, "selectedItem");
         addWrappedBinding(jobProcessor, "maxVisionRetries", maxVisionRetriesTextField, "text", intConverter);
+        addWrappedBinding(jobProcessor, "feederSelection", comboBoxFeederSelection, "selectedItem");
+        addWrappedBinding(jobProcessor, "pipelinedAlignment", chckbxPipelinedAlignment, "selected");
 
         ComponentDecorators.decorateWithAutoSelect(maxVisionRetriesTextField);
     }
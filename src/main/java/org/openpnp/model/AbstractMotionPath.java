@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.openpnp.model.MotionProfile.ProfileOption;
 import org.openpnp.util.XmlSerialize;
@@ -16,6 +18,8 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
 
     protected final static int segments = MotionProfile.segments; 
 
+    private boolean parallelSolving = false;
+
     public abstract int size();
     public abstract MotionProfile [] get(int i);
 
@@ -46,6 +50,17 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
         }
     }
 
+    public boolean isParallelSolving() {
+        return parallelSolving;
+    }
+
+    /**
+     * @param parallelSolving If true, the independent moves and sequences of the path are solved in parallel. 
+     */
+    public void setParallelSolving(boolean parallelSolving) {
+        this.parallelSolving = parallelSolving;
+    }
+
     public void solve() throws Exception {
         solve(approximation, iterations);
     }
@@ -97,39 +112,34 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
         if (last < 0) {
             return;
         }
+        for (int i = 0; i <= last; i++) {
+            if (get(i).length == 0) {
+                // Zero dimensions?
+                return;
+            }
+        }
         // Preparation: some data about the Path
         int [] leadAxis= new int[size];
         double[][] unitVector = new double[size][];
         double [] junctionCosineFromPrev = new double[size];
         int [] colinearWithPrev = new int[size];
         boolean[] simplified = new boolean[size];
+        boolean[] coordinated = new boolean[size];
 
-        for (int i = 0; i <= last; i++) {
+        // Each move is prepared and initially solved on its own.
+        forEachIndex(size, (i) -> {
             MotionProfile [] profiles = get(i);
-            if (profiles.length == 0) {
-                // Zero dimensions?
-                return;
-            }
             unitVector[i] = MotionProfile.getUnitVector(profiles);
             leadAxis[i] = MotionProfile.getLeadAxisIndex(unitVector[i]);
+            coordinated[i] = MotionProfile.isCoordinated(profiles);
             simplified[i] = false;
             for (int axis = 0; axis < profiles.length; axis++) {
                 if (!profiles[axis].isEmpty()) {
                     simplified[i] |= !profiles[axis].isSupportingUncoordinated();
                 }
             }
-            if (i > 0) {
-                junctionCosineFromPrev[i] = MotionProfile.dotProduct(unitVector[i-1], unitVector[i]);
-                colinearWithPrev[i] = 0;
-                if (leadAxis[i] == leadAxis[i-1]
-                        && simplified[i] == simplified[i-1]) {
-                    colinearWithPrev[i] = ((junctionCosineFromPrev[i] >= 1.0 - MotionProfile.eps) ? 1 
-                            : (junctionCosineFromPrev[i] <= -1.0 + MotionProfile.eps) ? -1 
-                                    : 0);
-                }
-            }
             // Solve all and store initial times.
-            if (MotionProfile.isCoordinated(profiles)) {
+            if (coordinated[i]) {
                 int lead = leadAxis[i];
                 if (profiles[lead].assertSolved()) {
                     MotionProfile.coordinateProfiles(profiles);
@@ -148,288 +158,77 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
             for (int axis = 0; axis < profiles.length; axis++) {
                 profiles[axis].initialTime = profiles[axis].time; 
             }
+        });
+        for (int i = 1; i <= last; i++) {
+            junctionCosineFromPrev[i] = MotionProfile.dotProduct(unitVector[i-1], unitVector[i]);
+            colinearWithPrev[i] = 0;
+            if (leadAxis[i] == leadAxis[i-1]
+                    && simplified[i] == simplified[i-1]) {
+                colinearWithPrev[i] = ((junctionCosineFromPrev[i] >= 1.0 - MotionProfile.eps) ? 1 
+                        : (junctionCosineFromPrev[i] <= -1.0 + MotionProfile.eps) ? -1 
+                                : 0);
+            }
         }
         int dimensions = unitVector[0].length;
 
-        for (int iteration = 0; iteration < iterations; iteration++) {
-            int iNext;
-            boolean hasUncoordinated = false;
-            for (int i = 0; i <= last; i = iNext) {
-                iNext = i+1;
-                MotionProfile [] profiles = get(i);
-                MotionProfile [] prevProfiles = (i > 0 ? get(i-1) : null);
-                if (simplified[i]) {
-                    // We can only handle them as single coordinated moves for now, because they don't support acceleration != 0 in junctions. 
-                    int lead = leadAxis[i];
-                    if (profiles[lead].assertSolved()) {
-                        MotionProfile.coordinateProfiles(profiles);
+        // Find the sequences of multiple co-linear coordinated moves, these are solved as one. The sequences only 
+        // read the (constant) limits and entry/exit conditions of their uncoordinated neighbors, so they can be 
+        // solved independently. 
+        int [] sequenceStart = new int[size];
+        int [] sequenceEnd = new int[size];
+        int sequences = 0;
+        boolean hasUncoordinatedMoves = false;
+        int iNext;
+        for (int i = 0; i <= last; i = iNext) {
+            iNext = i+1;
+            if (simplified[i] || coordinated[i]) {
+                if (!simplified[i]) {
+                    while (iNext <= last && coordinated[iNext] && colinearWithPrev[iNext] == 1) {
+                        iNext++;
                     }
                 }
-                else if (MotionProfile.isCoordinated(profiles)) {
-                    int lead = leadAxis[i];
-                    // This may be a sequence of multiple co-linear moves: try create a spanning profile.
-                    MotionProfile solverProfile = new MotionProfile(profiles[lead]);
-                    MotionProfile [] exitProfiles = profiles;
-                    for (int j = i+1; j <= last; j++) {
-                        MotionProfile [] seqProfiles = get(j);
-                        if (!(MotionProfile.isCoordinated(seqProfiles) && colinearWithPrev[j] == 1)) {
-                            // Sequence ended.
-                            break;
-                        }
-                        if (solverProfile.getVelocityMax() < seqProfiles[lead].getVelocityMax()) {
-                            solverProfile.setVelocityMax(seqProfiles[lead].getVelocityMax());
-                        }
-                        if (solverProfile.getEntryAccelerationMax() < seqProfiles[lead].getEntryAccelerationMax()) {
-                            solverProfile.setEntryAccelerationMax(seqProfiles[lead].getEntryAccelerationMax());
-                        }
-                        if (solverProfile.getExitAccelerationMax() < seqProfiles[lead].getExitAccelerationMax()) {
-                            solverProfile.setExitAccelerationMax(seqProfiles[lead].getExitAccelerationMax());
-                        }
-                        // Extend to include this move.
-                        solverProfile.s[segments] = seqProfiles[lead].s[segments];
-                        // Also take the exit constraints (in case it's the's path exit condition). 
-                        solverProfile.v[segments] = seqProfiles[lead].v[segments];
-                        solverProfile.a[segments] = seqProfiles[lead].a[segments];
-                        // Remember how far this sequence reaches.
-                        iNext = j+1;
-                        exitProfiles = seqProfiles;
-                    }
-                    MotionProfile [] nextProfiles = (iNext <= last ? get(iNext) : null);
-                    if (iteration > 0) {
-                        // This is a further refinement.
-                        controlOvershoot(prevProfiles, profiles, exitProfiles, nextProfiles, lead,
-                                solverProfile, approximation, iteration);
-                    }
-                    else {
-                        boolean expandEntry = false;
-                        boolean expandExit = false;
-                        if (prevProfiles != null) {
-                            if (MotionProfile.isCoordinated(prevProfiles)) { 
-                                // If the previous profiles are coordinated they cannot be positively co-linear, otherwise they would be in the sequence.
-                                assert(colinearWithPrev[i] != 1);
-                                // This means we have a corner. Start from zero velocity/acceleration. 
-                            }
-                            else { // Uncoordinated previous.
-                                if (unitVector[i][lead] > 0) {
-                                    // Going positive, take sMin into consideration 
-                                    if (Double.isFinite(prevProfiles[lead].sMin)) {
-                                        solverProfile.s[0] = prevProfiles[lead].sMin;
-                                    }
-                                    else {
-                                        expandEntry = true;
-                                    }
-                                }
-                                else {
-                                    // Going negative, take sMax into consideration 
-                                    if (Double.isFinite(prevProfiles[lead].sMax)) {
-                                        solverProfile.s[0] = prevProfiles[lead].sMax;
-                                    }
-                                    else {
-                                        expandEntry = true;
-                                    }
-                                }
-                            }
-                            solverProfile.v[0] = 0;
-                            solverProfile.a[0] = 0;
-                        }
-                        if (nextProfiles != null) {
-                            if (MotionProfile.isCoordinated(nextProfiles)) { 
-                                // If the next profiles are coordinated they cannot be positively co-linear, otherwise they would be in the sequence.
-                                assert(colinearWithPrev[iNext] != 1);
-                                // This means we have a corner. Stop to zero velocity/acceleration. 
-                            }
-                            else { // Uncoordinated next.
-                                if (unitVector[i][lead] < 0) {
-                                    // Going negative, take sMin into consideration 
-                                    if (Double.isFinite(nextProfiles[lead].sMin)) {
-                                        solverProfile.s[segments] = nextProfiles[lead].sMin;
-                                    }
-                                    else {
-                                        expandExit = true;
-                                    }
-                                }
-                                else {
-                                    // Going positive, take sMax into consideration 
-                                    if (Double.isFinite(nextProfiles[lead].sMax)) {
-                                        solverProfile.s[segments] = nextProfiles[lead].sMax;
-                                    }
-                                    else {
-                                        expandExit = true;
-                                    }
-                                }
-                            }
-                            solverProfile.v[segments] = 0;
-                            solverProfile.a[segments] = 0;
-                        }
-                        if (iNext > last) { 
-                            if (solverProfile.hasOption(ProfileOption.Jog)) {    
-                                // This is the last move and a Jog, set the option to have open velocity/acceleration.
-                                expandExit = true;
-                                solverProfile.v[segments] = 0;
-                                solverProfile.a[segments] = 0;
-                            }
-                        }
-                        if (expandEntry || expandExit) {
-                            // Entry and/or exit is expanded. .
-                            solverProfile.solveByExpansion(Math.signum(unitVector[i][lead]), expandEntry, expandExit);
-                        }
-                        else {
-                            // Solve to boundary conditions.
-                            solverProfile.solve();
-                        }
-                    }
-                    //validate("["+i+"]["+lead+"]", solverProfile);
-
-                    // Cut this along the sequence.
-                    double t0 = solverProfile.getForwardCrossingTime(profiles[lead].s[0], false);
-                    for (int j = i; j < iNext; j++) {
-                        MotionProfile [] seqProfiles = get(j);
-                        // Note, we can always use forward crossing time, because in coordinated moves there is no sign reversal.
-                        double t1 = solverProfile.getForwardCrossingTime(seqProfiles[lead].s[segments], false);
-                        seqProfiles[lead].extractProfileSectionFrom(solverProfile, t0, t1);
-                        // TODO: if the extracted move has reached solverProfile.vMax on entry/exit it may be re-optimized using its higher
-                        // vMax i.e. while pinching down entry/exit velocity and acceleration, we can re-solve it.
-                        MotionProfile.coordinateProfilesToLead(seqProfiles, seqProfiles[lead]);
-                        //MotionProfile.validateProfiles(seqProfiles);
-                        t0 = t1;
-                    }
-                }
-                else {
+                sequenceStart[sequences] = i;
+                sequenceEnd[sequences] = iNext;
+                sequences++;
+            }
+            else {
+                hasUncoordinatedMoves = true;
+            }
+        }
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            final int pass = iteration;
+            forEachIndex(sequences, (k) -> solveCoordinatedSequence(sequenceStart[k], sequenceEnd[k], last, pass, 
+                    approximation, leadAxis, unitVector, colinearWithPrev, simplified, coordinated));
+            for (int i = 0; i <= last; i++) {
+                if (!(simplified[i] || coordinated[i])) {
                     // Clear all solved flags.
+                    MotionProfile [] profiles = get(i);
                     for (int axis = 0; axis < dimensions; axis++) {
                         profiles[axis].clearOption(ProfileOption.Solved);
                         profiles[axis].setTimeMin(0);
                     }
-                    hasUncoordinated = true;
                 }
             }
 
+            boolean hasUncoordinated = hasUncoordinatedMoves;
             while (hasUncoordinated) {
                 hasUncoordinated = false;
                 for (int i = 0; i <= last; i++) {
                     MotionProfile [] profiles = get(i);
                     MotionProfile [] prevProfiles = (i > 0 ? get(i-1) : null);
                     MotionProfile [] nextProfiles = (i < last ? get(i+1) : null);
-                    if (! MotionProfile.isCoordinated(profiles)) {
+                    if (!coordinated[i]) {
+                        // The axes are too few and too quickly solved to be worth forking, solve them in sequence.
+                        boolean [] solved = new boolean[dimensions];
+                        boolean [] pending = new boolean[dimensions];
+                        for (int axis = 0; axis < dimensions; axis++) {
+                            solveUncoordinatedAxis(profiles, prevProfiles, nextProfiles, axis, solved, pending);
+                        }
                         boolean hasSolved = false;
                         for (int axis = 0; axis < dimensions; axis++) {
-                            if (!profiles[axis].hasOption(ProfileOption.Solved)) {
-                                boolean solve = false;
-                                boolean expandEntry = false;
-                                boolean expandExit = false;
-                                double vEffEntry = 0;
-                                double vEffExit = 0;
-                                if (prevProfiles == null) {
-                                    // Take path entry conditions as is.
-                                    solve = true;
-                                }
-                                else if (prevProfiles[axis].hasOption(ProfileOption.Solved)) {
-                                    profiles[axis].v[0] = prevProfiles[axis].v[segments];
-                                    profiles[axis].a[0] = prevProfiles[axis].a[segments];
-                                    vEffEntry = profiles[axis].getEffectiveEntryVelocity(profiles[axis].jMax);
-                                    solve = true; 
-                                }
-                                else {
-                                    expandEntry = true;
-                                }
-                                if (nextProfiles == null) {
-                                    // Take path exit conditions as is.
-                                    solve = true;
-                                }
-                                else if (nextProfiles[axis].hasOption(ProfileOption.Solved)) {
-                                    profiles[axis].v[segments] = nextProfiles[axis].v[0];
-                                    profiles[axis].a[segments] = nextProfiles[axis].a[0];
-                                    vEffExit = profiles[axis].getEffectiveExitVelocity(profiles[axis].jMax);
-                                    solve = true; 
-                                }
-                                else {
-                                    expandExit = true;
-                                }
-                                //                                if (solve && (expandEntry || expandExit)) {
-                                //                                    // Entry and/or exit expansion, solve using an overreaching profile.
-                                //                                    MotionProfile solverProfile = new MotionProfile(profiles[axis]);
-                                //                                    double signum = solverProfile.profileSignum(vEffEntry, vEffExit);
-                                //                                    if (iteration > 0) {
-                                //                                        // This is a further refinement.
-                                //                                        double timeWastedEntry = prevProfiles == null ? 0 : (prevProfiles[axis].time - straightLineCoordinatedTime[i-1]);
-                                //                                        double timeWastedExit = nextProfiles == null ? 0 : (nextProfiles[axis].time - straightLineCoordinatedTime[i+1]);
-                                //                                        controlOvershoot(prevProfiles, profiles, profiles, nextProfiles, axis,
-                                //                                                timeWastedEntry, timeWastedExit, solverProfile, approximation);
-                                //                                        //expandEntry = profiles[axis].hasOption(ProfileOption.CroppedEntry);
-                                //                                        //expandExit = profiles[axis].hasOption(ProfileOption.CroppedExit);
-                                //                                    }
-                                //                                    else {
-                                //                                        if (expandEntry) {
-                                //                                            if (signum > 0) {
-                                //                                                // Going positive, take sMin into consideration 
-                                //                                                if (prevProfiles != null && Double.isFinite(prevProfiles[axis].sMin)) {
-                                //                                                    solverProfile.s[0] = prevProfiles[axis].sMin;
-                                //                                                    // We got a limit, do not expand after all.
-                                //                                                    expandEntry = false;
-                                //                                                }
-                                //                                            }
-                                //                                            else if (signum < 0) {
-                                //                                                // Going negative, take sMax into consideration 
-                                //                                                if (prevProfiles != null && Double.isFinite(prevProfiles[axis].sMax)) {
-                                //                                                    solverProfile.s[0] = prevProfiles[axis].sMax;
-                                //                                                    // We got a limit, do not expand after all.
-                                //                                                    expandEntry = false;
-                                //                                                }
-                                //                                            }
-                                //                                            solverProfile.v[0] = 0;
-                                //                                            solverProfile.a[0] = 0;
-                                //                                        }
-                                //                                        if (expandExit) {
-                                //                                            if (signum < 0) {
-                                //                                                // Going negative, take sMin into consideration 
-                                //                                                if (nextProfiles != null && Double.isFinite(nextProfiles[axis].sMin)) {
-                                //                                                    solverProfile.s[segments] = nextProfiles[axis].sMin;
-                                //                                                    // We got a limit, do not expand after all.
-                                //                                                    expandExit = false;
-                                //                                                }
-                                //                                            }
-                                //                                            else if (signum > 0) {
-                                //                                                // Going positive, take sMax into consideration 
-                                //                                                if (nextProfiles != null && Double.isFinite(nextProfiles[axis].sMax)) {
-                                //                                                    solverProfile.s[segments] = nextProfiles[axis].sMax;
-                                //                                                    // We got a limit, do not expand after all.
-                                //                                                    expandExit = false;
-                                //                                                }
-                                //                                            }
-                                //                                            solverProfile.v[segments] = 0;
-                                //                                            solverProfile.a[segments] = 0;
-                                //                                        }
-                                //                                    }
-                                //                                    if  (signum != 0 && (expandEntry || expandExit)) {
-                                //                                        // Still expanding, do it.
-                                //                                        solverProfile.solveByExpansion(signum, expandEntry, expandExit);
-                                //                                        double t0 = solverProfile.getForwardCrossingTime(profiles[axis].s[0], false);
-                                //                                        double t1 = solverProfile.getBackwardCrossingTime(profiles[axis].s[segments], false);
-                                //                                        profiles[axis].extractProfileSectionFrom(solverProfile, t0, t1);
-                                //                                        profiles[axis].validate("extracted from expansion, move "+i);                                    
-                                //                                    }
-                                //                                    else {
-                                //                                        // Solve and extract.
-                                //                                        solverProfile.assertSolved();
-                                //                                        double t0 = solverProfile.getForwardCrossingTime(profiles[axis].s[0], false);
-                                //                                        double t1 = solverProfile.getBackwardCrossingTime(profiles[axis].s[segments], false);
-                                //                                        profiles[axis].extractProfileSectionFrom(solverProfile, t0, t1);
-                                //                                        profiles[axis].validate("extracted, move "+i);                                    
-                                //                                    }
-                                //                                    hasSolved = true;
-                                //                                }
-                                //                                else 
-                                if (solve) {
-                                    // Solve with given entry/exit conditions.
-                                    profiles[axis].solve();
-                                    //profiles[axis].validate("simply solved, move "+i);             
-                                    hasSolved = true;
-                                }
-                                else {
-                                    // Remember for another pass.
-                                    hasUncoordinated = true;
-                                }
-                            }
+                            hasSolved |= solved[axis];
+                            hasUncoordinated |= pending[axis];
                         }
                         if (hasSolved) {
                             MotionProfile.synchronizeProfiles(profiles);
@@ -441,21 +240,324 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
         }
     }
 
+    /**
+     * Solve the sequence of co-linear coordinated moves from i to iNext (exclusive) as one. 
+     */
+    protected void solveCoordinatedSequence(int i, int iNext, int last, int iteration, double approximation,
+            int [] leadAxis, double[][] unitVector, int [] colinearWithPrev, boolean[] simplified, boolean[] coordinated) {
+        MotionProfile [] profiles = get(i);
+        MotionProfile [] prevProfiles = (i > 0 ? get(i-1) : null);
+        int lead = leadAxis[i];
+        if (simplified[i]) {
+            // We can only handle them as single coordinated moves for now, because they don't support acceleration != 0 in junctions. 
+            if (profiles[lead].assertSolved()) {
+                MotionProfile.coordinateProfiles(profiles);
+            }
+            return;
+        }
+        // This may be a sequence of multiple co-linear moves: create a spanning profile.
+        MotionProfile solverProfile = new MotionProfile(profiles[lead]);
+        MotionProfile [] exitProfiles = profiles;
+        for (int j = i+1; j < iNext; j++) {
+            MotionProfile [] seqProfiles = get(j);
+            if (solverProfile.getVelocityMax() < seqProfiles[lead].getVelocityMax()) {
+                solverProfile.setVelocityMax(seqProfiles[lead].getVelocityMax());
+            }
+            if (solverProfile.getEntryAccelerationMax() < seqProfiles[lead].getEntryAccelerationMax()) {
+                solverProfile.setEntryAccelerationMax(seqProfiles[lead].getEntryAccelerationMax());
+            }
+            if (solverProfile.getExitAccelerationMax() < seqProfiles[lead].getExitAccelerationMax()) {
+                solverProfile.setExitAccelerationMax(seqProfiles[lead].getExitAccelerationMax());
+            }
+            // Extend to include this move.
+            solverProfile.s[segments] = seqProfiles[lead].s[segments];
+            // Also take the exit constraints (in case it's the's path exit condition). 
+            solverProfile.v[segments] = seqProfiles[lead].v[segments];
+            solverProfile.a[segments] = seqProfiles[lead].a[segments];
+            exitProfiles = seqProfiles;
+        }
+        MotionProfile [] nextProfiles = (iNext <= last ? get(iNext) : null);
+        if (iteration > 0) {
+            // This is a further refinement. Use the coordinated flags rather than examining the neighboring 
+            // profiles, as these may be solved concurrently, if they are coordinated themselves.
+            controlOvershoot(prevProfiles, i > 0 && coordinated[i-1], profiles, exitProfiles, 
+                    nextProfiles, iNext <= last && coordinated[iNext], lead,
+                    solverProfile, approximation, iteration);
+        }
+        else {
+            boolean expandEntry = false;
+            boolean expandExit = false;
+            if (prevProfiles != null) {
+                if (coordinated[i-1]) { 
+                    // If the previous profiles are coordinated they cannot be positively co-linear, otherwise they would be in the sequence.
+                    assert(colinearWithPrev[i] != 1);
+                    // This means we have a corner. Start from zero velocity/acceleration. 
+                }
+                else { // Uncoordinated previous.
+                    if (unitVector[i][lead] > 0) {
+                        // Going positive, take sMin into consideration 
+                        if (Double.isFinite(prevProfiles[lead].sMin)) {
+                            solverProfile.s[0] = prevProfiles[lead].sMin;
+                        }
+                        else {
+                            expandEntry = true;
+                        }
+                    }
+                    else {
+                        // Going negative, take sMax into consideration 
+                        if (Double.isFinite(prevProfiles[lead].sMax)) {
+                            solverProfile.s[0] = prevProfiles[lead].sMax;
+                        }
+                        else {
+                            expandEntry = true;
+                        }
+                    }
+                }
+                solverProfile.v[0] = 0;
+                solverProfile.a[0] = 0;
+            }
+            if (nextProfiles != null) {
+                if (coordinated[iNext]) { 
+                    // If the next profiles are coordinated they cannot be positively co-linear, otherwise they would be in the sequence.
+                    assert(colinearWithPrev[iNext] != 1);
+                    // This means we have a corner. Stop to zero velocity/acceleration. 
+                }
+                else { // Uncoordinated next.
+                    if (unitVector[i][lead] < 0) {
+                        // Going negative, take sMin into consideration 
+                        if (Double.isFinite(nextProfiles[lead].sMin)) {
+                            solverProfile.s[segments] = nextProfiles[lead].sMin;
+                        }
+                        else {
+                            expandExit = true;
+                        }
+                    }
+                    else {
+                        // Going positive, take sMax into consideration 
+                        if (Double.isFinite(nextProfiles[lead].sMax)) {
+                            solverProfile.s[segments] = nextProfiles[lead].sMax;
+                        }
+                        else {
+                            expandExit = true;
+                        }
+                    }
+                }
+                solverProfile.v[segments] = 0;
+                solverProfile.a[segments] = 0;
+            }
+            if (iNext > last) {
+                if (solverProfile.hasOption(ProfileOption.Jog)) {    
+                    // This is the last move and a Jog, set the option to have open velocity/acceleration.
+                    expandExit = true;
+                    solverProfile.v[segments] = 0;
+                    solverProfile.a[segments] = 0;
+                }
+            }
+            if (expandEntry || expandExit) {
+                // Entry and/or exit is expanded. .
+                solverProfile.solveByExpansion(Math.signum(unitVector[i][lead]), expandEntry, expandExit);
+            }
+            else {
+                // Solve to boundary conditions.
+                solverProfile.solve();
+            }
+        }
+        //validate("["+i+"]["+lead+"]", solverProfile);
+
+        // Cut this along the sequence.
+        double t0 = getSolverCrossingTime(solverProfile, profiles[lead].s[0], i);
+        for (int j = i; j < iNext; j++) {
+            MotionProfile [] seqProfiles = get(j);
+            // Note, we can always use forward crossing time, because in coordinated moves there is no sign reversal.
+            double t1 = getSolverCrossingTime(solverProfile, seqProfiles[lead].s[segments], j);
+            seqProfiles[lead].extractProfileSectionFrom(solverProfile, t0, t1);
+            // TODO: if the extracted move has reached solverProfile.vMax on entry/exit it may be re-optimized using its higher
+            // vMax i.e. while pinching down entry/exit velocity and acceleration, we can re-solve it.
+            MotionProfile.coordinateProfilesToLead(seqProfiles, seqProfiles[lead]);
+            //MotionProfile.validateProfiles(seqProfiles);
+            t0 = t1;
+        }
+    }
+
+    /**
+     * Get the time the solver profile of a coordinated sequence crosses the given location, where the move is cut.
+     * 
+     * @param solverProfile
+     * @param sCross
+     * @param i The index of the move, for the error message.
+     * @return The forward crossing time.
+     * @throws IllegalStateException if the location is not crossed, i.e. the solver failed. The sequence cannot be 
+     * cut, and must not be executed. 
+     */
+    protected static double getSolverCrossingTime(MotionProfile solverProfile, double sCross, int i) {
+        double t = solverProfile.getForwardCrossingTime(sCross, false);
+        if (Double.isNaN(t)) {
+            throw new IllegalStateException("Move "+i+" location "+sCross+" is not crossed by solved profile "+solverProfile);
+        }
+        return t;
+    }
+
+    /**
+     * Solve one axis of an uncoordinated move, if its neighbors' entry/exit conditions are known.
+     */
+    protected static void solveUncoordinatedAxis(MotionProfile [] profiles, MotionProfile [] prevProfiles, 
+            MotionProfile [] nextProfiles, int axis, boolean [] solved, boolean [] pending) {
+        if (!profiles[axis].hasOption(ProfileOption.Solved)) {
+            boolean solve = false;
+            boolean expandEntry = false;
+            boolean expandExit = false;
+            double vEffEntry = 0;
+            double vEffExit = 0;
+            if (prevProfiles == null) {
+                // Take path entry conditions as is.
+                solve = true;
+            }
+            else if (prevProfiles[axis].hasOption(ProfileOption.Solved)) {
+                profiles[axis].v[0] = prevProfiles[axis].v[segments];
+                profiles[axis].a[0] = prevProfiles[axis].a[segments];
+                vEffEntry = profiles[axis].getEffectiveEntryVelocity(profiles[axis].jMax);
+                solve = true; 
+            }
+            else {
+                expandEntry = true;
+            }
+            if (nextProfiles == null) {
+                // Take path exit conditions as is.
+                solve = true;
+            }
+            else if (nextProfiles[axis].hasOption(ProfileOption.Solved)) {
+                profiles[axis].v[segments] = nextProfiles[axis].v[0];
+                profiles[axis].a[segments] = nextProfiles[axis].a[0];
+                vEffExit = profiles[axis].getEffectiveExitVelocity(profiles[axis].jMax);
+                solve = true; 
+            }
+            else {
+                expandExit = true;
+            }
+                    //                                if (solve && (expandEntry || expandExit)) {
+                    //                                    // Entry and/or exit expansion, solve using an overreaching profile.
+                    //                                    MotionProfile solverProfile = new MotionProfile(profiles[axis]);
+                    //                                    double signum = solverProfile.profileSignum(vEffEntry, vEffExit);
+                    //                                    if (iteration > 0) {
+                    //                                        // This is a further refinement.
+                    //                                        double timeWastedEntry = prevProfiles == null ? 0 : (prevProfiles[axis].time - straightLineCoordinatedTime[i-1]);
+                    //                                        double timeWastedExit = nextProfiles == null ? 0 : (nextProfiles[axis].time - straightLineCoordinatedTime[i+1]);
+                    //                                        controlOvershoot(prevProfiles, profiles, profiles, nextProfiles, axis,
+                    //                                                timeWastedEntry, timeWastedExit, solverProfile, approximation);
+                    //                                        //expandEntry = profiles[axis].hasOption(ProfileOption.CroppedEntry);
+                    //                                        //expandExit = profiles[axis].hasOption(ProfileOption.CroppedExit);
+                    //                                    }
+                    //                                    else {
+                    //                                        if (expandEntry) {
+                    //                                            if (signum > 0) {
+                    //                                                // Going positive, take sMin into consideration 
+                    //                                                if (prevProfiles != null && Double.isFinite(prevProfiles[axis].sMin)) {
+                    //                                                    solverProfile.s[0] = prevProfiles[axis].sMin;
+                    //                                                    // We got a limit, do not expand after all.
+                    //                                                    expandEntry = false;
+                    //                                                }
+                    //                                            }
+                    //                                            else if (signum < 0) {
+                    //                                                // Going negative, take sMax into consideration 
+                    //                                                if (prevProfiles != null && Double.isFinite(prevProfiles[axis].sMax)) {
+                    //                                                    solverProfile.s[0] = prevProfiles[axis].sMax;
+                    //                                                    // We got a limit, do not expand after all.
+                    //                                                    expandEntry = false;
+                    //                                                }
+                    //                                            }
+                    //                                            solverProfile.v[0] = 0;
+                    //                                            solverProfile.a[0] = 0;
+                    //                                        }
+                    //                                        if (expandExit) {
+                    //                                            if (signum < 0) {
+                    //                                                // Going negative, take sMin into consideration 
+                    //                                                if (nextProfiles != null && Double.isFinite(nextProfiles[axis].sMin)) {
+                    //                                                    solverProfile.s[segments] = nextProfiles[axis].sMin;
+                    //                                                    // We got a limit, do not expand after all.
+                    //                                                    expandExit = false;
+                    //                                                }
+                    //                                            }
+                    //                                            else if (signum > 0) {
+                    //                                                // Going positive, take sMax into consideration 
+                    //                                                if (nextProfiles != null && Double.isFinite(nextProfiles[axis].sMax)) {
+                    //                                                    solverProfile.s[segments] = nextProfiles[axis].sMax;
+                    //                                                    // We got a limit, do not expand after all.
+                    //                                                    expandExit = false;
+                    //                                                }
+                    //                                            }
+                    //                                            solverProfile.v[segments] = 0;
+                    //                                            solverProfile.a[segments] = 0;
+                    //                                        }
+                    //                                    }
+                    //                                    if  (signum != 0 && (expandEntry || expandExit)) {
+                    //                                        // Still expanding, do it.
+                    //                                        solverProfile.solveByExpansion(signum, expandEntry, expandExit);
+                    //                                        double t0 = solverProfile.getForwardCrossingTime(profiles[axis].s[0], false);
+                    //                                        double t1 = solverProfile.getBackwardCrossingTime(profiles[axis].s[segments], false);
+                    //                                        profiles[axis].extractProfileSectionFrom(solverProfile, t0, t1);
+                    //                                        profiles[axis].validate("extracted from expansion, move "+i);                                    
+                    //                                    }
+                    //                                    else {
+                    //                                        // Solve and extract.
+                    //                                        solverProfile.assertSolved();
+                    //                                        double t0 = solverProfile.getForwardCrossingTime(profiles[axis].s[0], false);
+                    //                                        double t1 = solverProfile.getBackwardCrossingTime(profiles[axis].s[segments], false);
+                    //                                        profiles[axis].extractProfileSectionFrom(solverProfile, t0, t1);
+                    //                                        profiles[axis].validate("extracted, move "+i);                                    
+                    //                                    }
+                    //                                    hasSolved = true;
+                    //                                }
+                    //                                else 
+            if (solve) {
+                // Solve with given entry/exit conditions.
+                profiles[axis].solve();
+                //profiles[axis].validate("simply solved, move "+i);             
+                solved[axis] = true;
+            }
+            else {
+                // Remember for another pass.
+                pending[axis] = true;
+            }
+        }
+    }
+
+    /**
+     * Run the task for each index from 0 to count - 1. When parallel solving is enabled, the tasks are forked
+     * onto the common pool. Tasks must only modify data of their own index, so the result is the same as when run
+     * in sequence.
+     * 
+     * @param count
+     * @param task
+     */
+    protected void forEachIndex(int count, IntConsumer task) {
+        if (parallelSolving && count > 1) {
+            IntStream.range(0, count).parallel().forEach(task);
+        }
+        else {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+        }
+    }
+
     /**
      * Helper for the optimizer: reduces excess overshoot into uncoordinated moves. This is a simple
      * heuristic controlled by excess time detected in the uncoordinated move. Excess time is assumed
      * when the move takes longer that the straight line move from/to still-stand. 
      * 
+     * The neighboring profiles are only examined if they are uncoordinated, as indicated by prevCoordinated and 
+     * nextCoordinated. 
+     * 
      */
-    protected static boolean controlOvershoot(MotionProfile[] prevProfiles,
+    protected static boolean controlOvershoot(MotionProfile[] prevProfiles, boolean prevCoordinated,
             MotionProfile[] entryProfiles, MotionProfile[] exitProfiles,
-            MotionProfile[] nextProfiles, int axis, 
+            MotionProfile[] nextProfiles, boolean nextCoordinated, int axis, 
             MotionProfile solverProfile, double approximation, int iteration) {
         boolean changed = false;
         double minf = 0.0;
         if (entryProfiles[axis].hasOption(ProfileOption.CroppedEntry)) {
             solverProfile.s[0] = entryProfiles[axis].sEntryControl;
-            if (prevProfiles != null && !MotionProfile.isCoordinated(prevProfiles)) {
+            if (prevProfiles != null && !prevCoordinated) {
                 double tDeltaOuter = prevProfiles[axis].time - prevProfiles[axis].initialTime;
                 //double tDeltaInner = entryProfiles[axis].time - entryProfiles[axis].initialTime;
                 double tControl = entryProfiles[axis].tEntryControl;
@@ -472,7 +574,7 @@ public abstract class AbstractMotionPath implements Iterable<MotionProfile []> {
         }
         if (exitProfiles[axis].hasOption(ProfileOption.CroppedExit)) {
             solverProfile.s[segments] = exitProfiles[axis].sExitControl;
-            if (nextProfiles != null && !MotionProfile.isCoordinated(nextProfiles)) {
+            if (nextProfiles != null && !nextCoordinated) {
                 double tDeltaOuter = nextProfiles[axis].time - nextProfiles[axis].initialTime;
                 //double tDeltaInner = exitProfiles[axis].time - exitProfiles[axis].initialTime;
                 double tControl = exitProfiles[axis].tExitControl;
@@ -21,23 +21,27 @@
 
 package org.openpnp.model;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
-import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
 import org.openpnp.spi.Axis;
 import org.openpnp.spi.ControllerAxis;
 import org.openpnp.spi.CoordinateAxis;
 import org.openpnp.spi.Driver;
 import org.openpnp.spi.Machine;
+import org.openpnp.spi.base.AbstractAxis;
 import org.openpnp.util.Triplet;
 
 /**
@@ -60,9 +64,31 @@ import org.openpnp.util.Triplet;
  * AxesLocations preserve the order of the axes. In particular the Configuration order of axis definitions is 
  * sometimes used to treat axes in their "natural" order, where it may matter.  
  * 
+ * AxesLocations are immutable and created in great numbers by the motion planner. Therefore they are stored 
+ * densely as parallel arrays of axes and primitive coordinates rather than as a map with boxed values. Each 
+ * axis obtains a machine-wide index when it is created, see {@link #newAxisIndex()}. The indices are folded 
+ * into a bitmask per AxesLocation, so the frequent test for a missing axis is mostly a single bit operation.
+ * 
  */
 public class AxesLocation {
-    final private LinkedHashMap<Axis, Double> location;
+    /**
+     * The axes in insertion order. The array may be larger than size.
+     */
+    final private Axis[] axes;
+    /**
+     * The coordinates, parallel to axes.
+     */
+    final private double[] coordinates;
+    final private int size;
+    /**
+     * Bitmask of the axis indices (modulo 64) contained in this AxesLocation.
+     */
+    final private long mask;
+
+    final private static Axis[] noAxes = new Axis[0];
+    final private static double[] noCoordinates = new double[0];
+    final private static AtomicInteger axisIndexCounter = new AtomicInteger();
+
     final public static AxesLocation zero = new AxesLocation();
 
     /**
@@ -77,6 +103,119 @@ public class AxesLocation {
         return LengthUnit.Millimeters;
     }
 
+    /**
+     * Registers a new axis in the machine-wide axis index. Each axis obtains its index once, when it is created.
+     * 
+     * @return The new axis index.
+     */
+    public static int newAxisIndex() {
+        return axisIndexCounter.getAndIncrement();
+    }
+
+    private static long axisBit(Axis axis) {
+        int index = (axis instanceof AbstractAxis) ?
+                ((AbstractAxis) axis).getAxisIndex()
+                : System.identityHashCode(axis);
+        return 1L << (index & 63);
+    }
+
+    /**
+     * Collects axes and coordinates while an AxesLocation is created. Once built, the arrays are handed
+     * over to the AxesLocation, i.e. the Builder must no longer be used.
+     */
+    private static class Builder {
+        Axis[] axes;
+        double[] coordinates;
+        int size;
+        long mask;
+
+        Builder(int capacity) {
+            if (capacity == 0) {
+                axes = noAxes;
+                coordinates = noCoordinates;
+            }
+            else {
+                axes = new Axis[capacity];
+                coordinates = new double[capacity];
+            }
+        }
+
+        int indexOf(Axis axis, long bit) {
+            if ((mask & bit) != 0) {
+                for (int i = 0; i < size; i++) {
+                    if (axes[i] == axis) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Append an axis that is known not to be contained yet.
+         */
+        void append(Axis axis, long bit, double coordinate) {
+            if (size == axes.length) {
+                int capacity = Math.max(4, size*2);
+                axes = Arrays.copyOf(axes, capacity);
+                coordinates = Arrays.copyOf(coordinates, capacity);
+            }
+            axes[size] = axis;
+            coordinates[size] = coordinate;
+            size++;
+            mask |= bit;
+        }
+
+        void put(Axis axis, double coordinate) {
+            long bit = axisBit(axis);
+            int i = indexOf(axis, bit);
+            if (i >= 0) {
+                coordinates[i] = coordinate;
+            }
+            else {
+                append(axis, bit, coordinate);
+            }
+        }
+
+        void merge(Axis axis, double coordinate, DoubleBinaryOperator function) {
+            long bit = axisBit(axis);
+            int i = indexOf(axis, bit);
+            if (i >= 0) {
+                coordinates[i] = function.applyAsDouble(coordinates[i], coordinate);
+            }
+            else {
+                append(axis, bit, coordinate);
+            }
+        }
+
+        void putAll(AxesLocation other) {
+            if (size == 0) {
+                // Fast path: just copy.
+                for (int i = 0; i < other.size; i++) {
+                    append(other.axes[i], axisBit(other.axes[i]), other.coordinates[i]);
+                }
+            }
+            else {
+                for (int i = 0; i < other.size; i++) {
+                    put(other.axes[i], other.coordinates[i]);
+                }
+            }
+        }
+
+        void mergeAll(AxesLocation other, DoubleBinaryOperator function) {
+            for (int i = 0; i < other.size; i++) {
+                merge(other.axes[i], other.coordinates[i], function);
+            }
+        }
+    }
+
+    private AxesLocation(Builder builder) {
+        this.axes = builder.axes;
+        this.coordinates = builder.coordinates;
+        this.size = builder.size;
+        this.mask = builder.mask;
+    }
+
     /**
      * Create an empty AxesLocation. Because coordinates often default to 0.0, this can also be used as the
      * origin or zero AxesLocation. See also org.openpnp.model.AxesLocation.zero.   
@@ -84,7 +223,7 @@ public class AxesLocation {
      */
     public AxesLocation() {
         // Empty.
-        location = new LinkedHashMap<>(0);
+        this(new Builder(0));
     }
     /**
      * Create a single Axis/coordinate pair AxesLocation.  
@@ -93,10 +232,14 @@ public class AxesLocation {
      * @param coordinate
      */
     public AxesLocation(Axis axis, double coordinate) {
-        location = new LinkedHashMap<>(1);
+        this(singleAxis(axis, coordinate));
+    }
+    private static Builder singleAxis(Axis axis, double coordinate) {
+        Builder builder = new Builder(axis != null ? 1 : 0);
         if (axis != null) {
-            location.put(axis, coordinate);
+            builder.append(axis, axisBit(axis), coordinate);
         }
+        return builder;
     }
     /**
      * Create a single Axis/Length coordinate pair AxesLocation.  
@@ -115,10 +258,14 @@ public class AxesLocation {
      * @param axes
      */
     public AxesLocation(CoordinateAxis... axis) {
-        location = new LinkedHashMap<>(axis.length);
+        this(coordinateAxes(axis));
+    }
+    private static Builder coordinateAxes(CoordinateAxis... axis) {
+        Builder builder = new Builder(axis.length);
         for (CoordinateAxis oneAxis : axis) {
-            location.put(oneAxis, oneAxis.getLengthCoordinate().convertToUnits(getUnits()).getValue());
+            builder.put(oneAxis, oneAxis.getLengthCoordinate().convertToUnits(getUnits()).getValue());
         }
+        return builder;
     }
     /**
      * Create an AxesLocation with the given Axis List and initialize to the current 
@@ -137,13 +284,17 @@ public class AxesLocation {
      * @param initializer
      */
     public <T extends Axis> AxesLocation(Iterable<T> axes, Function<T, Length> initializer) {
-        location = new LinkedHashMap<>();
+        this(initializedAxes(axes, initializer));
+    }
+    private static <T extends Axis> Builder initializedAxes(Iterable<T> axes, Function<T, Length> initializer) {
+        Builder builder = new Builder(4);
         for (T axis : axes) {
             Length coordinate = initializer.apply(axis);
             if (coordinate != null) {
-                location.put(axis, coordinate.convertToUnits(getUnits()).getValue());
+                builder.put(axis, coordinate.convertToUnits(getUnits()).getValue());
             }
         }
+        return builder;
     }
     /**
      * Create an AxesLoaction over all the ControllerAxes of the machine and initialize to the current 
@@ -162,15 +313,7 @@ public class AxesLocation {
      * @param initializer
      */
     public AxesLocation(Machine machine, Function<CoordinateAxis, Length> initializer) {
-        location = new LinkedHashMap<>();
-        for (Axis axis : machine.getAxes()) {
-            if (axis instanceof CoordinateAxis) {
-                Length coordinate = initializer.apply((CoordinateAxis) axis);
-                if (coordinate != null) {
-                    location.put(axis, coordinate.convertToUnits(getUnits()).getValue());
-                }
-            }
-        }
+        this(machineAxes(machine, null, false, initializer));
     }
     /**
      * Create an AxesLoaction over all the ControllerAxes of the machine (in Machine Setup order) and with the given driver.
@@ -181,17 +324,24 @@ public class AxesLocation {
      * @param initializer
      */
     public AxesLocation(Machine machine, Driver driver, Function<ControllerAxis, Length> initializer) {
-        location = new LinkedHashMap<>();
-        for (Axis axis : machine.getAxes()) {
-            if (axis instanceof ControllerAxis) {
-                if (((ControllerAxis) axis).getDriver() == driver) {
-                    Length coordinate = initializer.apply((ControllerAxis) axis);
-                    if (coordinate != null) {
-                        location.put(axis, coordinate.convertToUnits(getUnits()).getValue());
-                    }
+        this(machineAxes(machine, driver, true, initializer));
+    }
+    @SuppressWarnings("unchecked")
+    private static <T extends CoordinateAxis> Builder machineAxes(Machine machine, Driver driver, boolean controllerAxes,
+            Function<T, Length> initializer) {
+        List<Axis> machineAxes = machine.getAxes();
+        Builder builder = new Builder(machineAxes.size());
+        for (Axis axis : machineAxes) {
+            if (controllerAxes ?
+                    (axis instanceof ControllerAxis && ((ControllerAxis) axis).getDriver() == driver)
+                    : axis instanceof CoordinateAxis) {
+                Length coordinate = initializer.apply((T) axis);
+                if (coordinate != null) {
+                    builder.put(axis, coordinate.convertToUnits(getUnits()).getValue());
                 }
             }
         }
+        return builder;
     }
     /**
      * Using the given binary function, aggregate the given axesLocation argument list.  
@@ -200,52 +350,130 @@ public class AxesLocation {
      * @param axesLocation
      */
     public AxesLocation(BiFunction<Double, Double, Double> function, AxesLocation... axesLocation) {
-        location = new LinkedHashMap<>();
+        this(aggregate((a, b) -> function.apply(a, b), axesLocation));
+    }
+    private static Builder aggregate(DoubleBinaryOperator function, AxesLocation... axesLocation) {
+        int capacity = 0;
         for (AxesLocation oneAxesLocation : axesLocation) {
-            for (Axis axis : oneAxesLocation.getAxes()) {
-                location.merge(axis, oneAxesLocation.getCoordinate(axis), function);
-            }
+            capacity += oneAxesLocation.size;
         }
+        Builder builder = new Builder(capacity);
+        for (AxesLocation oneAxesLocation : axesLocation) {
+            builder.mergeAll(oneAxesLocation, function);
+        }
+        return builder;
     }
     /**
      * Create a new AxesLocation with the given function applied to the coordinates of axesLocation.
-     *  
+     * 
      * @param function
      * @param axesLocation
      */
     public AxesLocation(Function<Double, Double> function, AxesLocation axesLocation) {
-        location = new LinkedHashMap<>();
-        for (Axis axis : axesLocation.getAxes()) {
-            location.put(axis, function.apply(axesLocation.getCoordinate(axis)));
+        this(axesLocation.axes, mapCoordinates(axesLocation, function), axesLocation.size, axesLocation.mask);
+    }
+    private static double[] mapCoordinates(AxesLocation axesLocation, Function<Double, Double> function) {
+        double[] coordinates = new double[axesLocation.size];
+        for (int i = 0; i < axesLocation.size; i++) {
+            coordinates[i] = function.apply(axesLocation.coordinates[i]);
         }
+        return coordinates;
+    }
+    /**
+     * Create an AxesLocation sharing the (immutable) axes array of another AxesLocation.
+     */
+    private AxesLocation(Axis[] axes, double[] coordinates, int size, long mask) {
+        this.axes = axes;
+        this.coordinates = coordinates;
+        this.size = size;
+        this.mask = mask;
+    }
+
+    private AxesLocation combine(AxesLocation other, DoubleBinaryOperator function) {
+        if (other.size == 0) {
+            return this;
+        }
+        if (size == 0) {
+            return other;
+        }
+        Builder builder = new Builder(size + other.size);
+        builder.putAll(this);
+        builder.mergeAll(other, function);
+        return new AxesLocation(builder);
     }
 
     public AxesLocation add(AxesLocation other) {
-        return new AxesLocation((a, b) -> (a + b), this, other);
+        return combine(other, (a, b) -> (a + b));
     }
 
     public AxesLocation subtract(AxesLocation other) {
-        return new AxesLocation((a, b) -> (a - b), this, other);
+        return combine(other, (a, b) -> (a - b));
     }
 
     public AxesLocation multiply(double factor) {
-        return new AxesLocation((a) -> (a*factor), this);
+        double[] coordinates = new double[size];
+        for (int i = 0; i < size; i++) {
+            coordinates[i] = this.coordinates[i]*factor;
+        }
+        return new AxesLocation(axes, coordinates, size, mask);
     }
 
     public AxesLocation put(AxesLocation other) {
-        return new AxesLocation((a, b) -> (b), this, other);
+        return combine(other, (a, b) -> (b));
+    }
+
+    /**
+     * Returns the index of the axis in the arrays or -1 if not contained.
+     */
+    private int indexOf(Axis axis) {
+        if (axis != null && (mask & axisBit(axis)) != 0) {
+            for (int i = 0; i < size; i++) {
+                if (axes[i] == axis) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a filtered AxesLocation with only those axes that pass the filter.
+     */
+    private AxesLocation filter(Predicate<Axis> filter) {
+        Builder builder = null;
+        for (int i = 0; i < size; i++) {
+            if (filter.test(axes[i])) {
+                if (builder == null) {
+                    builder = new Builder(size - i);
+                }
+                builder.append(axes[i], axisBit(axes[i]), coordinates[i]);
+            }
+        }
+        if (builder == null) {
+            return zero;
+        }
+        if (builder.size == size) {
+            // Nothing was filtered out.
+            return this;
+        }
+        return new AxesLocation(builder);
+    }
+
+    private static boolean isDrivenBy(Axis axis, Driver driver) {
+        return axis instanceof ControllerAxis
+                && (driver == null || ((ControllerAxis) axis).getDriver() == driver);
     }
 
     /**
      * Returns the dot product of this AxesLocation with the other, both treated as vectors.
-     *   
+     * 
      * @param other
      * @return
      */
     public double dotProduct(AxesLocation other) {
         double dot = 0;
-        for (Entry<Axis, Double> entry : this.location.entrySet()) {
-            dot += entry.getValue()*other.getCoordinate(entry.getKey());
+        for (int i = 0; i < size; i++) {
+            dot += coordinates[i]*other.getCoordinate(axes[i]);
         }
         return dot;
     }
@@ -264,7 +492,7 @@ public class AxesLocation {
         double dot = dotProduct(other);
         double norm = other.getEuclideanMetric();
         if (norm == 0) {
-            return other.multiply(0); 
+            return other.multiply(0);
         }
         else {
             double factor = dot/norm/norm; // need to norm twice, because of multiply.
@@ -279,7 +507,7 @@ public class AxesLocation {
      * @return
      */
     public AxesLocation drivenBy(Driver driver) {
-        return new AxesLocation(getAxes(driver), (axis) -> (getLengthCoordinate(axis)));
+        return filter((axis) -> isDrivenBy(axis, driver));
     }
 
     /**
@@ -289,19 +517,53 @@ public class AxesLocation {
      * @return
      */
     public AxesLocation byType(Axis.Type... types) {
-        final List<Axis.Type> typeList = Arrays.asList(types);
-        return  new AxesLocation(getAxes(), 
-                (axis) -> (typeList.contains(axis.getType()) ? 
-                        getLengthCoordinate(axis) : null)); 
+        return filter((axis) -> {
+            for (Axis.Type type : types) {
+                if (axis.getType() == type) {
+                    return true;
+                }
+            }
+            return false;
+        });
     }
 
     /**
      * Return all the axes from the AxesLocation.
      * 
-     * @return
+     * @return An unmodifiable Set view of the axes.
      */
     public Set<Axis> getAxes() {
-        return location.keySet();
+        return new AbstractSet<Axis>() {
+            @Override
+            public Iterator<Axis> iterator() {
+                return new Iterator<Axis>() {
+                    int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < size;
+                    }
+
+                    @Override
+                    public Axis next() {
+                        if (i >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return axes[i++];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return (o instanceof Axis) && indexOf((Axis) o) >= 0;
+            }
+        };
     }
 
     /**
@@ -312,9 +574,9 @@ public class AxesLocation {
      */
     public LinkedHashSet<ControllerAxis> getAxes(Driver driver) {
         LinkedHashSet<ControllerAxis> axes = new LinkedHashSet<>();
-        for (ControllerAxis axis : getAxes(ControllerAxis.class)) {
-            if (driver == null || ((ControllerAxis) axis).getDriver() == driver) {
-                axes.add((ControllerAxis) axis);
+        for (int i = 0; i < size; i++) {
+            if (isDrivenBy(this.axes[i], driver)) {
+                axes.add((ControllerAxis) this.axes[i]);
             }
         }
         return axes;
@@ -329,9 +591,9 @@ public class AxesLocation {
     @SuppressWarnings("unchecked")
     public <T extends Axis> LinkedHashSet<T> getAxes(Class<T> axisClass) {
         LinkedHashSet<T> axes = new LinkedHashSet<>();
-        for (Axis axis : getAxes()) {
-            if (axisClass.isInstance(axis)) {
-                axes.add((T) axis);
+        for (int i = 0; i < size; i++) {
+            if (axisClass.isInstance(this.axes[i])) {
+                axes.add((T) this.axes[i]);
             }
         }
         return axes;
@@ -351,7 +613,7 @@ public class AxesLocation {
         if (axis == null) {
             return true;
         }
-        return (location.containsKey(axis));
+        return indexOf(axis) >= 0;
     }
 
     /**
@@ -368,30 +630,35 @@ public class AxesLocation {
      * @return
      */
     public boolean matches(AxesLocation other) {
-        for (CoordinateAxis axis : getAxes(CoordinateAxis.class)) {
-            if (!axis.coordinatesMatch(
-                    this.getLengthCoordinate(axis), 
-                    other.getLengthCoordinate(axis))) {
-                return false;
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof CoordinateAxis) {
+                CoordinateAxis axis = (CoordinateAxis) axes[i];
+                if (!axis.coordinatesMatch(
+                        this.getLengthCoordinate(axis),
+                        other.getLengthCoordinate(axis))) {
+                    return false;
+                }
             }
         }
         return true;
     }
 
     public int size() {
-        return getAxes().size();
+        return size;
     }
 
     public boolean isEmpty() {
-        return getAxes().isEmpty();
+        return size == 0;
     }
 
     /**
      * Set this AxesLocation to the axes as the current (planned) location.  
      */
     public void setToCoordinates() {
-        for (CoordinateAxis axis : getAxes(CoordinateAxis.class)) {
-            axis.setCoordinate(getCoordinate(axis));
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof CoordinateAxis) {
+                ((CoordinateAxis) axes[i]).setCoordinate(coordinates[i]);
+            }
         }
     }
 
@@ -401,8 +668,10 @@ public class AxesLocation {
      * @param driver
      */
     public void setToDriverCoordinates(Driver driver) {
-        for (ControllerAxis axis : getAxes(driver)) {
-            axis.setDriverLengthCoordinate(getLengthCoordinate(axis));
+        for (int i = 0; i < size; i++) {
+            if (isDrivenBy(axes[i], driver)) {
+                ((ControllerAxis) axes[i]).setDriverLengthCoordinate(getLengthCoordinate(axes[i]));
+            }
         }
     }
 
@@ -413,11 +682,9 @@ public class AxesLocation {
      * @return
      */
     public double getCoordinate(Axis axis) {
-        if (axis != null) {
-            Double coordinate = location.get(axis);
-            if (coordinate != null) {
-                return coordinate;
-            }
+        int i = indexOf(axis);
+        if (i >= 0) {
+            return coordinates[i];
         }
         return 0.0;
     }
@@ -451,14 +718,13 @@ public class AxesLocation {
     public String toString() {
         StringBuilder str = new StringBuilder();
         str.append("(");
-        int i = 0;
-        for (Entry<Axis, Double> entry : location.entrySet()) {
-            if (i++ > 0) {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
                 str.append(", ");
             }
-            str.append(entry.getKey().getName());
+            str.append(axes[i].getName());
             str.append(":");
-            str.append(String.format(Locale.US, "%f", entry.getValue())); 
+            str.append(String.format(Locale.US, "%f", coordinates[i]));
         }
         str.append(")");
         return str.toString();
@@ -474,15 +740,21 @@ public class AxesLocation {
      */
     public AxesLocation getTypedLocation(Location location) throws Exception {
         location = location.convertToUnits(AxesLocation.getUnits());
-        return new AxesLocation((a, b) -> (b),
-                new AxesLocation(getAxis(Axis.Type.X), location.getX()),
-                new AxesLocation(getAxis(Axis.Type.Y), location.getY()),
-                new AxesLocation(getAxis(Axis.Type.Z), location.getZ()),
-                new AxesLocation(getAxis(Axis.Type.Rotation), location.getRotation()));
+        Builder builder = new Builder(4);
+        putTyped(builder, getAxis(Axis.Type.X), location.getX());
+        putTyped(builder, getAxis(Axis.Type.Y), location.getY());
+        putTyped(builder, getAxis(Axis.Type.Z), location.getZ());
+        putTyped(builder, getAxis(Axis.Type.Rotation), location.getRotation());
+        return new AxesLocation(builder);
+    }
+    private static void putTyped(Builder builder, Axis axis, double coordinate) {
+        if (axis != null) {
+            builder.put(axis, coordinate);
+        }
     }
     /**
      * Get the drivers of all the ControllerAxes in this AxesLocation.
-     *  
+     * 
      * @param machine
      * @return
      */
@@ -493,8 +765,11 @@ public class AxesLocation {
         List<Driver> list = new ArrayList<>();
         for (Driver driver : machine.getDrivers()) {
             // Check if one or more of the axes are mapped to the driver.
-            if (!getAxes(driver).isEmpty()) {
-                list.add(driver);
+            for (int i = 0; i < size; i++) {
+                if (isDrivenBy(axes[i], driver)) {
+                    list.add(driver);
+                    break;
+                }
             }
         }
         return list;
@@ -509,29 +784,35 @@ public class AxesLocation {
      * @throws Exception
      */
     public ControllerAxis getAxis(Driver driver, Axis.Type axisType) throws Exception {
-        ControllerAxis found = null; 
-        for (ControllerAxis axis : getAxes(driver)) {
-            if (axis.getType() == axisType) {
-                if (found != null) {
-                    // Make this future-proof: 
-                    // Getting axes by type will no longer be allowed inside motion blending applications. 
-                    throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+axisType+" assigned.");
+        ControllerAxis found = null;
+        for (int i = 0; i < size; i++) {
+            if (isDrivenBy(axes[i], driver)) {
+                ControllerAxis axis = (ControllerAxis) axes[i];
+                if (axis.getType() == axisType) {
+                    if (found != null) {
+                        // Make this future-proof:
+                        // Getting axes by type will no longer be allowed inside motion blending applications.
+                        throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+axisType+" assigned.");
+                    }
+                    found = axis;
                 }
-                found = axis;
             }
         }
         return found;
     }
     public CoordinateAxis getAxis(Axis.Type axisType) throws Exception {
-        CoordinateAxis found = null; 
-        for (CoordinateAxis axis : getAxes(CoordinateAxis.class)) {
-            if (axis.getType() == axisType) {
-                if (found != null) {
-                    // Make this future-proof: 
-                    // Getting axes by type will no longer be allowed inside motion blending applications. 
-                    throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+axisType+" assigned.");
+        CoordinateAxis found = null;
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof CoordinateAxis) {
+                CoordinateAxis axis = (CoordinateAxis) axes[i];
+                if (axis.getType() == axisType) {
+                    if (found != null) {
+                        // Make this future-proof:
+                        // Getting axes by type will no longer be allowed inside motion blending applications.
+                        throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+axisType+" assigned.");
+                    }
+                    found = axis;
                 }
-                found = axis;
             }
         }
         return found;
@@ -543,29 +824,35 @@ public class AxesLocation {
      * @return
      * @throws Exception If the variable names are unassigned or not unique within the mapped axes.
      */
-    public ControllerAxis getAxisByVariable(Driver driver, String variable) 
+    public ControllerAxis getAxisByVariable(Driver driver, String variable)
             throws Exception {
         ControllerAxis found = null;
         if (driver.isUsingLetterVariables()) {
-            for (ControllerAxis axis : getAxes(driver)) {
-                if (axis.getLetter() == null || axis.getLetter().isEmpty()) {
-                    throw new Exception("Axis "+axis.getName()+" has no letter assigned.");
-                }
-                if (axis.getLetter().equals(variable)) {
-                    if (found != null) {
-                        throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate letter "+variable+" assigned.");
+            for (int i = 0; i < size; i++) {
+                if (isDrivenBy(axes[i], driver)) {
+                    ControllerAxis axis = (ControllerAxis) axes[i];
+                    if (axis.getLetter() == null || axis.getLetter().isEmpty()) {
+                        throw new Exception("Axis "+axis.getName()+" has no letter assigned.");
+                    }
+                    if (axis.getLetter().equals(variable)) {
+                        if (found != null) {
+                            throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate letter "+variable+" assigned.");
+                        }
+                        found = axis;
                     }
-                    found = axis;
                 }
             }
         }
         else {
-            for (ControllerAxis axis : getAxes(driver)) {
-                if (axis.getType().toString().equals(variable)) {
-                    if (found != null) {
-                        throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+variable+" assigned. Use letter variables on the driver.");
+            for (int i = 0; i < size; i++) {
+                if (isDrivenBy(axes[i], driver)) {
+                    ControllerAxis axis = (ControllerAxis) axes[i];
+                    if (axis.getType().toString().equals(variable)) {
+                        if (found != null) {
+                            throw new Exception("Axes "+found.getName()+" and "+axis.getName()+" have duplicate type "+variable+" assigned. Use letter variables on the driver.");
+                        }
+                        found = axis;
                     }
-                    found = axis;
                 }
             }
         }
@@ -573,9 +860,11 @@ public class AxesLocation {
     }
 
     public boolean isInSafeZone() {
-        for (CoordinateAxis axis : getAxes(CoordinateAxis.class)) {
-            if (! axis.isInSafeZone(getLengthCoordinate(axis))) {
-                return false;
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof CoordinateAxis) {
+                if (! ((CoordinateAxis) axes[i]).isInSafeZone(getLengthCoordinate(axes[i]))) {
+                    return false;
+                }
             }
         }
         return true;
@@ -590,13 +879,27 @@ public class AxesLocation {
      * @return
      */
     public AxesLocation motionSegmentTo(AxesLocation location1) {
-        AxesLocation distance = new AxesLocation(getControllerAxes(), 
-                (a) -> ( location1.contains(a) ? 
-                        (!a.coordinatesMatch(getLengthCoordinate(a), location1.getLengthCoordinate(a)) ? 
-                                new Length(location1.getCoordinate(a) - getCoordinate(a), AxesLocation.getUnits())
-                                :null)
-                        :null));
-        return distance;
+        Builder builder = null;
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof ControllerAxis) {
+                ControllerAxis axis = (ControllerAxis) axes[i];
+                int j = location1.indexOf(axis);
+                if (j >= 0) {
+                    double coordinate0 = coordinates[i];
+                    double coordinate1 = location1.coordinates[j];
+                    if (!axis.coordinatesMatch(new Length(coordinate0, getUnits()), new Length(coordinate1, getUnits()))) {
+                        if (builder == null) {
+                            builder = new Builder(size - i);
+                        }
+                        builder.append(axis, axisBit(axis), coordinate1 - coordinate0);
+                    }
+                }
+            }
+        }
+        if (builder == null) {
+            return zero;
+        }
+        return new AxesLocation(builder);
     }
 
     /**
@@ -607,9 +910,9 @@ public class AxesLocation {
      */
     public double getEuclideanMetric() {
         double sumSq = 0;
-        for (Entry<Axis, Double> entry : location.entrySet()) {
-            if (entry.getKey() instanceof ControllerAxis) {
-                sumSq += Math.pow(entry.getValue(), 2);
+        for (int i = 0; i < size; i++) {
+            if (axes[i] instanceof ControllerAxis) {
+                sumSq += coordinates[i]*coordinates[i];
             }
         }
         return Math.sqrt(sumSq);
@@ -627,15 +930,18 @@ public class AxesLocation {
         double linearRate = 0;
         double rotationalRate = 0;
         double euclideanRate = 0;
-        for (ControllerAxis axis : getAxes(driver)) {
-            double val =  f.apply(axis);
-            if (axis.isRotationalOnController()) {
-                rotationalRate += Math.pow(val, 2);
-            }
-            else {
-                linearRate += Math.pow(val, 2);
+        for (int i = 0; i < size; i++) {
+            if (isDrivenBy(axes[i], driver)) {
+                ControllerAxis axis = (ControllerAxis) axes[i];
+                double val =  f.apply(axis);
+                if (axis.isRotationalOnController()) {
+                    rotationalRate += val*val;
+                }
+                else {
+                    linearRate += val*val;
+                }
+                euclideanRate += val*val;
             }
-            euclideanRate += Math.pow(val, 2);
         }
         linearRate = Math.sqrt(linearRate);
         rotationalRate = Math.sqrt(rotationalRate);
@@ -648,7 +954,7 @@ public class AxesLocation {
      * The rate is to be interpreted over the Euclidean linear axis distance of a move 
      * and in the absence of any linear axes, over the Euclidean angular distance of the move.
      * @see https://tsapps.nist.gov/publication/get_pdf.cfm?pub_id=823374
-     *
+     * 
      * @param driver
      * @param f
      * @return
@@ -656,10 +962,10 @@ public class AxesLocation {
     public Double getRS274NGCMetric(Driver driver, Function<ControllerAxis, Double> f) {
         Triplet<Double, Double, Double> rates = getEuclideanMetric(driver, f);
         if (rates.first != null && rates.first != 0) {
-            return rates.first; 
+            return rates.first;
         }
         else {
             return rates.second;
-        }        
+        }
     }
 }
@@ -564,6 +564,17 @@ public class Motion {
         return new AxesLocation(axisIndex.keySet(),
                 (axis) -> new Length(getAxisProfile(axis).getMomentaryLocation(time), AxesLocation.getUnits()));
     }
+    public double getMomentaryCoordinate(ControllerAxis axis, double time) {
+        Integer index = axisIndex.get(axis);
+        if (index == null) {
+            // Axis not part of the motion, it stays put where it was, if known.
+            if (location0.contains(axis)) {
+                return location0.getCoordinate(axis);
+            }
+            return Double.NaN;
+        }
+        return axesProfiles[index].getMomentaryLocation(time);
+    }
     public AxesLocation getMomentaryVelocity(double time) {
         return new AxesLocation(axisIndex.keySet(),
                 (axis) -> new Length(getAxisProfile(axis).getMomentaryVelocity(time), AxesLocation.getUnits()));
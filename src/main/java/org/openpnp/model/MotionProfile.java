@@ -26,14 +26,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.function.BiFunction;
-import java.util.function.Function;
 
 import org.openpnp.spi.Driver.MotionControlType;
 import org.openpnp.util.NanosecondTime;
 import org.pmw.tinylog.Logger;
 
 public class MotionProfile {
+    // Compile-time constant, so the guarded trace() calls are compiled away entirely, when disabled.
     private static final boolean traceEnabled = false;
     private static final boolean svgEnabled = false;
 
@@ -340,7 +339,22 @@ public class MotionProfile {
         return time;
     }
 
-    protected double getMomentary(double ts, double f0, double f7, BiFunction<Integer, Double, Double> f) {
+    static final int momentaryLocation = 0;
+    static final int momentaryVelocity = 1;
+    static final int momentaryAcceleration = 2;
+    static final int momentaryJerk = 3;
+
+    /**
+     * Evaluate the momentary location or derivative of the profile. This is specialized and primitive, 
+     * so sampling a profile at high resolution does not allocate. 
+     * 
+     * @param ts
+     * @param f0 The value before the profile starts.
+     * @param f7 The value after the profile ends.
+     * @param order One of momentaryLocation, momentaryVelocity, momentaryAcceleration, momentaryJerk.
+     * @return
+     */
+    protected double getMomentary(double ts, double f0, double f7, int order) {
         if (ts <= t[0]) {
             return f0;
         }
@@ -350,7 +364,19 @@ public class MotionProfile {
         }
         for (int i = 1; i <= segments; i++) {
             if (ts < t[i]) {
-                return f.apply(i, ts);
+                switch (order) {
+                    case momentaryLocation:
+                        // s0 + V0*t + 1/2*a0*t^2 + 1/6*j*t^3
+                        return s[i-1] + v[i-1]*ts + 1./2*a[i-1]*Math.pow(ts, 2) + 1./6*j[i-1]*Math.pow(ts, 3);
+                    case momentaryVelocity:
+                        // V0 + a0*t + 1/2*j*t^2
+                        return v[i-1] + a[i-1]*ts + 1./2*j[i-1]*Math.pow(ts, 2);
+                    case momentaryAcceleration:
+                        // a0 + j*t
+                        return a[i-1] + j[i-1]*ts;
+                    default:
+                        return j[i-1];
+                }
             }
             ts -= t[i];
         }
@@ -358,25 +384,19 @@ public class MotionProfile {
     }
 
     public double getMomentaryLocation(double time) { 
-        return getMomentary(time, s[0], s[segments], 
-                // s0 + V0*t + 1/2*a0*t^2 + 1/6*j*t^3
-                (i, ts) -> (s[i-1] + v[i-1]*ts + 1./2*a[i-1]*Math.pow(ts, 2) + 1./6*j[i-1]*Math.pow(ts, 3)));
+        return getMomentary(time, s[0], s[segments], momentaryLocation);
     }
 
     public double getMomentaryVelocity(double time) { 
-        return getMomentary(time, v[0], v[segments], 
-                // V0 + a0*t + 1/2*j*t^2
-                (i, ts) -> (v[i-1] + a[i-1]*ts + 1./2*j[i-1]*Math.pow(ts, 2)));
+        return getMomentary(time, v[0], v[segments], momentaryVelocity);
     }
 
     public double getMomentaryAcceleration(double time) { 
-        return getMomentary(time, a[0], isConstantAcceleration() ? 0 : a[segments], 
-                // a0 + j*t
-                (i, ts) -> (a[i-1] + j[i-1]*ts));
+        return getMomentary(time, a[0], isConstantAcceleration() ? 0 : a[segments], momentaryAcceleration);
     }
 
     public double getMomentaryJerk(double time) { 
-        return getMomentary(time, j[0], 0, (i, ts) -> (j[i-1]));
+        return getMomentary(time, j[0], 0, momentaryJerk);
     }
 
     public enum ErrorState {
@@ -512,7 +532,9 @@ public class MotionProfile {
             Logger.error(label+this+" has error: "+error);
         }
         else {
-            trace(label+": "+this);
+            if (traceEnabled) {
+                trace("{}: {}", label, this);
+            }
         }
     }
 
@@ -594,7 +616,9 @@ public class MotionProfile {
             return true;
         }
 
-        trace("\n### solving "+this);
+        if (traceEnabled) {
+            trace("\n### solving {}", this);
+        }
 
         // Calculate the effective entry/exit velocity after jerk to acceleration 0.
         double vEffEntry = getEffectiveEntryVelocity(jMax);
@@ -608,7 +632,9 @@ public class MotionProfile {
 
         // Immediately return right here if this is a valid solution (this happens if it is a very long move that reaches vMax).
         if (tMin == 0 && t[4] >= 0 && v[0] == v[segments] && a[0] == 0 && a[segments] == 0) {
-            trace("Vmax symmetrical move, immediate solution");
+            if (traceEnabled) {
+                trace("Vmax symmetrical move, immediate solution");
+            }
             return true;
         }
 
@@ -672,7 +698,9 @@ public class MotionProfile {
                 if (aMaxEntry == aMaxExit) {
                     double sd = signum*(s[segments]-s[0]);
                     vInitialGuess = signum*Math.sqrt(aMaxEntry*sd + 1./2*Math.pow(v[0], 2) + v[0]*v[7] - 1./2*Math.pow(v[7], 2));
-                    trace("Analytical solution with constant acceleration profile = "+vInitialGuess);
+                    if (traceEnabled) {
+                        trace("Analytical solution with constant acceleration profile = {}", vInitialGuess);
+                    }
                 }
             }
             else if (!hasOption(ProfileOption.SimplifiedSCurve)){
@@ -701,7 +729,9 @@ public class MotionProfile {
                             - 2*Math.sqrt(3*Math.pow(a[1], 4) + 18*a[1]*Math.pow(j[0], 2)*s3 + 9*Math.pow(j[0], 2)*Math.pow(v[1], 2)))/j[0];
                     double v3_2 = -1./6*(3*Math.pow(a[1], 2) 
                             + 2*Math.sqrt(3*Math.pow(a[1], 4) + 18*a[1]*Math.pow(j[0], 2)*s3 + 9*Math.pow(j[0], 2)*Math.pow(v[1], 2)))/j[0];
-                    trace("Analytical solution with constant acceleration segment (1) = "+vInitialGuess+" (2) = "+v3_2);
+                    if (traceEnabled) {
+                        trace("Analytical solution with constant acceleration segment (1) = {} (2) = {}", vInitialGuess, v3_2);
+                    }
                 }
                 else if (t[5] > (-t[4]*0.25)) { 
                     // Deceleration segment is long enough.
@@ -711,13 +741,17 @@ public class MotionProfile {
                             - 2*Math.sqrt(3*Math.pow(a[6], 4) - 18*a[6]*Math.pow(j[6], 2)*s4 + 9*Math.pow(j[6], 2)*Math.pow(v[6], 2)))/j[6]);
                     double v3_2 = (-1./6*(3*Math.pow(a[6], 2) 
                             + 2*Math.sqrt(3*Math.pow(a[6], 4) - 18*a[6]*Math.pow(j[6], 2)*s4 + 9*Math.pow(j[6], 2)*Math.pow(v[6], 2)))/j[6]);
-                    trace("Analytical solution with constant deceleration segment (1) = "+vInitialGuess+" (2) = "+v3_2);
+                    if (traceEnabled) {
+                        trace("Analytical solution with constant deceleration segment (1) = {} (2) = {}", vInitialGuess, v3_2);
+                    }
                 }
             }
             if (Double.isFinite(vInitialGuess) && Math.abs(vInitialGuess) > 0 && Math.abs(vInitialGuess) <= vMax) {
                 computeProfile(vInitialGuess, vEffEntry, vEffExit, tMin);
                 if (t[4] >= -ttol && t[4] < vttol) {
-                    trace("taken "+this);
+                    if (traceEnabled) {
+                        trace("taken {}", this);
+                    }
                     return true;
                 }
             }
@@ -745,7 +779,9 @@ public class MotionProfile {
                 else if (sResult >= -stol && (tMin == 0 || tResult >= tMin-ttol) && tResult < bestTime) {
                     bestVelocity = vPeak;
                     bestTime = tResult;
-                    trace("border case v="+vPeak+", s="+sResult+", t="+tResult+" "+this);
+                    if (traceEnabled) {
+                        trace("border case v={}, s={}, t={} {}", vPeak, sResult, tResult, this);
+                    }
                 }
             }
         }
@@ -777,7 +813,9 @@ public class MotionProfile {
 
             if (!(sValid0 || sValid1)) {
                 // None valid -> skip this region.
-                trace("region invalid in s "+vPeak0+" .. "+vPeak1+", s="+sResult0+" .. "+sResult1);
+                if (traceEnabled) {
+                    trace("region invalid in s {} .. {}, s={} .. {}", vPeak0, vPeak1, sResult0, sResult1);
+                }
                 continue;
             }
 
@@ -794,12 +832,16 @@ public class MotionProfile {
             boolean tValid1 = (tMin == 0 || tResult1 >= tMin-ttol);
             if (!(tValid0 || tValid1)) {
                 // None valid -> skip this region.
-                trace("region invalid in t "+vPeak0+" .. "+vPeak1+", s="+sResult0+" .. "+sResult1+", t="+tResult0+" .. "+tResult1);
+                if (traceEnabled) {
+                    trace("region invalid in t {} .. {}, s={} .. {}, t={} .. {}", vPeak0, vPeak1, sResult0, sResult1, tResult0, tResult1);
+                }
                 continue;
             }
 
             if (Math.min(tResult0,  tResult1) >= bestTime) {
-                trace("region eclipsed by best t "+bestTime+" "+vPeak0+" .. "+vPeak1+", s="+sResult0+" .. "+sResult1+", t="+tResult0+" .. "+tResult1);
+                if (traceEnabled) {
+                    trace("region eclipsed by best t {} {} .. {}, s={} .. {}, t={} .. {}", bestTime, vPeak0, vPeak1, sResult0, sResult1, tResult0, tResult1);
+                }
                 continue;
             }
 
@@ -843,12 +885,16 @@ public class MotionProfile {
                     tResult = time;
                     if (sResult < 0) {
                         // Great, we found it.
-                        trace("    found invalid mid area "+vSearch+" s "+sResult+" t "+tResult);
+                        if (traceEnabled) {
+                            trace("    found invalid mid area {} s {} t {}", vSearch, sResult, tResult);
+                        }
                         break;
                     }
                     if (sResult > sSecant) {
                         // Raising result -> overshoot, this means there is no invalid section. 
-                        trace("    overshot, no invalid mid area "+vSearch+" s "+sResult+" t "+tResult);
+                        if (traceEnabled) {
+                            trace("    overshot, no invalid mid area {} s {} t {}", vSearch, sResult, tResult);
+                        }
                         break;
                     }
                     // Apply secant method. 
@@ -856,7 +902,9 @@ public class MotionProfile {
                     if (Math.abs(gradient) < vttol) {
                         // Stuck in a local minimum. This must be a "tangent" situation, otherwise we should see overshoot.
                         // We simply don't support tangent cases.
-                        trace("    stuck local minimum, no invalid mid area "+vSearch+" s "+sResult+" t "+tResult);
+                        if (traceEnabled) {
+                            trace("    stuck local minimum, no invalid mid area {} s {} t {}", vSearch, sResult, tResult);
+                        }
                         break;
                     }
                     double delta = -sResult/gradient;
@@ -865,7 +913,9 @@ public class MotionProfile {
                     sSecant = sResult;
                     // Assign new value.
                     vSearch = Math.max(vSearch0, Math.min(vSearch1,  vSearch+delta));
-                    trace("    search for invalid mid area "+vSearch+" gradient "+gradient+" delta "+delta+" s "+sResult+" t "+tResult);
+                    if (traceEnabled) {
+                        trace("    search for invalid mid area {} gradient {} delta {} s {} t {}", vSearch, gradient, delta, sResult, tResult);
+                    }
                 }
                 while (true);
                 if (sResult < 0) {
@@ -910,24 +960,34 @@ public class MotionProfile {
                 }
             }
         }
-        trace("best velocity "+bestVelocity+" best time "+bestTime+" time-tMin "+(bestTime-tMin));
+        if (traceEnabled) {
+            trace("best velocity {} best time {} time-tMin {}", bestVelocity, bestTime, (bestTime-tMin));
+        }
         if (bestVelocity != v[4]) {
             // re-establish best solution
-            trace("  re-establish");
+            if (traceEnabled) {
+                trace("  re-establish");
+            }
             computeProfile(bestVelocity, vEffEntry, vEffExit, tMin);
         }
         if (tMin > 0 && tMin != time) {
             if (Math.abs(time/tMin - 1) < 0.001) {
                 // The solver may have slightly approximated. Stretch the profile into the exact minimum time. 
                 if (retimeProfile()) {
-                    trace("    retimed tMin "+tMin+" time "+time);
+                    if (traceEnabled) {
+                        trace("    retimed tMin {} time {}", tMin, time);
+                    }
                 }
                 else {
-                    trace("    not retimed tMin "+tMin+" time "+time);
+                    if (traceEnabled) {
+                        trace("    not retimed tMin {} time {}", tMin, time);
+                    }
                 }
             }
             else {
-                trace("    tMin not met");
+                if (traceEnabled) {
+                    trace("    tMin not met");
+                }
             }
         }
         return true;
@@ -978,7 +1038,9 @@ public class MotionProfile {
             // if the V&a mix are not the same on entry/exit and by chance still cancel out in the effective speed. 
             // We would need to calculate the displacement to still-stand and compare. For now, computeProfile() has to cope.
             if (signum == 0) {
-                trace("*** signum 0");
+                if (traceEnabled) {
+                    trace("*** signum 0");
+                }
             }
         }
         return signum;
@@ -991,13 +1053,19 @@ public class MotionProfile {
             double tMin, double bestTime,
             final int iterations, final double stol, final double vtol, final double ttol) {
 
-        trace("=== solveRegion("+vPeak0+" .. "+vPeak1+", s="+sResult0+" .. "+sResult1+", t="+tResult0+" .. "+tResult1+")");
+        if (traceEnabled) {
+            trace("=== solveRegion({} .. {}, s={} .. {}, t={} .. {})", vPeak0, vPeak1, sResult0, sResult1, tResult0, tResult1);
+        }
         if (Math.min(tResult0,  tResult1) >= bestTime) {
-            trace("region eclipsed by best t "+bestTime);
+            if (traceEnabled) {
+                trace("region eclipsed by best t {}", bestTime);
+            }
             return false;
         }
         if (bestTime == tMin) {
-            trace("region eclipsed by best t == min t "+bestTime);
+            if (traceEnabled) {
+                trace("region eclipsed by best t == min t {}", bestTime);
+            }
             return false;
         }
 
@@ -1037,7 +1105,9 @@ public class MotionProfile {
 
             double sResult = sign*(s[4] - s[3]);
             double tResult = time;
-            trace("vPeak = "+vPeak+" s="+sResult+" t-tMin="+(time-tMin)+" "+this);
+            if (traceEnabled) {
+                trace("vPeak = {} s={} t-tMin={} {}", vPeak, sResult, (time-tMin), this);
+            }
             double magnitude = Math.max(eps, Math.min(maxMagnitude, 0.0001*(Math.abs(s[3]-s[0])+Math.abs(s[segments]-s[4]))));
             if (Math.abs(vPeak - vSecant) < magnitude*vtol) {
                 converging++;
@@ -1049,7 +1119,9 @@ public class MotionProfile {
                 // The solution is valid, but it may not be optimal (yet).
                 if (tResult < tMin + ttol || converging >= 2) {
                     // That's an optimal solution
-                    trace("taken");
+                    if (traceEnabled) {
+                        trace("taken");
+                    }
                     return true;
                 }
                 else {
@@ -1064,12 +1136,16 @@ public class MotionProfile {
                     // Restore the previously valid solution after converging (turns out there was not a better one).
                     computeProfile(vValid, vEffEntry, vEffExit, tMin);
                     // That's a solution
-                    trace("taken previous valid solution after converging "+vValid);
+                    if (traceEnabled) {
+                        trace("taken previous valid solution after converging {}", vValid);
+                    }
                     return true;
                 }
                 else {
                     // The was no valid solution
-                    trace("** giving up");
+                    if (traceEnabled) {
+                        trace("** giving up");
+                    }
                     return false;
                 }
             }
@@ -1215,7 +1291,9 @@ public class MotionProfile {
             if (profile.time > maxTime) {
                 maxTime = profile.time;
                 leadProfile = profile;
-                trace("    max time "+maxTime+" from "+profile);
+                if (traceEnabled) {
+                    trace("    max time {} from {}", maxTime, profile);
+                }
             }
         }
         // Re-time the others.
@@ -1340,7 +1418,9 @@ public class MotionProfile {
                         // Sometimes the solution was at/near entry/exit speeds and in these cases, it is possible
                         // that the new tMin is impossible, i.e. more time is needed. 
                         // --> restart the process.
-                        trace("    need to restart synchronize, maxTime "+maxTime+" breached with "+profile.time+" on "+profile);
+                        if (traceEnabled) {
+                            trace("    need to restart synchronize, maxTime {} breached with {} on {}", maxTime, profile.time, profile);
+                        }
                         maxTime = profile.time;
                         restart = true;
                         break;
@@ -1386,6 +1466,9 @@ public class MotionProfile {
      * @param t7
      */
     public void extractProfileSectionFrom(MotionProfile solvedProfile, double t0, double t7) {
+        if (Double.isNaN(t0) || Double.isNaN(t7)) {
+            throw new IllegalArgumentException("Profile section "+t0+" .. "+t7+" is undefined in "+solvedProfile);
+        }
         if (t0 == 0 && t7 == solvedProfile.time) {
             // Full 1:1 profile extraction.
             copyProfileSolution(solvedProfile);
@@ -2070,7 +2153,14 @@ solve(eq, t)            # Solve for t
         }
     }
 
-    public Double getForwardCrossingTime(double sCross, boolean halfProfile) {
+    /**
+     * Get the first time the profile crosses the given location.
+     * 
+     * @param sCross
+     * @param halfProfile If true, only search up to the middle of the profile.
+     * @return The crossing time, or NaN if the location is not crossed. 
+     */
+    public double getForwardCrossingTime(double sCross, boolean halfProfile) {
         double tSeg = t[0];
         if (halfProfile) {
             // Check if we're beyond half the profile anyway.
@@ -2083,16 +2173,23 @@ solve(eq, t)            # Solve for t
             }
         }
         for (int i = 1; i <= (halfProfile ? 3 : segments); i++) {
-            Double ts = getSegmentCrossingTime(sCross, tSeg, i, true);
-            if (ts != null) {
+            double ts = getSegmentCrossingTime(sCross, tSeg, i, true);
+            if (!Double.isNaN(ts)) {
                 return ts;
             }
             tSeg += t[i];
         }
-        return null;
+        return Double.NaN;
     }
 
-    public Double getBackwardCrossingTime(double sCross, boolean halfProfile) {
+    /**
+     * Get the last time the profile crosses the given location.
+     * 
+     * @param sCross
+     * @param halfProfile If true, only search down to the middle of the profile.
+     * @return The crossing time, or NaN if the location is not crossed. 
+     */
+    public double getBackwardCrossingTime(double sCross, boolean halfProfile) {
         double tSeg = time - t[segments+1];
         if (halfProfile) {
             // Check if we're beyond half the profile anyway.
@@ -2106,15 +2203,15 @@ solve(eq, t)            # Solve for t
         }
         for (int i = segments; i >= (halfProfile ? 4 : 1); i--) {
             tSeg -= t[i];
-            Double ts = getSegmentCrossingTime(sCross, tSeg, i, false);
-            if (ts != null) {
+            double ts = getSegmentCrossingTime(sCross, tSeg, i, false);
+            if (!Double.isNaN(ts)) {
                 return ts;
             }
         }
-        return null;
+        return Double.NaN;
     }
 
-    protected Double getSegmentCrossingTime(double sCross, double tSeg, int i, boolean forward) {
+    protected double getSegmentCrossingTime(double sCross, double tSeg, int i, boolean forward) {
         double ti = t[i];
         double j = this.j[i-1];
 
@@ -2160,23 +2257,21 @@ solve(eq, t)            # Solve for t
             double ti0 = 0;
             double ti1 = Math.max(ti0, Math.min(ti, -(a0 + sTerm)/j));
             double ti2 = Math.max(ti0, Math.min(ti, -(a0 - sTerm)/j));
-            // Now treat each interval and solve for roots numerically. 
-            Function<Double, Double> f = (t) -> (-ds + v0*t + 1./2*a0*Math.pow(t, 2) + 1./6*j*Math.pow(t, 3)); 
-            Function<Double, Double> g = (t) -> (v0 + a0*t + 1./2*j*Math.pow(t, 2));
             if (ti1 > ti2) {
                 // swap
                 double tmp = ti2;
                 ti2 = ti1;
                 ti1 = tmp;
             }
+            // Now treat each interval and solve for roots numerically. 
             // We want the first (forward==true) or last one in time.
-            double[][]intervals = (forward ? 
-                    new double[][] {{ti0, ti1}, {ti1, ti2}, {ti2, ti}}
-            :       new double[][] {{ti2, ti}, {ti1, ti2}, {ti0, ti1}});
-            for (double [] interval : intervals) {
-                if (interval[0] < interval[1]) {
-                    Double ts = newtonSolve(interval[0], interval[1], f, g, true);
-                    if (ts != null) {
+            for (int k = 0; k < 3; k++) {
+                int interval = forward ? k : 2 - k;
+                double x0 = (interval == 0 ? ti0 : interval == 1 ? ti1 : ti2);
+                double x1 = (interval == 0 ? ti1 : interval == 1 ? ti2 : ti);
+                if (x0 < x1) {
+                    double ts = newtonSolve(x0, x1, -ds, v0, a0, j, true);
+                    if (!Double.isNaN(ts)) {
                         return ts + tSeg;
                     }
                 }
@@ -2220,22 +2315,27 @@ solve(eq, t)            # Solve for t
                 return ts + tSeg;
             }
         }
-        return null;
+        return Double.NaN;
     }
 
-    protected Double newtonSolve(double x0, double x1, Function<Double, Double> f,
-            Function<Double, Double> g, boolean zeroes) {
+    /**
+     * Numerically solve the segment polynomial s0 + v0*t + 1/2*a0*t^2 + 1/6*j*t^3 in the interval 
+     * [x0, x1] for zeroes (or local minimum) using Newton's method. 
+     * 
+     * @return The solution or NaN if none was found.
+     */
+    protected double newtonSolve(double x0, double x1, double s0, double v0, double a0, double j, boolean zeroes) {
         // Start value.
         double x = (x0 + x1)*0.5;
         int escapeNeg = 0;
         int escapePos = 0;
         for(int iter = 0; iter < iterations; iter++) {
-            double y = f.apply(x);
-            double dydt = g.apply(x);
+            double y = s0 + v0*x + 1./2*a0*Math.pow(x, 2) + 1./6*j*Math.pow(x, 3);
+            double dydt = v0 + a0*x + 1./2*j*Math.pow(x, 2);
 
             if (Math.abs(dydt) < ttol) {
                 // Stop if the denominator is too small
-                return null;
+                return Double.NaN;
             }
             // Do Newton's computation. Limit to interval.
             double xn = Math.max(x0, Math.min(x1, x - y/dydt));  
@@ -2243,14 +2343,14 @@ solve(eq, t)            # Solve for t
             if (xn <= x0) {
                 if (++escapeNeg > 1) {
                     // Multiple times outside, escaped. 
-                    return null;
+                    return Double.NaN;
                 }
                 escapePos = 0;
             }
             else if (xn >= x1) {
                 if (++escapePos > 1) {
                     // Multiple times outside, escaped. 
-                    return null;
+                    return Double.NaN;
                 }
                 escapeNeg = 0;
             }
@@ -2494,8 +2594,25 @@ solve(eq, t)            # Solve for t
         computeProfile(vSolved, vEffEntry, vEffExit, tMin);
         this.eval = eval;
     }
-    static void trace(String message) {
+    /**
+     * Prints the trace message, if tracing is enabled. The arguments are only formatted into the "{}" 
+     * placeholders when it is. Call sites must still be guarded with if (traceEnabled), otherwise the 
+     * arguments array is allocated and the primitive arguments are boxed, even when tracing is disabled. 
+     * 
+     * @param format
+     * @param arguments
+     */
+    static void trace(String format, Object... arguments) {
         if (traceEnabled) {
+            StringBuilder message = new StringBuilder();
+            int from = 0;
+            for (Object argument : arguments) {
+                int to = format.indexOf("{}", from);
+                message.append(format, from, to);
+                message.append(argument);
+                from = to + 2;
+            }
+            message.append(format, from, format.length());
             System.out.println(message);
         }
     }
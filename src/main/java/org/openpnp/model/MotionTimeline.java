@@ -0,0 +1,194 @@
+package org.openpnp.model;
+
+import java.util.Arrays;
+
+/**
+ * The real-time timeline of planned {@link Motion}s, indexed by their planned end time.
+ *
+ * The timeline is written by the motion planner only, but it is read by many threads (Camera settling, simulation,
+ * GUI, etc.). Readers never block: they work on an immutable {@link Snapshot} that is published after each change.
+ *
+ * The planned times are held in a primitive double[] array parallel to the Motion[] array, so lookups are a plain
+ * binary search. The arrays have a fixed capacity. New motions are appended behind the published window, while
+ * eviction just advances its start. Once the end of the arrays is reached, the window is compacted into fresh
+ * arrays, so an older Snapshot that is still being searched is never overwritten. Motions are evicted once they
+ * ended the horizon or more before the newest motion starts, or when the capacity is exhausted.
+ *
+ */
+public class MotionTimeline {
+    /**
+     * Immutable view of the timeline.
+     */
+    public static class Snapshot {
+        private final double[] times;
+        private final Motion[] motions;
+        private final int begin;
+        private final int end;
+
+        private Snapshot(double[] times, Motion[] motions, int begin, int end) {
+            this.times = times;
+            this.motions = motions;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        public boolean isEmpty() {
+            return begin == end;
+        }
+
+        public int size() {
+            return end - begin;
+        }
+
+        /**
+         * @return The planned end time of the last motion or Double.NEGATIVE_INFINITY if empty.
+         */
+        public double getLastTime() {
+            return isEmpty() ? Double.NEGATIVE_INFINITY : times[end - 1];
+        }
+
+        /**
+         * @return The planned end time of the first retained motion or Double.POSITIVE_INFINITY if empty.
+         */
+        public double getFirstTime() {
+            return isEmpty() ? Double.POSITIVE_INFINITY : times[begin];
+        }
+
+        public Motion getLastMotion() {
+            return isEmpty() ? null : motions[end - 1];
+        }
+
+        /**
+         * Get the motion that is ongoing at the given time i.e. the first motion that ends strictly after it.
+         *
+         * @param time
+         * @return The motion or null if the planned motion ended before the given time.
+         */
+        public Motion getMotionAt(double time) {
+            int index = higherIndex(times, begin, end, time);
+            return index < end ? motions[index] : null;
+        }
+    }
+
+    private final double horizon;
+    private final int capacity;
+
+    private double[] times;
+    private Motion[] motions;
+    private int begin;
+    private int end;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param capacity The maximum number of motions retained.
+     * @param horizon The time in seconds a motion is retained after it ended, relative to the start of the newest motion.
+     */
+    public MotionTimeline(int capacity, double horizon) {
+        this.capacity = Math.max(1, capacity);
+        this.horizon = horizon;
+        // Use twice the capacity, so the compaction only happens every capacity appends.
+        this.times = new double[this.capacity*2];
+        this.motions = new Motion[this.capacity*2];
+        this.snapshot = new Snapshot(times, motions, 0, 0);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Append the motion at its planned end time. Must only be called by the planning thread.
+     *
+     * @param motion
+     */
+    public synchronized void add(Motion motion) {
+        double time = motion.getPlannedTime1();
+        if (end > begin && time <= times[end - 1]) {
+            throw new IllegalArgumentException("Motion planned time "+time+" not after last planned time "+times[end - 1]);
+        }
+        // Evict by horizon and capacity.
+        begin = higherIndex(times, begin, end, motion.getPlannedTime0() - horizon);
+        if (end - begin >= capacity) {
+            begin = end - capacity + 1;
+        }
+        if (end == times.length) {
+            // Compact into fresh arrays, any published snapshot may still reference the old ones.
+            double[] newTimes = new double[times.length];
+            Motion[] newMotions = new Motion[motions.length];
+            System.arraycopy(times, begin, newTimes, 0, end - begin);
+            System.arraycopy(motions, begin, newMotions, 0, end - begin);
+            times = newTimes;
+            motions = newMotions;
+            end -= begin;
+            begin = 0;
+        }
+        times[end] = time;
+        motions[end] = motion;
+        end++;
+        publish();
+    }
+
+    /**
+     * Remove the motions that ended before the given time.
+     *
+     * @param time
+     */
+    public synchronized void clearOlderThan(double time) {
+        int index = begin;
+        while (index < end && times[index] < time) {
+            index++;
+        }
+        if (index != begin) {
+            begin = index;
+            publish();
+        }
+    }
+
+    public synchronized void clear() {
+        times = new double[times.length];
+        motions = new Motion[motions.length];
+        begin = 0;
+        end = 0;
+        publish();
+    }
+
+    /**
+     * Binary search in the planned times.
+     *
+     * @return The index of the first planned time in [begin, end) that is strictly after the given time, or end.
+     */
+    private static int higherIndex(double[] times, int begin, int end, double time) {
+        int low = begin;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(times, motions, begin, end);
+    }
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = this.snapshot;
+        return "MotionTimeline [size=" + snapshot.size() + ", times="
+                + Arrays.toString(Arrays.copyOfRange(snapshot.times, snapshot.begin, snapshot.end)) + "]";
+    }
+}
@@ -83,6 +83,7 @@ public class ScriptFileWatcher {
 
             @Override
             public void actionPerformed(ActionEvent e) {
+                scripting.refreshEventScripts();
                 synchronizeMenu(menu, scripting.getScriptsDirectory());
             }
         });
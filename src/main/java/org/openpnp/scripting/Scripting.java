@@ -2,11 +2,24 @@ package org.openpnp.scripting;
 
 import java.io.File;
 import java.io.FileReader;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
@@ -27,6 +40,112 @@ public class Scripting {
     private final File scriptsDirectory;
     private final File eventsDirectory;
 
+    // The event scripts by event name, or null if the events directory must be scanned (again).
+    private volatile Map<String, List<File>> eventScripts;
+    private int eventScriptsVersion;
+    private boolean eventsWatcherStarted;
+    private final Map<File, EventScript> compiledEventScripts = new ConcurrentHashMap<>();
+    private final Map<String, EventStatistics> eventStatistics = new ConcurrentHashMap<>();
+
+    /**
+     * Dispatch time statistics of an event, counted when at least one script was executed.
+     */
+    public static class EventStatistics {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized double getAverageMs() {
+            return count == 0 ? 0 : totalNanos*1e-6/count;
+        }
+
+        public synchronized double getMaxMs() {
+            return maxNanos*1e-6;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d x, avg. %.3f ms, max. %.3f ms", getCount(), getAverageMs(), getMaxMs());
+        }
+    }
+
+    /**
+     * An event script with its engine and, where the engine supports it, the compiled script. Each execution
+     * gets fresh bindings, so like with a new engine, nothing is left over from the previous execution.
+     */
+    private class EventScript {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final ScriptEngine engine;
+        private final CompiledScript compiledScript;
+        private final String source;
+        private final boolean threadSafe;
+
+        EventScript(File file) throws Exception {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.engine = manager.getEngineByExtension(Files.getFileExtension(file.getName()));
+            this.source = Files.asCharSource(file, Charset.defaultCharset()).read();
+            CompiledScript compiledScript = null;
+            if (engine instanceof Compilable) {
+                try {
+                    compiledScript = ((Compilable) engine).compile(source);
+                }
+                catch (Exception | Error e) {
+                    // Some engines don't really support it (BeanShell throws an Error), evaluate the source instead.
+                    Logger.trace("Scripting cannot compile " + file.getName() + ": " + e);
+                }
+            }
+            this.compiledScript = compiledScript;
+            this.threadSafe = (engine.getFactory().getParameter("THREADING") != null);
+        }
+
+        boolean isCurrent() {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+
+        void execute(Map<String, Object> additionalGlobals) throws Exception {
+            Bindings bindings = engine.createBindings();
+            bindings.put("config", Configuration.get());
+            bindings.put("machine", Configuration.get().getMachine());
+            bindings.put("gui", MainFrame.get());
+            bindings.put("scripting", Scripting.this);
+            bindings.put(ScriptEngine.FILENAME, file.getName());
+            if (additionalGlobals != null) {
+                bindings.putAll(additionalGlobals);
+            }
+            if (threadSafe) {
+                eval(bindings);
+            }
+            else {
+                synchronized (this) {
+                    eval(bindings);
+                }
+            }
+        }
+
+        private void eval(Bindings bindings) throws Exception {
+            if (compiledScript != null) {
+                compiledScript.eval(bindings);
+            }
+            else {
+                engine.eval(source, bindings);
+            }
+        }
+    }
+
     public Scripting(File scriptsDirectory) {
         this.scriptsDirectory = scriptsDirectory;
         
@@ -111,19 +230,120 @@ public class Scripting {
         }
     }
 
+    /**
+     * Executes the event scripts named like the event in the events directory. The event scripts are indexed once
+     * and the index is refreshed when the events directory changes. If there is no script for the event, this 
+     * is just a map lookup. 
+     * 
+     * @param event
+     * @param globals
+     * @throws Exception
+     */
     public void on(String event, Map<String, Object> globals) throws Exception {
-        Logger.trace("Scripting.on " + event);
+        Logger.trace("Scripting.on {}", event);
         if (eventsDirectory == null) {
             return;
         }
-        for (File script : FileUtils.listFiles(eventsDirectory, extensions, false)) {
+        List<File> scripts = getEventScripts().get(event);
+        if (scripts == null) {
+            return;
+        }
+        long t0 = System.nanoTime();
+        try {
+            for (File script : scripts) {
+                Logger.trace("Scripting.on found {}", script.getName());
+                EventScript eventScript = compiledEventScripts.get(script);
+                if (eventScript == null || !eventScript.isCurrent()) {
+                    eventScript = new EventScript(script);
+                    compiledEventScripts.put(script, eventScript);
+                }
+                eventScript.execute(globals);
+            }
+        }
+        finally {
+            long dt = System.nanoTime() - t0;
+            eventStatistics.computeIfAbsent(event, e -> new EventStatistics()).record(dt);
+            Logger.trace("Scripting.on {} took {} ms", event, String.format("%.3f", dt*1e-6));
+        }
+    }
+
+    /**
+     * @return The dispatch time statistics by event name.
+     */
+    public Map<String, EventStatistics> getEventStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<>(eventStatistics));
+    }
+
+    /**
+     * Forces the events directory to be scanned again on the next event.
+     */
+    public synchronized void refreshEventScripts() {
+        eventScriptsVersion++;
+        eventScripts = null;
+    }
+
+    private Map<String, List<File>> getEventScripts() {
+        Map<String, List<File>> eventScripts = this.eventScripts;
+        if (eventScripts != null) {
+            return eventScripts;
+        }
+        int version;
+        synchronized (this) {
+            startEventsWatcher();
+            version = eventScriptsVersion;
+        }
+        Map<String, List<File>> scripts = new HashMap<>();
+        List<File> files = new ArrayList<>(FileUtils.listFiles(eventsDirectory, extensions, false));
+        Collections.sort(files);
+        for (File script : files) {
             if (!script.isFile()) {
                 continue;
             }
-            if (FilenameUtils.getBaseName(script.getName()).equals(event)) {
-                Logger.trace("Scripting.on found " + script.getName());
-                execute(script, globals);
+            scripts.computeIfAbsent(FilenameUtils.getBaseName(script.getName()), e -> new ArrayList<>())
+                .add(script);
+        }
+        compiledEventScripts.keySet().retainAll(files);
+        synchronized (this) {
+            if (version == eventScriptsVersion) {
+                // Not changed in the meantime.
+                this.eventScripts = scripts;
             }
         }
+        return scripts;
+    }
+
+    private void startEventsWatcher() {
+        if (eventsWatcherStarted) {
+            return;
+        }
+        // Only try once.
+        eventsWatcherStarted = true;
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            eventsDirectory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread thread = new Thread(() -> {
+                for (;;) {
+                    try {
+                        // wait for an event
+                        WatchKey key = watchService.take();
+                        key.pollEvents();
+                        key.reset();
+                        refreshEventScripts();
+                    }
+                    catch (InterruptedException e) {
+                        break;
+                    }
+                    catch (Exception e) {
+                        Logger.warn(e);
+                    }
+                }
+            }, "Scripting events watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        catch (Exception e) {
+            Logger.warn(e, "Scripting cannot watch the events directory, use refresh after changes.");
+        }
     }
 }
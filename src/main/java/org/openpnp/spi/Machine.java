@@ -20,11 +20,13 @@
 package org.openpnp.spi;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
 import org.openpnp.model.Location;
+import org.openpnp.model.Part;
 import org.openpnp.model.Solutions;
 
 import com.google.common.util.concurrent.FutureCallback;
@@ -73,6 +75,22 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
      */
     public List<Feeder> getFeeders();
 
+    /**
+     * Get the enabled Feeders that feed the given Part, in the order of getFeeders().
+     * 
+     * @param part
+     * @return
+     */
+    public default List<Feeder> getEnabledFeeders(Part part) {
+        List<Feeder> list = new ArrayList<>();
+        for (Feeder feeder : getFeeders()) {
+            if (feeder.getPart() == part && feeder.isEnabled()) {
+                list.add(feeder);
+            }
+        }
+        return list;
+    }
+
     public Feeder getFeeder(String id);
 
     public Feeder getFeederByName(String name);
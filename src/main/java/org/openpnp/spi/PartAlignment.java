@@ -52,6 +52,52 @@ public interface PartAlignment extends Identifiable, Named, PropertySheetHolder
      * @throws Exception if the alignment fails for any reason. The caller may retry.
      */
     PartAlignmentOffset findOffsets(Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle) throws Exception;
+
+    /**
+     * A part alignment operation started by startAlignment() and completed by getOffsets().
+     */
+    public interface PendingAlignment {
+        /**
+         * Waits for the part alignment operation to complete and returns its result. If needed, further
+         * alignment passes are performed, moving the nozzle again.
+         * @return The offsets, like findOffsets().
+         * @throws Exception if the alignment fails for any reason. The caller may retry with findOffsets().
+         */
+        PartAlignmentOffset getOffsets() throws Exception;
+
+        /**
+         * @return The time in milliseconds the operation was processed in the background, while the caller 
+         * could do other things.
+         */
+        default double getOverlappedTimeMs() {
+            return 0;
+        }
+
+        /**
+         * Abandons the operation, if getOffsets() was not called.
+         */
+        default void cancel() {
+        }
+    }
+
+    /**
+     * Start the part alignment operation for pipelining with other nozzles. The part is moved to the
+     * alignment position and captured, but the processing may continue in the background, while the
+     * caller moves on to start the alignment of the next nozzle. The result is then obtained from the
+     * returned PendingAlignment. The default implementation performs the whole part alignment operation
+     * right away. 
+     * @param part
+     * @param boardLocation
+     * @param placementLocation
+     * @param nozzle
+     * @return
+     * @throws Exception if the alignment fails for any reason. The caller may retry with findOffsets().
+     */
+    default PendingAlignment startAlignment(Part part, BoardLocation boardLocation, Location placementLocation, 
+            Nozzle nozzle) throws Exception {
+        PartAlignmentOffset offsets = findOffsets(part, boardLocation, placementLocation, nozzle);
+        return () -> offsets;
+    }
     
     /**
      * Get a Wizard for configuring the PartAlignment instance properties for a specific
@@ -56,6 +56,11 @@ public abstract class AbstractAxis extends AbstractModelObject implements Axis {
     @Attribute(required = false)
     protected Axis.Type type;
 
+    /**
+     * The machine-wide index of the axis, used for dense AxesLocation storage.
+     */
+    private final transient int axisIndex = AxesLocation.newAxisIndex();
+
     public AbstractAxis() {
         this.id = Configuration.createId("AXS");
         this.name = getClass().getSimpleName();
@@ -78,6 +83,10 @@ public abstract class AbstractAxis extends AbstractModelObject implements Axis {
         firePropertyChange("name", oldValue, name);
     }
 
+    public int getAxisIndex() {
+        return axisIndex;
+    }
+
     @Override
     public Axis.Type getType() {
         return type;
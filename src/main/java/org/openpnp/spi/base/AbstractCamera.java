@@ -29,15 +29,20 @@ import org.openpnp.CameraListener;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.MainFrame;
 import org.openpnp.gui.support.Icons;
+import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Motion;
+import org.openpnp.model.Motion.MotionOption;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.Machine;
 import org.openpnp.spi.MotionPlanner.CompletionType;
 import org.openpnp.spi.VisionProvider;
 import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.NanosecondTime;
 import org.openpnp.util.SimpleGraph;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -189,6 +194,11 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
     public static final String CAPTURE = "C"; 
     public static final String THRESHOLD = "TH"; 
     public static final String DATA = "D"; 
+    /**
+     * The time range of the settle graph data, in milliseconds. Only the most recent data points are kept, so the 
+     * graph stays bounded, even with a long settle timeout. 
+     */
+    public static final double SETTLE_GRAPH_RETENTION = 10000.0;
     
     protected TreeMap<Double, BufferedImage> recordedImages = null;
     protected TreeMap<Double, BufferedImage> heatMappedImages = null;
@@ -310,12 +320,16 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
             // init the difference data
             settleGraph.getRow(DIFFERENCE, DATA)
             .setColor(new Color(255, 0, 0));
+            settleGraph.getRow(DIFFERENCE, DATA)
+            .setRetention(SETTLE_GRAPH_RETENTION);
             // setpoint
             settleGraph.getRow(DIFFERENCE, THRESHOLD)
             .setColor(new Color(0, 180, 0));
             // init the capture data
             settleGraph.getRow(BOOLEAN, CAPTURE)
             .setColor(new Color(00, 0x5B, 0xD9)); // the OpenPNP blue
+            settleGraph.getRow(BOOLEAN, CAPTURE)
+            .setRetention(SETTLE_GRAPH_RETENTION);
             return settleGraph;
         }
         else {
@@ -326,21 +340,138 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
         }
     }
 
-    private BufferedImage autoSettleAndCapture() {
+    /**
+     * A frame for auto settling, with the time it was captured.
+     */
+    protected static class SettleFrame {
+        private final BufferedImage image;
+        private final long captureTime;
+
+        /**
+         * @param image
+         * @param captureTime The NanosecondTime.getRuntime() when the frame was captured.
+         */
+        public SettleFrame(BufferedImage image, long captureTime) {
+            this.image = image;
+            this.captureTime = captureTime;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public long getCaptureTime() {
+            return captureTime;
+        }
+    }
+
+    /**
+     * Captures a frame for auto settling, that was taken after the given time. The default implementation 
+     * issues a fresh capture(). Cameras with a continuous frame stream can override this, to take the frames 
+     * from the stream, including those that were captured while the motion was still being completed.
+     * 
+     * @param time A NanosecondTime.getRuntime().
+     * @return
+     */
+    protected SettleFrame captureSettleFrame(long time) {
+        long t = NanosecondTime.getRuntime();
+        BufferedImage image = capture();
+        return new SettleFrame(image, Math.max(t, time + 1));
+    }
+
+    /**
+     * @param time A NanosecondTime.getRuntime().
+     * @return True if the motion planner has the machine in motion at the given time, i.e. a frame captured 
+     * at this time cannot be settled. 
+     */
+    protected boolean isMidMotion(long time) {
+        Machine machine = Configuration.get().getMachine();
+        if (machine instanceof ReferenceMachine && machine.isEnabled()) {
+            Motion motion = ((ReferenceMachine) machine).getMotionPlanner()
+                    .getMomentaryMotion(time*1e-9);
+            return motion != null && !motion.hasOption(MotionOption.Stillstand) && !motion.isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * The preallocated Mats for processing one auto settle frame. Two of these are used alternately, so 
+     * the current frame can be compared to the last one without allocating Mats per frame.
+     */
+    private static class SettleBuffer {
+        Mat frame = new Mat();
+        final Mat gray = new Mat();
+        final Mat channel = new Mat();
+        final Mat contrast = new Mat();
+        final Mat resized = new Mat();
+        final Mat gradient16 = new Mat();
+        final Mat gradient = new Mat();
+        Mat crop;
+
+        Mat crop(Mat mat, Rect rect) {
+            if (crop != null) {
+                crop.release();
+            }
+            crop = mat.submat(rect);
+            return crop;
+        }
+
+        void release() {
+            for (Mat mat : new Mat[] { frame, gray, channel, contrast, resized, gradient16, gradient, crop }) {
+                if (mat != null) {
+                    mat.release();
+                }
+            }
+        }
+    }
+
+    private SettleBuffer[] settleBuffers;
+    /**
+     * Guards the settleBuffers. This is not the camera monitor, as that is also taken by the capture threads, 
+     * which must go on delivering frames while settling.
+     */
+    private final Object settleBuffersLock = new Object();
+
+    private BufferedImage autoSettleAndCapture(long startTime) {
+        synchronized (settleBuffersLock) {
+            return autoSettleAndCaptureLocked(startTime);
+        }
+    }
+
+    private BufferedImage autoSettleAndCaptureLocked(long startTime) {
         Mat mask = null;
         Mat maskFullsize = null;
         Mat lastSettleMat = null;
+        if (settleBuffers == null) {
+            settleBuffers = new SettleBuffer[] { new SettleBuffer(), new SettleBuffer() };
+        }
+
+        long t0 = System.currentTimeMillis();
+        long timeout = t0 + settleTimeoutMs;
+        int debounceCount = 0;
+        int frameCount = 0;
+        int skippedCount = 0;
+        long frameTime = startTime;
+        SimpleGraph settleGraph = startDiagnostics();
+        TreeMap<Double, BufferedImage> settleImages = null;
+        if (settleGraph != null) {
+            settleImages = new TreeMap<>();
+        }
+
+        // Gaussian blur is the most expensive operation, so if it is large, we rescale the image instead.
+        // This is effectively a box blur followed (later) by a Gaussian blur, i.e. still reasonable quality.
+        // Rescaling will also make all subsequent steps significantly faster.
+        // Do these calculations up front.
+        final int resizeToMaxGaussianKernelSize = 5;
+        int gaussianBlurEff = settleGaussianBlur;
+        int divisor = (settleGaussianBlur > resizeToMaxGaussianKernelSize) ? 
+                (settleGaussianBlur+resizeToMaxGaussianKernelSize/2)/resizeToMaxGaussianKernelSize
+                : 1;
+        if (divisor > 1) {
+            gaussianBlurEff = ((settleGaussianBlur)/divisor)|1;
+        }
 
         try {
-            long t0 = System.currentTimeMillis();
-            long timeout = t0 + settleTimeoutMs;
-            int debounceCount = 0;
-            final double seq = 0.01;
-            SimpleGraph settleGraph = startDiagnostics();
-            TreeMap<Double, BufferedImage> settleImages = null;
-            if (settleGraph != null) {
-                settleImages = new TreeMap<>();
-            }
             while(true) {
                 // Capture an image. 
                 if (settleGraph != null) {
@@ -349,8 +480,10 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 1);
                 }
 
-                // The actual capture.
-                BufferedImage image = capture();
+                // The actual capture, i.e. the next frame.
+                SettleFrame frame = captureSettleFrame(frameTime);
+                frameTime = frame.getCaptureTime();
+                BufferedImage image = frame.getImage();
 
                 double tCapture = 0.0; 
                 if (settleGraph != null) {
@@ -360,22 +493,22 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 0);
                 }
 
+                if (System.currentTimeMillis() <= timeout && isMidMotion(frameTime)) {
+                    // The frame was captured while the machine was still moving, according to the motion plan.
+                    // No need to even look at it. 
+                    skippedCount++;
+                    continue;
+                }
+
                 // Convert to Mat and if not full color, convert to gray.
-                Mat mat = OpenCvUtils.toMat(image);
+                SettleBuffer buffer = settleBuffers[frameCount++ % 2];
+                buffer.frame = OpenCvUtils.toMat(image, buffer.frame);
+                Mat mat = buffer.frame;
                 if (!settleFullColor) {
-                    Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY);
+                    Imgproc.cvtColor(mat, buffer.gray, Imgproc.COLOR_BGR2GRAY);
+                    mat = buffer.gray;
                 }
 
-                // Gaussian blur is the most expensive operation, so if it is large, we rescale the image instead.
-                // This is effectively a box blur followed (later) by a Gaussian blur, i.e. still reasonable quality.
-                // Rescaling will also make all subsequent steps significantly faster.
-                // Do these calculations up front.
-                final int resizeToMaxGaussianKernelSize = 5;
-                int gaussianBlurEff = settleGaussianBlur;
-                int divisor = (resizeToMaxGaussianKernelSize > resizeToMaxGaussianKernelSize) ? 
-                        (settleGaussianBlur+resizeToMaxGaussianKernelSize/2)/resizeToMaxGaussianKernelSize
-                        : 1;
-
                 int maskDiameter = 0;
                 if (settleMaskCircle > 0.0) {
                     // Crop the image to the mask dimension. 
@@ -390,9 +523,7 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                     Rect rectCrop = new Rect(
                             (mat.cols() - maskedWidth)/2, (mat.rows() - maskedHeight)/2,
                             maskedWidth, maskedHeight);
-                    Mat cropMat = mat.submat(rectCrop);
-                    mat.release();
-                    mat = cropMat;
+                    mat = buffer.crop(mat, rectCrop);
                     if (maskFullsize == null) {
                         // This must be the first frame, also create the mask circle.
                         maskFullsize = createMask(mat, maskDiameter);
@@ -406,16 +537,15 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                 if (settleContrastEnhance > 0.0) {
                     // Enhance the contrast. Note we need to do this before scaling the image down, so mixed
                     // colors can be created in the full dynamic range. 
-                    mat = enhanceContrast(mat, maskFullsize);
+                    enhanceContrast(mat, maskFullsize, buffer.channel, buffer.contrast);
+                    mat = buffer.contrast;
                 }
 
                 if (divisor > 1) {
                     // Scale the image down, see the calculations further up.  
-                    gaussianBlurEff = ((settleGaussianBlur)/divisor)|1;
-                    Mat resizeMat = new Mat();
-                    Imgproc.resize(mat, resizeMat, new Size(mat.cols()/divisor, mat.rows()/divisor), 1.0/divisor, 1.0/divisor);
-                    mat.release();
-                    mat = resizeMat;
+                    Imgproc.resize(mat, buffer.resized, new Size(mat.cols()/divisor, mat.rows()/divisor), 
+                            1.0/divisor, 1.0/divisor, Imgproc.INTER_AREA);
+                    mat = buffer.resized;
                     maskDiameter /= divisor;
                 }
 
@@ -431,11 +561,9 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
 
                 if (settleGradients) {
                     // Apply Laplacian transform.
-                    Mat gradientMat = new Mat();
-                    Imgproc.Laplacian(mat, gradientMat, CvType.CV_16S, 3, 1, 0, Core.BORDER_REPLICATE );
-                    Core.convertScaleAbs(gradientMat, gradientMat);
-                    mat.release();
-                    mat = gradientMat;
+                    Imgproc.Laplacian(mat, buffer.gradient16, CvType.CV_16S, 3, 1, 0, Core.BORDER_REPLICATE );
+                    Core.convertScaleAbs(buffer.gradient16, buffer.gradient);
+                    mat = buffer.gradient;
                 }
 
                 // Record the image with the capture time.
@@ -459,8 +587,7 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                     settleGraph.getRow(DIFFERENCE, DATA).recordDataPoint(settleGraph.getT(), result);
                 }
 
-                // Release the lastSettleMat and store the new image as the lastSettleMat.
-                lastSettleMat.release();
+                // Store the new image as the lastSettleMat. Its buffer is only reused for the frame after next.
                 lastSettleMat = mat;
 
                 long t = System.currentTimeMillis();
@@ -480,8 +607,6 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                 }
                 if (t > timeout || debounceCount > settleDebounce) {
                     // Timeout or debounced settleThreshold reached.
-                    // Cleanup.
-                    lastSettleMat.release();
                     lastSettleMat = null;
                     if (settleGraph != null) {
                         // Record last points in the graph. 
@@ -496,13 +621,15 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                         setRecordedImages(settleImages);
                         recordedMaskDiameter = maskDiameter;
                     }
-                    Logger.debug("autoSettleAndCapture in {} ms", System.currentTimeMillis() - t0);
+                    Logger.debug("autoSettleAndCapture in {} ms, {} frames, {} skipped in motion", 
+                            System.currentTimeMillis() - t0, frameCount, skippedCount);
+                    recordSettleFrames(frameCount, skippedCount);
                     return image;
                 }
             }
         }
         finally {
-            // Whatever happens, always release these looping mats.
+            // Whatever happens, always release the masks. The buffers are kept for the next settle.
             if (maskFullsize != null) {
                 maskFullsize.release();
                 if (mask == maskFullsize) {
@@ -512,8 +639,19 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
             if (mask != null) {
                 mask.release();
             }
-            if (lastSettleMat != null) {
-                lastSettleMat.release();
+        }
+    }
+
+    /**
+     * Releases the preallocated auto settle buffers.
+     */
+    public void releaseSettleBuffers() {
+        synchronized (settleBuffersLock) {
+            if (settleBuffers != null) {
+                for (SettleBuffer buffer : settleBuffers) {
+                    buffer.release();
+                }
+                settleBuffers = null;
             }
         }
     }
@@ -528,7 +666,15 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
         return mask;
     }
 
-    protected Mat enhanceContrast(Mat mat, Mat mask) {
+    /**
+     * Enhances the contrast of the mat into dst. 
+     * 
+     * @param mat
+     * @param mask Can be null.
+     * @param channelMat Buffer for single channel extraction. 
+     * @param dst
+     */
+    protected void enhanceContrast(Mat mat, Mat mask, Mat channelMat, Mat dst) {
         // It's weirdly difficult to extract the minimum level (black point) from an image.
         // Core.norm(... NORM_MINMAX) does not seem to work and minMaxLoc() takes only single channel images. 
         // So we need to work with the channels individually here. I must be missing something.
@@ -536,11 +682,9 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
         double range = SettleMethod.minimumRange/255.0;
         int nChannels = mat.channels();
         if (nChannels > 1) {
-            Mat workingMat = new Mat();
             for (int cn=0; cn < nChannels; cn++) {
-                Core.extractChannel(mat, workingMat, cn);
-                MinMaxLocResult res = Core.minMaxLoc(workingMat, mask); // Note, mask can for once be null
-                workingMat.release();
+                Core.extractChannel(mat, channelMat, cn);
+                MinMaxLocResult res = Core.minMaxLoc(channelMat, mask); // Note, mask can for once be null
                 max = Math.max(max, res.maxVal)/255.0;
                 range = Math.max(range, res.maxVal-res.minVal)/255.0;
             }
@@ -552,11 +696,7 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
         }
         double scale = settleContrastEnhance/range + (1.0 - settleContrastEnhance);
         double offset = -(max-range)*settleContrastEnhance/range;
-        Mat tmpMat = new Mat();  
-        Core.convertScaleAbs(mat, tmpMat, scale, offset*255.0);
-        mat.release();
-        mat = tmpMat;
-        return mat;
+        Core.convertScaleAbs(mat, dst, scale, offset*255.0);
     }
 
     protected BufferedImage createHeatMapDiagnosticImage(Mat mat0, Mat mat1) {
@@ -675,6 +815,8 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
             Logger.warn(e);
         }
 
+        // Frames captured from here on can be used for auto settling.
+        long settleStartTime = NanosecondTime.getRuntime();
         try {
             // Make sure the camera (or its subject) stands still.
             waitForCompletion(CompletionType.WaitForStillstand);
@@ -685,7 +827,7 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
             }
             if (settleMethod == SettleMethod.FixedTime) {
                 try {
-                    Thread.sleep(getSettleTimeMs());
+                    NanosecondTime.sleep(getSettleTimeMs());
                 }
                 catch (Exception e) {
 
@@ -693,10 +835,11 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
                 return capture();
             }
             else {
-                return autoSettleAndCapture();
+                return autoSettleAndCapture(settleStartTime);
             }
         }
         finally {
+            recordSettleTime(NanosecondTime.getRuntime() - settleStartTime);
 
             try {
                 Map<String, Object> globals = new HashMap<>();
@@ -715,6 +858,91 @@ public abstract class AbstractCamera extends AbstractHeadMountable implements Ca
         }
     }
 
+    private final Object settleMetricsLock = new Object();
+    private long settleCount;
+    private double settleTimeTotalMs;
+    private double settleTimeMaxMs;
+    private double settleTimeLastMs;
+    private long settleFrameCount;
+    private long settleSkippedFrameCount;
+
+    protected void recordSettleTime(long settleTimeNs) {
+        double settleTimeMs = settleTimeNs*1e-6;
+        synchronized (settleMetricsLock) {
+            settleCount++;
+            settleTimeTotalMs += settleTimeMs;
+            settleTimeMaxMs = Math.max(settleTimeMaxMs, settleTimeMs);
+            settleTimeLastMs = settleTimeMs;
+        }
+    }
+
+    protected void recordSettleFrames(int frameCount, int skippedFrameCount) {
+        synchronized (settleMetricsLock) {
+            settleFrameCount += frameCount;
+            settleSkippedFrameCount += skippedFrameCount;
+        }
+    }
+
+    /**
+     * @return The number of settleAndCapture() calls since the metrics were last reset.
+     */
+    public long getSettleCount() {
+        synchronized (settleMetricsLock) {
+            return settleCount;
+        }
+    }
+
+    /**
+     * @return The time of the last settleAndCapture(), including the wait for the motion to complete.
+     */
+    public double getSettleTimeLastMs() {
+        synchronized (settleMetricsLock) {
+            return settleTimeLastMs;
+        }
+    }
+
+    public double getSettleTimeAverageMs() {
+        synchronized (settleMetricsLock) {
+            return settleCount == 0 ? 0 : settleTimeTotalMs/settleCount;
+        }
+    }
+
+    public double getSettleTimeMaxMs() {
+        synchronized (settleMetricsLock) {
+            return settleTimeMaxMs;
+        }
+    }
+
+    /**
+     * @return The number of frames compared by auto settling.
+     */
+    public long getSettleFrameCount() {
+        synchronized (settleMetricsLock) {
+            return settleFrameCount;
+        }
+    }
+
+    /**
+     * @return The number of frames auto settling skipped, because the motion planner had the machine still
+     * moving when they were captured.
+     */
+    public long getSettleSkippedFrameCount() {
+        synchronized (settleMetricsLock) {
+            return settleSkippedFrameCount;
+        }
+    }
+
+    public void resetSettleMetrics() {
+        synchronized (settleMetricsLock) {
+            settleCount = 0;
+            settleTimeTotalMs = 0;
+            settleTimeMaxMs = 0;
+            settleTimeLastMs = 0;
+            settleFrameCount = 0;
+            settleSkippedFrameCount = 0;
+        }
+    }
+
     public SettleMethod getSettleMethod() {
         return settleMethod;
     }
@@ -61,7 +61,9 @@ public abstract class AbstractFeeder extends AbstractModelObject implements Feed
         Configuration.get().addListener(new ConfigurationListener.Adapter() {
             @Override
             public void configurationLoaded(Configuration configuration) throws Exception {
+                Object oldValue = part;
                 part = configuration.getPart(partId);
+                firePropertyChange("part", oldValue, part);
                 
                 if (version == 1.0) {
                     feedRetryCount = retryCount;
@@ -103,6 +105,14 @@ public abstract class AbstractFeeder extends AbstractModelObject implements Feed
         return part;
     }
 
+    /**
+     * @return True if getPart() only changes through setPart() or similar, firing the "part" property 
+     * change, so the machine can index this feeder by its part.
+     */
+    protected boolean isPartIndexable() {
+        return true;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -1,9 +1,13 @@
 package org.openpnp.spi.base;
 
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
@@ -18,6 +22,7 @@ import org.openpnp.machine.reference.axis.ReferenceLinearTransformAxis;
 import org.openpnp.model.AbstractModelObject;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Part;
 import org.openpnp.model.Solutions;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Axis;
@@ -96,6 +101,26 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
 
     protected ThreadPoolExecutor executor;
 
+    /**
+     * Index of the feeders by the part they feed. Built lazily from the feeders list and dropped, 
+     * whenever a feeder is added, removed or gets another part assigned. 
+     */
+    private volatile FeederIndex feederIndex;
+
+    private final PropertyChangeListener feederPartListener = (e) -> invalidateFeederIndex();
+
+    private static class FeederIndex {
+        final Map<Part, List<Feeder>> feedersByPart = new IdentityHashMap<>();
+        /**
+         * Feeders whose part cannot be indexed and must be checked on each lookup.
+         */
+        final List<Feeder> unindexedFeeders = new ArrayList<>();
+        /**
+         * The position of each feeder in the machine feeders list, to merge in the unindexed feeders. 
+         */
+        final Map<Feeder, Integer> order = new IdentityHashMap<>();
+    }
+
     protected AbstractMachine() {}
 
     @SuppressWarnings("unused")
@@ -210,6 +235,62 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
         return feeders.get(id);
     }
 
+    @Override
+    public List<Feeder> getEnabledFeeders(Part part) {
+        FeederIndex index = getFeederIndex();
+        List<Feeder> list = new ArrayList<>();
+        List<Feeder> indexed = index.feedersByPart.get(part);
+        if (indexed != null) {
+            for (Feeder feeder : indexed) {
+                if (feeder.isEnabled()) {
+                    list.add(feeder);
+                }
+            }
+        }
+        if (!index.unindexedFeeders.isEmpty()) {
+            for (Feeder feeder : index.unindexedFeeders) {
+                if (feeder.getPart() == part && feeder.isEnabled()) {
+                    list.add(feeder);
+                }
+            }
+            // Restore the machine order.
+            list.sort((a, b) -> index.order.get(a) - index.order.get(b));
+        }
+        return list;
+    }
+
+    private FeederIndex getFeederIndex() {
+        FeederIndex index = feederIndex;
+        if (index == null) {
+            index = new FeederIndex();
+            int position = 0;
+            for (Feeder feeder : getFeeders()) {
+                index.order.put(feeder, position++);
+                if (feeder instanceof AbstractFeeder && ((AbstractFeeder) feeder).isPartIndexable()) {
+                    // Make sure we listen only once.
+                    ((AbstractFeeder) feeder).removePropertyChangeListener("part", feederPartListener);
+                    ((AbstractFeeder) feeder).addPropertyChangeListener("part", feederPartListener);
+                    if (feeder.getPart() != null) {
+                        index.feedersByPart.computeIfAbsent(feeder.getPart(), (p) -> new ArrayList<>())
+                            .add(feeder);
+                    }
+                }
+                else {
+                    index.unindexedFeeders.add(feeder);
+                }
+            }
+            feederIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Drops the feeder index, so it is rebuilt on the next lookup. 
+     */
+    protected void invalidateFeederIndex() {
+        feederIndex = null;
+    }
+
     @Override
     public List<Camera> getCameras() {
         return Collections.unmodifiableList(cameras);
@@ -322,6 +403,7 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
     @Override
     public void addFeeder(Feeder feeder) throws Exception {
         feeders.add(feeder);
+        invalidateFeederIndex();
         fireIndexedPropertyChange("feeders", feeders.size() - 1, null, feeder);
     }
 
@@ -329,6 +411,10 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
     public void removeFeeder(Feeder feeder) {
         int index = feeders.indexOf(feeder);
         if (feeders.remove(feeder)) {
+            if (feeder instanceof AbstractFeeder) {
+                ((AbstractFeeder) feeder).removePropertyChangeListener("part", feederPartListener);
+            }
+            invalidateFeederIndex();
             fireIndexedPropertyChange("feeders", index, feeder, null);
         }
     }
@@ -1,6 +1,7 @@
 package org.openpnp.spi.base;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.openpnp.model.Configuration;
@@ -72,12 +73,23 @@ public abstract class AbstractPnpJobProcessor extends AbstractJobProcessor
      * @throws Exception If no Feeder is found that is both enabled and is serving the Part.
      */
     public static Feeder findFeeder(Machine machine, Part part) throws JobProcessorException {
-        for (Feeder feeder : machine.getFeeders()) {
-            if (feeder.getPart() == part && feeder.isEnabled()) {
-                return feeder;
-            }
+        return findFeeders(machine, part).get(0);
+    }
+
+    /**
+     * Find all the enabled Feeders that are able to feed the given Part.
+     * 
+     * @param machine
+     * @param part
+     * @return
+     * @throws JobProcessorException If no Feeder is found that is both enabled and is serving the Part.
+     */
+    public static List<Feeder> findFeeders(Machine machine, Part part) throws JobProcessorException {
+        List<Feeder> feeders = machine.getEnabledFeeders(part);
+        if (feeders.isEmpty()) {
+            throw new JobProcessorException(part, "No compatible, enabled feeder found for part " + part.getId());
         }
-        throw new JobProcessorException(part, "No compatible, enabled feeder found for part " + part.getId());
+        return feeders;
     }
 
 
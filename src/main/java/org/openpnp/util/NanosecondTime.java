@@ -22,6 +22,7 @@
 package org.openpnp.util;
 
 import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple Nanosecond time-keeper. Combines real-time (epoch) with nanosecond resolution by using BigInteger math.
@@ -32,8 +33,16 @@ import java.math.BigInteger;
 public class NanosecondTime implements Comparable<NanosecondTime> {
 
     private static long nanosecondsLast = Long.MIN_VALUE;
+
+    /**
+     * With the virtual clock, sleep() does not wait but advances the runtime by the skipped time instead. 
+     * Used to simulate a machine faster than real-time, see CycleTimeEstimator. 
+     */
+    private static volatile boolean virtualClock = false;
+    private static final AtomicLong skippedNanoseconds = new AtomicLong();
+
     public static long getRuntime() {
-        long nanoTime = System.nanoTime();
+        long nanoTime = System.nanoTime() + skippedNanoseconds.get();
         if (nanoTime <= nanosecondsLast) {
             // Make it unique even if the calls are more frequent than the underlying nanoTime timer resolution. 
             nanoTime = ++nanosecondsLast;
@@ -46,6 +55,48 @@ public class NanosecondTime implements Comparable<NanosecondTime> {
     public static double getRuntimeSeconds() {
         return (double) getRuntime()*1e-9;
     }
+
+    public static boolean isVirtualClock() {
+        return virtualClock;
+    }
+
+    /**
+     * Switches the virtual clock on or off. The runtime remains monotonic, the time skipped so far stays added 
+     * for good, i.e. the runtime stays ahead of System.nanoTime() by getSkippedNanoseconds(). 
+     * 
+     * Note, the virtual clock is global: while it is on, sleep() does not wait in any thread, not just in the one 
+     * that switched it on. 
+     * 
+     * @param virtualClock
+     */
+    public static void setVirtualClock(boolean virtualClock) {
+        NanosecondTime.virtualClock = virtualClock;
+    }
+
+    /**
+     * @return The total time skipped by sleep() with the virtual clock, in nanoseconds.
+     */
+    public static long getSkippedNanoseconds() {
+        return skippedNanoseconds.get();
+    }
+
+    /**
+     * Sleeps for the given time, like Thread.sleep(). With the virtual clock, the runtime is just advanced.
+     * 
+     * @param milliseconds
+     * @throws InterruptedException
+     */
+    public static void sleep(long milliseconds) throws InterruptedException {
+        if (milliseconds <= 0) {
+            return;
+        }
+        if (virtualClock) {
+            skippedNanoseconds.addAndGet(milliseconds*1000000L);
+        }
+        else {
+            Thread.sleep(milliseconds);
+        }
+    }
     
     private static NanosecondTime systemStartTime = null;
     public static NanosecondTime get() {
@@ -17,9 +17,12 @@ import java.util.List;
 
 import javax.imageio.ImageIO;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -90,6 +93,35 @@ public class OpenCvUtils {
         return mat;
     }
 
+    /**
+     * Like toMat(BufferedImage), but reuses the given Mat, if it has the right size and type.
+     * 
+     * @param img
+     * @param mat The Mat to reuse, or null.
+     * @return The Mat with the image, either the reused one or a new one.
+     */
+    public static Mat toMat(BufferedImage img, Mat mat) {
+        int type;
+        if (img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            type = CvType.CV_8UC1;
+        }
+        else if (img.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            type = CvType.CV_8UC3;
+        }
+        else {
+            img = ImageUtils.convertBufferedImage(img, BufferedImage.TYPE_3BYTE_BGR);
+            type = CvType.CV_8UC3;
+        }
+        if (mat == null || mat.rows() != img.getHeight() || mat.cols() != img.getWidth() || mat.type() != type) {
+            if (mat != null) {
+                mat.release();
+            }
+            mat = new Mat(img.getHeight(), img.getWidth(), type);
+        }
+        mat.put(0, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
+        return mat;
+    }
+
     /**
      * Finds circles of the given min and maxDiameter, no less than minDistance apart by capturing
      * an image from the given Camera. Results are returned as a List of Location where X and Y
@@ -348,10 +380,115 @@ public class OpenCvUtils {
         return template;
     }
 
+    // The template must keep at least this many pixels in the coarse pyramid level. 
+    private static final int minPyramidTemplateSize = 8;
+
+    /**
+     * Template matches with the TM_CCOEFF_NORMED method, coarse-to-fine using an image pyramid. 
+     * A match at reduced resolution finds the candidate regions, which are then matched at full 
+     * resolution in small ROIs. 
+     * 
+     * The result has the same size as the result of a full resolution Imgproc.matchTemplate(). 
+     * It contains the full resolution scores in the candidate regions, and -1 elsewhere, so 
+     * maxima and scores are comparable to a full resolution match.
+     * 
+     * @param image
+     * @param template
+     * @param result
+     * @param levels The maximum number of pyramid levels, each halving the resolution. Fewer are 
+     *        used, if the template would become too small. 
+     * @param candidateThreshold The minimum coarse score of a candidate region. Because the coarse 
+     *        scores differ from the full resolution ones, this should be somewhat lower than the 
+     *        threshold applied to the result. The best coarse match is always a candidate.
+     * @return The number of pyramid levels used, 0 for a plain full resolution match.
+     */
+    public static int matchTemplatePyramid(Mat image, Mat template, Mat result, int levels, 
+            double candidateThreshold) {
+        int level = 0;
+        while (level < levels 
+                && Math.min(template.cols(), template.rows()) >> (level + 1) >= minPyramidTemplateSize) {
+            level++;
+        }
+        if (level == 0) {
+            Imgproc.matchTemplate(image, template, result, Imgproc.TM_CCOEFF_NORMED);
+            return 0;
+        }
+
+        // coarse pass
+        Mat coarseImage = image;
+        Mat coarseTemplate = template;
+        for (int l = 0; l < level; l++) {
+            Mat down = new Mat();
+            Imgproc.pyrDown(coarseImage, down);
+            if (coarseImage != image) {
+                coarseImage.release();
+            }
+            coarseImage = down;
+            down = new Mat();
+            Imgproc.pyrDown(coarseTemplate, down);
+            if (coarseTemplate != template) {
+                coarseTemplate.release();
+            }
+            coarseTemplate = down;
+        }
+        Mat coarseResult = new Mat();
+        Imgproc.matchTemplate(coarseImage, coarseTemplate, coarseResult, Imgproc.TM_CCOEFF_NORMED);
+        coarseImage.release();
+        coarseTemplate.release();
+
+        // candidate regions, with a margin of one coarse pixel
+        Mat candidates = new Mat();
+        Imgproc.threshold(coarseResult, candidates, candidateThreshold, 255, Imgproc.THRESH_BINARY);
+        candidates.convertTo(candidates, CvType.CV_8U);
+        Core.MinMaxLocResult mmr = Core.minMaxLoc(coarseResult);
+        candidates.put((int) mmr.maxLoc.y, (int) mmr.maxLoc.x, 255);
+        Mat kernel = Mat.ones(3, 3, CvType.CV_8U);
+        Imgproc.dilate(candidates, candidates, kernel);
+        kernel.release();
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = new Mat();
+        Imgproc.findContours(candidates, contours, hierarchy, Imgproc.RETR_EXTERNAL, 
+                Imgproc.CHAIN_APPROX_SIMPLE);
+        hierarchy.release();
+        candidates.release();
+        coarseResult.release();
+
+        // fine pass in the candidate regions
+        int resultCols = image.cols() - template.cols() + 1;
+        int resultRows = image.rows() - template.rows() + 1;
+        result.create(resultRows, resultCols, CvType.CV_32FC1);
+        result.setTo(new Scalar(-1));
+        int scale = 1 << level;
+        for (MatOfPoint contour : contours) {
+            Rect rect = Imgproc.boundingRect(contour);
+            contour.release();
+            int x0 = Math.max(0, rect.x*scale - scale);
+            int y0 = Math.max(0, rect.y*scale - scale);
+            int x1 = Math.min(resultCols, (rect.x + rect.width)*scale + scale);
+            int y1 = Math.min(resultRows, (rect.y + rect.height)*scale + scale);
+            if (x1 <= x0 || y1 <= y0) {
+                continue;
+            }
+            Mat roi = image.submat(y0, y1 + template.rows() - 1, x0, x1 + template.cols() - 1);
+            Mat roiResult = result.submat(y0, y1, x0, x1);
+            Mat fineResult = new Mat();
+            Imgproc.matchTemplate(roi, template, fineResult, Imgproc.TM_CCOEFF_NORMED);
+            fineResult.copyTo(roiResult);
+            fineResult.release();
+            roiResult.release();
+            roi.release();
+        }
+        return level;
+    }
+
     /**
      * Ported from the C++ version in FireSight by Karl Lew, which is licensed under the 
      * MIT license.
      * https://github.com/firepick1/FireSight
+     * 
+     * The first channel of the mat is copied into a primitive array once, instead of accessing 
+     * each pixel through the JNI. The maxima are returned in row-major order.
+     * 
      * @param mat
      * @param rangeMin
      * @param rangeMax
@@ -360,52 +497,50 @@ public class OpenCvUtils {
     public static List<java.awt.Point> matMaxima(Mat mat, double rangeMin, double rangeMax) {
         List<java.awt.Point> locations = new ArrayList<>();
 
-        int rEnd = mat.rows() - 1;
-        int cEnd = mat.cols() - 1;
+        int rows = mat.rows();
+        int cols = mat.cols();
+        if (rows == 0 || cols == 0) {
+            return locations;
+        }
+        double[] data = toDoubleArray(mat);
+
+        int rEnd = rows - 1;
+        int cEnd = cols - 1;
 
         // CHECK EACH ROW MAXIMA FOR LOCAL 2D MAXIMA
         for (int r = 0; r <= rEnd; r++) {
             MinMaxState state = MinMaxState.BEFORE_INFLECTION;
-            double curVal = mat.get(r, 0)[0];
+            int row = r*cols;
+            int rowAbove = row - cols;
+            int rowBelow = row + cols;
+            double curVal = data[row];
             for (int c = 1; c <= cEnd; c++) {
-                double val = mat.get(r, c)[0];
+                double val = data[row + c];
 
                 if (val == curVal) {
                     continue;
                 }
                 else if (curVal < val) {
-                    if (state == MinMaxState.BEFORE_INFLECTION) {
-                        // n/a
-                    }
-                    else {
-                        state = MinMaxState.BEFORE_INFLECTION;
-                    }
+                    state = MinMaxState.BEFORE_INFLECTION;
                 }
                 else { // curVal > val
                     if (state == MinMaxState.BEFORE_INFLECTION) {
-                        if (rangeMin <= curVal && curVal <= rangeMax) { // ROW
-                                                                        // MAXIMA
-                            if (0 < r && (mat.get(r - 1, c - 1)[0] >= curVal
-                                    || mat.get(r - 1, c)[0] >= curVal)) {
-                                // cout << "reject:r-1 " << r << "," << c-1 <<
-                                // endl;
+                        if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
+                            if (0 < r && (data[rowAbove + c - 1] >= curVal
+                                    || data[rowAbove + c] >= curVal)) {
                                 // - x x
                                 // - - -
                                 // - - -
                             }
-                            else if (r < rEnd && (mat.get(r + 1, c - 1)[0] > curVal
-                                    || mat.get(r + 1, c)[0] > curVal)) {
-                                // cout << "reject:r+1 " << r << "," << c-1 <<
-                                // endl;
+                            else if (r < rEnd && (data[rowBelow + c - 1] > curVal
+                                    || data[rowBelow + c] > curVal)) {
                                 // - - -
                                 // - - -
                                 // - x x
                             }
-                            else if (1 < c && (0 < r && mat.get(r - 1, c - 2)[0] >= curVal
-                                    || mat.get(r, c - 2)[0] > curVal
-                                    || r < rEnd && mat.get(r + 1, c - 2)[0] > curVal)) {
-                                // cout << "reject:c-2 " << r << "," << c-1 <<
-                                // endl;
+                            else if (1 < c && (0 < r && data[rowAbove + c - 2] >= curVal
+                                    || data[row + c - 2] > curVal
+                                    || r < rEnd && data[rowBelow + c - 2] > curVal)) {
                                 // x - -
                                 // x - -
                                 // x - -
@@ -416,9 +551,6 @@ public class OpenCvUtils {
                         }
                         state = MinMaxState.AFTER_INFLECTION;
                     }
-                    else {
-                        // n/a
-                    }
                 }
 
                 curVal = val;
@@ -427,27 +559,25 @@ public class OpenCvUtils {
             // PROCESS END OF ROW
             if (state == MinMaxState.BEFORE_INFLECTION) {
                 if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
-                    if (0 < r && (mat.get(r - 1, cEnd - 1)[0] >= curVal
-                            || mat.get(r - 1, cEnd)[0] >= curVal)) {
-                        // cout << "rejectEnd:r-1 " << r << "," << cEnd-1 <<
-                        // endl;
+                    if (cEnd < 2) {
+                        // Too narrow to have a maximum inside the row, the original implementation 
+                        // failed here.
+                    }
+                    else if (0 < r && (data[rowAbove + cEnd - 1] >= curVal
+                            || data[rowAbove + cEnd] >= curVal)) {
                         // - x x
                         // - - -
                         // - - -
                     }
-                    else if (r < rEnd && (mat.get(r + 1, cEnd - 1)[0] > curVal
-                            || mat.get(r + 1, cEnd)[0] > curVal)) {
-                        // cout << "rejectEnd:r+1 " << r << "," << cEnd-1 <<
-                        // endl;
+                    else if (r < rEnd && (data[rowBelow + cEnd - 1] > curVal
+                            || data[rowBelow + cEnd] > curVal)) {
                         // - - -
                         // - - -
                         // - x x
                     }
-                    else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal
-                            || mat.get(r, cEnd - 2)[0] > curVal
-                            || r < rEnd && mat.get(r + 1, cEnd - 2)[0] > curVal) {
-                        // cout << "rejectEnd:cEnd-2 " << r << "," << cEnd-1 <<
-                        // endl;
+                    else if (1 < r && data[rowAbove + cEnd - 2] >= curVal
+                            || data[row + cEnd - 2] > curVal
+                            || r < rEnd && data[rowBelow + cEnd - 2] > curVal) {
                         // x - -
                         // x - -
                         // x - -
@@ -460,5 +590,34 @@ public class OpenCvUtils {
         }
 
         return locations;
-    }    
+    }
+
+    /**
+     * Copies the first channel of the mat into a row-major double array, in one native 
+     * conversion and one JNI transfer.
+     * 
+     * @param mat
+     * @return
+     */
+    private static double[] toDoubleArray(Mat mat) {
+        Mat channel = mat;
+        if (mat.channels() > 1) {
+            channel = new Mat();
+            Core.extractChannel(mat, channel, 0);
+        }
+        Mat converted = channel;
+        if (channel.type() != CvType.CV_64FC1 || !channel.isContinuous()) {
+            converted = new Mat();
+            channel.convertTo(converted, CvType.CV_64F);
+        }
+        double[] data = new double[(int) converted.total()];
+        converted.get(0, 0, data);
+        if (converted != channel) {
+            converted.release();
+        }
+        if (channel != mat) {
+            channel.release();
+        }
+        return data;
+    }
 }
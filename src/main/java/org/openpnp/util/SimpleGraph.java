@@ -24,11 +24,11 @@ package org.openpnp.util;
 import java.awt.Color;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
 
 public class SimpleGraph {
 
@@ -193,11 +193,24 @@ public class SimpleGraph {
         this.relativePaddingRight = relativePaddingRight;
     }
 
+    /**
+     * A data row stores its points in primitive, columnar arrays, sorted by x. Points are typically recorded in
+     * ascending x order, which is a simple append. Out of order points are inserted and a point with an already
+     * recorded x replaces the former y, like in a sorted map.
+     *
+     * Optionally, a retention window can be set, so only the most recent points are kept.
+     *
+     */
     public static class DataRow {
         private String label;
         private Color color;
         private int displayCycleMask = 1; // Displayed on mask 1
-        private TreeMap<Double, Double> data = new TreeMap<>();
+        private double[] xData = new double[16];
+        private double[] yData = new double[16];
+        // The valid points are in [offset, offset + size).
+        private int offset = 0;
+        private int size = 0;
+        private double retention = Double.POSITIVE_INFINITY;
 
         // housekeeping
         boolean dirty = false;
@@ -212,58 +225,254 @@ public class SimpleGraph {
 
         public void recordDataPoint(double x, double y) {
             if (Double.isFinite(x) && Double.isFinite(y)) {
-                data.put(x, y);
+                if (size == 0 || x > xData[offset + size - 1]) {
+                    // Fast path: append.
+                    ensureCapacity();
+                    xData[offset + size] = x;
+                    yData[offset + size] = y;
+                    size++;
+                    expireDataPoints();
+                }
+                else {
+                    int index = binarySearch(x);
+                    if (index >= 0) {
+                        double yOld = yData[offset + index];
+                        yData[offset + index] = y;
+                        if (minimum != null && (yOld == minimum.y || yOld == maximum.y)) {
+                            // Replaced an extreme value, must recalc.
+                            dirty = true;
+                        }
+                    }
+                    else {
+                        index = -index - 1;
+                        if (index == 0 && x < xData[offset + size - 1] - retention) {
+                            // Already expired.
+                            return;
+                        }
+                        ensureCapacity();
+                        System.arraycopy(xData, offset + index, xData, offset + index + 1, size - index);
+                        System.arraycopy(yData, offset + index, yData, offset + index + 1, size - index);
+                        xData[offset + index] = x;
+                        yData[offset + index] = y;
+                        size++;
+                    }
+                }
+                if (!dirty) {
+                    updateExtremes(x, y);
+                }
+            }
+        }
+
+        private void ensureCapacity() {
+            if (offset + size == xData.length) {
+                if (offset > 0) {
+                    // Compact the expired points away.
+                    System.arraycopy(xData, offset, xData, 0, size);
+                    System.arraycopy(yData, offset, yData, 0, size);
+                    offset = 0;
+                }
+                if (size >= xData.length/2) {
+                    xData = Arrays.copyOf(xData, xData.length*2);
+                    yData = Arrays.copyOf(yData, yData.length*2);
+                }
+            }
+        }
+
+        private void expireDataPoints() {
+            double xExpired = xData[offset + size - 1] - retention;
+            if (xData[offset] < xExpired) {
+                while (xData[offset] < xExpired) {
+                    offset++;
+                    size--;
+                }
                 dirty = true;
             }
         }
+
+        private void updateExtremes(double x, double y) {
+            if (minimum == null) {
+                minimum = new Point2D.Double(x, y);
+                maximum = new Point2D.Double(x, y);
+            }
+            else {
+                minimum.x = Math.min(x, minimum.x);
+                minimum.y = Math.min(y, minimum.y);
+                maximum.x = Math.max(x, maximum.x);
+                maximum.y = Math.max(y, maximum.y);
+            }
+        }
+
+        /**
+         * @param x
+         * @return The index of the point with x, or (-(insertion point) - 1), like Arrays.binarySearch().
+         */
+        private int binarySearch(double x) {
+            int index = Arrays.binarySearch(xData, offset, offset + size, x);
+            return index >= 0 ? index - offset : index + offset;
+        }
+
+        /**
+         * @param x
+         * @return The index of the last point with an x less than or equal to the given x, or -1 if there is none.
+         */
+        public int floorIndex(double x) {
+            int index = binarySearch(x);
+            return index >= 0 ? index : -index - 2;
+        }
+
         public Double getDataPoint(double x) {
-            return data.get(x);
+            int index = binarySearch(x);
+            if (index >= 0) {
+                return yData[offset + index];
+            }
+            return null;
         }
         public Double getInterpolated(double x) {
-            Entry<Double, Double> entry0 = data.floorEntry(x);
-            Entry<Double, Double> entry1 = data.ceilingEntry(x);
-            if (entry0 != null && entry1 != null) {
-                double x0 = entry0.getKey();
-                double x1 = entry1.getKey();
-                double y0 = data.get(x0);
-                double y1 = data.get(x1);
-                double r = (x-x0)/(x1-x0);
-                return y0+r*(y1-y0);
+            int index0 = floorIndex(x);
+            if (index0 < 0 || index0 >= size) {
+                return null;
             }
-            return null;
+            double x0 = getX(index0);
+            double y0 = getY(index0);
+            if (x0 == x) {
+                return y0;
+            }
+            if (index0 + 1 >= size) {
+                return null;
+            }
+            double x1 = getX(index0 + 1);
+            double y1 = getY(index0 + 1);
+            double r = (x-x0)/(x1-x0);
+            return y0+r*(y1-y0);
         }
         public int size() {
-            return data.size();
+            return size;
+        }
+        /**
+         * @param index
+         * @return The x of the point with the given index, in ascending x order.
+         */
+        public double getX(int index) {
+            return xData[offset + index];
+        }
+        /**
+         * @param index
+         * @return The y of the point with the given index, in ascending x order.
+         */
+        public double getY(int index) {
+            return yData[offset + index];
+        }
+
+        /**
+         * Decimates the points for display. The x range from xMin to xMax is divided into the given number of
+         * columns, typically one per pixel. For each column, only the first, the minimum, the maximum and the last
+         * point are kept, in their original order, so the drawn curve still covers all the peaks. Points just outside
+         * the range are included, so the curve extends to the edges.
+         *
+         * @param xMin
+         * @param xMax
+         * @param columns
+         * @param xOut Receives the x of the decimated points, must have a length of at least getDecimatedCapacity(columns).
+         * @param yOut Receives the y of the decimated points, must have a length of at least getDecimatedCapacity(columns).
+         * @return The number of decimated points.
+         */
+        public int getDecimated(double xMin, double xMax, int columns, double[] xOut, double[] yOut) {
+            int begin = Math.max(0, floorIndex(xMin));
+            int end = Math.min(size, floorIndex(xMax) + 2);
+            if (begin >= end) {
+                return 0;
+            }
+            double columnScale = columns/(xMax - xMin);
+            int n = 0;
+            int column = Integer.MIN_VALUE;
+            int first = 0;
+            int min = 0;
+            int max = 0;
+            for (int i = begin; i < end; i++) {
+                double x = getX(i);
+                double y = getY(i);
+                int c = (x < xMin ? -1 : x > xMax ? columns : Math.min((int) ((x - xMin)*columnScale), columns - 1));
+                if (c != column) {
+                    if (column != Integer.MIN_VALUE) {
+                        n = addDecimated(first, min, max, i - 1, xOut, yOut, n);
+                    }
+                    column = c;
+                    first = i;
+                    min = i;
+                    max = i;
+                }
+                else if (y < getY(min)) {
+                    min = i;
+                }
+                else if (y > getY(max)) {
+                    max = i;
+                }
+            }
+            return addDecimated(first, min, max, end - 1, xOut, yOut, n);
+        }
+
+        private int addDecimated(int first, int min, int max, int last, double[] xOut, double[] yOut, int n) {
+            int middle0 = Math.min(min, max);
+            int middle1 = Math.max(min, max);
+            int previous = -1;
+            for (int index : new int[] { first, middle0, middle1, last }) {
+                if (index != previous) {
+                    xOut[n] = getX(index);
+                    yOut[n] = getY(index);
+                    n++;
+                    previous = index;
+                }
+            }
+            return n;
+        }
+
+        /**
+         * @param columns
+         * @return The array length needed to receive the result of getDecimated() for the given number of columns.
+         */
+        public static int getDecimatedCapacity(int columns) {
+            return 4*(columns + 2);
+        }
+
+        /**
+         * @return The x range of the retained points, counted back from the last point.
+         */
+        public double getRetention() {
+            return retention;
+        }
+        /**
+         * Sets the x range of the retained points. Points that are older, i.e. whose x is more than the retention
+         * below the last x, are dropped. Unbounded by default.
+         *
+         * @param retention
+         */
+        public void setRetention(double retention) {
+            this.retention = retention;
+            if (size > 0) {
+                expireDataPoints();
+            }
         }
 
         protected void recalc() {
             if (dirty) {
                 minimum = null;
                 maximum = null;
-                for (Entry<Double, Double> entry : data.entrySet()) {
-                    double x = entry.getKey();
-                    double y = data.get(x);
-                    if (minimum == null) {
-                        minimum = new Point2D.Double(x, y);
-                    }
-                    else {
-                        minimum.x = Math.min(x, minimum.x);
-                        minimum.y = Math.min(y, minimum.y);
-                    }
-                    if (maximum == null) {
-                        maximum = new Point2D.Double(x, y);
-                    }
-                    else {
-                        maximum.x = Math.max(x, maximum.x);
-                        maximum.y = Math.max(y, maximum.y);
-                    }
+                for (int i = 0; i < size; i++) {
+                    updateExtremes(getX(i), getY(i));
                 }
                 dirty = false;
             }
         }
 
+        /**
+         * @return A copy of the x axis. Use size() and getX() to iterate the points without copying.
+         */
         public Set<Double> getXAxis() {
-            return data.keySet();
+            Set<Double> xAxis = new LinkedHashSet<>();
+            for (int i = 0; i < size; i++) {
+                xAxis.add(getX(i));
+            }
+            return xAxis;
         }
         public Point2D.Double getMinimum() {
             recalc();
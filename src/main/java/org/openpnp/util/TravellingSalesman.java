@@ -20,8 +20,11 @@
 package org.openpnp.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -36,12 +39,20 @@ import org.openpnp.model.Location;
  * and/or a Location for the next task after that, as the end Location. These Locations can also be the same, to form 
  * a loop. If left open (null) the solver will choose the best start and/or end Location for the route freely.
  * 
- * The solver uses Simulated Annealing.
+ * Tiny problems are solved exactly. Otherwise the solver builds a nearest neighbor route and improves it with 2-opt 
+ * moves, that "untwist" the route at crossing points, and Or-opt moves, that move short runs of Locations elsewhere 
+ * in the route. Both only look at the nearest neighbors of each Location, which keeps a pass over the route fast. The 
+ * route is then perturbed and improved again a number of times (iterated local search), keeping the best. The 
+ * solver stops at a wall-clock time limit. Optionally it runs more of these searches as parallel restarts and keeps 
+ * the best.
  * 
- * The implementation is a bit extended from the typical school book examples to not only use "swaps" of two Locations 
- * but also "twists", that reverse the travel direction between the swapped out Locations. The latter really improves the 
- * solutions a lot, because it allows the solver to quickly "untwist" routes at (or near) crossing points. These crossing 
- * points appear frequently for the rectangularly arrayed Location patterns assumed to be typically found on a PNP machine. 
+ * The former Simulated Annealing solver is still available as {@link #solveByAnnealing()}. 
+ * 
+ * The annealing implementation is a bit extended from the typical school book examples to not only use "swaps" of two 
+ * Locations but also "twists", that reverse the travel direction between the swapped out Locations. The latter really 
+ * improves the solutions a lot, because it allows the solver to quickly "untwist" routes at (or near) crossing points. 
+ * These crossing points appear frequently for the rectangularly arrayed Location patterns assumed to be typically found 
+ * on a PNP machine. 
  * 
  * @param <T> The class of the objects to be travelled to. Use a Locator<T> to query the Location from these objects.  
  */
@@ -69,6 +80,7 @@ public class TravellingSalesman<T> {
         // register start/end Locations
         this.startLocation = startLocation != null ? new TravelLocation(-1, startLocation) : null;
         this.endLocation = endLocation != null ? new TravelLocation(this.travelSize, endLocation) : null;
+        this.points = this.travel.toArray(new TravelLocation[this.travelSize]);
     }
     
     public interface Locator<T> {
@@ -100,7 +112,10 @@ public class TravellingSalesman<T> {
             this.z = l.getZ();
         }
         private double getLinearDistanceTo(TravelLocation other) {
-            return Math.sqrt(Math.pow(this.x-other.x, 2.0) + Math.pow(this.y-other.y, 2.0) + Math.pow(this.z-other.z, 2.0));
+            double dx = this.x - other.x;
+            double dy = this.y - other.y;
+            double dz = this.z - other.z;
+            return Math.sqrt(dx*dx + dy*dy + dz*dz);
         }
     }
 
@@ -110,9 +125,36 @@ public class TravellingSalesman<T> {
     private final TravelLocation startLocation;
     private final TravelLocation endLocation;
     private final List<TravelLocation> travel;
+    /**
+     * The TravelLocations by their index, i.e. in the order of the travelInput.
+     */
+    private final TravelLocation[] points;
     
     private long solverDuration = 0; 
 
+    /**
+     * Default wall-clock time limit of {@link #solve()} in milliseconds.
+     */
+    public static final long defaultSolverTimeLimit = 500;
+    /**
+     * Problems up to this size are solved exactly, by trying all the routes. 
+     */
+    private static final int maxExhaustiveSize = 8;
+    /**
+     * Number of nearest neighbors considered for the moves of each Location.
+     */
+    private static final int neighborCount = 10;
+    /**
+     * Maximum length of the runs of Locations moved by Or-opt.
+     */
+    private static final int maxOrOptLength = 3;
+    /**
+     * Number of perturbations tried by the iterated local search and by each parallel restart. 
+     */
+    private static final int restartKicks = 100;
+
+    private int parallelRestarts = 0;
+
     private TravelLocation getLocation(int i) {
         if (i < 0) {
             return this.startLocation;
@@ -284,12 +326,463 @@ public class TravellingSalesman<T> {
         return bestDistance;
     }
 
-    public double solve() {
+    /**
+     * Solves the problem using the old Simulated Annealing solver. 
+     * 
+     * @return The travelling distance of the solution.
+     */
+    public double solveByAnnealing() {
         // heuristic for the simulated annealing params
         int size = Math.max(1, this.travelSize);
         return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000);
     }
 
+    /**
+     * Solves the problem within the default time limit.
+     * 
+     * @return The travelling distance of the solution.
+     */
+    public double solve() {
+        return solve(defaultSolverTimeLimit);
+    }
+
+    /**
+     * Solves the problem. The solver returns as soon as no further improvement is found, or when the 
+     * time limit is reached, with the best solution so far.
+     * 
+     * @param timeLimit Wall-clock time limit in milliseconds.
+     * @return The travelling distance of the solution.
+     */
+    public double solve(long timeLimit) {
+        long startTime = System.currentTimeMillis();
+        int [] route;
+        if (this.travelSize <= maxExhaustiveSize) {
+            route = solveExhaustive();
+        }
+        else {
+            LocalSearch search = new LocalSearch(startTime + timeLimit);
+            route = search.restart(search.improve(search.getNearestNeighborRoute()), new Random(0));
+            if (this.parallelRestarts > 0) {
+                final int [] initialRoute = route;
+                // Collect all the results first, so the choice of the best is deterministic. 
+                List<int []> routes = IntStream.rangeClosed(1, this.parallelRestarts)
+                        .parallel()
+                        .mapToObj(seed -> search.restart(initialRoute, new Random(seed)))
+                        .collect(Collectors.toList());
+                for (int [] restartRoute : routes) {
+                    if (search.getRouteDistance(restartRoute) < search.getRouteDistance(route)) {
+                        route = restartRoute;
+                    }
+                }
+            }
+        }
+        this.travel.clear();
+        for (int index : route) {
+            this.travel.add(this.points[index]);
+        }
+        double bestDistance = getTravellingDistance();
+        this.solverDuration = System.currentTimeMillis() - startTime;
+        if (debugLevel > 0) {
+            System.out.println("Solved size: "+this.travelSize+", distance of travel: "+bestDistance+", time: "+this.solverDuration+"ms");
+        }
+        return bestDistance;
+    }
+
+    /**
+     * @param a Index of the TravelLocation, -1 for the start and travelSize for the end Location. 
+     * @param b Index of the TravelLocation, -1 for the start and travelSize for the end Location.
+     * @return The distance, 0.0 if one of them is an open start or end Location.
+     */
+    private double getIndexDistance(int a, int b) {
+        TravelLocation la = (a < 0 ? this.startLocation : (a >= this.travelSize ? this.endLocation : this.points[a]));
+        TravelLocation lb = (b < 0 ? this.startLocation : (b >= this.travelSize ? this.endLocation : this.points[b]));
+        if (la == null || lb == null) {
+            return 0.0;
+        }
+        return la.getLinearDistanceTo(lb);
+    }
+
+    /**
+     * Tries all the routes, pruning those that are already longer than the best so far.
+     */
+    private int [] solveExhaustive() {
+        int [] route = new int[this.travelSize];
+        int [] bestRoute = new int[this.travelSize];
+        for (int i = 0; i < this.travelSize; i++) {
+            bestRoute[i] = i;
+        }
+        double [] bestDistance = new double[] { Double.POSITIVE_INFINITY };
+        permute(route, 0, new boolean[this.travelSize], 0.0, bestRoute, bestDistance);
+        return bestRoute;
+    }
+
+    private void permute(int [] route, int position, boolean [] used, double distance, 
+            int [] bestRoute, double [] bestDistance) {
+        if (position == this.travelSize) {
+            distance += getIndexDistance(position > 0 ? route[position - 1] : -1, this.travelSize);
+            if (distance < bestDistance[0]) {
+                bestDistance[0] = distance;
+                System.arraycopy(route, 0, bestRoute, 0, this.travelSize);
+            }
+            return;
+        }
+        for (int i = 0; i < this.travelSize; i++) {
+            if (!used[i]) {
+                double newDistance = distance + getIndexDistance(position > 0 ? route[position - 1] : -1, i);
+                if (newDistance < bestDistance[0]) {
+                    used[i] = true;
+                    route[position] = i;
+                    permute(route, position + 1, used, newDistance, bestRoute, bestDistance);
+                    used[i] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Local search with 2-opt and Or-opt moves over nearest neighbor lists. Routes are arrays of TravelLocation 
+     * indices. Positions in the route run from -1 (the start Location) to travelSize (the end Location).
+     */
+    private class LocalSearch {
+        private final long deadline;
+        private final int [][] neighbors;
+        private final int n = travelSize;
+
+        private LocalSearch(long deadline) {
+            this.deadline = deadline;
+            this.neighbors = getNeighbors();
+        }
+
+        private int [][] getNeighbors() {
+            int k = Math.min(neighborCount, n - 1);
+            int [][] neighbors = new int[n][k];
+            double [] distances = new double[k];
+            for (int i = 0; i < n; i++) {
+                int count = 0;
+                for (int j = 0; j < n; j++) {
+                    if (j == i) {
+                        continue;
+                    }
+                    double distance = getIndexDistance(i, j);
+                    if (count < k || distance < distances[k - 1]) {
+                        // insertion into the sorted list of the nearest
+                        int p = Math.min(count, k - 1);
+                        while (p > 0 && distances[p - 1] > distance) {
+                            distances[p] = distances[p - 1];
+                            neighbors[i][p] = neighbors[i][p - 1];
+                            p--;
+                        }
+                        distances[p] = distance;
+                        neighbors[i][p] = j;
+                        count = Math.min(count + 1, k);
+                    }
+                }
+            }
+            return neighbors;
+        }
+
+        private boolean isTimeUp() {
+            return System.currentTimeMillis() >= deadline;
+        }
+
+        private int [] getNearestNeighborRoute() {
+            int [] route = new int[n];
+            boolean [] visited = new boolean[n];
+            int last = (startLocation != null ? -1 : 0);
+            int position = 0;
+            if (last >= 0) {
+                route[position++] = last;
+                visited[last] = true;
+            }
+            for (; position < n; position++) {
+                int best = -1;
+                double bestDistance = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < n; i++) {
+                    if (!visited[i]) {
+                        double distance = getIndexDistance(last, i);
+                        if (distance < bestDistance) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+                route[position] = best;
+                visited[best] = true;
+                last = best;
+            }
+            return route;
+        }
+
+        private double getRouteDistance(int [] route) {
+            double distance = 0.0;
+            for (int p = 0; p <= n; p++) {
+                distance += getIndexDistance(at(route, p - 1), at(route, p));
+            }
+            return distance;
+        }
+
+        private int at(int [] route, int position) {
+            return (position < 0 ? -1 : (position >= n ? n : route[position]));
+        }
+
+        /**
+         * Improves the route with 2-opt and Or-opt moves until no more improvement is found or the time is up.
+         * 
+         * @param route The route to improve, changed in place.
+         * @param active The indices of the Locations to start with, all if none are given.  
+         * @return The route.
+         */
+        private int [] improve(int [] route, int... active) {
+            Improvement improvement = new Improvement(route);
+            if (active.length == 0) {
+                for (int index = 0; index < n; index++) {
+                    improvement.activate(index);
+                }
+            }
+            else {
+                for (int index : active) {
+                    improvement.activate(index);
+                }
+            }
+            improvement.run();
+            return route;
+        }
+
+        /**
+         * The state of improving one route. Only the Locations whose surroundings changed are queued to be looked 
+         * at again, so after a small change to a good route, only a few Locations need to be looked at. 
+         */
+        private class Improvement {
+            private final int [] route;
+            private final int [] positions = new int[n];
+            private final int [] queue = new int[n];
+            private final boolean [] queued = new boolean[n];
+            private int queueHead = 0;
+            private int queueSize = 0;
+
+            private Improvement(int [] route) {
+                this.route = route;
+                updatePositions(0, n - 1);
+            }
+
+            private void activate(int index) {
+                if (index >= 0 && index < n && !queued[index]) {
+                    queued[index] = true;
+                    queue[(queueHead + queueSize) % n] = index;
+                    queueSize++;
+                }
+            }
+
+            private void run() {
+                int count = 0;
+                while (queueSize > 0) {
+                    if ((++count & 0x3F) == 0 && isTimeUp()) {
+                        break;
+                    }
+                    int index = queue[queueHead];
+                    queueHead = (queueHead + 1) % n;
+                    queueSize--;
+                    queued[index] = false;
+                    if (improveAt(index)) {
+                        activate(index);
+                    }
+                }
+            }
+
+            private boolean improveAt(int index) {
+                // 2-opt: make the Location adjacent to one of its neighbors
+                for (int neighbor : neighbors[index]) {
+                    int i = positions[index];
+                    int j = positions[neighbor];
+                    if (i < j) {
+                        if (tryReverse(i + 1, j) || tryReverse(i, j - 1)) {
+                            return true;
+                        }
+                    }
+                    else {
+                        if (tryReverse(j + 1, i) || tryReverse(j, i - 1)) {
+                            return true;
+                        }
+                    }
+                }
+                // 2-opt: reverse the route from the start or to the end, i.e. choose a different (open) end point
+                if (tryReverse(0, positions[index]) || tryReverse(positions[index], n - 1)) {
+                    return true;
+                }
+                // Or-opt: move a run of Locations next to a neighbor 
+                for (int length = 1; length <= maxOrOptLength; length++) {
+                    if (tryMove(positions[index], length)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            /**
+             * Reverses the route between the positions a and b (inclusive), if that makes it shorter.
+             */
+            private boolean tryReverse(int a, int b) {
+                if (a >= b) {
+                    return false;
+                }
+                int before = at(route, a - 1);
+                int after = at(route, b + 1);
+                double delta = getIndexDistance(before, route[b]) + getIndexDistance(route[a], after)
+                        - getIndexDistance(before, route[a]) - getIndexDistance(route[b], after);
+                if (delta > -1e-9) {
+                    return false;
+                }
+                activate(before);
+                activate(after);
+                activate(route[a]);
+                activate(route[b]);
+                for (; a < b; a++, b--) {
+                    int s = route[a];
+                    route[a] = route[b];
+                    route[b] = s;
+                    positions[route[a]] = a;
+                    positions[route[b]] = b;
+                }
+                return true;
+            }
+
+            /**
+             * Moves the run of Locations of the given length at position a next to a neighbor of its first or last 
+             * Location, optionally reversed, whichever makes the route shortest, if any.
+             */
+            private boolean tryMove(int a, int length) {
+                int b = a + length - 1;
+                if (b >= n) {
+                    return false;
+                }
+                int first = route[a];
+                int last = route[b];
+                int before = at(route, a - 1);
+                int after = at(route, b + 1);
+                double removeDelta = getIndexDistance(before, after) 
+                        - getIndexDistance(before, first) - getIndexDistance(last, after);
+                double bestDelta = -1e-9;
+                int bestPosition = 0;
+                boolean bestReversed = false;
+                for (int end = 0; end < 2; end++) {
+                    for (int neighbor : neighbors[end == 0 ? first : last]) {
+                        int j = positions[neighbor];
+                        // insert between k and k + 1, either after or before the neighbor
+                        for (int k = j - 1; k <= j; k++) {
+                            if (k >= a - 1 && k <= b) {
+                                continue;
+                            }
+                            int x = at(route, k);
+                            int y = at(route, k + 1);
+                            double insertDelta = getIndexDistance(x, first) + getIndexDistance(last, y) 
+                                    - getIndexDistance(x, y);
+                            double reversedDelta = getIndexDistance(x, last) + getIndexDistance(first, y) 
+                                    - getIndexDistance(x, y);
+                            if (removeDelta + insertDelta < bestDelta) {
+                                bestDelta = removeDelta + insertDelta;
+                                bestPosition = k;
+                                bestReversed = false;
+                            }
+                            if (removeDelta + reversedDelta < bestDelta) {
+                                bestDelta = removeDelta + reversedDelta;
+                                bestPosition = k;
+                                bestReversed = true;
+                            }
+                        }
+                    }
+                }
+                if (bestDelta >= -1e-9) {
+                    return false;
+                }
+                activate(before);
+                activate(after);
+                activate(first);
+                activate(last);
+                activate(at(route, bestPosition));
+                activate(at(route, bestPosition + 1));
+                int [] run = new int[length];
+                for (int i = 0; i < length; i++) {
+                    run[i] = route[bestReversed ? b - i : a + i];
+                }
+                if (bestPosition < a) {
+                    // shift the Locations between the insertion point and the run towards the end
+                    System.arraycopy(route, bestPosition + 1, route, bestPosition + 1 + length, a - bestPosition - 1);
+                    System.arraycopy(run, 0, route, bestPosition + 1, length);
+                    updatePositions(bestPosition + 1, b);
+                }
+                else {
+                    // shift the Locations between the run and the insertion point towards the start
+                    System.arraycopy(route, b + 1, route, a, bestPosition - b);
+                    System.arraycopy(run, 0, route, bestPosition - length + 1, length);
+                    updatePositions(a, bestPosition);
+                }
+                return true;
+            }
+
+            private void updatePositions(int a, int b) {
+                for (int p = a; p <= b; p++) {
+                    positions[route[p]] = p;
+                }
+            }
+        }
+
+        /**
+         * Iterated local search: repeatedly perturbs the best route with a random "double bridge" move, that 
+         * 2-opt and Or-opt cannot easily undo, and improves it again.  
+         */
+        private int [] restart(int [] initialRoute, Random rnd) {
+            int [] bestRoute = initialRoute.clone();
+            double bestDistance = getRouteDistance(bestRoute);
+            int [] cutIndices = new int[6];
+            for (int kick = 0; kick < restartKicks && !isTimeUp(); kick++) {
+                int [] route = improve(doubleBridge(bestRoute, rnd, cutIndices), cutIndices);
+                double distance = getRouteDistance(route);
+                if (distance < bestDistance) {
+                    bestRoute = route;
+                    bestDistance = distance;
+                }
+            }
+            return bestRoute;
+        }
+
+        /**
+         * Cuts the route into A B C D and reconnects it as A C B D.
+         * 
+         * @param cutIndices Receives the indices of the Locations at the cuts.
+         */
+        private int [] doubleBridge(int [] route, Random rnd, int [] cutIndices) {
+            int [] cuts = new int[] { 1 + rnd.nextInt(n - 3), 1 + rnd.nextInt(n - 3), 1 + rnd.nextInt(n - 3) };
+            Arrays.sort(cuts);
+            int p1 = cuts[0], p2 = cuts[1] + 1, p3 = cuts[2] + 2;
+            int [] newRoute = new int[n];
+            int p = 0;
+            System.arraycopy(route, 0, newRoute, p, p1);
+            p += p1;
+            System.arraycopy(route, p2, newRoute, p, p3 - p2);
+            p += p3 - p2;
+            System.arraycopy(route, p1, newRoute, p, p2 - p1);
+            p += p2 - p1;
+            System.arraycopy(route, p3, newRoute, p, n - p3);
+            int i = 0;
+            for (int cut : new int[] { p1, p2, p3 }) {
+                cutIndices[i++] = route[cut - 1];
+                cutIndices[i++] = route[cut];
+            }
+            return newRoute;
+        }
+    }
+
+    public int getParallelRestarts() {
+        return parallelRestarts;
+    }
+
+    /**
+     * @param parallelRestarts Number of parallel iterated local searches from the first solution, 0 for none. Restarts can find better routes in larger problems, but take longer, up to the time limit.
+     */
+    public void setParallelRestarts(int parallelRestarts) {
+        this.parallelRestarts = parallelRestarts;
+    }
+
     public List<T> getTravel() {
         // convert the working list back to a list of the input objects using the now rearranged t.index order. 
         List<T> travelOutput = new ArrayList<>();
@@ -206,6 +206,58 @@ public class VisionUtils {
     }
     
     public static PartAlignment.PartAlignmentOffset findPartAlignmentOffsets(PartAlignment p, Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle) throws Exception {
+        fireScriptPartAlignmentBefore(part, nozzle);
+        PartAlignmentOffset offsets = null;
+        try {
+            offsets = p.findOffsets(part, boardLocation, placementLocation, nozzle);
+            return offsets;
+        }
+        finally {
+            fireScriptPartAlignmentAfter(part, nozzle, offsets);
+        }
+    }
+
+    /**
+     * Starts a pipelined part alignment, see PartAlignment.startAlignment(). The Vision.PartAlignment.Before 
+     * script is run now, the Vision.PartAlignment.After script when the offsets are obtained from the 
+     * returned PendingAlignment.
+     */
+    public static PartAlignment.PendingAlignment startPartAlignment(PartAlignment p, Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle) throws Exception {
+        fireScriptPartAlignmentBefore(part, nozzle);
+        PartAlignment.PendingAlignment pendingAlignment;
+        try {
+            pendingAlignment = p.startAlignment(part, boardLocation, placementLocation, nozzle);
+        }
+        catch (Exception e) {
+            fireScriptPartAlignmentAfter(part, nozzle, null);
+            throw e;
+        }
+        return new PartAlignment.PendingAlignment() {
+            @Override
+            public PartAlignmentOffset getOffsets() throws Exception {
+                PartAlignmentOffset offsets = null;
+                try {
+                    offsets = pendingAlignment.getOffsets();
+                    return offsets;
+                }
+                finally {
+                    fireScriptPartAlignmentAfter(part, nozzle, offsets);
+                }
+            }
+
+            @Override
+            public double getOverlappedTimeMs() {
+                return pendingAlignment.getOverlappedTimeMs();
+            }
+
+            @Override
+            public void cancel() {
+                pendingAlignment.cancel();
+            }
+        };
+    }
+
+    private static void fireScriptPartAlignmentBefore(Part part, Nozzle nozzle) {
         try {
             Map<String, Object> globals = new HashMap<>();
             globals.put("part", part);
@@ -215,22 +267,18 @@ public class VisionUtils {
         catch (Exception e) {
             Logger.warn(e);
         }
-        PartAlignmentOffset offsets = null;
+    }
+
+    private static void fireScriptPartAlignmentAfter(Part part, Nozzle nozzle, PartAlignmentOffset offsets) {
         try {
-            offsets = p.findOffsets(part, boardLocation, placementLocation, nozzle);
-            return offsets;
+            Map<String, Object> globals = new HashMap<>();
+            globals.put("part", part);
+            globals.put("nozzle", nozzle);
+            globals.put("offsets", offsets);
+            Configuration.get().getScripting().on("Vision.PartAlignment.After", globals);
         }
-        finally {
-            try {
-                Map<String, Object> globals = new HashMap<>();
-                globals.put("part", part);
-                globals.put("nozzle", nozzle);
-                globals.put("offsets", offsets);
-                Configuration.get().getScripting().on("Vision.PartAlignment.After", globals);
-            }
-            catch (Exception e) {
-                Logger.warn(e);
-            }
+        catch (Exception e) {
+            Logger.warn(e);
         }
     }
 }
@@ -3,18 +3,28 @@ package org.openpnp.vision.pipeline;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
+import org.openpnp.spi.Camera;
 import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
+import org.openpnp.vision.pipeline.stages.ScriptRun;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Root;
 import org.simpleframework.xml.Serializer;
@@ -39,6 +49,20 @@ import org.simpleframework.xml.stream.Style;
  * 
  * RoboRealm: http://www.roborealm.com/
  * 
+ * The pipeline can be processed in two execution modes. In the Full mode, used by the pipeline editor, a copy of
+ * the image of every stage is retained in its result. In the Lean mode, used for production, only the images of
+ * stages that are referenced by name from later stages are copied and retained. For the other stages, the per-stage
+ * copy is skipped, the stages themselves still allocate their output images as usual. Models and processing times
+ * are retained in both modes.
+ * 
+ * For the pipeline editor, the pipeline can also be processed incrementally. The results of the stages are then
+ * memoized, keyed on the properties of the stage, the properties of all the stages before it and the pipeline
+ * properties. On the next processIncremental() only the stages from the first changed one onward are executed again.
+ * With the frozen input option, ImageCapture stages replay the last captured frame instead of capturing a new one.
+ * 
+ * The input images can also be captured ahead with captureInput(), so the pipeline can be processed later on another
+ * thread, while the machine moves on.
+ * 
  * TODO: Add measuring to image window.
  * 
  * TODO: Add info showing pixel coordinates when mouse is in image window.
@@ -52,7 +76,26 @@ public class CvPipeline implements AutoCloseable {
     @ElementList
     private ArrayList<CvStage> stages = new ArrayList<>();
 
+    public enum ExecutionMode {
+        /**
+         * Retain a copy of the image of every stage. 
+         */
+        Full,
+        /**
+         * Retain only the images of stages that are referenced by later stages. This saves the per-stage copy,
+         * not the output images the stages allocate.
+         */
+        Lean
+    }
+
     private Map<CvStage, Result> results = new HashMap<CvStage, Result>();
+
+    private ExecutionMode executionMode = ExecutionMode.Full;
+
+    // Retained image Mats of the last process() that are reused for the next one.
+    private Deque<Mat> matPool = new ArrayDeque<>();
+
+    private Map<CvStage, Long> retainedImageBytes = new HashMap<>();
     
     private Map<String, Object> properties = new HashMap<String, Object>();
 
@@ -60,6 +103,19 @@ public class CvPipeline implements AutoCloseable {
     private Object workingModel;
     
     private long totalProcessingTimeNs;
+
+    private boolean incremental;
+    private boolean frozenInput;
+
+    // Memoization of the last incremental process().
+    private List<CvStage> cachedStages = new ArrayList<>();
+    private List<String> cachedFingerprints = new ArrayList<>();
+    private String cachedInputFingerprint;
+    private int cachedStageCount;
+    private long executionTimeNs;
+
+    // Input images captured ahead by captureInput(), taken by the ImageCapture stages on the next process().
+    private Map<CvStage, Mat> capturedInputs = new HashMap<>();
     
     public CvPipeline() {
         
@@ -116,7 +172,9 @@ public class CvPipeline implements AutoCloseable {
     }
 
     public void remove(CvStage stage) {
-        stages.remove(stage);
+        if (stages.remove(stage)) {
+            stage.release();
+        }
     }
 
     public List<CvStage> getStages() {
@@ -189,10 +247,225 @@ public class CvPipeline implements AutoCloseable {
       this.totalProcessingTimeNs = totalProcessingTimeNs;
     }
 
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Determines the stages whose result image is read by later stages, i.e. whose name is set in any of the
+     * properties of a later stage. If a stage cannot be analyzed, such as a script, all stages are returned.
+     * 
+     * @return
+     */
+    public Set<CvStage> getReferencedStages() {
+        Set<CvStage> referencedStages = new HashSet<>();
+        for (CvStage stage : stages) {
+            if (stage instanceof ScriptRun) {
+                // A script can read any result.
+                return new HashSet<>(stages);
+            }
+            for (Class<?> cls = stage.getClass(); cls != null && cls != CvStage.class; cls = cls.getSuperclass()) {
+                for (Field field : cls.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    Object value;
+                    try {
+                        field.setAccessible(true);
+                        value = field.get(stage);
+                    }
+                    catch (Exception e) {
+                        // Cannot analyze, be safe.
+                        return new HashSet<>(stages);
+                    }
+                    if (value instanceof CvStage) {
+                        referencedStages.add((CvStage) value);
+                    }
+                    else if (value instanceof String) {
+                        CvStage referencedStage = getStage((String) value);
+                        if (referencedStage != null && referencedStage != stage) {
+                            referencedStages.add(referencedStage);
+                        }
+                    }
+                }
+            }
+        }
+        return referencedStages;
+    }
+
+    /**
+     * @param stage
+     * @return The bytes of the image retained in the result of the stage by the last process().
+     */
+    public long getRetainedImageBytes(CvStage stage) {
+        Long bytes = retainedImageBytes.get(stage);
+        return bytes == null ? 0 : bytes;
+    }
+
+    /**
+     * @return The bytes of all the images retained in the results by the last process().
+     */
+    public long getTotalRetainedImageBytes() {
+        long bytes = 0;
+        for (Long stageBytes : retainedImageBytes.values()) {
+            bytes += stageBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return True if ImageCapture stages should replay their last captured frame. Only ever true while the
+     *         pipeline is processed incrementally, so a pipeline used for production always captures.
+     */
+    public boolean isFrozenInput() {
+        return frozenInput && incremental;
+    }
+
+    /**
+     * Sets whether ImageCapture stages should replay their last captured frame, when the pipeline is processed
+     * incrementally.
+     * 
+     * @param frozenInput
+     */
+    public void setFrozenInput(boolean frozenInput) {
+        this.frozenInput = frozenInput;
+    }
+
+    /**
+     * @return True if the pipeline is currently being processed incrementally.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return The number of stages whose memoized result was reused by the last process.
+     */
+    public int getCachedStageCount() {
+        return cachedStageCount;
+    }
+
+    /**
+     * @param stage
+     * @return True if the result of the stage was reused from the memoized results by the last process.
+     */
+    public boolean isCachedResult(CvStage stage) {
+        int index = stages.indexOf(stage);
+        return index >= 0 && index < cachedStageCount;
+    }
+
+    /**
+     * @return The wall time of the last process in nanoseconds, i.e. the time it took to execute the stages that
+     *         were not reused from memoized results.
+     */
+    public long getExecutionTimeNs() {
+        return executionTimeNs;
+    }
+
+    /**
+     * Discards the memoized results, so the next processIncremental() executes all the stages again, including
+     * a new capture (unless the input is frozen).
+     */
+    public void invalidateCache() {
+        cachedStages.clear();
+        cachedFingerprints.clear();
+        cachedInputFingerprint = null;
+    }
+
+    /**
+     * Processes the pipeline in Full execution mode, reusing the memoized results of the leading stages that did
+     * not change since the last processIncremental(). Stages that are not cacheable, such as scripts, are always
+     * executed, together with all the stages after them.
+     */
+    public void processIncremental() {
+        List<String> fingerprints = getStageFingerprints();
+        String inputFingerprint = getInputFingerprint();
+        int reused = 0;
+        if (executionMode == ExecutionMode.Full && inputFingerprint.equals(cachedInputFingerprint)) {
+            while (reused < stages.size() 
+                    && reused < cachedStages.size()
+                    && stages.get(reused) == cachedStages.get(reused)
+                    && fingerprints.get(reused) != null
+                    && fingerprints.get(reused).equals(cachedFingerprints.get(reused))
+                    && results.containsKey(stages.get(reused))) {
+                reused++;
+            }
+        }
+        incremental = true;
+        try {
+            process(reused);
+        }
+        finally {
+            incremental = false;
+        }
+        cachedStages = new ArrayList<>(stages);
+        cachedFingerprints = fingerprints;
+        cachedInputFingerprint = inputFingerprint;
+    }
+
     public void process() {
-        totalProcessingTimeNs = 0;
-        release();
+        process(0);
+    }
+
+    /**
+     * Captures the images of the ImageCapture stages now, using the "camera" property. The next process() then 
+     * uses these images instead of capturing, so it can run later, and on another thread. This only works for 
+     * pipelines whose captures do not depend on the stages before them. 
+     * 
+     * @throws Exception
+     */
+    public void captureInput() throws Exception {
+        releaseCapturedInputs();
+        Camera camera = (Camera) getProperty("camera");
+        if (camera == null) {
+            throw new Exception("No Camera set on pipeline.");
+        }
         for (CvStage stage : stages) {
+            if (stage.isEnabled() && stage instanceof ImageCapture) {
+                capturedInputs.put(stage, ((ImageCapture) stage).capture(camera));
+            }
+        }
+    }
+
+    /**
+     * @param stage
+     * @return The image captured ahead for the stage by captureInput(), or null if none. The caller takes 
+     * ownership of the image. 
+     */
+    public Mat takeCapturedInput(CvStage stage) {
+        return capturedInputs.remove(stage);
+    }
+
+    private void releaseCapturedInputs() {
+        for (Mat image : capturedInputs.values()) {
+            image.release();
+        }
+        capturedInputs.clear();
+    }
+
+    /**
+     * Processes the pipeline, starting with the stage at the given index. The results of the stages before it
+     * must be valid.
+     * 
+     * @param firstStage
+     */
+    private void process(int firstStage) {
+        long t0 = System.nanoTime();
+        totalProcessingTimeNs = 0;
+        boolean lean = (executionMode == ExecutionMode.Lean);
+        Set<CvStage> referencedStages = lean ? getReferencedStages() : null;
+        if (firstStage == 0) {
+            releaseResults(lean);
+        }
+        else {
+            restoreResults(firstStage);
+        }
+        cachedStageCount = firstStage;
+        for (CvStage stage : stages.subList(firstStage, stages.size())) {
             // Process and time the stage and get the result.
             long processingTimeNs = System.nanoTime();
             Result result = null;
@@ -217,27 +490,122 @@ public class CvPipeline implements AutoCloseable {
             if(stage.isEnabled() && model != null) {
               workingModel=model;
             }
+            boolean retain = !lean || referencedStages.contains(stage);
             // If the result image is null and there is a working image,
-            // replace the result image with a clone of the working image.
+            // replace the result image with a copy of the working image.
             if (image == null) {
-                if (workingImage != null) {
-                    image = workingImage.clone();
+                if (workingImage != null && retain) {
+                    image = copyImage(workingImage, lean);
                 }
             }
             // If the result image is not null:
             // Release the working image if the result image is different.
             // Replace the working image with the result image.
-            // Clone the result image for storage.
+            // Copy the result image for storage.
             else {
                 if (workingImage != null && workingImage != image) {
                     workingImage.release();
                 }
                 workingImage = image;
-                image = image.clone();
+                image = retain ? copyImage(image, lean) : null;
+            }
+            if (image != null) {
+                retainedImageBytes.put(stage, image.total()*image.elemSize());
             }
 
             results.put(stage, new Result(image, model, processingTimeNs));
         }
+        executionTimeNs = System.nanoTime() - t0;
+    }
+
+    /**
+     * Restores the state of the pipeline after the stage before the given index from the memoized results and
+     * releases all the other results.
+     * 
+     * @param firstStage
+     */
+    private void restoreResults(int firstStage) {
+        Set<CvStage> reusedStages = new HashSet<>(stages.subList(0, firstStage));
+        for (CvStage stage : new ArrayList<>(results.keySet())) {
+            if (!reusedStages.contains(stage)) {
+                Result result = results.remove(stage);
+                if (result.image != null) {
+                    result.image.release();
+                }
+                retainedImageBytes.remove(stage);
+            }
+        }
+        if (workingImage != null) {
+            workingImage.release();
+            workingImage = null;
+        }
+        workingModel = null;
+        for (CvStage stage : stages.subList(0, firstStage)) {
+            Result result = results.get(stage);
+            totalProcessingTimeNs += result.processingTimeNs;
+            if (stage.isEnabled() && result.model != null) {
+                workingModel = result.model;
+            }
+        }
+        // In the Full mode, the result image is always a copy of the working image after the stage. 
+        Result last = results.get(stages.get(firstStage - 1));
+        if (last.image != null) {
+            workingImage = last.image.clone();
+        }
+    }
+
+    /**
+     * Determines the fingerprints of the stages, i.e. their serialized properties. A null fingerprint means the 
+     * stage or one before it is not cacheable.
+     * 
+     * @return
+     */
+    private List<String> getStageFingerprints() {
+        List<String> fingerprints = new ArrayList<>();
+        Serializer ser = createSerializer();
+        boolean cacheable = true;
+        for (CvStage stage : stages) {
+            String fingerprint = null;
+            if (cacheable && stage.isCacheable()) {
+                try {
+                    StringWriter sw = new StringWriter();
+                    ser.write(stage, sw);
+                    fingerprint = stage.getClass().getName()+sw.toString();
+                }
+                catch (Exception e) {
+                    fingerprint = null;
+                }
+            }
+            cacheable = (fingerprint != null);
+            fingerprints.add(fingerprint);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Determines the fingerprint of the pipeline properties, i.e. the inputs set by the caller. Values are 
+     * compared by identity, except for simple values. 
+     * 
+     * @return
+     */
+    private String getInputFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        for (String name : new TreeSet<>(properties.keySet())) {
+            Object value = properties.get(name);
+            fingerprint.append(name);
+            fingerprint.append('=');
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Enum) {
+                fingerprint.append(value);
+            }
+            else {
+                fingerprint.append(value.getClass().getName());
+                fingerprint.append('@');
+                fingerprint.append(System.identityHashCode(value));
+            }
+            fingerprint.append(';');
+        }
+        return fingerprint.toString();
     }
 
     /**
@@ -246,17 +614,57 @@ public class CvPipeline implements AutoCloseable {
      * resources from OpenCV.
      */
     public void release() {
+        releaseResults(false);
+        releaseCapturedInputs();
+        for (CvStage stage : stages) {
+            stage.release();
+        }
+        while (!matPool.isEmpty()) {
+            matPool.pop().release();
+        }
+    }
+
+    /**
+     * Release the results of the last process().
+     * 
+     * @param pool If true, the result image Mats are put into the pool for reuse, instead of being released.
+     */
+    private void releaseResults(boolean pool) {
         if (workingImage != null) {
             workingImage.release();
             workingImage = null;
         }
         for (Result result : results.values()) {
             if (result.image != null) {
-                result.image.release();
+                if (pool) {
+                    matPool.push(result.image);
+                }
+                else {
+                    result.image.release();
+                }
             }
         }
         workingModel = null;
         results.clear();
+        retainedImageBytes.clear();
+        invalidateCache();
+    }
+
+    /**
+     * Copies the image for retention. If pooled, a Mat from the last process() is reused, which avoids reallocation
+     * as long as the size and type is the same.  
+     * 
+     * @param image
+     * @param pooled
+     * @return
+     */
+    private Mat copyImage(Mat image, boolean pooled) {
+        if (!pooled || matPool.isEmpty()) {
+            return image.clone();
+        }
+        Mat copy = matPool.pop();
+        image.copyTo(copy);
+        return copy;
     }
     
     @Override
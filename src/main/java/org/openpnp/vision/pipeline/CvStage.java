@@ -7,6 +7,13 @@ import java.beans.EventSetDescriptor;
 import java.beans.Introspector;
 import java.beans.MethodDescriptor;
 import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.opencv.core.Mat;
 import org.openpnp.model.LengthUnit;
@@ -57,6 +64,22 @@ public abstract class CvStage {
         this.enabled = enabled;
     }
 
+    /**
+     * @return True if the result of the stage only depends on its properties, the results of the stages before it
+     *         and the pipeline properties, so it can be memoized while the pipeline is edited. Stages with side
+     *         effects or external inputs that cannot be fingerprinted should return false.
+     */
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Release any native resources the stage holds on its own, outside of its results. Called from 
+     * CvPipeline.release() and when the stage is removed from the pipeline.
+     */
+    public void release() {
+    }
+
     public String getCategory() {
         try {
             Stage a = getClass().getAnnotation(Stage.class);
@@ -96,6 +119,59 @@ public abstract class CvStage {
     public BeanInfo getBeanInfo() {
         return new CvStageBeanInfo();
     }
+
+    private static final int maxParallelThreads = 4;
+    private static ExecutorService parallelExecutor;
+
+    /**
+     * @return The bounded pool shared by the stages that process parts of their work in parallel, or 
+     *         null if there is only one processor.
+     */
+    private static synchronized ExecutorService getParallelExecutor() {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), maxParallelThreads);
+        if (threads <= 1) {
+            return null;
+        }
+        if (parallelExecutor == null) {
+            parallelExecutor = Executors.newFixedThreadPool(threads, (runnable) -> {
+                Thread thread = new Thread(runnable, "CvStage parallel");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return parallelExecutor;
+    }
+
+    /**
+     * Executes the tasks in parallel on a bounded pool, or inline if there is only one processor. 
+     * The tasks must not submit further tasks.
+     * 
+     * @param tasks
+     * @return The results of the tasks, in the same order.
+     * @throws Exception The first exception thrown by a task.
+     */
+    protected static <T> List<T> invokeAll(List<Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<>();
+        ExecutorService executor = getParallelExecutor();
+        if (executor == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+        for (Future<T> future : executor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
     
     public class CvStageBeanInfo implements BeanInfo {
         private final BeanInfo beanInfo;
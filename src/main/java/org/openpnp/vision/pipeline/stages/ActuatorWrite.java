@@ -52,6 +52,12 @@ public class ActuatorWrite extends CvStage {
 	}
     
 
+    @Override
+    public boolean isCacheable() {
+        // Writing the actuator is a side effect.
+        return false;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
 
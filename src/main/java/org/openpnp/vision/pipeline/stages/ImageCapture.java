@@ -26,6 +26,9 @@ public class ImageCapture extends CvStage {
     @Attribute(required=false)
     @Property(description="Number of camera images to average.")
     private int count = 1;
+
+    // The last captured image, replayed when the pipeline input is frozen in the editor.
+    private Mat lastCapture;
     
     public boolean isSettleFirst() {
         return settleFirst;
@@ -53,6 +56,37 @@ public class ImageCapture extends CvStage {
         if (camera == null) {
             throw new Exception("No Camera set on pipeline.");
         }
+        if (pipeline.isFrozenInput() && lastCapture != null) {
+            return new Result(lastCapture.clone());
+        }
+        Mat avgImage = pipeline.takeCapturedInput(this);
+        if (avgImage == null) {
+            avgImage = capture(camera);
+        }
+        release();
+        if (pipeline.isIncremental()) {
+            // Keep it for a frozen input.
+            lastCapture = avgImage.clone();
+        }
+        return new Result(avgImage);
+    }
+
+    @Override
+    public void release() {
+        if (lastCapture != null) {
+            lastCapture.release();
+            lastCapture = null;
+        }
+    }
+
+    /**
+     * Captures the (averaged) image from the camera.
+     * 
+     * @param camera
+     * @return
+     * @throws Exception
+     */
+    public Mat capture(Camera camera) throws Exception {
         Mat image;
         Mat avgImage;
         if (settleFirst) {
@@ -71,6 +105,6 @@ public class ImageCapture extends CvStage {
             Core.addWeighted(avgImage, 1, image, beta, 0, avgImage); // avgImage = avgImag + image/count
         }
         avgImage.convertTo(avgImage, 0); //0=CV_8U
-        return new Result(avgImage);
+        return avgImage;
     }
 }
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.opencv.core.Core;
 import org.opencv.core.Core.MinMaxLocResult;
@@ -85,6 +86,11 @@ public class MatchPartsTemplate extends CvStage {
             description = "If maximum value is below this value, then no matches will be reported. Default is 0.85.")
     private double threshold = 0.85f;
 
+    @Attribute(required = false)
+    @Property(description = "Number of image pyramid levels for a coarse-to-fine search, each halving the resolution of the coarse pass. "
+            + "Candidates found at the coarse resolution are refined at full resolution. 0 matches at full resolution only.")
+    private int pyramidLevels = 0;
+
     public String getTemplateStageName() {
         return templateStageName;
     }
@@ -109,6 +115,14 @@ public class MatchPartsTemplate extends CvStage {
         this.threshold = threshold;
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = Math.max(0, pyramidLevels);
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
 
@@ -182,7 +196,7 @@ public class MatchPartsTemplate extends CvStage {
     }
 
     private RotatedRect handleSingleRectangle(Mat originalImage, Result template,
-            RotatedRect rrect) {
+            RotatedRect rrect) throws Exception {
         Mat timage = template.image.clone();
         
         if (log) {
@@ -246,32 +260,33 @@ public class MatchPartsTemplate extends CvStage {
         // we will be advancing the rotation in steps of 90 deg
         double angleAdv = 90.0;
 
-        // match template 4 times, each differing by 90deg
+        // prepare the template in the 4 orientations, each differing by 90deg
+        List<Mat> timages = new ArrayList<>();
+        timages.add(timage);
+        for (int i = 2; i <= 4; i++) {
+            // fast rotate/flip the template 90deg
+            Mat transposed = timages.get(i - 2).t();
+            Mat rotated = new Mat();
+            Core.flip(transposed, rotated, 1);
+            transposed.release();
+            timages.add(rotated);
+        }
+
+        // match the orientations in parallel
+        final Mat partImage = image;
+        List<Callable<List<TemplateMatch>>> tasks = new ArrayList<>();
+        for (Mat orientedTemplate : timages) {
+            tasks.add(() -> matchTemplate(partImage, orientedTemplate));
+        }
+        List<List<TemplateMatch>> orientationMatches = invokeAll(tasks);
+
         for (int i = 1; i <= 4; i++) {
-            // first rotation already done
-            if (i > 1) {
-                // fast rotate/flip the template 90deg
-                Core.flip(timage.t(), timage, 1);
-                // reset rect center to the center of the image
-                trect.center.x = timage.size().width / 2.0;
-                trect.center.y = timage.size().height / 2.0;
-                trect.angle -= angleAdv;
-                /*
-                 * file = new File("tests/template"+i+".png");
-                 * Highgui.imwrite(file.getAbsolutePath(), timage); drawRotatedRect(timage, trect,
-                 * new Scalar(255,255,255));
-                 */
-            }
-            List<TemplateMatch> matches = matchTemplate(image, timage);
+            List<TemplateMatch> matches = orientationMatches.get(i - 1);
             double rotScore = 0;
             // get the best of local matches
             for (int j = 0; j < matches.size(); j++) {
                 TemplateMatch match = matches.get(j);
-                double x = match.x;
-                double y = match.y;
                 double score = match.score;
-                double width = match.width;
-                double height = match.height;
                 if (score > maxscore) {
                     maxscore = score;
                     winrot = i;
@@ -286,7 +301,9 @@ public class MatchPartsTemplate extends CvStage {
         }
         
         // release not used Mat
-        timage.release();
+        for (Mat orientedTemplate : timages) {
+            orientedTemplate.release();
+        }
         image.release();
         
         // correct original model's angle to the orientation detected
@@ -312,7 +329,8 @@ public class MatchPartsTemplate extends CvStage {
         
         Mat result = new Mat();
         
-        Imgproc.matchTemplate(mat, template, result, Imgproc.TM_CCOEFF_NORMED);
+        OpenCvUtils.matchTemplatePyramid(mat, template, result, pyramidLevels, 
+                threshold*MatchTemplate.pyramidCandidateFactor);
 
         MinMaxLocResult mmr = Core.minMaxLoc(result);
         double maxVal = mmr.maxVal;
@@ -9,7 +9,6 @@ import java.util.List;
 import org.opencv.core.Core;
 import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
@@ -55,6 +54,16 @@ public class MatchTemplate extends CvStage {
     @Property(description = "Normalize results to maximum value.")
     private boolean normalize = true;
 
+    @Attribute(required = false)
+    @Property(description = "Number of image pyramid levels for a coarse-to-fine search, each halving the resolution of the coarse pass. "
+            + "Candidates found at the coarse resolution are refined at full resolution. 0 matches at full resolution only.")
+    private int pyramidLevels = 0;
+
+    /**
+     * The coarse pass of the pyramid search accepts candidates down to this fraction of the threshold.
+     */
+    public static final double pyramidCandidateFactor = 0.8;
+
     public String getTemplateStageName() {
         return templateStageName;
     }
@@ -87,6 +96,14 @@ public class MatchTemplate extends CvStage {
         this.normalize = normalize;
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = Math.max(0, pyramidLevels);
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (templateStageName == null) {
@@ -97,7 +114,8 @@ public class MatchTemplate extends CvStage {
         Mat template = pipeline.getResult(templateStageName).image;
         Mat result = new Mat();
 
-        Imgproc.matchTemplate(mat, template, result, Imgproc.TM_CCOEFF_NORMED);
+        OpenCvUtils.matchTemplatePyramid(mat, template, result, pyramidLevels, 
+                threshold*pyramidCandidateFactor);
 
         MinMaxLocResult mmr = Core.minMaxLoc(result);
         double maxVal = mmr.maxVal;
@@ -39,6 +39,12 @@ public class ScriptRun extends CvStage {
         this.args = args;
     }
 
+    @Override
+    public boolean isCacheable() {
+        // The script can read anything and do anything.
+        return false;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (!file.exists()) {
@@ -32,7 +32,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 
@@ -235,6 +239,149 @@ public class SimpleOcr extends CvStage {
         }
     }
 
+    /**
+     * A rendered template image of a character.
+     */
+    protected static class Glyph {
+        final char ch;
+        final Mat template;
+
+        Glyph(char ch, Mat template) {
+            this.ch = ch;
+            this.template = template;
+        }
+
+        String getTag() {
+            return (Character.isLetterOrDigit(ch) ? String.valueOf(ch) : String.valueOf((int)ch))+"-";
+        }
+    }
+
+    /**
+     * The rendered template images of all the characters of an alphabet, for one font, size and image type. 
+     * The templates are shared and must not be modified or released.
+     */
+    protected static class GlyphSet {
+        final int maxAscent;
+        final int height;
+        final List<Glyph> glyphs = new ArrayList<>();
+
+        GlyphSet(String fontName, int fontSize, int type, String alphabet) {
+            Font font = new Font(fontName, Font.PLAIN, fontSize);
+            // Create a pseudo graphics context to get font metrics 
+            Graphics2D gfm = new BufferedImage(1, 1, type).createGraphics();
+            FontMetrics fm = gfm.getFontMetrics(font);
+            gfm.dispose();
+            maxAscent = fm.getAscent();// fm.getMaxAscent();
+            height = maxAscent+fm.getDescent();//fm.getHeight();
+            if (height < 5) {
+                // dud
+                return;
+            }
+            for (char ch : alphabet.toCharArray()) {
+                if (ch == ' ' ) {
+                    // we can't search for nothing :-) 
+                    // spaces will be recognized by discontinuity
+                    continue;
+                }
+                String character = new String(new char[] { ch });
+                // create a template image of the current character
+                int width = fm.stringWidth(character);
+                BufferedImage templateImage =
+                        new BufferedImage(width, height, type);
+                Graphics2D g2d = (Graphics2D) templateImage.getGraphics();
+                g2d.setColor(Color.white);
+                g2d.fillRect(0, 0, width, height);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2d.setColor(Color.black);
+                g2d.setFont(font);
+                g2d.drawString(character, 0, maxAscent);
+                g2d.dispose();
+                glyphs.add(new Glyph(ch, OpenCvUtils.toMat(templateImage)));
+            }
+        }
+    }
+
+    private static final int glyphCacheSize = 32;
+
+    // Least recently used cache of the glyph sets, keyed by font, size, image type and alphabet. 
+    private static final Map<String, GlyphSet> glyphCache = new LinkedHashMap<String, GlyphSet>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GlyphSet> eldest) {
+            // The evicted templates might still be used by a running match, so they are left to the 
+            // garbage collector.
+            return size() > glyphCacheSize;
+        }
+    };
+
+    protected static GlyphSet getGlyphSet(String fontName, int fontSize, int type, String alphabet) {
+        String key = fontName+"\n"+fontSize+"\n"+type+"\n"+alphabet;
+        synchronized (glyphCache) {
+            GlyphSet glyphSet = glyphCache.get(key);
+            if (glyphSet == null) {
+                glyphSet = new GlyphSet(fontName, fontSize, type, alphabet);
+                glyphCache.put(key, glyphSet);
+            }
+            return glyphSet;
+        }
+    }
+
+    /**
+     * A grid spatial index of the matches. The cells are large enough that any two matches that overlap or 
+     * follow each other on a line, are in the same or in adjacent cells.
+     */
+    protected static class MatchIndex {
+        private final double cellWidth;
+        private final double cellHeight;
+        private final Map<Long, List<CharacterMatch>> cells = new HashMap<>();
+
+        MatchIndex(List<CharacterMatch> matches) {
+            double maxWidth = 1;
+            double maxHeight = 1;
+            for (CharacterMatch match : matches) {
+                maxWidth = Math.max(maxWidth, match.width);
+                maxHeight = Math.max(maxHeight, match.height);
+            }
+            final double tolerance = maxHeight/10.0+1;
+            cellWidth = maxWidth + tolerance;
+            cellHeight = maxHeight + tolerance;
+            for (CharacterMatch match : matches) {
+                cells.computeIfAbsent(getKey(getColumn(match), getRow(match)), (k) -> new ArrayList<>())
+                    .add(match);
+            }
+        }
+
+        private int getColumn(CharacterMatch match) {
+            return (int) Math.floor(match.x/cellWidth);
+        }
+
+        private int getRow(CharacterMatch match) {
+            return (int) Math.floor(match.y/cellHeight);
+        }
+
+        private static long getKey(int column, int row) {
+            return (((long) column) << 32) ^ (row & 0xFFFFFFFFL);
+        }
+
+        /**
+         * @param match
+         * @return The matches that can overlap or follow the given match, including itself.
+         */
+        List<CharacterMatch> getNeighbors(CharacterMatch match) {
+            List<CharacterMatch> neighbors = new ArrayList<>();
+            int column = getColumn(match);
+            int row = getRow(match);
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = column - 1; c <= column + 1; c++) {
+                    List<CharacterMatch> cell = cells.get(getKey(c, r));
+                    if (cell != null) {
+                        neighbors.addAll(cell);
+                    }
+                }
+            }
+            return neighbors;
+        }
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         Camera camera = (Camera) pipeline.getProperty("camera");
@@ -296,6 +443,10 @@ public class SimpleOcr extends CvStage {
         private String text;
         private int numChars;
         private double overallScore;
+        private double templateTimeMs;
+        private double matchTimeMs;
+        private double resolveTimeMs;
+        private double drawTimeMs;
 
         public OcrModel(String text, int numChars, double overallScore) {
             super();
@@ -315,14 +466,41 @@ public class SimpleOcr extends CvStage {
         public double getAvgScore() {
             return overallScore/Math.max(1,  numChars);
         } 
+        /**
+         * @return The time spent getting the character templates, in milliseconds. This is 
+         * near zero, when they were cached.
+         */
+        public double getTemplateTimeMs() {
+            return templateTimeMs;
+        }
+        /**
+         * @return The time spent template matching the characters, in milliseconds.
+         */
+        public double getMatchTimeMs() {
+            return matchTimeMs;
+        }
+        /**
+         * @return The time spent resolving overlapping matches and composing the text, in milliseconds.
+         */
+        public double getResolveTimeMs() {
+            return resolveTimeMs;
+        }
+        /**
+         * @return The time spent drawing the result image, in milliseconds.
+         */
+        public double getDrawTimeMs() {
+            return drawTimeMs;
+        }
 
         @Override
         public String toString() {
-            return "OcrResult [text=" + text + ", numChars=" + numChars + ", score=" + overallScore + "]";
+            return "OcrResult [text=" + text + ", numChars=" + numChars + ", score=" + overallScore 
+                    + String.format(", templateTime=%.1fms, matchTime=%.1fms, resolveTime=%.1fms, drawTime=%.1fms", 
+                            templateTimeMs, matchTimeMs, resolveTimeMs, drawTimeMs) + "]";
         }
     }
 
-    protected Result performOcr(CvPipeline pipeline, Camera camera, String fontName, double fontSizePt, String alphabet) throws Error, IOException {
+    protected Result performOcr(CvPipeline pipeline, Camera camera, String fontName, double fontSizePt, String alphabet) throws Exception {
 
         // Determine the scaling factor to go from given LengthUnit/pt units to
         // Camera units and pixels.
@@ -372,81 +550,36 @@ public class SimpleOcr extends CvStage {
                     textImage.type(), textImage.channels(), textImage.depth()));
         }
 
-        // create the font
-        Font font = new Font(fontName, Font.PLAIN, (int)Math.round(scalePt*fontSizePt));
-        // Create a pseudo graphics context to get font metrics 
-        Graphics2D gfm = new BufferedImage(1, 1, type).createGraphics();
-        FontMetrics fm = gfm.getFontMetrics(font);
-        final int maxAscent = fm.getAscent();// fm.getMaxAscent();
-        final int fontHeight = maxAscent+fm.getDescent();//fm.getHeight();
-        final int margin = 0; // tests have shown that no margin is best
-        final int height = fontHeight+2*margin;
-        if (fontHeight < 5 || fontHeight >= textImage.rows()) {
+        // get the character templates
+        long t0 = System.nanoTime();
+        GlyphSet glyphSet = getGlyphSet(fontName, (int)Math.round(scalePt*fontSizePt), type, alphabet);
+        final int height = glyphSet.height;
+        if (height < 5 || height >= textImage.rows()) {
             // dud
             return new Result(textImage, new OcrModel("", 0, 0.0));
         }
-
-        // try find each character of the alphabet in the text image 
-        List<CharacterMatch> matches = new ArrayList<>();
-        for (char ch : alphabet.toCharArray()) {
-            if (ch == ' ' ) {
-                // we can't search for nothing :-) 
-                // spaces will be recognized by discontinuity
-                continue;
-            }
-            String character = new String(new char[] { ch });
-            String characterTag = (Character.isLetterOrDigit(ch) ? character : String.valueOf((int)ch))+"-";
-            // create a template image of the current character
-            int width = fm.stringWidth(character)+2*margin;
-            BufferedImage templateImage =
-                    new BufferedImage(width, height, type);
-            Graphics2D g2d = (Graphics2D) templateImage.getGraphics();
-            g2d.setColor(Color.white);
-            g2d.fillRect(0, 0, width, height);
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.setColor(Color.black);
-            g2d.setFont(font);
-            g2d.drawString(character, margin, margin+maxAscent);
-            g2d.dispose();
-            Mat template = OpenCvUtils.toMat(templateImage);
-            if (debug) {
-                File file = Configuration.get().createResourceFile(getClass(), "character-"+characterTag, ".png");
-                Imgcodecs.imwrite(file.getAbsolutePath(), template);
-            }
-
-            // do the actual template match
-            Mat matchMap = new Mat();
-            Imgproc.matchTemplate(textImage, template, matchMap, Imgproc.TM_CCOEFF_NORMED);
-
-            // determine the range
-            MinMaxLocResult mmr = Core.minMaxLoc(matchMap);
-            double maxVal = mmr.maxVal;
-            double rangeMin = threshold;
-            double rangeMax = maxVal;
-
-            // create the matches
-            for (Point point : OpenCvUtils.matMaxima(matchMap, rangeMin, rangeMax)) {
-                int x = point.x;
-                int y = point.y;
-                CharacterMatch match = new CharacterMatch(ch, 
-                        x, y, template.cols(), template.rows(),
-                        matchMap.get(y, x)[0]);
-                matches.add(match);
-            }
-
-            if (debug) {
-                File file = Configuration.get().createResourceFile(getClass(), "match-map-"+characterTag, ".png");
-                // this is a 3x32bit image, cannot save this as .png, need to convert to known image format first
-                BufferedImage img = OpenCvUtils.toBufferedImage(matchMap);
-                ImageIO.write(img, "png", file);
+        if (debug) {
+            for (Glyph glyph : glyphSet.glyphs) {
+                File file = Configuration.get().createResourceFile(getClass(), "character-"+glyph.getTag(), ".png");
+                Imgcodecs.imwrite(file.getAbsolutePath(), glyph.template);
             }
+        }
 
-            // cleanup
-            matchMap.release();
-            template.release();
+        // try find each character of the alphabet in the text image, in parallel
+        long t1 = System.nanoTime();
+        final Mat matchImage = textImage;
+        List<Callable<List<CharacterMatch>>> tasks = new ArrayList<>();
+        for (Glyph glyph : glyphSet.glyphs) {
+            tasks.add(() -> matchGlyph(matchImage, glyph));
+        }
+        // collected in alphabet order, so the result is the same as sequential
+        List<CharacterMatch> matches = new ArrayList<>();
+        for (List<CharacterMatch> glyphMatches : invokeAll(tasks)) {
+            matches.addAll(glyphMatches);
         }
 
         // ready to harvest
+        long t2 = System.nanoTime();
         StringBuilder text = new StringBuilder();
         double overallScore = 0.0;
         int numChars = 0;
@@ -459,11 +592,12 @@ public class SimpleOcr extends CvStage {
             // is a partial match of an "m" etc.) can have a high template match score and the same continuity as the larger 
             // character and win. With the first/last character test, this seems to be eliminated.
             // However, there is still the chance that "rn" is seen as "m", and therefore monospaced fonts are still recommended. 
+            MatchIndex index = new MatchIndex(matches);
             for (CharacterMatch match : matches) {
                 // in a proportional font, the widest character should win at the end of a word/line
                 boolean firstInWord = true;
                 boolean lastInWord = true;
-                for (CharacterMatch sibling : matches) {
+                for (CharacterMatch sibling : index.getNeighbors(match)) {
                     if (sibling != match) {
                         if (match.overlaps(sibling)) {
                             // overlapping 
@@ -503,7 +637,7 @@ public class SimpleOcr extends CvStage {
 
             // exclude overlaps by overall score, weighing in any bonus/malus 
             for (CharacterMatch match : matches) {
-                for (CharacterMatch sibling : matches) {
+                for (CharacterMatch sibling : index.getNeighbors(match)) {
                     if (match != sibling && match.overlaps(sibling)) {
                         if (match.getOverallScore() > sibling.getOverallScore()) {
                             // beat you!
@@ -599,6 +733,7 @@ public class SimpleOcr extends CvStage {
             Logger.debug("["+getClass().getName()+"] matches = "+matches);
         }
 
+        long t3 = System.nanoTime();
         if (drawStyle != DrawStyle.None) {
             double matchScale = 1.0;
             if (drawStyle == DrawStyle.OverOriginalImage && rescale != 1.0) {
@@ -634,7 +769,59 @@ public class SimpleOcr extends CvStage {
             textImage = OpenCvUtils.toMat(colorImage);
         }
 
+        long t4 = System.nanoTime();
+
         // deliver the goods 
-        return new Result(textImage, new OcrModel(text.toString(), numChars, overallScore));
+        OcrModel model = new OcrModel(text.toString(), numChars, overallScore);
+        model.templateTimeMs = (t1 - t0)*1e-6;
+        model.matchTimeMs = (t2 - t1)*1e-6;
+        model.resolveTimeMs = (t3 - t2)*1e-6;
+        model.drawTimeMs = (t4 - t3)*1e-6;
+        return new Result(textImage, model);
+    }
+
+    /**
+     * Template matches one character in the text image. This is called in parallel for the characters of 
+     * the alphabet.
+     * 
+     * @param textImage
+     * @param glyph
+     * @return The matches of the character. 
+     * @throws IOException
+     */
+    protected List<CharacterMatch> matchGlyph(Mat textImage, Glyph glyph) throws IOException {
+        Mat template = glyph.template;
+        List<CharacterMatch> matches = new ArrayList<>();
+
+        // do the actual template match
+        Mat matchMap = new Mat();
+        Imgproc.matchTemplate(textImage, template, matchMap, Imgproc.TM_CCOEFF_NORMED);
+
+        // determine the range
+        MinMaxLocResult mmr = Core.minMaxLoc(matchMap);
+        double maxVal = mmr.maxVal;
+        double rangeMin = threshold;
+        double rangeMax = maxVal;
+
+        // create the matches
+        for (Point point : OpenCvUtils.matMaxima(matchMap, rangeMin, rangeMax)) {
+            int x = point.x;
+            int y = point.y;
+            CharacterMatch match = new CharacterMatch(glyph.ch, 
+                    x, y, template.cols(), template.rows(),
+                    matchMap.get(y, x)[0]);
+            matches.add(match);
+        }
+
+        if (debug) {
+            File file = Configuration.get().createResourceFile(getClass(), "match-map-"+glyph.getTag(), ".png");
+            // this is a 3x32bit image, cannot save this as .png, need to convert to known image format first
+            BufferedImage img = OpenCvUtils.toBufferedImage(matchMap);
+            ImageIO.write(img, "png", file);
+        }
+
+        // cleanup
+        matchMap.release();
+        return matches;
     }
 }
@@ -186,7 +186,7 @@ public class CvPipelineEditor extends JPanel {
             }
         });
         
-        process();
+        processAll();
     }
     
     public void initializeFocus() {
@@ -197,11 +197,25 @@ public class CvPipelineEditor extends JPanel {
         return pipeline;
     }
 
+    /**
+     * Processes the pipeline after an edit. Only the stages from the first changed one onward are executed again, 
+     * the results of the others are reused.
+     */
     public void process() {
-        getPipeline().process();
+        // The editor shows the results of all the stages.
+        getPipeline().setExecutionMode(CvPipeline.ExecutionMode.Full);
+        getPipeline().processIncremental();
         resultsPanel.refresh();
     }
 
+    /**
+     * Processes all the stages of the pipeline, including a new capture, unless the input is frozen.
+     */
+    public void processAll() {
+        getPipeline().invalidateCache();
+        process();
+    }
+
     public void stageSelected(CvStage stage) {
         resultsPanel.setSelectedStage(stage);
     }
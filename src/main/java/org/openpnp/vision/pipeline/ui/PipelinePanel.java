@@ -23,6 +23,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.ListSelectionEvent;
@@ -67,6 +68,10 @@ public class PipelinePanel extends JPanel {
         refreshButton.setHideActionText(true);
         toolbar.add(refreshButton);
 
+        JToggleButton freezeButton = new JToggleButton(freezeInputAction);
+        freezeButton.setHideActionText(true);
+        toolbar.add(freezeButton);
+
         JButton btnAdd = new JButton(newStageAction);
         btnAdd.setHideActionText(true);
         toolbar.add(btnAdd);
@@ -324,7 +329,21 @@ public class PipelinePanel extends JPanel {
 
         @Override
         public void actionPerformed(ActionEvent arg0) {
-            editor.process();
+            editor.processAll();
+        }
+    };
+
+    public final Action freezeInputAction = new AbstractAction() {
+        {
+            putValue(SMALL_ICON, Icons.pause);
+            putValue(NAME, "Freeze input");
+            putValue(SHORT_DESCRIPTION, "Replay the last captured picture instead of capturing a new one.");
+            putValue(SELECTED_KEY, false);
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent arg0) {
+            editor.getPipeline().setFrozenInput(Boolean.TRUE.equals(getValue(SELECTED_KEY)));
         }
     };
     private JEditorPane descriptionTa;
@@ -30,6 +30,7 @@ import org.openpnp.gui.support.Icons;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
+import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
 import org.openpnp.vision.pipeline.CvStage.Result;
 import org.openpnp.vision.pipeline.CvStage.Result.Circle;
@@ -66,6 +67,10 @@ public class ResultsPanel extends JPanel {
         headerPanel.add(resultStageNameLabel, BorderLayout.NORTH);
         resultStageNameLabel.setHorizontalAlignment(SwingConstants.CENTER);
 
+        pipelineStatusLabel = new JLabel(" ");
+        headerPanel.add(pipelineStatusLabel, BorderLayout.CENTER);
+        pipelineStatusLabel.setHorizontalAlignment(SwingConstants.CENTER);
+
         JPanel panel = new JPanel();
         headerPanel.add(panel, BorderLayout.SOUTH);
 
@@ -217,9 +222,13 @@ public class ResultsPanel extends JPanel {
             modelTextPane.setText(model == null ? "" : model.toString());
         }
         matView.setMat(image);
+        CvPipeline pipeline = editor.getPipeline();
         resultStageNameLabel.setText(result == null || displayStage == null ? ""
                 : (displayStage.getName() + " ( " + (result.processingTimeNs / 1000000.0)
-                        + " ms / " + (editor.getPipeline().getTotalProcessingTimeNs() / 1000000.0) + " ms)"));
+                        + " ms" + (pipeline.isCachedResult(displayStage) ? ", cached" : "")
+                        + " / " + (pipeline.getTotalProcessingTimeNs() / 1000000.0) + " ms)"));
+        pipelineStatusLabel.setText(String.format("%d of %d stages cached, executed in %.1f ms",
+                pipeline.getCachedStageCount(), stages.size(), pipeline.getExecutionTimeNs() / 1000000.0));
 
         if (selectedStage == null) {
             firstResultAction.setEnabled(false);
@@ -406,5 +415,6 @@ public class ResultsPanel extends JPanel {
     };
     private JTextPane modelTextPane;
     private JLabel resultStageNameLabel;
+    private JLabel pipelineStatusLabel;
     private MatView matView;
 }
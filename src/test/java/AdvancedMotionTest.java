@@ -22,6 +22,7 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.openpnp.model.AbstractMotionPath;
 import org.openpnp.model.MotionProfile;
@@ -345,87 +346,7 @@ public class AdvancedMotionTest {
                     new PlannerPath(0, false), new PlannerPath(0, true) 
             }) {
 
-                // pick & place, one nozzle, symmetric
-                path.moveTo(0, 0, safeZ, 1);
-                path.moveTo(0, 0, za, 1);
-                path.moveTo(0, 0, safeZ, 1);
-                path.moveTo(100, 0, safeZ, 1);
-                path.moveTo(100, 0, za, 1);
-                path.moveTo(100, 0, safeZ, 1);
-                path.moveTo(120, 0, safeZ, 1);
-                path.moveTo(120, 0, za, 1);
-                path.moveTo(120, 0, safeZ, 1);
-                path.moveTo(124, 0, safeZ, 1);
-                path.moveTo(124, 0, za, 1);
-                path.moveTo(124, 0, safeZ, 1);
-                path.moveTo(125, 0, safeZ, 1);
-                path.moveTo(125, 0, za, 1);
-                path.moveTo(125, 0, safeZ, 1);
-
-                // pick & place, one nozzle, asymmetric
-                path.moveTo(0, 50, safeZ, 1);
-                path.moveTo(0, 50, zb, 1);
-                path.moveTo(0, 50, safeZ, 1);
-                path.moveTo(100, 50, safeZ, 1);
-                path.moveTo(100, 50, za, 1);
-                path.moveTo(100, 50, safeZ, 1);
-                path.moveTo(120, 50, safeZ, 1);
-                path.moveTo(120, 50, zb, 1);
-                path.moveTo(120, 50, safeZ, 1);
-                path.moveTo(124, 50, safeZ, 1);
-                path.moveTo(124, 50, za, 1);
-                path.moveTo(124, 50, safeZ, 1);
-                path.moveTo(125, 50, safeZ, 1);
-                path.moveTo(125, 50, zb, 1);
-                path.moveTo(125, 50, safeZ, 1);
-
-                // pick & place, dual nozzle, symmetric
-                path.moveTo(0, 100, safeZ, 1);
-                path.moveTo(0, 100, za, 1);
-                path.moveTo(0, 100, safeZ, 1);
-                path.moveTo(100, 100, -safeZ, 2);
-                path.moveTo(100, 100, 15, 2);
-                path.moveTo(100, 100, -safeZ, 2);
-                path.moveTo(120, 100, safeZ, 1);
-                path.moveTo(120, 100, za, 1);
-                path.moveTo(120, 100, safeZ, 1);
-                path.moveTo(124, 100, -safeZ, 2);
-                path.moveTo(124, 100, 15, 2);
-                path.moveTo(124, 100, -safeZ, 2);
-                path.moveTo(125, 100, safeZ, 1);
-                path.moveTo(125, 100, za, 1);
-                path.moveTo(125, 100, safeZ, 1);
-
-                // pick & place, dual nozzle, asymmetric
-                path.moveTo(0, 150, safeZ, 1);
-                path.moveTo(0, 150, za, 1);
-                path.moveTo(0, 150, safeZ, 1);
-                path.moveTo(100, 150, -safeZ, 2);
-                path.moveTo(100, 150, 15, 2);
-                path.moveTo(100, 150, -safeZ, 2);
-                path.moveTo(120, 150, safeZ, 1);
-                path.moveTo(120, 150, zb, 1);
-                path.moveTo(120, 150, safeZ, 1);
-                path.moveTo(124, 150, -safeZ, 2);
-                path.moveTo(124, 150, 15, 2);
-                path.moveTo(124, 150, -safeZ, 2);
-                path.moveTo(125, 150, safeZ, 1);
-                path.moveTo(125, 150, zb, 1);
-                path.moveTo(125, 150, safeZ, 1);
-
-                // move to push/pull feeder
-                path.moveTo(200, 50, safeZ, 1);
-                path.moveTo(220, 50, safeZ-5, 1);
-                path.moveTo(220, 50, safeZ, 1);
-                path.moveTo(200, 80, safeZ, 1);
-                path.moveTo(190, 100, safeZ, 1);
-                path.moveTo(190, 120, safeZ, 1);
-                path.moveTo(300, 120, za, 1);
-                path.moveTo(300, 150, za, 1);
-                path.moveTo(280, 150, za, 1);
-                path.moveTo(279, 150, za, 1);
-                path.moveTo(275, 150, za, 1);
-                path.moveTo(275, 150, safeZ, 1);
+                recordPath(path);
 
                 if (warmup == 0) {
                     System.out.println("==========================================");
@@ -460,4 +381,134 @@ public class AdvancedMotionTest {
             }
         }
     }
-}
\ No newline at end of file
+    /**
+     * A recorded path of typical OpenPnP pick & place motion.
+     */
+    private void recordPath(PlannerPath path) {
+        // pick & place, one nozzle, symmetric
+        path.moveTo(0, 0, safeZ, 1);
+        path.moveTo(0, 0, za, 1);
+        path.moveTo(0, 0, safeZ, 1);
+        path.moveTo(100, 0, safeZ, 1);
+        path.moveTo(100, 0, za, 1);
+        path.moveTo(100, 0, safeZ, 1);
+        path.moveTo(120, 0, safeZ, 1);
+        path.moveTo(120, 0, za, 1);
+        path.moveTo(120, 0, safeZ, 1);
+        path.moveTo(124, 0, safeZ, 1);
+        path.moveTo(124, 0, za, 1);
+        path.moveTo(124, 0, safeZ, 1);
+        path.moveTo(125, 0, safeZ, 1);
+        path.moveTo(125, 0, za, 1);
+        path.moveTo(125, 0, safeZ, 1);
+
+        // pick & place, one nozzle, asymmetric
+        path.moveTo(0, 50, safeZ, 1);
+        path.moveTo(0, 50, zb, 1);
+        path.moveTo(0, 50, safeZ, 1);
+        path.moveTo(100, 50, safeZ, 1);
+        path.moveTo(100, 50, za, 1);
+        path.moveTo(100, 50, safeZ, 1);
+        path.moveTo(120, 50, safeZ, 1);
+        path.moveTo(120, 50, zb, 1);
+        path.moveTo(120, 50, safeZ, 1);
+        path.moveTo(124, 50, safeZ, 1);
+        path.moveTo(124, 50, za, 1);
+        path.moveTo(124, 50, safeZ, 1);
+        path.moveTo(125, 50, safeZ, 1);
+        path.moveTo(125, 50, zb, 1);
+        path.moveTo(125, 50, safeZ, 1);
+
+        // pick & place, dual nozzle, symmetric
+        path.moveTo(0, 100, safeZ, 1);
+        path.moveTo(0, 100, za, 1);
+        path.moveTo(0, 100, safeZ, 1);
+        path.moveTo(100, 100, -safeZ, 2);
+        path.moveTo(100, 100, 15, 2);
+        path.moveTo(100, 100, -safeZ, 2);
+        path.moveTo(120, 100, safeZ, 1);
+        path.moveTo(120, 100, za, 1);
+        path.moveTo(120, 100, safeZ, 1);
+        path.moveTo(124, 100, -safeZ, 2);
+        path.moveTo(124, 100, 15, 2);
+        path.moveTo(124, 100, -safeZ, 2);
+        path.moveTo(125, 100, safeZ, 1);
+        path.moveTo(125, 100, za, 1);
+        path.moveTo(125, 100, safeZ, 1);
+
+        // pick & place, dual nozzle, asymmetric
+        path.moveTo(0, 150, safeZ, 1);
+        path.moveTo(0, 150, za, 1);
+        path.moveTo(0, 150, safeZ, 1);
+        path.moveTo(100, 150, -safeZ, 2);
+        path.moveTo(100, 150, 15, 2);
+        path.moveTo(100, 150, -safeZ, 2);
+        path.moveTo(120, 150, safeZ, 1);
+        path.moveTo(120, 150, zb, 1);
+        path.moveTo(120, 150, safeZ, 1);
+        path.moveTo(124, 150, -safeZ, 2);
+        path.moveTo(124, 150, 15, 2);
+        path.moveTo(124, 150, -safeZ, 2);
+        path.moveTo(125, 150, safeZ, 1);
+        path.moveTo(125, 150, zb, 1);
+        path.moveTo(125, 150, safeZ, 1);
+
+        // move to push/pull feeder
+        path.moveTo(200, 50, safeZ, 1);
+        path.moveTo(220, 50, safeZ-5, 1);
+        path.moveTo(220, 50, safeZ, 1);
+        path.moveTo(200, 80, safeZ, 1);
+        path.moveTo(190, 100, safeZ, 1);
+        path.moveTo(190, 120, safeZ, 1);
+        path.moveTo(300, 120, za, 1);
+        path.moveTo(300, 150, za, 1);
+        path.moveTo(280, 150, za, 1);
+        path.moveTo(279, 150, za, 1);
+        path.moveTo(275, 150, za, 1);
+        path.moveTo(275, 150, safeZ, 1);
+    }
+
+    /**
+     * Benchmark the sequential against the parallel solving of a long recorded path and make sure the results are 
+     * the same. 
+     */
+    @Test 
+    public void testParallelPathSolving() throws Exception {
+        final int repetitions = 20;
+        for (double jerk : new double[] { 90000, 0 }) {
+            double [] solvingTime = new double[2];
+            PlannerPath [] paths = new PlannerPath[2];
+            for (int warmup = 3; warmup >= 0; warmup--) {
+                for (int parallel = 0; parallel < 2; parallel++) {
+                    PlannerPath path = new PlannerPath(jerk, false);
+                    for (int i = 0; i < repetitions; i++) {
+                        recordPath(path);
+                    }
+                    path.setParallelSolving(parallel != 0);
+                    double t0 = NanosecondTime.getRuntimeSeconds(); 
+                    path.solve();
+                    solvingTime[parallel] = NanosecondTime.getRuntimeSeconds() - t0;
+                    paths[parallel] = path;
+                }
+            }
+            Assert.assertEquals(paths[0].size(), paths[1].size());
+            for (int i = 0; i < paths[0].size(); i++) {
+                MotionProfile [] sequential = paths[0].get(i);
+                MotionProfile [] parallel = paths[1].get(i);
+                for (int axis = 0; axis < sequential.length; axis++) {
+                    Assert.assertEquals(sequential[axis].getTime(), parallel[axis].getTime(), 0);
+                    for (int segment = 0; segment <= MotionProfile.segments; segment++) {
+                        Assert.assertEquals(sequential[axis].getLocation(segment), parallel[axis].getLocation(segment), 0);
+                        Assert.assertEquals(sequential[axis].getVelocity(segment), parallel[axis].getVelocity(segment), 0);
+                        Assert.assertEquals(sequential[axis].getAcceleration(segment), parallel[axis].getAcceleration(segment), 0);
+                        Assert.assertEquals(sequential[axis].getJerk(segment), parallel[axis].getJerk(segment), 0);
+                    }
+                }
+            }
+            System.out.println("AdvancedMotionTest.testParallelPathSolving() jerk "+jerk+", "+paths[0].size()+" moves, "
+                    +"sequential: "+String.format("%.1f", solvingTime[0]*1000)+"ms, "
+                    +"parallel: "+String.format("%.1f", solvingTime[1]*1000)+"ms on "
+                    +Runtime.getRuntime().availableProcessors()+" processors");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assert;
+import org.pmw.tinylog.Logger;
+
+/**
+ * The throughput and allocation benchmark shared by the performance tests. The allocated bytes are measured
+ * with the ThreadMXBean of the current thread, so the operations must run on it.
+ */
+public class AllocationBenchmark {
+    public interface Operation {
+        /**
+         * @param i The running number of the operation.
+         * @return Some result, so the operation cannot be optimized away.
+         */
+        double apply(int i);
+    }
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Runs the operation after a warm-up, logs the time and the allocated bytes per operation at debug level, and 
+     * asserts the allocated bytes per operation do not exceed the given maximum.
+     *
+     * @param name
+     * @param warmups
+     * @param count
+     * @param maxBytesPerOperation
+     * @param operation
+     * @return The allocated bytes per operation.
+     */
+    public static double run(String name, int warmups, int count, double maxBytesPerOperation,
+            Operation operation) {
+        long threadId = Thread.currentThread().getId();
+        double sink = 0;
+        for (int i = 0; i < warmups; i++) {
+            sink += operation.apply(i);
+        }
+        long bytes0 = threadBean.getThreadAllocatedBytes(threadId);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sink += operation.apply(i);
+        }
+        long t1 = System.nanoTime();
+        long bytes1 = threadBean.getThreadAllocatedBytes(threadId);
+        double bytesPerOperation = (double) (bytes1 - bytes0)/count;
+        Logger.debug("{}: {} ns/op, {} bytes/op", name, String.format("%.1f", (t1 - t0)/(double) count), 
+                String.format("%.1f", bytesPerOperation));
+        Assert.assertFalse(Double.isNaN(sink));
+        if (threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+            Assert.assertTrue(name+" allocates "+bytesPerOperation+" bytes/op, more than "+maxBytesPerOperation,
+                    bytesPerOperation <= maxBytesPerOperation);
+        }
+        return bytesPerOperation;
+    }
+}
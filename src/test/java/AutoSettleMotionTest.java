@@ -0,0 +1,226 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ReferenceCamera;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.driver.ReferenceAdvancedMotionPlanner;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Location;
+import org.openpnp.spi.MotionPlanner.CompletionType;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.spi.base.AbstractCamera;
+import org.openpnp.spi.base.AbstractCamera.SettleMethod;
+import org.openpnp.util.NanosecondTime;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SimpleGraph;
+import org.openpnp.util.SimpleGraph.DataRow;
+import org.openpnp.util.SimpleGraph.DataScale;
+
+import com.google.common.io.Files;
+
+/**
+ * Auto settling against the real motion plan of a simulated machine with a NullDriver, i.e. unlike the
+ * AutoSettleTest, isMidMotion() is not overridden.
+ */
+public class AutoSettleMotionTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    /**
+     * A camera that sees a still subject with a little noise. Like a camera with a continuous frame stream, it
+     * returns the frames captured after the given time, every 10ms, including those captured while the machine
+     * was still moving.
+     */
+    static class StreamCamera extends ReferenceCamera {
+        int frameIndex;
+
+        @Override
+        protected BufferedImage internalCapture() {
+            int i = frameIndex++;
+            Mat mat = new Mat(240, 320, CvType.CV_8UC3, new Scalar(30, 30, 30));
+            double level = 200 + (i % 2)*2;
+            Imgproc.circle(mat, new Point(160, 120), 40, new Scalar(level, level, level), -1);
+            BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+            mat.release();
+            return image;
+        }
+
+        @Override
+        protected SettleFrame captureSettleFrame(long time) {
+            try {
+                // Processing time.
+                Thread.sleep(2);
+            }
+            catch (InterruptedException e) {
+            }
+            return new SettleFrame(capture(), time + 10_000_000L);
+        }
+
+        boolean midMotion(long time) {
+            return isMidMotion(time);
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+    }
+
+    static ReferenceMachine loadMachine() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/SampleJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
+        machine.setEnabled(true);
+        machine.home();
+        return machine;
+    }
+
+    /**
+     * Asserts that the row has the given retention, and that its old data points are trimmed.
+     */
+    static void assertRetention(DataRow row, double retention) {
+        Assert.assertEquals(row.getLabel(), retention, row.getRetention(), 0.0);
+        double x0 = row.getX(0);
+        double x1 = row.getX(row.size() - 1);
+        row.recordDataPoint(x1 + retention/2, 0);
+        Assert.assertEquals(x0, row.getX(0), 0.0);
+        row.recordDataPoint(x1 + retention*1.25, 0);
+        Assert.assertEquals(x1 + retention/2, row.getX(0), 0.0);
+        Assert.assertEquals(2, row.size());
+    }
+
+    @Test
+    public void testSettleAgainstMotionPlan() throws Exception {
+        ReferenceMachine machine = loadMachine();
+        ReferenceAdvancedMotionPlanner planner = (ReferenceAdvancedMotionPlanner) machine.getMotionPlanner();
+        // Otherwise each move waits for still-stand.
+        planner.setAllowContinuousMotion(true);
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+
+        StreamCamera camera = new StreamCamera();
+        camera.setSettleMethod(SettleMethod.Maximum);
+        camera.setSettleThreshold(16);
+        camera.setSettleDebounce(1);
+        camera.setSettleTimeoutMs(5000);
+        camera.setSettleGaussianBlur(3);
+
+        // Nothing planned, not in motion.
+        Assert.assertFalse(camera.midMotion(NanosecondTime.getRuntime()));
+
+        // Plan a slow move. CommandJog executes it without waiting for the NullDriver to complete it, so it runs in
+        // real-time from now.
+        Location location = nozzle.getLocation().derive(50.0, 50.0, null, 0.0);
+        nozzle.moveTo(location);
+        planner.waitForCompletion(null, CompletionType.WaitForStillstand);
+        nozzle.moveTo(location.derive(150.0, 150.0, null, null), 0.1);
+        planner.waitForCompletion(null, CompletionType.CommandJog);
+        long t0 = NanosecondTime.getRuntime();
+        long t1 = (long) (planner.getMotionPlan().getSnapshot().getLastTime()*1e9);
+        Assert.assertTrue("move of " + (t1 - t0)*1e-6 + "ms", t1 - t0 > 300_000_000L);
+        Assert.assertTrue(camera.midMotion(t0));
+        Assert.assertTrue(camera.midMotion((t0 + t1)/2));
+        Assert.assertFalse(camera.midMotion(t1 + 1_000_000L));
+
+        // Settle, which first waits for the move to complete, and then goes through the frames captured since it was
+        // called. Those captured in motion are skipped according to the motion plan. Meanwhile, the camera monitor
+        // must stay available for other threads, like the capture thread and the preview.
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread settler = new Thread(() -> {
+            try {
+                camera.settleAndCapture();
+            }
+            catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        settler.start();
+        Thread.sleep(50);
+        Assert.assertTrue(settler.isAlive());
+        long maxLockWait = 0;
+        while (settler.isAlive()) {
+            long t = System.nanoTime();
+            synchronized (camera) {
+                maxLockWait = Math.max(maxLockWait, System.nanoTime() - t);
+            }
+            Thread.sleep(5);
+        }
+        settler.join();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        Assert.assertTrue("camera monitor blocked for " + maxLockWait*1e-6 + "ms", maxLockWait < 100_000_000L);
+
+        // The frames captured during the move were skipped, about one per 10ms of the move.
+        long expectedSkipped = (t1 - t0)/10_000_000L;
+        Assert.assertTrue("skipped " + camera.getSettleSkippedFrameCount() + ", expected about " + expectedSkipped,
+                Math.abs(camera.getSettleSkippedFrameCount() - expectedSkipped) <= 5);
+        Assert.assertTrue(camera.getSettleFrameCount() >= 2);
+        camera.releaseSettleBuffers();
+    }
+
+    /**
+     * The diagnostics graphs of the motion planner and of the camera settling only keep the most recent data.
+     */
+    @Test
+    public void testDiagnosticsRetention() throws Exception {
+        ReferenceMachine machine = loadMachine();
+        ReferenceAdvancedMotionPlanner planner = (ReferenceAdvancedMotionPlanner) machine.getMotionPlanner();
+        planner.setDiagnosticsEnabled(true);
+        Nozzle nozzle = machine.getDefaultHead().getDefaultNozzle();
+        nozzle.moveTo(nozzle.getLocation().derive(20.0, 10.0, null, 0.0));
+        planner.waitForCompletion(null, CompletionType.WaitForStillstand);
+        SimpleGraph motionGraph = planner.getMotionGraph();
+        Assert.assertNotNull(motionGraph);
+        int recordedRows = 0;
+        for (DataScale scale : motionGraph.getScales()) {
+            for (DataRow row : scale.getDataRows()) {
+                if (row.size() > 0) {
+                    assertRetention(row, ReferenceAdvancedMotionPlanner.MOTION_GRAPH_RETENTION);
+                    recordedRows++;
+                }
+            }
+        }
+        Assert.assertTrue(recordedRows > 0);
+
+        StreamCamera camera = new StreamCamera();
+        camera.setSettleMethod(SettleMethod.Maximum);
+        camera.setSettleThreshold(16);
+        camera.setSettleDebounce(1);
+        camera.setSettleTimeoutMs(5000);
+        camera.setSettleDiagnostics(true);
+        camera.settleAndCapture();
+        SimpleGraph settleGraph = camera.getSettleGraph();
+        Assert.assertNotNull(settleGraph);
+        assertRetention(settleGraph.getRow(AbstractCamera.DIFFERENCE, AbstractCamera.DATA), 
+                AbstractCamera.SETTLE_GRAPH_RETENTION);
+        assertRetention(settleGraph.getRow(AbstractCamera.BOOLEAN, AbstractCamera.CAPTURE), 
+                AbstractCamera.SETTLE_GRAPH_RETENTION);
+        camera.releaseSettleBuffers();
+    }
+}
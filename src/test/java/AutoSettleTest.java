@@ -0,0 +1,125 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ReferenceCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.spi.base.AbstractCamera.SettleMethod;
+import org.openpnp.util.OpenCvUtils;
+
+import com.google.common.io.Files;
+
+public class AutoSettleTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    /**
+     * Simulates a camera that sees the subject moving for the first frames, then standing still with a 
+     * little noise. The first motionFrames are reported as mid-motion. 
+     */
+    static class TestCamera extends ReferenceCamera {
+        int frameIndex;
+        int movingFrames;
+        int motionFrames;
+
+        @Override
+        protected BufferedImage internalCapture() {
+            int i = frameIndex++;
+            Mat mat = new Mat(480, 640, CvType.CV_8UC3, new Scalar(30, 30, 30));
+            double x = 320 + 8*Math.max(0, movingFrames - i);
+            // Alternate the level a bit, to simulate noise, so frames are never identical.
+            double level = 200 + (i % 2)*2;
+            Imgproc.circle(mat, new Point(x, 240), 60, new Scalar(level, level, level), -1);
+            BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+            mat.release();
+            return image;
+        }
+
+        @Override
+        protected boolean isMidMotion(long time) {
+            // Called right after the frame was captured.
+            return frameIndex <= motionFrames;
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    static TestCamera createCamera(int movingFrames, int motionFrames) {
+        TestCamera camera = new TestCamera();
+        camera.movingFrames = movingFrames;
+        camera.motionFrames = motionFrames;
+        camera.setSettleMethod(SettleMethod.Maximum);
+        camera.setSettleThreshold(16);
+        camera.setSettleDebounce(1);
+        camera.setSettleTimeoutMs(5000);
+        camera.setSettleMaskCircle(0.8);
+        camera.setSettleContrastEnhance(0.5);
+        return camera;
+    }
+
+    @Test
+    public void testSettle() throws Exception {
+        // Large blur, i.e. the downscale path.
+        for (int blur : new int[] { 3, 17 }) {
+            TestCamera camera = createCamera(10, 0);
+            camera.setSettleGaussianBlur(blur);
+            camera.settleAndCapture();
+            Assert.assertTrue("blur "+blur+" settled on a still frame, frame "+camera.frameIndex, 
+                    camera.frameIndex > 10 && camera.frameIndex < 20);
+            Assert.assertEquals(1, camera.getSettleCount());
+            Assert.assertEquals(camera.frameIndex, camera.getSettleFrameCount());
+            Assert.assertEquals(0, camera.getSettleSkippedFrameCount());
+            Assert.assertTrue(camera.getSettleTimeLastMs() > 0);
+
+            // Settle again with the same buffers. 
+            camera.frameIndex = 0;
+            camera.settleAndCapture();
+            Assert.assertEquals(2, camera.getSettleCount());
+            camera.releaseSettleBuffers();
+        }
+    }
+
+    @Test
+    public void testSkipMidMotion() throws Exception {
+        TestCamera camera = createCamera(10, 8);
+        camera.setSettleGaussianBlur(17);
+        camera.settleAndCapture();
+        Assert.assertEquals(8, camera.getSettleSkippedFrameCount());
+        Assert.assertEquals(camera.frameIndex - 8, camera.getSettleFrameCount());
+        Assert.assertTrue(camera.frameIndex > 10 && camera.frameIndex < 20);
+        camera.resetSettleMetrics();
+        Assert.assertEquals(0, camera.getSettleCount());
+        camera.releaseSettleBuffers();
+    }
+}
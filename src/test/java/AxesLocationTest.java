@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.ControllerAxis;
+
+public class AxesLocationTest {
+    NullDriver driver1 = new NullDriver();
+    NullDriver driver2 = new NullDriver();
+    List<ReferenceControllerAxis> axes = new ArrayList<>();
+
+    public AxesLocationTest() {
+        String[] letters = new String[] { "X", "Y", "Z", "A", "Z2", "B" };
+        Axis.Type[] types = new Axis.Type[] { Axis.Type.X, Axis.Type.Y, Axis.Type.Z, Axis.Type.Rotation,
+                Axis.Type.Z, Axis.Type.Rotation };
+        for (int i = 0; i < letters.length; i++) {
+            ReferenceControllerAxis axis = new ReferenceControllerAxis();
+            axis.setName(letters[i]);
+            axis.setLetter(letters[i]);
+            axis.setType(types[i]);
+            axis.setDriver(i < 4 ? driver1 : driver2);
+            axes.add(axis);
+        }
+    }
+
+    AxesLocation location(double... coordinates) {
+        AxesLocation location = AxesLocation.zero;
+        for (int i = 0; i < coordinates.length; i++) {
+            if (!Double.isNaN(coordinates[i])) {
+                location = location.put(new AxesLocation(axes.get(i), coordinates[i]));
+            }
+        }
+        return location;
+    }
+
+    @Test
+    public void testAxesLocation() throws Exception {
+        double nan = Double.NaN;
+        AxesLocation a = location(1, 2, 3, nan, 5, nan);
+        AxesLocation b = location(nan, 10, nan, 20, 30, 40);
+
+        // Order is preserved, axes of the other location are appended.
+        AxesLocation sum = a.add(b);
+        Assert.assertEquals("(X:1.000000, Y:12.000000, Z:3.000000, Z2:35.000000, A:20.000000, B:40.000000)",
+                sum.toString());
+        Assert.assertEquals(6, sum.size());
+        Assert.assertEquals(12.0, sum.getCoordinate(axes.get(1)), 0);
+        Iterator<Axis> iterator = sum.getAxes().iterator();
+        Assert.assertTrue(iterator.next() == axes.get(0));
+        Assert.assertTrue(sum.getAxes().contains(axes.get(5)));
+
+        // Subtract merges missing axes like before, i.e. they are not negated.
+        AxesLocation difference = a.subtract(b);
+        Assert.assertEquals(-8.0, difference.getCoordinate(axes.get(1)), 0);
+        Assert.assertEquals(20.0, difference.getCoordinate(axes.get(3)), 0);
+
+        // Put overwrites.
+        AxesLocation put = a.put(b);
+        Assert.assertEquals(10.0, put.getCoordinate(axes.get(1)), 0);
+        Assert.assertEquals(1.0, put.getCoordinate(axes.get(0)), 0);
+        Assert.assertFalse(a.contains(axes.get(3)));
+        Assert.assertEquals(0.0, a.getCoordinate(axes.get(3)), 0);
+
+        // Filtering.
+        AxesLocation driven = sum.drivenBy(driver2);
+        Assert.assertEquals(2, driven.size());
+        Assert.assertTrue(driven.contains(axes.get(4)) && driven.contains(axes.get(5)));
+        Assert.assertEquals(2, sum.byType(Axis.Type.Rotation).size());
+        Assert.assertTrue(sum.getAxis(driver1, Axis.Type.Z) == axes.get(2));
+        Assert.assertTrue(sum.getAxisByVariable(driver2, "Z") == axes.get(4));
+
+        // Motion segment only contains the axes that actually move.
+        AxesLocation segment = a.motionSegmentTo(location(1.00001, 4, 3, 7, 6, nan));
+        Assert.assertEquals("(Y:2.000000, Z2:1.000000)", segment.toString());
+        Assert.assertEquals(Math.sqrt(5), segment.getEuclideanMetric(), 1e-12);
+        Assert.assertEquals(Math.sqrt(4), segment.getEuclideanMetric(driver1,
+                (axis) -> segment.getCoordinate(axis)).third, 1e-12);
+        Assert.assertTrue(a.motionSegmentTo(a).isEmpty());
+
+        // Scalar and vector math.
+        Assert.assertEquals(2*5.0, a.multiply(2).getCoordinate(axes.get(4)), 0);
+        Assert.assertEquals(1*0+2*10+5*30, a.dotProduct(b), 0);
+        AxesLocation mapped = new AxesLocation((c) -> c+1, a);
+        Assert.assertEquals(6.0, mapped.getCoordinate(axes.get(4)), 0);
+        Assert.assertEquals(a.size(), mapped.size());
+    }
+
+    /**
+     * Simple throughput and allocation benchmark of the common planner operations. The metrics and lookups must
+     * not allocate, i.e. stay below the size of the smallest object, leaving room for JVM dependent accounting 
+     * noise. The others must allocate well below the former map based version (add 863, motionSegmentTo 1444, 
+     * drivenBy 1286 bytes/op).
+     */
+    @Test
+    public void testAxesLocationPerformance() throws Exception {
+        Random rnd = new Random(42);
+        final int n = 1000;
+        AxesLocation[] locations = new AxesLocation[n];
+        for (int i = 0; i < n; i++) {
+            double[] coordinates = new double[axes.size()];
+            for (int j = 0; j < coordinates.length; j++) {
+                coordinates[j] = Math.round(rnd.nextDouble()*100)*0.5;
+            }
+            locations[i] = location(coordinates);
+        }
+        final int warmups = n*20;
+        final int count = n*200;
+        String name = "AxesLocationTest.testAxesLocationPerformance() ";
+        AllocationBenchmark.run(name+"add", warmups, count, 400,
+                (i) -> locations[i % n].add(locations[(i + 1) % n]).size());
+        AllocationBenchmark.run(name+"subtract", warmups, count, 400,
+                (i) -> locations[i % n].subtract(locations[(i + 1) % n]).size());
+        AllocationBenchmark.run(name+"put", warmups, count, 400,
+                (i) -> locations[i % n].put(locations[(i + 1) % n]).size());
+        AllocationBenchmark.run(name+"motionSegmentTo", warmups, count, 700,
+                (i) -> locations[i % n].motionSegmentTo(locations[(i + 1) % n]).size());
+        AllocationBenchmark.run(name+"drivenBy", warmups, count, 300,
+                (i) -> locations[i % n].drivenBy(driver1).size());
+        AllocationBenchmark.run(name+"getEuclideanMetric", warmups, count, 8,
+                (i) -> locations[i % n].getEuclideanMetric());
+        AllocationBenchmark.run(name+"getCoordinate", warmups, count, 8,
+                (i) -> locations[i % n].getCoordinate(axes.get(4)));
+        for (ControllerAxis axis : locations[0].getControllerAxes()) {
+            Assert.assertTrue(axes.contains(axis));
+        }
+    }
+}
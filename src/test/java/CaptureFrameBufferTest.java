@@ -0,0 +1,132 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.camera.CaptureFrameBuffer;
+import org.openpnp.machine.reference.camera.CaptureFrameBuffer.Frame;
+import org.openpnp.util.NanosecondTime;
+
+public class CaptureFrameBufferTest {
+    static final BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR);
+
+    @Test
+    public void testPutAndGetLatest() {
+        CaptureFrameBuffer buffer = new CaptureFrameBuffer(4);
+        Assert.assertNull(buffer.getLatest());
+        Assert.assertNull(buffer.getFirstFrameAfter(0));
+        for (int i = 1; i <= 10; i++) {
+            Frame frame = buffer.put(image, i*100);
+            Assert.assertEquals(i, frame.getSequence());
+            Assert.assertSame(frame, buffer.getLatest());
+            Assert.assertEquals(i, buffer.getFrameCount());
+        }
+        // The first frame after the time, not the latest one.
+        Assert.assertEquals(9, buffer.getFirstFrameAfter(850).getSequence());
+        Assert.assertEquals(8, buffer.getFirstFrameAfter(799).getSequence());
+        // The time must be strictly after.
+        Assert.assertEquals(9, buffer.getFirstFrameAfter(800).getSequence());
+        // The older frames are overwritten, so the oldest remaining one is the first.
+        Assert.assertEquals(7, buffer.getFirstFrameAfter(0).getSequence());
+        Assert.assertNull(buffer.getFirstFrameAfter(1000));
+    }
+
+    @Test
+    public void testWaitForFrameAfterTimeout() throws Exception {
+        CaptureFrameBuffer buffer = new CaptureFrameBuffer(4);
+        buffer.put(image, 100);
+        long t0 = System.nanoTime();
+        Assert.assertNull(buffer.waitForFrameAfter(100, 50));
+        long dt = System.nanoTime() - t0;
+        Assert.assertTrue("waited "+dt*1e-6+"ms", dt >= 50000000L);
+        // Immediately returns a frame that is already there.
+        Assert.assertEquals(1, buffer.waitForFrameAfter(99, 0).getSequence());
+    }
+
+    @Test
+    public void testWaitForFrameAfterWakeUp() throws Exception {
+        CaptureFrameBuffer buffer = new CaptureFrameBuffer(4);
+        buffer.put(image, 100);
+        AtomicReference<Frame> result = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                result.set(buffer.waitForFrameAfter(150, 5000));
+            }
+            catch (InterruptedException e) {
+            }
+        });
+        reader.start();
+        Thread.sleep(20);
+        Assert.assertNull(result.get());
+        buffer.put(image, 140);
+        buffer.put(image, 160);
+        buffer.put(image, 170);
+        reader.join(5000);
+        Assert.assertFalse(reader.isAlive());
+        // The first frame after the time, unless the reader only woke up after more frames came in.
+        Assert.assertTrue(result.get().getCaptureTime() > 150);
+        Assert.assertTrue(result.get().getSequence() >= 3);
+    }
+
+    /**
+     * One grabber puts frames as fast as it can, while several readers wait for frames after the current time
+     * and take the latest. The readers must always get a frame captured after their time, and never see the
+     * sequence go backwards.
+     */
+    @Test
+    public void testConcurrency() throws Exception {
+        CaptureFrameBuffer buffer = new CaptureFrameBuffer(4);
+        final int frames = 20000;
+        Thread grabber = new Thread(() -> {
+            for (int i = 0; i < frames; i++) {
+                buffer.put(image, NanosecondTime.getRuntime());
+                if (i % 100 == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    long lastSequence = 0;
+                    while (buffer.getFrameCount() < frames) {
+                        long time = NanosecondTime.getRuntime();
+                        Frame frame = buffer.waitForFrameAfter(time, 1000);
+                        if (frame == null) {
+                            // Only at the end of the stream.
+                            Assert.assertEquals(frames, buffer.getFrameCount());
+                            break;
+                        }
+                        Assert.assertTrue(frame.getCaptureTime() > time);
+                        Assert.assertTrue(frame.getSequence() > lastSequence);
+                        lastSequence = frame.getSequence();
+                        Frame latest = buffer.getLatest();
+                        Assert.assertTrue(latest.getSequence() >= lastSequence);
+                    }
+                }
+                catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        grabber.start();
+        grabber.join(10000);
+        for (Thread reader : readers) {
+            reader.join(10000);
+            Assert.assertFalse(reader.isAlive());
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        Assert.assertEquals(frames, buffer.getFrameCount());
+        Assert.assertEquals(frames, buffer.getLatest().getSequence());
+    }
+}
@@ -0,0 +1,228 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.FluentCv;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvPipeline.ExecutionMode;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
+import org.openpnp.vision.pipeline.stages.ConvertColor;
+import org.openpnp.vision.pipeline.stages.FindContours;
+import org.openpnp.vision.pipeline.stages.ImageRecall;
+import org.openpnp.vision.pipeline.stages.Threshold;
+
+public class CvPipelineTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    /**
+     * Provides the input image, like an ImageCapture stage would.
+     */
+    static class InputStage extends CvStage {
+        final Mat input;
+        int executions;
+        int releases;
+
+        InputStage(Mat input) {
+            this.input = input;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            executions++;
+            return new Result(input.clone());
+        }
+
+        @Override
+        public void release() {
+            releases++;
+        }
+    }
+
+    static Mat createInput(int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_8UC3, new Scalar(30, 30, 30));
+        for (int i = 0; i < 30; i++) {
+            Imgproc.circle(mat, new Point(width*(i*0.37 % 1.0), height*(i*0.61 % 1.0)), 10 + 3*i,
+                    new Scalar(255, 255, 255), -1);
+        }
+        return mat;
+    }
+
+    static CvPipeline createPipeline(Mat input) {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("input", new InputStage(input));
+        BlurGaussian blur = new BlurGaussian();
+        blur.setKernelSize(9);
+        pipeline.add("blur", blur);
+        ConvertColor gray = new ConvertColor();
+        gray.setConversion(FluentCv.ColorCode.Bgr2Gray);
+        pipeline.add("gray", gray);
+        Threshold threshold = new Threshold();
+        threshold.setThreshold(128);
+        pipeline.add("threshold", threshold);
+        pipeline.add("contours", new FindContours());
+        ImageRecall recall = new ImageRecall();
+        recall.setImageStageName("input");
+        pipeline.add("recall", recall);
+        BlurGaussian blur2 = new BlurGaussian();
+        blur2.setKernelSize(5);
+        pipeline.add("blur2", blur2);
+        return pipeline;
+    }
+
+    /**
+     * Tests that the lean execution mode yields the same as the full mode, while retaining only the referenced
+     * images.
+     */
+    @Test
+    public void testLeanEquivalence() {
+        Mat input = createInput(1280, 960);
+        CvPipeline full = createPipeline(input);
+        CvPipeline lean = createPipeline(input);
+        lean.setExecutionMode(ExecutionMode.Lean);
+        Assert.assertEquals(1, lean.getReferencedStages().size());
+        Assert.assertTrue(lean.getReferencedStages().contains(lean.getStage("input")));
+        for (int pass = 0; pass < 2; pass++) {
+            full.process();
+            lean.process();
+            Mat diff = new Mat();
+            Core.absdiff(full.getWorkingImage(), lean.getWorkingImage(), diff);
+            Assert.assertEquals(0.0, Core.sumElems(diff).val[0], 0.0);
+            diff.release();
+            Assert.assertEquals(((List<?>) full.getResult("contours").model).size(),
+                    ((List<?>) lean.getResult("contours").model).size());
+            Assert.assertNotNull(lean.getResult("input").image);
+            Assert.assertNull(lean.getResult("blur").image);
+            Assert.assertNotNull(full.getResult("blur").image);
+            Assert.assertTrue(lean.getTotalRetainedImageBytes() < full.getTotalRetainedImageBytes());
+        }
+        full.release();
+        lean.release();
+        input.release();
+    }
+
+    /**
+     * Tests that incremental processing only executes the stages from the changed one onward, with the same
+     * results as processing all stages.
+     */
+    @Test
+    public void testIncremental() {
+        Mat input = createInput(1920, 1080);
+        CvPipeline reference = createPipeline(input);
+        CvPipeline pipeline = createPipeline(input);
+        InputStage inputStage = (InputStage) pipeline.getStage("input");
+        long t0 = System.nanoTime();
+        pipeline.processIncremental();
+        long t1 = System.nanoTime();
+        Assert.assertEquals(0, pipeline.getCachedStageCount());
+        Assert.assertEquals(1, inputStage.executions);
+
+        pipeline.processIncremental();
+        Assert.assertEquals(pipeline.getStages().size(), pipeline.getCachedStageCount());
+        Assert.assertEquals(1, inputStage.executions);
+
+        // Change a stage in the middle.
+        ((Threshold) pipeline.getStage("threshold")).setThreshold(100);
+        ((Threshold) reference.getStage("threshold")).setThreshold(100);
+        long t2 = System.nanoTime();
+        pipeline.processIncremental();
+        long t3 = System.nanoTime();
+        reference.process();
+        Assert.assertEquals(3, pipeline.getCachedStageCount());
+        Assert.assertTrue(pipeline.isCachedResult(pipeline.getStage("gray")));
+        Assert.assertFalse(pipeline.isCachedResult(pipeline.getStage("threshold")));
+        Assert.assertEquals(1, inputStage.executions);
+        Assert.assertEquals(((List<?>) reference.getResult("contours").model).size(),
+                ((List<?>) pipeline.getResult("contours").model).size());
+        for (CvStage stage : pipeline.getStages()) {
+            Mat diff = new Mat();
+            Core.absdiff(reference.getResult(stage.getName()).image, pipeline.getResult(stage).image, diff);
+            Assert.assertEquals(0.0, Core.sumElems(diff).val[0], 0.0);
+            diff.release();
+        }
+
+        // Disabling a stage is a change too.
+        pipeline.getStage("blur2").setEnabled(false);
+        pipeline.processIncremental();
+        Assert.assertEquals(6, pipeline.getCachedStageCount());
+
+        // A plain process() invalidates the memoized results.
+        pipeline.process();
+        Assert.assertEquals(2, inputStage.executions);
+        pipeline.processIncremental();
+        Assert.assertEquals(0, pipeline.getCachedStageCount());
+        Assert.assertEquals(3, inputStage.executions);
+        pipeline.invalidateCache();
+        pipeline.processIncremental();
+        Assert.assertEquals(0, pipeline.getCachedStageCount());
+        Assert.assertEquals(4, inputStage.executions);
+
+        System.out.println("CvPipelineTest.testIncremental() all stages "+String.format("%.2f", (t1 - t0)*1e-6)
+                +"ms, from changed stage "+String.format("%.2f", (t3 - t2)*1e-6)+"ms");
+        reference.release();
+        pipeline.release();
+        input.release();
+    }
+
+    /**
+     * Tests that the stages can release their own resources, such as the frozen input of ImageCapture, with the
+     * pipeline or when they are removed from it.
+     */
+    @Test
+    public void testReleaseStages() {
+        Mat input = createInput(320, 240);
+        CvPipeline pipeline = createPipeline(input);
+        InputStage inputStage = (InputStage) pipeline.getStage("input");
+        pipeline.processIncremental();
+        pipeline.release();
+        Assert.assertEquals(1, inputStage.releases);
+
+        pipeline.remove(inputStage);
+        Assert.assertEquals(2, inputStage.releases);
+        pipeline.remove(inputStage);
+        Assert.assertEquals(2, inputStage.releases);
+        pipeline.release();
+        Assert.assertEquals(2, inputStage.releases);
+        input.release();
+    }
+
+    /**
+     * Simple benchmark of the full execution mode against the lean mode, with per stage timing and memory.
+     */
+    @Test
+    public void testLeanPerformance() {
+        Mat input = createInput(1920, 1080);
+        int n = 20;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            CvPipeline pipeline = createPipeline(input);
+            pipeline.setExecutionMode(mode);
+            long t0 = 0;
+            long t1 = 0;
+            for (int warmup = 0; warmup < 2; warmup++) {
+                t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    pipeline.process();
+                }
+                t1 = System.nanoTime();
+            }
+            StringBuilder stages = new StringBuilder();
+            for (CvStage stage : pipeline.getStages()) {
+                stages.append(String.format(" %s %.2fms %dkB", stage.getName(),
+                        pipeline.getResult(stage).processingTimeNs*1e-6, pipeline.getRetainedImageBytes(stage)/1024));
+            }
+            System.out.println("CvPipelineTest.testLeanPerformance() "+mode+": "
+                    +String.format("%.2f", (t1 - t0)*1e-6/n)+"ms per process(), retained "
+                    +pipeline.getTotalRetainedImageBytes()/1024+"kB,"+stages);
+            pipeline.release();
+        }
+        input.release();
+    }
+}
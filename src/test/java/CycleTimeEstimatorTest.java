@@ -0,0 +1,61 @@
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.CycleTimeEstimator;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.util.NanosecondTime;
+
+import com.google.common.io.Files;
+
+public class CycleTimeEstimatorTest {
+    /**
+     * Estimates the pnp-test job on the imperfect machine of the SampleJobTest, i.e. with the real motion
+     * planner, camera settling and vision. This must be much faster than running the job in real time.
+     */
+    @Test
+    public void testEstimateSampleJob() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/SampleJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
+        ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) machine.getPnpJobProcessor();
+
+        File jobFile = new File("samples");
+        jobFile = new File(jobFile, "pnp-test");
+        jobFile = new File(jobFile, "pnp-test.job.xml");
+        Job job = Configuration.get().loadJob(jobFile);
+
+        machine.setEnabled(true);
+        machine.home();
+        CycleTimeEstimator.Estimate estimate = new CycleTimeEstimator(jobProcessor).estimate(job);
+        System.out.println("CycleTimeEstimatorTest.testEstimateSampleJob() " + estimate);
+        Assert.assertFalse("virtual clock switched off", NanosecondTime.isVirtualClock());
+
+        Assert.assertTrue(estimate.getPartsPlaced() > 0);
+        Assert.assertTrue(estimate.getTotalTime() > 0);
+        Assert.assertTrue("faster than real time", estimate.getWallTime() < estimate.getTotalTime());
+        Assert.assertEquals(estimate.getPartsPlaced(), estimate.getPlacementTimes().size());
+        double placementTime = 0;
+        for (Map.Entry<JobPlacement, Double> entry : estimate.getPlacementTimes().entrySet()) {
+            Assert.assertTrue(entry.getValue() > 0);
+            placementTime += entry.getValue();
+        }
+        double stepTime = 0;
+        for (double time : estimate.getStepTimes().values()) {
+            stepTime += time;
+        }
+        Assert.assertTrue(placementTime <= stepTime);
+        Assert.assertTrue(stepTime <= estimate.getTotalTime() + 1e-6);
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.ReferenceDriverCommunications;
+
+public class DriverCommunicationsTest {
+    /**
+     * Fake communications that receive a given byte stream in chunks of random size up to maxChunk. Every
+     * readBytes() call stands for one native read call.
+     */
+    static class FakeCommunications extends ReferenceDriverCommunications {
+        final byte[] stream;
+        final int maxChunk;
+        final Random rnd = new Random(1);
+        int position;
+        long readCalls;
+
+        FakeCommunications(byte[] stream, int maxChunk) {
+            this.stream = stream;
+            this.maxChunk = maxChunk;
+        }
+
+        @Override
+        public void connect() throws Exception {
+            position = 0;
+            clearReceiveBuffer();
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+        }
+
+        @Override
+        public String getConnectionName() {
+            return "fake";
+        }
+
+        @Override
+        public void writeBytes(byte[] data) throws IOException {
+        }
+
+        @Override
+        protected int readBytes(byte[] data, int offset, int length) throws TimeoutException, IOException {
+            readCalls++;
+            if (position == stream.length) {
+                return -1;
+            }
+            int l = Math.min(Math.min(length, stream.length - position), 1 + rnd.nextInt(maxChunk));
+            System.arraycopy(stream, position, data, offset, l);
+            position += l;
+            return l;
+        }
+    }
+
+    static List<String> responses(Random rnd, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    lines.add("ok");
+                    break;
+                case 1:
+                    lines.add(String.format("<Idle|MPos:%.3f,%.3f,%.3f|FS:0,0|WCO:0.000,0.000,0.000>",
+                            rnd.nextDouble()*400, rnd.nextDouble()*400, rnd.nextDouble()*30));
+                    break;
+                default:
+                    lines.add(String.format("ok C: X:%.4f Y:%.4f Z:%.4f A:%.4f",
+                            rnd.nextDouble()*400, rnd.nextDouble()*400, rnd.nextDouble()*30, rnd.nextDouble()*360));
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    static byte[] stream(List<String> lines, Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        String[] lineEndings = new String[] { "\n", "\r\n", "\r", "\n\n" };
+        for (String line : lines) {
+            sb.append(line);
+            sb.append(lineEndings[rnd.nextInt(lineEndings.length)]);
+        }
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * The per-byte line reading, as it was used before the buffered reader.
+     */
+    static String readLineLegacy(ReferenceDriverCommunications communications) throws Exception {
+        StringBuffer line = new StringBuffer();
+        while (true) {
+            int ch = communications.read();
+            if (ch == -1) {
+                return null;
+            }
+            else if (ch == '\r' || ch == '\n') {
+                if (line.length() > 0) {
+                    return line.toString();
+                }
+            }
+            else {
+                line.append((char) ch);
+            }
+        }
+    }
+
+    /**
+     * Tests that the buffered line reader splits the lines the same, regardless of the line endings and how the
+     * bytes are chunked.
+     */
+    @Test
+    public void testReadLine() throws Exception {
+        Random rnd = new Random(42);
+        List<String> lines = responses(rnd, 10000);
+        byte[] stream = stream(lines, rnd);
+        for (int maxChunk : new int[] { 1, 7, 64, 10000 }) {
+            FakeCommunications communications = new FakeCommunications(stream, maxChunk);
+            communications.connect();
+            for (String line : lines) {
+                Assert.assertEquals(line, communications.readLine());
+            }
+            Assert.assertNull(communications.readLine());
+        }
+        // Mixed single byte and line reads.
+        FakeCommunications communications = new FakeCommunications("ok\nX\nok 1\n".getBytes(), 3);
+        communications.connect();
+        Assert.assertEquals("ok", communications.readLine());
+        Assert.assertEquals('X', communications.read());
+        Assert.assertEquals("ok 1", communications.readLine());
+        Assert.assertEquals(-1, communications.read());
+    }
+
+    /**
+     * Simple benchmark of the per-byte line reading against the buffered line reader.
+     */
+    @Test
+    public void testReadLinePerformance() throws Exception {
+        Random rnd = new Random(42);
+        List<String> lines = responses(rnd, 20000);
+        byte[] stream = stream(lines, rnd);
+        long checksum = 0;
+        long t0 = 0;
+        long t1 = 0;
+        long t2 = 0;
+        FakeCommunications legacy = new FakeCommunications(stream, 1);
+        FakeCommunications buffered = new FakeCommunications(stream, 256);
+        for (int warmup = 0; warmup < 2; warmup++) {
+            legacy.connect();
+            buffered.connect();
+            legacy.readCalls = 0;
+            buffered.readCalls = 0;
+            t0 = System.nanoTime();
+            String line;
+            while ((line = readLineLegacy(legacy)) != null) {
+                checksum += line.length();
+            }
+            t1 = System.nanoTime();
+            while ((line = buffered.readLine()) != null) {
+                checksum += line.length();
+            }
+            t2 = System.nanoTime();
+        }
+        System.out.println("DriverCommunicationsTest.testReadLinePerformance() "+lines.size()+" lines, "
+                +stream.length+" bytes, per-byte: "+String.format("%.1f", (t1 - t0)*1e-6)+"ms "
+                +legacy.readCalls+" reads, buffered: "+String.format("%.1f", (t2 - t1)*1e-6)+"ms "
+                +buffered.readCalls+" reads, checksum: "+checksum);
+    }
+}
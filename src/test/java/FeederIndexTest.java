@@ -0,0 +1,65 @@
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openpnp.machine.reference.feeder.ReferenceTubeFeeder;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Part;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+public class FeederIndexTest {
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    static ReferenceTubeFeeder createFeeder(Machine machine, Part part) throws Exception {
+        ReferenceTubeFeeder feeder = new ReferenceTubeFeeder();
+        feeder.setPart(part);
+        feeder.setEnabled(true);
+        machine.addFeeder(feeder);
+        return feeder;
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        Part partA = new Part("FeederIndexTest-A");
+        Part partB = new Part("FeederIndexTest-B");
+        Assert.assertTrue(machine.getEnabledFeeders(partA).isEmpty());
+
+        Feeder feeder1 = createFeeder(machine, partA);
+        Feeder feeder2 = createFeeder(machine, partB);
+        Feeder feeder3 = createFeeder(machine, partA);
+        Assert.assertEquals(Arrays.asList(feeder1, feeder3), machine.getEnabledFeeders(partA));
+        Assert.assertEquals(Arrays.asList(feeder2), machine.getEnabledFeeders(partB));
+
+        // Enabled state.
+        feeder1.setEnabled(false);
+        Assert.assertEquals(Arrays.asList(feeder3), machine.getEnabledFeeders(partA));
+        feeder1.setEnabled(true);
+
+        // Part change, the machine order must be kept.
+        feeder2.setPart(partA);
+        Assert.assertEquals(Arrays.asList(feeder1, feeder2, feeder3), machine.getEnabledFeeders(partA));
+        Assert.assertTrue(machine.getEnabledFeeders(partB).isEmpty());
+
+        // Removal.
+        machine.removeFeeder(feeder1);
+        Assert.assertEquals(Arrays.asList(feeder2, feeder3), machine.getEnabledFeeders(partA));
+        feeder1.setPart(partB);
+        Assert.assertTrue(machine.getEnabledFeeders(partB).isEmpty());
+
+        machine.removeFeeder(feeder2);
+        machine.removeFeeder(feeder3);
+        Assert.assertTrue(machine.getEnabledFeeders(partA).isEmpty());
+    }
+}
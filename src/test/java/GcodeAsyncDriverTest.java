@@ -0,0 +1,346 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.GcodeAsyncDriver;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
+import org.openpnp.machine.reference.driver.ReferenceDriverCommunications;
+import org.openpnp.model.Configuration;
+
+import com.google.common.io.Files;
+
+public class GcodeAsyncDriverTest {
+    static final int rxBufferSize = 64;
+
+    /**
+     * A fake controller with a receive buffer. Received lines stay in the buffer until the controller answers
+     * them, either automatically, or when the test says so.
+     */
+    static class FakeController extends ReferenceDriverCommunications {
+        final List<String> receivedLines = new ArrayList<>();
+        final ArrayDeque<String> pendingLines = new ArrayDeque<>();
+        final LinkedBlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+        final List<Integer> linesPerWrite = new ArrayList<>();
+        final List<String> realtimeCommands = new ArrayList<>();
+        boolean autoConfirm = true;
+        int pendingBytes;
+        int maxPendingBytes;
+        int writes;
+
+        @Override
+        public void connect() throws Exception {
+            clearReceiveBuffer();
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+        }
+
+        @Override
+        public String getConnectionName() {
+            return "fake";
+        }
+
+        @Override
+        public synchronized void writeBytes(byte[] data) throws IOException {
+            String text = new String(data, StandardCharsets.ISO_8859_1);
+            if (text.length() == 1) {
+                // Realtime command, acted upon right away, not buffered nor confirmed, like GRBL's status query.
+                realtimeCommands.add(text);
+                responses.add("<Idle|MPos:0.000,0.000,0.000>\n".getBytes(StandardCharsets.ISO_8859_1));
+                notifyAll();
+                return;
+            }
+            writes++;
+            String[] lines = new String(data, StandardCharsets.ISO_8859_1).split("\n");
+            linesPerWrite.add(lines.length);
+            for (String line : lines) {
+                receivedLines.add(line);
+                pendingLines.add(line);
+                pendingBytes += line.length() + 1;
+                maxPendingBytes = Math.max(maxPendingBytes, pendingBytes);
+            }
+            if (autoConfirm) {
+                while (!pendingLines.isEmpty()) {
+                    respond("ok");
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * Answer the oldest line in the receive buffer.
+         */
+        synchronized void respond(String response) {
+            String line = pendingLines.poll();
+            Assert.assertNotNull("response without a line", line);
+            pendingBytes -= line.length() + 1;
+            responses.add((response + "\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        synchronized int getPendingLines() {
+            return pendingLines.size();
+        }
+
+        synchronized List<String> getReceivedLines() {
+            return new ArrayList<>(receivedLines);
+        }
+
+        synchronized int getMaxLinesPerWrite() {
+            int max = 0;
+            for (int lines : linesPerWrite) {
+                max = Math.max(max, lines);
+            }
+            return max;
+        }
+
+        synchronized List<String> getRealtimeCommands() {
+            return new ArrayList<>(realtimeCommands);
+        }
+
+        synchronized int getWrites() {
+            return writes;
+        }
+
+        @Override
+        protected int readBytes(byte[] data, int offset, int length) throws TimeoutException, IOException {
+            byte[] response;
+            try {
+                response = responses.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (response == null) {
+                throw new TimeoutException();
+            }
+            System.arraycopy(response, 0, data, offset, response.length);
+            return response.length;
+        }
+    }
+
+    static class FakeControllerDriver extends GcodeAsyncDriver {
+        final FakeController controller = new FakeController();
+
+        @Override
+        public ReferenceDriverCommunications getCommunications() {
+            return controller;
+        }
+    }
+
+    FakeControllerDriver driver;
+    FakeController controller;
+
+    @Before
+    public void before() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        driver = new FakeControllerDriver();
+        driver.createDefaultCommands();
+        driver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, "^error.*");
+        driver.setConnectWaitTimeMilliseconds(0);
+        driver.setCharacterCountingFlowControl(true);
+        driver.setControllerRxBufferSize(rxBufferSize);
+        controller = driver.controller;
+        driver.connect();
+        // Wait for the three lines of the default CONNECT_COMMAND.
+        waitFor(() -> controller.getReceivedLines().size() == 3 && driver.getInFlightLines() == 0);
+        controller.autoConfirm = false;
+        driver.resetFlowControlMetrics();
+    }
+
+    @After
+    public void after() throws Exception {
+        driver.disconnect();
+    }
+
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long t0 = System.currentTimeMillis();
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timeout", System.currentTimeMillis() - t0 < 5000);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Commands are batched into as few writes as the receive buffer allows, and the buffer is never overrun.
+     */
+    @Test
+    public void testBatchingWithinRxBuffer() throws Exception {
+        int received0 = controller.getReceivedLines().size();
+        List<String> commands = new ArrayList<>();
+        // A long line occupies the buffer, so the following commands are queued up behind it.
+        String longCommand = "M118 ; a long line that fills most of the controller buffer";
+        commands.add(longCommand);
+        driver.sendCommand(longCommand, 5000);
+        waitFor(() -> controller.getPendingLines() == 1);
+        for (int i = 0; i < 40; i++) {
+            String command = "G1 X" + i;
+            commands.add(command);
+            driver.sendCommand(command, 5000);
+        }
+        Thread.sleep(50);
+        Assert.assertEquals(1, controller.getPendingLines());
+        Assert.assertEquals(1, driver.getInFlightLines());
+        // Once the long line is confirmed, the queued ones are sent in one batch that fills the buffer.
+        controller.respond("ok");
+        waitFor(() -> controller.getPendingLines() > 0);
+        Thread.sleep(50);
+        Assert.assertTrue("lines/write " + controller.getMaxLinesPerWrite(),
+                controller.getMaxLinesPerWrite() >= (rxBufferSize/8));
+        Assert.assertTrue(controller.getPendingLines() < commands.size() - 1);
+        Assert.assertEquals(driver.getInFlightLines(), controller.getPendingLines());
+        // Answer everything the controller has, repeatedly, so the driver sends the rest in batches.
+        while (controller.getReceivedLines().size() - received0 < commands.size() || controller.getPendingLines() > 0) {
+            waitFor(() -> controller.getPendingLines() > 0);
+            synchronized (controller) {
+                while (controller.getPendingLines() > 0) {
+                    controller.respond("ok");
+                }
+            }
+        }
+        waitFor(() -> driver.getInFlightLines() == 0);
+        Assert.assertEquals(commands, controller.getReceivedLines().subList(received0, received0 + commands.size()));
+        Assert.assertTrue("buffer overrun " + controller.maxPendingBytes, controller.maxPendingBytes <= rxBufferSize);
+        Assert.assertEquals(commands.size(), driver.getConfirmedLines());
+        Assert.assertEquals(0, driver.getInFlightBytes());
+        Assert.assertTrue("lines/write " + driver.getLinesPerWrite(), driver.getLinesPerWrite() > 1);
+        Assert.assertTrue(driver.getMaxInFlightBytes() <= rxBufferSize);
+    }
+
+    /**
+     * Confirmations and errors acknowledge the oldest line in flight, so the error is reported for the line that
+     * caused it.
+     */
+    @Test
+    public void testErrorMatchedToOldestLine() throws Exception {
+        driver.sendCommand("G1 X1", 5000);
+        driver.sendCommand("G1 X2", 5000);
+        driver.sendCommand("G1 X3", 5000);
+        waitFor(() -> controller.getPendingLines() == 3);
+        Assert.assertEquals(3, driver.getInFlightLines());
+        controller.respond("ok");
+        waitFor(() -> driver.getInFlightLines() == 2);
+        controller.respond("error:5");
+        controller.respond("ok");
+        waitFor(() -> driver.getInFlightLines() == 0);
+        try {
+            driver.sendCommand("G1 X4", 5000);
+            Assert.fail("error not reported");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("error:5 (in response to G1 X2)"));
+        }
+        Assert.assertEquals(3, driver.getConfirmedLines());
+    }
+
+    /**
+     * When the controller does not answer in time, the driver must not forget the lines in flight, as the controller
+     * may still hold them. It stops sending and fails until reconnected, and late confirmations are still matched.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        List<String> commands = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String command = "G1 X" + i;
+            commands.add(command);
+            driver.sendCommand(command, 200);
+        }
+        waitFor(() -> controller.getPendingLines() > 0);
+        Thread.sleep(500);
+        int pending = controller.getPendingLines();
+        int writes = controller.getWrites();
+        Assert.assertTrue(pending < commands.size());
+        // The count is kept.
+        Assert.assertEquals(pending, driver.getInFlightLines());
+        try {
+            driver.sendCommand("G1 Y1", 5000);
+            Assert.fail("timeout not reported");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("timeout"));
+        }
+        try {
+            driver.sendCommand("G1 Y2", 5000);
+            Assert.fail("lost synchronization not reported");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("lost synchronization"));
+        }
+        // Late confirmations acknowledge the right lines.
+        controller.respond("ok");
+        controller.respond("ok");
+        waitFor(() -> driver.getInFlightLines() == pending - 2);
+        Assert.assertEquals(controller.pendingBytes, driver.getInFlightBytes());
+        Thread.sleep(200);
+        // Nothing more was sent.
+        Assert.assertEquals(writes, controller.getWrites());
+        Assert.assertEquals(pending - 2, controller.getPendingLines());
+
+        // Reconnecting starts over.
+        driver.disconnect();
+        controller.autoConfirm = true;
+        synchronized (controller) {
+            while (controller.getPendingLines() > 0) {
+                controller.respond("ok");
+            }
+        }
+        controller.responses.clear();
+        int received0 = controller.getReceivedLines().size();
+        driver.connect();
+        waitFor(() -> controller.getReceivedLines().size() == received0 + 3 && driver.getInFlightLines() == 0);
+        int received = received0 + 3;
+        driver.sendCommand("G1 Z1", 5000);
+        waitFor(() -> controller.getReceivedLines().size() > received);
+        Assert.assertEquals("G1 Z1", controller.getReceivedLines().get(received));
+        waitFor(() -> driver.getInFlightLines() == 0);
+    }
+
+    /**
+     * Realtime commands, like GRBL's "?" status report query, are not buffered nor confirmed by the controller, so
+     * they must bypass the counting, otherwise the driver would wait for their confirmation forever.
+     */
+    @Test
+    public void testRealtimeCommandsNotCounted() throws Exception {
+        int received0 = controller.getReceivedLines().size();
+        driver.sendCommand("G1 X1", 5000);
+        driver.sendCommand("?", 200);
+        driver.sendCommand("G1 X2", 5000);
+        waitFor(() -> controller.getPendingLines() == 2 && controller.getRealtimeCommands().size() == 1);
+        Assert.assertEquals(Arrays.asList("?"), controller.getRealtimeCommands());
+        Assert.assertEquals(Arrays.asList("G1 X1", "G1 X2"), 
+                controller.getReceivedLines().subList(received0, received0 + 2));
+        Assert.assertEquals(2, driver.getInFlightLines());
+        Assert.assertEquals(("G1 X1\n" + "G1 X2\n").length(), driver.getInFlightBytes());
+        controller.respond("ok");
+        controller.respond("ok");
+        waitFor(() -> driver.getInFlightLines() == 0);
+        Assert.assertEquals(0, driver.getInFlightBytes());
+
+        // Well past the timeout of the "?", the driver is still in sync and goes on sending.
+        Thread.sleep(400);
+        driver.sendCommand("?", 200);
+        driver.sendCommand("G1 X3", 5000);
+        waitFor(() -> controller.getPendingLines() == 1 && controller.getRealtimeCommands().size() == 2);
+        controller.respond("ok");
+        waitFor(() -> driver.getInFlightLines() == 0);
+        driver.sendCommand("G1 X4", 5000);
+        waitFor(() -> controller.getPendingLines() == 1);
+        Assert.assertEquals(1, driver.getInFlightLines());
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
+import org.openpnp.machine.reference.driver.GcodeDriver;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
+import org.openpnp.machine.reference.driver.GcodeResponseClassifier;
+import org.openpnp.machine.reference.driver.GcodeResponseClassifier.ResponsePattern;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Axis;
+import org.openpnp.spi.ControllerAxis;
+import org.openpnp.spi.Driver;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+public class GcodeResponseClassifierTest {
+    static final String confirmationRegex = "^ok.*";
+    static final String errorRegex = "^error.*";
+    static final String positionReportRegex =
+            "^<(?<Status>[^|]*)\\|MPos:(?<X>-?\\d+\\.\\d+),(?<Y>-?\\d+\\.\\d+),(?<Z>-?\\d+\\.\\d+)(,(?<A>-?\\d+\\.\\d+))?.*";
+
+    static List<ControllerAxis> axes() {
+        NullDriver driver = new NullDriver();
+        List<ControllerAxis> axes = new ArrayList<>();
+        for (String letter : new String[] { "X", "Y", "Z", "A" }) {
+            ReferenceControllerAxis axis = new ReferenceControllerAxis();
+            axis.setName(letter);
+            axis.setLetter(letter);
+            axis.setType(letter.equals("A") ? Axis.Type.Rotation : Axis.Type.valueOf(letter));
+            axis.setDriver(driver);
+            axes.add(axis);
+        }
+        return axes;
+    }
+
+    static List<String> responses(Random rnd, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            switch (rnd.nextInt(5)) {
+                case 0:
+                    lines.add("ok");
+                    break;
+                case 1:
+                    lines.add("error:"+rnd.nextInt(30));
+                    break;
+                case 2:
+                    lines.add(String.format("<Idle|MPos:%.3f,%.3f,%.3f|FS:0,0>",
+                            rnd.nextDouble()*400, rnd.nextDouble()*400, rnd.nextDouble()*30));
+                    break;
+                case 3:
+                    lines.add(String.format("<Run|MPos:%.3f,%.3f,%.3f,%.3f|FS:1000,0>",
+                            rnd.nextDouble()*400, rnd.nextDouble()*400, rnd.nextDouble()*30, rnd.nextDouble()*360));
+                    break;
+                default:
+                    lines.add("[MSG:Caution: Unlocked]");
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals("ok", new ResponsePattern("^ok.*").getPrefix());
+        Assert.assertEquals("o", new ResponsePattern("^ok?.*").getPrefix());
+        Assert.assertEquals("ok", new ResponsePattern("ok\\s.*").getPrefix());
+        Assert.assertEquals("<", new ResponsePattern(positionReportRegex).getPrefix());
+        Assert.assertEquals("", new ResponsePattern("^ok.*|^error.*").getPrefix());
+        Assert.assertEquals("", new ResponsePattern("(?i)^ok.*").getPrefix());
+        Assert.assertEquals(Integer.valueOf(3), new ResponsePattern(positionReportRegex).getNamedGroup("Y"));
+        Assert.assertEquals(Integer.valueOf(6), new ResponsePattern(positionReportRegex).getNamedGroup("A"));
+        Assert.assertEquals(Integer.valueOf(-1), new ResponsePattern(positionReportRegex).getNamedGroup("B"));
+    }
+
+    /**
+     * Tests that the classifier yields the same as String.matches() and Matcher.group(name).
+     */
+    @Test
+    public void testClassifierEquivalence() {
+        List<ControllerAxis> axes = axes();
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(confirmationRegex, errorRegex, positionReportRegex, axes);
+        for (String line : responses(new Random(42), 10000)) {
+            Assert.assertEquals(line.matches(confirmationRegex), classifier.isConfirmation(line));
+            Assert.assertEquals(line.matches(errorRegex), classifier.isError(line));
+            Matcher matcher = classifier.matchPositionReport(line);
+            Assert.assertEquals(line.matches(positionReportRegex), matcher != null);
+            if (matcher != null) {
+                Matcher expected = Pattern.compile(positionReportRegex).matcher(line);
+                Assert.assertTrue(expected.matches());
+                for (int i = 0; i < axes.size(); i++) {
+                    Assert.assertEquals(expected.group(axes.get(i).getLetter()),
+                            classifier.getAxisCoordinate(matcher, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * The classifier must be invalidated when the axes of the driver on the machine change.
+     */
+    @Test
+    public void testValidFor() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Machine machine = Configuration.get().getMachine();
+        Driver driver = machine.getDrivers().get(0);
+        Driver otherDriver = new NullDriver();
+        Set<ControllerAxis> driverAxes = new AxesLocation(machine).getAxes(driver);
+        Assert.assertFalse(driverAxes.isEmpty());
+        ControllerAxis firstAxis = driverAxes.iterator().next();
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(confirmationRegex, errorRegex, positionReportRegex, driverAxes);
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+        Assert.assertFalse(classifier.isValidFor(machine, otherDriver));
+
+        // Changed letter.
+        String letter = firstAxis.getLetter();
+        ((ReferenceControllerAxis) firstAxis).setLetter("Q");
+        Assert.assertFalse(classifier.isValidFor(machine, driver));
+        ((ReferenceControllerAxis) firstAxis).setLetter(letter);
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+
+        // Axis moved to another driver.
+        firstAxis.setDriver(otherDriver);
+        Assert.assertFalse(classifier.isValidFor(machine, driver));
+        firstAxis.setDriver(driver);
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+
+        // Axis added to the driver, e.g. by assigning a new axis to it.
+        ReferenceControllerAxis newAxis = new ReferenceControllerAxis();
+        newAxis.setName("B");
+        newAxis.setLetter("B");
+        newAxis.setType(Axis.Type.Rotation);
+        newAxis.setDriver(otherDriver);
+        machine.addAxis(newAxis);
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+        newAxis.setDriver(driver);
+        Assert.assertFalse(classifier.isValidFor(machine, driver));
+        Assert.assertTrue(new GcodeResponseClassifier(confirmationRegex, errorRegex, positionReportRegex,
+                new AxesLocation(machine).getAxes(driver)).isValidFor(machine, driver));
+
+        // Axis removed from the machine.
+        machine.removeAxis(newAxis);
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+        machine.removeAxis(firstAxis);
+        Assert.assertFalse(classifier.isValidFor(machine, driver));
+    }
+
+    static class ClassifierDriver extends GcodeDriver {
+        GcodeResponseClassifier classifier() {
+            return getResponseClassifier();
+        }
+    }
+
+    /**
+     * The driver caches its classifier, until the axes of the driver or the response regexes change.
+     */
+    @Test
+    public void testDriverClassifierCache() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Machine machine = Configuration.get().getMachine();
+        ClassifierDriver driver = new ClassifierDriver();
+        driver.createDefaultCommands();
+        ControllerAxis firstAxis = new AxesLocation(machine).getAxes(machine.getDrivers().get(0)).iterator().next();
+        firstAxis.setDriver(driver);
+        GcodeResponseClassifier classifier = driver.classifier();
+        Assert.assertEquals(1, classifier.getAxisCount());
+        Assert.assertSame(classifier, driver.classifier());
+
+        // Moving the axis does not invalidate it.
+        firstAxis.setDriverCoordinate(firstAxis.getDriverCoordinate() + 1);
+        Assert.assertSame(classifier, driver.classifier());
+
+        // Changed letter.
+        ((ReferenceControllerAxis) firstAxis).setLetter("Q");
+        Assert.assertNotSame(classifier, driver.classifier());
+        classifier = driver.classifier();
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+        Assert.assertSame(classifier, driver.classifier());
+
+        // Axis added to the machine and assigned to the driver.
+        ReferenceControllerAxis newAxis = new ReferenceControllerAxis();
+        newAxis.setName("B");
+        newAxis.setLetter("B");
+        newAxis.setType(Axis.Type.Rotation);
+        machine.addAxis(newAxis);
+        Assert.assertNotSame(classifier, driver.classifier());
+        classifier = driver.classifier();
+        newAxis.setDriver(driver);
+        Assert.assertNotSame(classifier, driver.classifier());
+        classifier = driver.classifier();
+        Assert.assertEquals(2, classifier.getAxisCount());
+        Assert.assertTrue(classifier.isValidFor(machine, driver));
+
+        // Axis removed from the machine.
+        machine.removeAxis(newAxis);
+        Assert.assertNotSame(classifier, driver.classifier());
+        classifier = driver.classifier();
+        Assert.assertEquals(1, classifier.getAxisCount());
+
+        // Changed regex.
+        Assert.assertFalse(classifier.isError("error: 1"));
+        driver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, "^error.*");
+        Assert.assertNotSame(classifier, driver.classifier());
+        Assert.assertTrue(driver.classifier().isError("error: 1"));
+    }
+
+    /**
+     * Simple benchmark of the per-line regex matching, as it was used in the GcodeDriver, against the classifier.
+     */
+    @Test
+    public void testClassifierPerformance() {
+        List<ControllerAxis> axes = axes();
+        GcodeResponseClassifier classifier =
+                new GcodeResponseClassifier(confirmationRegex, errorRegex, positionReportRegex, axes);
+        List<String> lines = responses(new Random(42), 20000);
+        long checksum = 0;
+        long t0 = 0;
+        long t1 = 0;
+        long t2 = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            t0 = System.nanoTime();
+            for (String line : lines) {
+                checksum += line.matches(confirmationRegex) ? 1 : 0;
+                checksum += line.matches(errorRegex) ? 1 : 0;
+                if (line.matches(positionReportRegex)) {
+                    Matcher matcher = Pattern.compile(positionReportRegex).matcher(line);
+                    matcher.matches();
+                    for (ControllerAxis axis : axes) {
+                        String s = matcher.group(axis.getLetter());
+                        checksum += (s == null ? 0 : s.length());
+                    }
+                }
+            }
+            t1 = System.nanoTime();
+            for (String line : lines) {
+                checksum += classifier.isConfirmation(line) ? 1 : 0;
+                checksum += classifier.isError(line) ? 1 : 0;
+                Matcher matcher = classifier.matchPositionReport(line);
+                if (matcher != null) {
+                    for (int i = 0; i < classifier.getAxisCount(); i++) {
+                        String s = classifier.getAxisCoordinate(matcher, i);
+                        checksum += (s == null ? 0 : s.length());
+                    }
+                }
+            }
+            t2 = System.nanoTime();
+        }
+        System.out.println("GcodeResponseClassifierTest.testClassifierPerformance() "+lines.size()+" lines, String.matches(): "
+                +String.format("%.1f", (t1 - t0)*1e-6)+"ms, classifier: "
+                +String.format("%.1f", (t2 - t1)*1e-6)+"ms, checksum: "+checksum);
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.GcodeTemplate;
+
+public class GcodeTemplateTest {
+    static final String moveToCommand =
+            "{Acceleration:M204 S%.1f} G0 {XL}{X:%.4f} {YL}{Y:%.4f} {ZL}{Z:%.4f} {RotationL}{Rotation:%.4f} "
+            + "{AL}{A:%.4f} {BL}{B:%.4f} {FeedRate:F%.1f} {XJerk:X%.0f} {Unknown} ; Send standard Gcode move";
+
+    static final String[] axisVariables = { "X", "Y", "Z", "Rotation", "A", "B" };
+
+    /**
+     * The regex based substitution, as it was used in the GcodeDriver before the templates.
+     */
+    static String substituteVariable(String command, String name, Object value) {
+        StringBuffer sb = new StringBuffer();
+        Matcher matcher = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}").matcher(command);
+        while (matcher.find()) {
+            String n = matcher.group(1);
+            if (!n.equals(name)) {
+                continue;
+            }
+            String format = matcher.group(2);
+            if (format == null) {
+                format = "%s";
+            }
+            String v = "";
+            if (value != null) {
+                v = String.format((Locale) null, format, value);
+            }
+            matcher.appendReplacement(sb, v);
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    static String renderLegacy(double[] coordinates, Double feedRate) {
+        String command = moveToCommand;
+        command = substituteVariable(command, "FeedRate", feedRate);
+        command = substituteVariable(command, "Acceleration", feedRate == null ? null : feedRate*2);
+        for (int i = 0; i < axisVariables.length; i++) {
+            String variable = axisVariables[i];
+            Double coordinate = Double.isNaN(coordinates[i]) ? null : coordinates[i];
+            command = substituteVariable(command, variable, coordinate);
+            command = substituteVariable(command, variable+"F", coordinate);
+            command = substituteVariable(command, variable+"L", coordinate == null ? null : variable.substring(0, 1));
+            command = substituteVariable(command, variable+"Jerk", coordinate == null ? null : coordinate*100);
+        }
+        return command;
+    }
+
+    static String renderTemplate(GcodeTemplate template, StringBuilder sb, double[] coordinates, Double feedRate) {
+        GcodeTemplate.Bindings bindings = template.newBindings();
+        bindings.set("FeedRate", feedRate);
+        bindings.set("Acceleration", feedRate == null ? null : feedRate*2);
+        for (int i = 0; i < axisVariables.length; i++) {
+            String variable = axisVariables[i];
+            Double coordinate = Double.isNaN(coordinates[i]) ? null : coordinates[i];
+            bindings.set(variable, coordinate);
+            bindings.set(variable+"F", coordinate);
+            bindings.set(variable+"L", coordinate == null ? null : variable.substring(0, 1));
+            bindings.set(variable+"Jerk", coordinate == null ? null : coordinate*100);
+        }
+        sb.setLength(0);
+        template.render(sb, bindings);
+        return sb.toString();
+    }
+
+    static double[] randomMove(Random rnd) {
+        double[] coordinates = new double[axisVariables.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            // Some axes do not move, some coordinates are negative, tiny or "round" numbers.
+            switch (rnd.nextInt(5)) {
+                case 0:
+                    coordinates[i] = Double.NaN;
+                    break;
+                case 1:
+                    coordinates[i] = Math.round(rnd.nextDouble()*1000)*0.05;
+                    break;
+                case 2:
+                    coordinates[i] = -0.0;
+                    break;
+                default:
+                    coordinates[i] = (rnd.nextDouble() - 0.3)*Math.pow(10, rnd.nextInt(7) - 3);
+                    break;
+            }
+        }
+        return coordinates;
+    }
+
+    /**
+     * Tests that the compiled template renders exactly the same Gcode as the regex based
+     * substitution.
+     */
+    @Test
+    public void testTemplateEquivalence() {
+        GcodeTemplate template = new GcodeTemplate(moveToCommand);
+        Assert.assertTrue(template.hasVariable("XJerk"));
+        Assert.assertFalse(template.hasVariable("C"));
+        StringBuilder sb = new StringBuilder();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double[] coordinates = randomMove(rnd);
+            Double feedRate = rnd.nextBoolean() ? null : rnd.nextDouble()*10000;
+            Assert.assertEquals(renderLegacy(coordinates, feedRate),
+                    renderTemplate(template, sb, coordinates, feedRate));
+        }
+    }
+
+    /**
+     * Simple benchmark of the regex based substitution against the compiled template.
+     */
+    @Test
+    public void testTemplatePerformance() {
+        final int moves = 20000;
+        Random rnd = new Random(42);
+        double[][] coordinates = new double[moves][];
+        for (int i = 0; i < moves; i++) {
+            coordinates[i] = randomMove(rnd);
+        }
+        GcodeTemplate template = new GcodeTemplate(moveToCommand);
+        StringBuilder sb = new StringBuilder();
+        long checksum = 0;
+        // Warm-up both paths.
+        for (int i = 0; i < moves/10; i++) {
+            checksum += renderLegacy(coordinates[i], 1000.0).length();
+            checksum += renderTemplate(template, sb, coordinates[i], 1000.0).length();
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            checksum += renderLegacy(coordinates[i], 1000.0).length();
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            checksum += renderTemplate(template, sb, coordinates[i], 1000.0).length();
+        }
+        long t2 = System.nanoTime();
+        System.out.println("GcodeTemplateTest.testTemplatePerformance() "+moves+" moves, regex substitution: "
+                +String.format("%.1f", (t1 - t0)*1e-6)+"ms, compiled template: "
+                +String.format("%.1f", (t2 - t1)*1e-6)+"ms, checksum: "+checksum);
+    }
+}
@@ -0,0 +1,212 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.util.OpenCvUtils;
+
+public class MatMaximaTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    private enum State {
+        BEFORE_INFLECTION,
+        AFTER_INFLECTION
+    }
+
+    static Mat createMatchMap(int size, long seed) {
+        Random random = new Random(seed);
+        Mat image = new Mat(size + 31, size + 31, CvType.CV_8UC1, new Scalar(0));
+        for (int i = 0; i < size/4; i++) {
+            Imgproc.circle(image, new org.opencv.core.Point(random.nextInt(image.cols()), 
+                    random.nextInt(image.rows())), 3 + random.nextInt(12), 
+                    new Scalar(64 + random.nextInt(192)), -1);
+        }
+        Mat template = new Mat(32, 32, CvType.CV_8UC1, new Scalar(0));
+        Imgproc.circle(template, new org.opencv.core.Point(16, 16), 10, new Scalar(255), -1);
+        Mat result = new Mat();
+        Imgproc.matchTemplate(image, template, result, Imgproc.TM_CCOEFF_NORMED);
+        image.release();
+        template.release();
+        return result;
+    }
+
+    /**
+     * Tests that the maxima and their order are the same as with the original implementation, 
+     * for real match maps, for maps with plateaus and for other mat types.
+     */
+    @Test
+    public void testEquivalence() {
+        for (int seed = 0; seed < 5; seed++) {
+            Mat map = createMatchMap(200 + seed*17, seed);
+            assertEquivalent(map, 0.3, Double.MAX_VALUE);
+            assertEquivalent(map, -1, 0.8);
+
+            // Quantized values give lots of plateaus and equal neighbours.
+            Mat quantized = new Mat();
+            map.convertTo(quantized, CvType.CV_8U, 8, 8);
+            assertEquivalent(quantized, 10, 255);
+            Mat quantizedFloat = new Mat();
+            quantized.convertTo(quantizedFloat, CvType.CV_32F);
+            assertEquivalent(quantizedFloat, 10, 255);
+
+            // Non continuous.
+            Mat submat = map.submat(3, map.rows() - 5, 7, map.cols() - 2);
+            assertEquivalent(submat, 0.2, 1);
+
+            map.release();
+            quantized.release();
+            quantizedFloat.release();
+        }
+        Mat small = new Mat(3, 3, CvType.CV_32F, new Scalar(0));
+        small.put(1, 1, 1.0);
+        assertEquivalent(small, 0.5, 1);
+        Assert.assertEquals(1, OpenCvUtils.matMaxima(small, 0.5, 1).size());
+    }
+
+    private static void assertEquivalent(Mat map, double rangeMin, double rangeMax) {
+        List<Point> expected = matMaximaReference(map, rangeMin, rangeMax);
+        List<Point> actual = OpenCvUtils.matMaxima(map, rangeMin, rangeMax);
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Simple benchmark of the original against the new implementation on a 1000x1000 match map.
+     */
+    @Test
+    public void testPerformance() {
+        Mat map = createMatchMap(1000, 42);
+        long t0 = 0, t1 = 0, t2 = 0;
+        int n = 5;
+        int found = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                found = matMaximaReference(map, 0.3, Double.MAX_VALUE).size();
+            }
+            t1 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(found, OpenCvUtils.matMaxima(map, 0.3, Double.MAX_VALUE).size());
+            }
+            t2 = System.nanoTime();
+        }
+        System.out.println("MatMaximaTest.testPerformance() "+map.cols()+"x"+map.rows()+", "+found+" maxima, original "
+                +String.format("%.2f", (t1 - t0)*1e-6/n)+"ms, new "+String.format("%.2f", (t2 - t1)*1e-6/n)+"ms");
+        map.release();
+    }
+
+    /**
+     * The original implementation of OpenCvUtils.matMaxima(), accessing each pixel through the JNI.
+     */
+    static List<java.awt.Point> matMaximaReference(Mat mat, double rangeMin, double rangeMax) {
+        List<java.awt.Point> locations = new ArrayList<>();
+
+        int rEnd = mat.rows() - 1;
+        int cEnd = mat.cols() - 1;
+
+        // CHECK EACH ROW MAXIMA FOR LOCAL 2D MAXIMA
+        for (int r = 0; r <= rEnd; r++) {
+            State state = State.BEFORE_INFLECTION;
+            double curVal = mat.get(r, 0)[0];
+            for (int c = 1; c <= cEnd; c++) {
+                double val = mat.get(r, c)[0];
+
+                if (val == curVal) {
+                    continue;
+                }
+                else if (curVal < val) {
+                    if (state == State.BEFORE_INFLECTION) {
+                        // n/a
+                    }
+                    else {
+                        state = State.BEFORE_INFLECTION;
+                    }
+                }
+                else { // curVal > val
+                    if (state == State.BEFORE_INFLECTION) {
+                        if (rangeMin <= curVal && curVal <= rangeMax) { // ROW
+                                                                        // MAXIMA
+                            if (0 < r && (mat.get(r - 1, c - 1)[0] >= curVal
+                                    || mat.get(r - 1, c)[0] >= curVal)) {
+                                // cout << "reject:r-1 " << r << "," << c-1 <<
+                                // endl;
+                                // - x x
+                                // - - -
+                                // - - -
+                            }
+                            else if (r < rEnd && (mat.get(r + 1, c - 1)[0] > curVal
+                                    || mat.get(r + 1, c)[0] > curVal)) {
+                                // cout << "reject:r+1 " << r << "," << c-1 <<
+                                // endl;
+                                // - - -
+                                // - - -
+                                // - x x
+                            }
+                            else if (1 < c && (0 < r && mat.get(r - 1, c - 2)[0] >= curVal
+                                    || mat.get(r, c - 2)[0] > curVal
+                                    || r < rEnd && mat.get(r + 1, c - 2)[0] > curVal)) {
+                                // cout << "reject:c-2 " << r << "," << c-1 <<
+                                // endl;
+                                // x - -
+                                // x - -
+                                // x - -
+                            }
+                            else {
+                                locations.add(new java.awt.Point(c - 1, r));
+                            }
+                        }
+                        state = State.AFTER_INFLECTION;
+                    }
+                    else {
+                        // n/a
+                    }
+                }
+
+                curVal = val;
+            }
+
+            // PROCESS END OF ROW
+            if (state == State.BEFORE_INFLECTION) {
+                if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
+                    if (0 < r && (mat.get(r - 1, cEnd - 1)[0] >= curVal
+                            || mat.get(r - 1, cEnd)[0] >= curVal)) {
+                        // cout << "rejectEnd:r-1 " << r << "," << cEnd-1 <<
+                        // endl;
+                        // - x x
+                        // - - -
+                        // - - -
+                    }
+                    else if (r < rEnd && (mat.get(r + 1, cEnd - 1)[0] > curVal
+                            || mat.get(r + 1, cEnd)[0] > curVal)) {
+                        // cout << "rejectEnd:r+1 " << r << "," << cEnd-1 <<
+                        // endl;
+                        // - - -
+                        // - - -
+                        // - x x
+                    }
+                    else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal
+                            || mat.get(r, cEnd - 2)[0] > curVal
+                            || r < rEnd && mat.get(r + 1, cEnd - 2)[0] > curVal) {
+                        // cout << "rejectEnd:cEnd-2 " << r << "," << cEnd-1 <<
+                        // endl;
+                        // x - -
+                        // x - -
+                        // x - -
+                    }
+                    else {
+                        locations.add(new java.awt.Point(cEnd, r));
+                    }
+                }
+            }
+        }
+
+        return locations;
+    } 
+}
@@ -0,0 +1,124 @@
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.CvStage.Result.TemplateMatch;
+import org.openpnp.vision.pipeline.stages.MatchTemplate;
+
+public class MatchTemplatePyramidTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    /**
+     * Provides a fixed image, like an ImageCapture or ImageRead stage would.
+     */
+    static class ImageStage extends CvStage {
+        final Mat image;
+
+        ImageStage(Mat image) {
+            this.image = image;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(image.clone());
+        }
+    }
+
+    static Mat createTemplate() {
+        Mat template = new Mat(64, 96, CvType.CV_8UC3, new Scalar(40, 40, 40));
+        Imgproc.rectangle(template, new Point(8, 8), new Point(30, 56), new Scalar(200, 200, 200), -1);
+        Imgproc.rectangle(template, new Point(66, 8), new Point(88, 56), new Scalar(200, 200, 200), -1);
+        Imgproc.circle(template, new Point(48, 32), 6, new Scalar(120, 120, 120), -1);
+        return template;
+    }
+
+    static Mat createImage(Mat template, int width, int height, Point... locations) {
+        Random random = new Random(1);
+        Mat image = new Mat(height, width, CvType.CV_8UC3, new Scalar(40, 40, 40));
+        // clutter
+        for (int i = 0; i < 60; i++) {
+            Imgproc.circle(image, new Point(random.nextInt(width), random.nextInt(height)), 
+                    5 + random.nextInt(20), new Scalar(random.nextInt(255), random.nextInt(255), random.nextInt(255)), -1);
+        }
+        for (Point location : locations) {
+            template.copyTo(image.submat((int) location.y, (int) location.y + template.rows(), 
+                    (int) location.x, (int) location.x + template.cols()));
+        }
+        return image;
+    }
+
+    static CvPipeline createPipeline(Mat image, Mat template, int pyramidLevels) {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("template", new ImageStage(template));
+        pipeline.add("image", new ImageStage(image));
+        MatchTemplate match = new MatchTemplate();
+        match.setTemplateStageName("template");
+        match.setPyramidLevels(pyramidLevels);
+        match.setNormalize(false);
+        match.setCorr(0.5);
+        pipeline.add("match", match);
+        return pipeline;
+    }
+
+    /**
+     * Tests that the pyramid search finds the same matches with the same scores as the full resolution 
+     * search, and compares the timing.
+     */
+    @Test
+    public void testPyramidEquivalence() {
+        Mat template = createTemplate();
+        Mat image = createImage(template, 1920, 1080, new Point(100, 200), new Point(1403, 777), 
+                new Point(901, 55));
+        CvPipeline full = createPipeline(image, template, 0);
+        CvPipeline pyramid = createPipeline(image, template, 2);
+        int n = 5;
+        long tFull = 0;
+        long tPyramid = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                full.process();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                pyramid.process();
+            }
+            long t2 = System.nanoTime();
+            tFull = t1 - t0;
+            tPyramid = t2 - t1;
+        }
+        @SuppressWarnings("unchecked")
+        List<TemplateMatch> fullMatches = (List<TemplateMatch>) full.getResult("match").model;
+        @SuppressWarnings("unchecked")
+        List<TemplateMatch> pyramidMatches = (List<TemplateMatch>) pyramid.getResult("match").model;
+        Assert.assertEquals(3, fullMatches.size());
+        Assert.assertEquals(fullMatches.size(), pyramidMatches.size());
+        // the matches have practically equal scores, compare them in position order
+        Comparator<TemplateMatch> byPosition = Comparator.comparingDouble((TemplateMatch m) -> m.y)
+                .thenComparingDouble(m -> m.x);
+        fullMatches.sort(byPosition);
+        pyramidMatches.sort(byPosition);
+        for (int i = 0; i < fullMatches.size(); i++) {
+            Assert.assertEquals(fullMatches.get(i).x, pyramidMatches.get(i).x, 0.0);
+            Assert.assertEquals(fullMatches.get(i).y, pyramidMatches.get(i).y, 0.0);
+            Assert.assertEquals(fullMatches.get(i).score, pyramidMatches.get(i).score, 1e-4);
+        }
+        System.out.println("MatchTemplatePyramidTest.testPyramidEquivalence() full "
+                +String.format("%.2f", tFull*1e-6/n)+"ms, pyramid "+String.format("%.2f", tPyramid*1e-6/n)+"ms");
+        full.release();
+        pyramid.release();
+        image.release();
+        template.release();
+    }
+}
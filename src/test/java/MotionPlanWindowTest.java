@@ -0,0 +1,150 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.driver.ReferenceAdvancedMotionPlanner;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Location;
+import org.openpnp.model.Motion;
+import org.openpnp.spi.MotionPlanner.CompletionType;
+import org.openpnp.spi.Nozzle;
+
+import com.google.common.io.Files;
+
+public class MotionPlanWindowTest {
+    /**
+     * Records the windows the execution plan is cut into, and the motions as they were planned.
+     */
+    static class RecordingMotionPlanner extends ReferenceAdvancedMotionPlanner {
+        List<Integer> windowSizes = new ArrayList<>();
+        List<Motion> plannedMotions = new ArrayList<>();
+
+        @Override
+        protected void optimizeExecutionPlan(List<Motion> executionPlan, CompletionType completionType)
+                throws Exception {
+            super.optimizeExecutionPlan(executionPlan, completionType);
+            windowSizes.add(executionPlan.size());
+            plannedMotions.addAll(executionPlan);
+        }
+
+        void reset() {
+            windowSizes.clear();
+            plannedMotions.clear();
+        }
+
+        int stablePlanEnd(List<Motion> executionPlan, int from) {
+            return getStablePlanEnd(executionPlan, from);
+        }
+    }
+
+    RecordingMotionPlanner planner;
+    Nozzle nozzle;
+    Location start;
+
+    void setUpMachine() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/SampleJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        ReferenceMachine machine = (ReferenceMachine) Configuration.get().getMachine();
+        planner = new RecordingMotionPlanner();
+        planner.setAllowContinuousMotion(true);
+        machine.setMotionPlanner(planner);
+        machine.setEnabled(true);
+        machine.home();
+        nozzle = machine.getDefaultHead().getDefaultNozzle();
+        start = nozzle.getLocation().derive(100.0, 100.0, null, 0.0);
+    }
+
+    /**
+     * Moves along a path with co-linear stretches, where the planner blends the motions, and corners, where the
+     * machine comes to a still-stand.
+     *
+     * @return The number of motions.
+     */
+    int movePath() throws Exception {
+        // Start from a still-stand, not recorded.
+        nozzle.moveTo(start);
+        planner.waitForCompletion(null, CompletionType.WaitForStillstand);
+        planner.reset();
+        double[][] path = new double[][] {
+            { 110, 100 }, { 120, 100 }, { 130, 100 },   // co-linear in X
+            { 130, 110 }, { 130, 120 },                 // corner, then co-linear in Y
+            { 140, 130 }, { 150, 140 }, { 160, 150 },   // corner, then co-linear diagonal
+            { 100, 100 },                               // corner back to the start
+        };
+        for (double[] xy : path) {
+            nozzle.moveTo(start.derive(xy[0], xy[1], null, null));
+        }
+        planner.waitForCompletion(null, CompletionType.WaitForStillstand);
+        return path.length;
+    }
+
+    @Test
+    public void testWindowsEndAtJunctions() throws Exception {
+        setUpMachine();
+        // By default, the whole sequence is planned at once.
+        Assert.assertEquals(0, planner.getMaximumLookAhead());
+        int count = movePath();
+        Assert.assertEquals(1, planner.windowSizes.size());
+        Assert.assertEquals(count, planner.plannedMotions.size());
+        Assert.assertTrue(planner.getLastPlanningIdleTime() >= 0);
+        List<Motion> unwindowed = new ArrayList<>(planner.plannedMotions);
+
+        // The windows must end exactly at the corners.
+        planner.setMaximumLookAhead(100);
+        Assert.assertEquals(3, planner.stablePlanEnd(unwindowed, 0));
+        Assert.assertEquals(5, planner.stablePlanEnd(unwindowed, 3));
+        Assert.assertEquals(8, planner.stablePlanEnd(unwindowed, 5));
+        Assert.assertEquals(9, planner.stablePlanEnd(unwindowed, 8));
+        // Without a junction in reach, the window is cut at the maximum look-ahead.
+        planner.setMaximumLookAhead(2);
+        Assert.assertEquals(2, planner.stablePlanEnd(unwindowed, 0));
+        Assert.assertEquals(7, planner.stablePlanEnd(unwindowed, 5));
+
+        // With enough look-ahead to span the co-linear stretches, the windows end at the corners, where the machine
+        // comes to a still-stand anyway. The executed plan is the same as without windows.
+        planner.setMaximumLookAhead(4);
+        movePath();
+        Assert.assertEquals(Arrays.asList(3, 2, 3, 1), planner.windowSizes);
+        assertSamePlan(unwindowed, planner.plannedMotions, true);
+
+        // With less look-ahead, the co-linear stretches are cut and the machine is forced to a still-stand, which
+        // takes longer, but it still executes the same sequence.
+        planner.setMaximumLookAhead(2);
+        movePath();
+        for (int size : planner.windowSizes) {
+            Assert.assertTrue(size <= 2);
+        }
+        assertSamePlan(unwindowed, planner.plannedMotions, false);
+        Assert.assertTrue(totalTime(planner.plannedMotions) > totalTime(unwindowed) + 1e-3);
+    }
+
+    static void assertSamePlan(List<Motion> expected, List<Motion> actual, boolean sameTiming) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertTrue("motion " + i + " target",
+                    expected.get(i).getLocation1().matches(actual.get(i).getLocation1()));
+            if (sameTiming) {
+                Assert.assertEquals("motion " + i + " time", expected.get(i).getTime(), actual.get(i).getTime(),
+                        1e-6);
+            }
+        }
+    }
+
+    static double totalTime(List<Motion> motions) {
+        double time = 0;
+        for (Motion motion : motions) {
+            time += motion.getTime();
+        }
+        return time;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.MotionProfile;
+import org.openpnp.model.MotionProfile.ProfileOption;
+
+public class MotionProfileTest {
+    static final int axes = 3;
+
+    static MotionProfile[] randomProfiles(Random rnd, int options) {
+        MotionProfile[] profiles = new MotionProfile[axes];
+        for (int i = 0; i < axes; i++) {
+            double s0 = rnd.nextDouble()*400;
+            double s1 = (i == axes - 1 && rnd.nextBoolean()) ? s0 : rnd.nextDouble()*400;
+            profiles[i] = new MotionProfile(
+                    s0, s1, 0, 0, 0, 0,
+                    0, 400, 500 + 200*i, 2000, 2000, 15000 + 5000*i, 0, Double.POSITIVE_INFINITY, options);
+        }
+        return profiles;
+    }
+
+    static MotionProfile[] copy(MotionProfile[] profiles) {
+        MotionProfile[] copy = new MotionProfile[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            copy[i] = new MotionProfile(profiles[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Tests that the primitive momentary evaluation and crossing time solver are consistent.
+     */
+    @Test
+    public void testMomentaryAndCrossing() {
+        Random rnd = new Random(42);
+        for (int k = 0; k < 200; k++) {
+            MotionProfile profile = randomProfiles(rnd, 0)[0];
+            profile.solve();
+            double time = profile.getTime();
+            Assert.assertEquals(profile.getLocation(0), profile.getMomentaryLocation(0), 1e-9);
+            Assert.assertEquals(profile.getLocation(MotionProfile.segments), profile.getMomentaryLocation(time), 1e-9);
+            double sHalf = profile.getMomentaryLocation(time*0.5);
+            if (Math.abs(profile.getLocation(MotionProfile.segments) - profile.getLocation(0)) > 1) {
+                double tCross = profile.getForwardCrossingTime(sHalf, false);
+                Assert.assertFalse(Double.isNaN(tCross));
+                Assert.assertEquals(sHalf, profile.getMomentaryLocation(tCross), 1e-3);
+                double tBackward = profile.getBackwardCrossingTime(sHalf, false);
+                Assert.assertEquals(tCross, tBackward, 1e-3);
+            }
+            // Velocity is the derivative of location.
+            double t = time*rnd.nextDouble();
+            double dt = 1e-6;
+            Assert.assertEquals(profile.getMomentaryVelocity(t),
+                    (profile.getMomentaryLocation(t + dt) - profile.getMomentaryLocation(t - dt))/(2*dt), 1e-2);
+        }
+    }
+
+    /**
+     * Tests that a location that is not crossed yields NaN, and that it cannot silently be used to cut a profile.
+     */
+    @Test
+    public void testNotCrossed() {
+        MotionProfile profile = new MotionProfile(10, 100, 0, 0, 0, 0,
+                0, 400, 500, 2000, 2000, 15000, 0, Double.POSITIVE_INFINITY, 0);
+        profile.solve();
+        Assert.assertTrue(Double.isNaN(profile.getForwardCrossingTime(200, false)));
+        Assert.assertTrue(Double.isNaN(profile.getBackwardCrossingTime(5, false)));
+        MotionProfile section = new MotionProfile(20, 90, 0, 0, 0, 0,
+                0, 400, 500, 2000, 2000, 15000, 0, Double.POSITIVE_INFINITY, 0);
+        try {
+            section.extractProfileSectionFrom(profile, profile.getForwardCrossingTime(20, false), 
+                    profile.getForwardCrossingTime(200, false));
+            Assert.fail("NaN crossing time accepted");
+        }
+        catch (IllegalArgumentException e) {
+        }
+        section.extractProfileSectionFrom(profile, profile.getForwardCrossingTime(20, false), 
+                profile.getForwardCrossingTime(90, false));
+        Assert.assertEquals(90, section.getMomentaryLocation(section.getTime()), 1e-3);
+    }
+
+    /**
+     * Simple throughput and allocation benchmark of the MotionProfile hot paths.
+     */
+    @Test
+    public void testMotionProfilePerformance() {
+        Random rnd = new Random(42);
+        final int n = 200;
+        MotionProfile[][] unsolved = new MotionProfile[n][];
+        MotionProfile[][] solved = new MotionProfile[n][];
+        for (int i = 0; i < n; i++) {
+            unsolved[i] = randomProfiles(rnd, ProfileOption.SynchronizeStraighten.flag());
+            solved[i] = copy(unsolved[i]);
+            for (MotionProfile profile : solved[i]) {
+                profile.solve();
+            }
+        }
+        final int warmups = n*10;
+        final int count = n*10;
+        String name = "MotionProfileTest.testMotionProfilePerformance() ";
+        // Formerly 291.6KB, 104.6KB and 1492KB per op, now about 2.6KB, 3.4KB and 12.5KB, most of which is copying 
+        // the profiles.
+        AllocationBenchmark.run(name+"solve", warmups, count, 4000,
+                (i) -> {
+                    MotionProfile profile = new MotionProfile(unsolved[i % n][0]);
+                    profile.solve();
+                    return profile.getTime();
+                });
+        AllocationBenchmark.run(name+"coordinateProfiles", warmups, count, 5000,
+                (i) -> {
+                    MotionProfile[] copy = copy(unsolved[i % n]);
+                    MotionProfile.coordinateProfiles(copy);
+                    return copy[0].getTime();
+                });
+        AllocationBenchmark.run(name+"synchronizeProfiles", warmups, count, 20000,
+                (i) -> {
+                    MotionProfile[] copy = copy(unsolved[i % n]);
+                    MotionProfile.synchronizeProfiles(copy);
+                    return copy[0].getTime();
+                });
+        // Sampling and crossing times must not allocate per evaluation. As an op takes many 1ms samples or nine 
+        // crossings, a single object per evaluation would exceed the bound, while it leaves room for JVM dependent 
+        // accounting noise.
+        AllocationBenchmark.run(name+"momentary 1ms sampling", warmups, count, 64,
+                (i) -> {
+                    double sum = 0;
+                    MotionProfile profile = solvedProfile(solved[i % n]);
+                    for (double t = 0; t < profile.getTime(); t += 0.001) {
+                        sum += profile.getMomentaryLocation(t) + profile.getMomentaryVelocity(t)
+                                + profile.getMomentaryAcceleration(t) + profile.getMomentaryJerk(t);
+                    }
+                    return sum;
+                });
+        AllocationBenchmark.run(name+"crossing time", warmups, count, 64,
+                (i) -> {
+                    double sum = 0;
+                    MotionProfile profile = solvedProfile(solved[i % n]);
+                    double s0 = profile.getLocation(0);
+                    double s1 = profile.getLocation(MotionProfile.segments);
+                    for (int k = 1; k < 10; k++) {
+                        double t = profile.getForwardCrossingTime(s0 + (s1 - s0)*k*0.1, false);
+                        if (!Double.isNaN(t)) {
+                            sum += t;
+                        }
+                    }
+                    return sum;
+                });
+    }
+
+    static MotionProfile solvedProfile(MotionProfile[] profiles) {
+        MotionProfile lead = profiles[0];
+        for (MotionProfile profile : profiles) {
+            if (profile.getTime() > lead.getTime()) {
+                lead = profile;
+            }
+        }
+        return lead;
+    }
+}
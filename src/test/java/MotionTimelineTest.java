@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.axis.ReferenceControllerAxis;
+import org.openpnp.machine.reference.driver.NullDriver;
+import org.openpnp.model.AxesLocation;
+import org.openpnp.model.Motion;
+import org.openpnp.model.Motion.MotionOption;
+import org.openpnp.model.MotionTimeline;
+import org.openpnp.spi.Axis;
+
+public class MotionTimelineTest {
+    NullDriver driver = new NullDriver();
+    ReferenceControllerAxis axisX = axis("X", Axis.Type.X);
+    ReferenceControllerAxis axisY = axis("Y", Axis.Type.Y);
+    ReferenceControllerAxis axisZ = axis("Z", Axis.Type.Z);
+
+    ReferenceControllerAxis axis(String letter, Axis.Type type) {
+        ReferenceControllerAxis axis = new ReferenceControllerAxis();
+        axis.setName(letter);
+        axis.setLetter(letter);
+        axis.setType(type);
+        axis.setDriver(driver);
+        return axis;
+    }
+
+    /**
+     * A still-standing motion ending at the given time, with the X coordinate set to the time, so lookups can be
+     * checked against it.
+     */
+    Motion motion(double time) {
+        AxesLocation location = new AxesLocation(axisX, time);
+        Motion motion = new Motion(null, location, location, 1.0, MotionOption.Stillstand);
+        motion.setPlannedTime1(time);
+        return motion;
+    }
+
+    static double timeOf(Motion motion) {
+        return motion == null ? Double.NaN : motion.getPlannedTime1();
+    }
+
+    @Test
+    public void testLookupAtAndBetweenBoundaries() {
+        MotionTimeline timeline = new MotionTimeline(10, 1000);
+        Assert.assertTrue(timeline.getSnapshot().isEmpty());
+        Assert.assertNull(timeline.getSnapshot().getMotionAt(0));
+        Assert.assertNull(timeline.getSnapshot().getLastMotion());
+        for (int i = 1; i <= 5; i++) {
+            timeline.add(motion(i));
+        }
+        MotionTimeline.Snapshot snapshot = timeline.getSnapshot();
+        Assert.assertEquals(5, snapshot.size());
+        Assert.assertEquals(1.0, snapshot.getFirstTime(), 0);
+        Assert.assertEquals(5.0, snapshot.getLastTime(), 0);
+        Assert.assertEquals(5.0, timeOf(snapshot.getLastMotion()), 0);
+        // Before the first motion, it is the first.
+        Assert.assertEquals(1.0, timeOf(snapshot.getMotionAt(-10)), 0);
+        // Between boundaries, it is the one ongoing.
+        Assert.assertEquals(3.0, timeOf(snapshot.getMotionAt(2.5)), 0);
+        // Exactly at the boundary, the motion ending there is over, it is the next one.
+        Assert.assertEquals(3.0, timeOf(snapshot.getMotionAt(2.0)), 0);
+        Assert.assertEquals(2.0, timeOf(snapshot.getMotionAt(Math.nextDown(2.0))), 0);
+        // At and after the end of the last motion, there is none.
+        Assert.assertNull(snapshot.getMotionAt(5.0));
+        Assert.assertNull(snapshot.getMotionAt(100.0));
+        // Times must be increasing.
+        try {
+            timeline.add(motion(5.0));
+            Assert.fail("same time accepted");
+        }
+        catch (IllegalArgumentException e) {
+        }
+        Assert.assertEquals(5, timeline.getSnapshot().size());
+
+        timeline.clearOlderThan(3.0);
+        Assert.assertEquals(3, timeline.getSnapshot().size());
+        Assert.assertEquals(3.0, timeline.getSnapshot().getFirstTime(), 0);
+        // The old snapshot is unchanged.
+        Assert.assertEquals(5, snapshot.size());
+        Assert.assertEquals(1.0, timeOf(snapshot.getMotionAt(0)), 0);
+
+        timeline.clear();
+        Assert.assertTrue(timeline.getSnapshot().isEmpty());
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, timeline.getSnapshot().getLastTime(), 0);
+        Assert.assertEquals(5, snapshot.size());
+    }
+
+    @Test
+    public void testEvictionAtCapacity() {
+        final int capacity = 7;
+        MotionTimeline timeline = new MotionTimeline(capacity, 1000);
+        for (int i = 1; i <= 100; i++) {
+            timeline.add(motion(i));
+            MotionTimeline.Snapshot snapshot = timeline.getSnapshot();
+            Assert.assertEquals(Math.min(i, capacity), snapshot.size());
+            Assert.assertEquals(i, snapshot.getLastTime(), 0);
+            Assert.assertEquals(Math.max(1, i - capacity + 1), snapshot.getFirstTime(), 0);
+            // Evicted motions are gone, lookups before the window return the oldest retained one.
+            Assert.assertEquals(snapshot.getFirstTime(), timeOf(snapshot.getMotionAt(0)), 0);
+        }
+    }
+
+    @Test
+    public void testEvictionByHorizon() {
+        MotionTimeline timeline = new MotionTimeline(100, 10);
+        for (int i = 1; i <= 50; i++) {
+            timeline.add(motion(i));
+        }
+        // Motions that ended the horizon or more before the newest one starts are gone.
+        MotionTimeline.Snapshot snapshot = timeline.getSnapshot();
+        Assert.assertEquals(41.0, snapshot.getFirstTime(), 0);
+        Assert.assertEquals(10, snapshot.size());
+    }
+
+    /**
+     * Holds snapshots taken before many appends, which evict and compact the timeline several times over. The old
+     * snapshots must still return what they returned when they were taken.
+     */
+    @Test
+    public void testCompactionKeepsOldSnapshots() {
+        final int capacity = 5;
+        MotionTimeline timeline = new MotionTimeline(capacity, 1000);
+        List<MotionTimeline.Snapshot> snapshots = new ArrayList<>();
+        List<double[]> expected = new ArrayList<>();
+        for (int i = 1; i <= 10*capacity; i++) {
+            timeline.add(motion(i));
+            MotionTimeline.Snapshot snapshot = timeline.getSnapshot();
+            snapshots.add(snapshot);
+            double[] times = new double[i + 2];
+            for (int t = 0; t < times.length; t++) {
+                times[t] = timeOf(snapshot.getMotionAt(t + 0.5));
+            }
+            expected.add(times);
+        }
+        for (int s = 0; s < snapshots.size(); s++) {
+            double[] times = expected.get(s);
+            for (int t = 0; t < times.length; t++) {
+                Assert.assertEquals("snapshot " + s + " at " + (t + 0.5), times[t],
+                        timeOf(snapshots.get(s).getMotionAt(t + 0.5)), 0);
+            }
+        }
+    }
+
+    /**
+     * Same as above, but with a reader searching the snapshots concurrently, while the timeline is appended to and
+     * compacted. Each motion found must be the one ongoing at the time and its coordinate must match.
+     */
+    @Test
+    public void testConcurrentSearchWhileCompacting() throws Exception {
+        final int capacity = 16;
+        final int count = 200000;
+        MotionTimeline timeline = new MotionTimeline(capacity, 1000);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Throwable> errors = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            try {
+                long searches = 0;
+                while (!done.get() || searches == 0) {
+                    MotionTimeline.Snapshot snapshot = timeline.getSnapshot();
+                    if (snapshot.isEmpty()) {
+                        continue;
+                    }
+                    double first = snapshot.getFirstTime();
+                    double last = snapshot.getLastTime();
+                    // Search several times on the same snapshot, while the writer goes on.
+                    for (double time = first - 1.5; time < last + 1; time += 1.0) {
+                        Motion motion = snapshot.getMotionAt(time);
+                        if (time >= last) {
+                            Assert.assertNull(motion);
+                        }
+                        else {
+                            double expected = Math.max(first, Math.floor(time) + 1);
+                            Assert.assertEquals(expected, timeOf(motion), 0);
+                            Assert.assertEquals(expected, motion.getLocation1().getCoordinate(axisX), 0);
+                        }
+                        searches++;
+                    }
+                }
+            }
+            catch (Throwable e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= count; i++) {
+            timeline.add(motion(i));
+        }
+        done.set(true);
+        reader.join(10000);
+        Assert.assertFalse(reader.isAlive());
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        Assert.assertEquals(capacity, timeline.getSnapshot().size());
+    }
+
+    /**
+     * Axes that are not in the target location are not part of the motion. They stay put at their start location,
+     * if it is known, otherwise the coordinate is unknown.
+     */
+    @Test
+    public void testMomentaryCoordinateOfAxesNotMoved() {
+        AxesLocation location0 = new AxesLocation(axisX, 0.0)
+                .put(new AxesLocation(axisY, 5.0));
+        AxesLocation location1 = new AxesLocation(axisX, 10.0);
+        Motion motion = new Motion(null, location0, location1, 1.0);
+        double time = motion.getTime();
+        Assert.assertTrue(time > 0);
+        Assert.assertEquals(0.0, motion.getMomentaryCoordinate(axisX, 0), 1e-6);
+        Assert.assertEquals(10.0, motion.getMomentaryCoordinate(axisX, time), 1e-6);
+        double middle = motion.getMomentaryCoordinate(axisX, time/2);
+        Assert.assertTrue(middle > 0 && middle < 10);
+        for (double t = 0; t <= time; t += time/4) {
+            Assert.assertEquals(5.0, motion.getMomentaryCoordinate(axisY, t), 0);
+            Assert.assertTrue(Double.isNaN(motion.getMomentaryCoordinate(axisZ, t)));
+        }
+    }
+}
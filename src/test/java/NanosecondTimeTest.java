@@ -0,0 +1,30 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.util.NanosecondTime;
+
+public class NanosecondTimeTest {
+    /**
+     * With the virtual clock, sleep() skips ahead. Once it is switched off, the skipped time stays added, so the 
+     * runtime never goes back.
+     */
+    @Test
+    public void testVirtualClockSkip() throws Exception {
+        Assert.assertFalse(NanosecondTime.isVirtualClock());
+        long skipped0 = NanosecondTime.getSkippedNanoseconds();
+        long runtime0 = NanosecondTime.getRuntime();
+        NanosecondTime.setVirtualClock(true);
+        try {
+            NanosecondTime.sleep(200);
+            NanosecondTime.sleep(0);
+            NanosecondTime.sleep(-1);
+        }
+        finally {
+            NanosecondTime.setVirtualClock(false);
+        }
+        Assert.assertEquals(200000000L, NanosecondTime.getSkippedNanoseconds() - skipped0);
+        long runtime1 = NanosecondTime.getRuntime();
+        Assert.assertTrue(runtime1 - runtime0 >= 200000000L);
+        Assert.assertTrue(NanosecondTime.getRuntime() > runtime1);
+        Assert.assertEquals(200000000L, NanosecondTime.getSkippedNanoseconds() - skipped0);
+    }
+}
@@ -0,0 +1,374 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openpnp.machine.reference.OptimizingPnpJobPlanner;
+import org.openpnp.machine.reference.ReferenceHead;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferenceNozzleTip;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.FeederSelection;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.SimplePnpJobPlanner;
+import org.openpnp.machine.reference.feeder.ReferenceTubeFeeder;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Package;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PnpJobPlanner;
+import org.openpnp.spi.PnpJobPlanner.PlannedPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+
+import com.google.common.io.Files;
+
+/**
+ * Offline benchmark of the job planners on the sample jobs. The sample machine is given a simulated
+ * head with four nozzles and three nozzle tips, and the parts are spread over packages with different
+ * nozzle tips and part heights, so the planners have something to optimize.
+ */
+public class OptimizingPnpJobPlannerTest {
+    static final Pattern partIdPattern = Pattern.compile("part-id=\"([^\"]*)\"");
+
+    /**
+     * A nozzle whose nozzle tip can be changed without a machine.
+     */
+    static class SimulatedNozzle extends ReferenceNozzle {
+        SimulatedNozzle(String id) {
+            super(id);
+            setName(id);
+        }
+
+        void setSimulatedNozzleTip(NozzleTip nozzleTip) {
+            this.nozzleTip = (ReferenceNozzleTip) nozzleTip;
+        }
+    }
+
+    static class Result {
+        int cycles;
+        int placements;
+        int nozzleTipChanges;
+        double travel;
+
+        @Override
+        public String toString() {
+            return String.format("%d placements in %d cycles, %d nozzle tip changes, travel %.0f mm",
+                    placements, cycles, nozzleTipChanges, travel);
+        }
+    }
+
+    static Machine machine;
+    static ReferenceHead head;
+    static List<NozzleTip> nozzleTips = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/SampleJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        machine = Configuration.get().getMachine();
+
+        nozzleTips.addAll(machine.getNozzleTips());
+        for (int i = nozzleTips.size(); i < 3; i++) {
+            ReferenceNozzleTip nozzleTip = new ReferenceNozzleTip();
+            nozzleTip.setName("PLAN-NT" + (i + 1));
+            machine.addNozzleTip(nozzleTip);
+            nozzleTips.add(nozzleTip);
+        }
+        head = new ReferenceHead();
+        head.setMachine(machine);
+        for (int i = 1; i <= 4; i++) {
+            SimulatedNozzle nozzle = new SimulatedNozzle("PLAN-N" + i);
+            for (NozzleTip nozzleTip : nozzleTips) {
+                nozzle.addCompatibleNozzleTip(nozzleTip);
+            }
+            head.addNozzle(nozzle);
+        }
+    }
+
+    /**
+     * Loads a sample job, creates the parts it is missing and gives the parts packages, heights and
+     * feeders for the benchmark.
+     */
+    static List<JobPlacement> loadSampleJob(String name) throws Exception {
+        File directory = new File(new File("samples"), name);
+        TreeSet<String> partIds = new TreeSet<>();
+        Matcher matcher = partIdPattern.matcher(FileUtils.readFileToString(
+                new File(directory, name + ".board.xml"), "UTF-8"));
+        while (matcher.find()) {
+            partIds.add(matcher.group(1));
+        }
+        for (String partId : partIds) {
+            if (Configuration.get().getPart(partId) == null) {
+                Configuration.get().addPart(new Part(partId));
+            }
+        }
+        Package [] packages = new Package[3];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = new Package("PLAN-PKG" + i);
+            packages[i].addCompatibleNozzleTip(nozzleTips.get(i));
+        }
+        // The last package can also be handled by the second nozzle tip.
+        packages[2].addCompatibleNozzleTip(nozzleTips.get(1));
+        int index = 0;
+        for (String partId : partIds) {
+            Part part = Configuration.get().getPart(partId);
+            part.setPackage(packages[index % packages.length]);
+            part.setHeight(new Length(0.5 + (index % 2)*0.5, LengthUnit.Millimeters));
+            if (machine.getEnabledFeeders(part).isEmpty()) {
+                ReferenceTubeFeeder feeder = new ReferenceTubeFeeder();
+                feeder.setPart(part);
+                feeder.setEnabled(true);
+                feeder.setLocation(new Location(LengthUnit.Millimeters, 10*index, -40, 0, 0));
+                machine.addFeeder(feeder);
+            }
+            index++;
+        }
+
+        Job job = Configuration.get().loadJob(new File(directory, name + ".job.xml"));
+        List<JobPlacement> jobPlacements = new ArrayList<>();
+        for (BoardLocation boardLocation : job.getBoardLocations()) {
+            if (!boardLocation.isEnabled()) {
+                continue;
+            }
+            for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                if (placement.getType() == Placement.Type.Placement && placement.isEnabled()
+                        && placement.getSide() == boardLocation.getSide()
+                        && placement.getPart() != null) {
+                    jobPlacements.add(new JobPlacement(boardLocation, placement));
+                }
+            }
+        }
+        // Same as JobOrderHint.PartHeight.
+        return jobPlacements.stream()
+                .sorted(Comparator
+                        .comparing(JobPlacement::getPartHeight)
+                        .thenComparing(JobPlacement::getPartId))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return The pick location of the first enabled feeder of the part, as with FeederSelection.First.
+     */
+    static Location getPickLocation(Part part) {
+        try {
+            return machine.getEnabledFeeders(part).get(0).getPickLocation();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the planner over the whole job, like the job processor does, simulating the nozzle tip
+     * changes and adding up the travel over the pick and place locations.
+     */
+    static Result simulate(PnpJobPlanner planner, List<JobPlacement> jobPlacements) {
+        List<Nozzle> nozzles = head.getNozzles();
+        for (Nozzle nozzle : nozzles) {
+            ((SimulatedNozzle) nozzle).setSimulatedNozzleTip(null);
+        }
+        ((SimulatedNozzle) nozzles.get(0)).setSimulatedNozzleTip(nozzleTips.get(0));
+
+        Result result = new Result();
+        List<JobPlacement> remaining = new ArrayList<>(jobPlacements);
+        Location location = null;
+        double lastHeight = 0;
+        while (!remaining.isEmpty()) {
+            List<PlannedPlacement> plannedPlacements = planner.plan(head, new ArrayList<>(remaining));
+            Assert.assertFalse("planner planned all placements", plannedPlacements.isEmpty());
+            result.cycles++;
+            for (PlannedPlacement plannedPlacement : plannedPlacements) {
+                if (plannedPlacement.nozzle.getNozzleTip() != plannedPlacement.nozzleTip) {
+                    result.nozzleTipChanges++;
+                    for (Nozzle nozzle : nozzles) {
+                        if (nozzle.getNozzleTip() == plannedPlacement.nozzleTip) {
+                            ((SimulatedNozzle) nozzle).setSimulatedNozzleTip(null);
+                        }
+                    }
+                    ((SimulatedNozzle) plannedPlacement.nozzle).setSimulatedNozzleTip(plannedPlacement.nozzleTip);
+                }
+                Location pickLocation = getPickLocation(plannedPlacement.jobPlacement.getPlacement().getPart());
+                result.travel += OptimizingPnpJobPlanner.getDistance(location, pickLocation);
+                location = pickLocation;
+            }
+            for (PlannedPlacement plannedPlacement : plannedPlacements) {
+                Location placeLocation = OptimizingPnpJobPlanner.getPlaceLocation(plannedPlacement.jobPlacement);
+                result.travel += OptimizingPnpJobPlanner.getDistance(location, placeLocation);
+                location = placeLocation;
+                Assert.assertTrue(remaining.remove(plannedPlacement.jobPlacement));
+                result.placements++;
+                if (planner instanceof OptimizingPnpJobPlanner) {
+                    Assert.assertTrue("placed in part height order",
+                            plannedPlacement.jobPlacement.getPartHeight() >= lastHeight);
+                    lastHeight = plannedPlacement.jobPlacement.getPartHeight();
+                }
+            }
+        }
+        return result;
+    }
+
+    void benchmark(String name) throws Exception {
+        List<JobPlacement> jobPlacements = loadSampleJob(name);
+        Assert.assertFalse(jobPlacements.isEmpty());
+
+        long t = System.currentTimeMillis();
+        Result simple = simulate(new SimplePnpJobPlanner(), jobPlacements);
+        System.out.println("OptimizingPnpJobPlannerTest " + name + " SimplePnpJobPlanner: " + simple
+                + " in " + (System.currentTimeMillis() - t) + " ms");
+        t = System.currentTimeMillis();
+        Result optimizing = simulate(new OptimizingPnpJobPlanner(), jobPlacements);
+        System.out.println("OptimizingPnpJobPlannerTest " + name + " OptimizingPnpJobPlanner: " + optimizing
+                + " in " + (System.currentTimeMillis() - t) + " ms");
+
+        Assert.assertEquals(jobPlacements.size(), optimizing.placements);
+        Assert.assertTrue(optimizing.nozzleTipChanges <= simple.nozzleTipChanges);
+        Assert.assertTrue(optimizing.cycles <= simple.cycles);
+    }
+
+    @Test
+    public void testPnpTestJob() throws Exception {
+        benchmark("pnp-test");
+    }
+
+    @Test
+    public void testEat001Job() throws Exception {
+        benchmark("EAT001");
+    }
+
+    @Test
+    public void testReplan() throws Exception {
+        List<JobPlacement> jobPlacements = loadSampleJob("pnp-test");
+        OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner();
+        for (Nozzle nozzle : head.getNozzles()) {
+            ((SimulatedNozzle) nozzle).setSimulatedNozzleTip(null);
+        }
+        List<OptimizingPnpJobPlanner.Cycle> cycles = planner.planJob(head, jobPlacements);
+        // The first cycle as planned.
+        List<PlannedPlacement> first = planner.plan(head, new ArrayList<>(jobPlacements));
+        Assert.assertEquals(cycles.get(0).getPlannedPlacements().size(), first.size());
+        // The nozzle tips were not loaded as planned, so the next cycle must be replanned with
+        // the first cycle's placements still in it.
+        List<PlannedPlacement> second = planner.plan(head, new ArrayList<>(jobPlacements));
+        Assert.assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertSame(first.get(i).jobPlacement, second.get(i).jobPlacement);
+        }
+    }
+
+    /**
+     * Placements that no nozzle can handle are left out of the plan, but they stay pending in the job.
+     * That must not make the plan look outdated, so the job is not replanned every cycle.
+     */
+    @Test
+    public void testUnplannablePlacements() throws Exception {
+        List<JobPlacement> jobPlacements = loadSampleJob("pnp-test");
+        Part part = new Part("PLAN-UNPLANNABLE");
+        part.setPackage(new Package("PLAN-PKG-NONE"));
+        Configuration.get().addPart(part);
+        JobPlacement first = jobPlacements.get(0);
+        Placement placement = new Placement("PLAN-U1");
+        placement.setPart(part);
+        placement.setLocation(first.getPlacement().getLocation());
+        JobPlacement unplannable = new JobPlacement(first.getBoardLocation(), placement);
+        jobPlacements.add(0, unplannable);
+
+        int [] plannings = new int[1];
+        OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner() {
+            @Override
+            public List<Cycle> planJob(Head head, List<JobPlacement> jobPlacements) {
+                plannings[0]++;
+                return super.planJob(head, jobPlacements);
+            }
+        };
+        List<JobPlacement> remaining = new ArrayList<>(jobPlacements);
+        while (remaining.size() > 1) {
+            List<PlannedPlacement> plannedPlacements = planner.plan(head, new ArrayList<>(remaining));
+            Assert.assertFalse(plannedPlacements.isEmpty());
+            for (PlannedPlacement plannedPlacement : plannedPlacements) {
+                Assert.assertNotSame(unplannable, plannedPlacement.jobPlacement);
+                // Load the nozzle tips as planned.
+                ((SimulatedNozzle) plannedPlacement.nozzle).setSimulatedNozzleTip(plannedPlacement.nozzleTip);
+                Assert.assertTrue(remaining.remove(plannedPlacement.jobPlacement));
+            }
+        }
+        Assert.assertSame(unplannable, remaining.get(0));
+        Assert.assertEquals(1, plannings[0]);
+        // Only the unplannable one is left.
+        Assert.assertTrue(planner.plan(head, remaining).isEmpty());
+    }
+
+    /**
+     * The planner predicts the pick locations with the feeder selection of the job processor.
+     */
+    @Test
+    public void testFeederSelection() throws Exception {
+        List<JobPlacement> jobPlacements = loadSampleJob("pnp-test");
+        ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) machine.getPnpJobProcessor();
+        Part part = new Part("PLAN-TWO-FEEDERS");
+        part.setPackage(new Package("PLAN-PKG-TWO-FEEDERS"));
+        Configuration.get().addPart(part);
+        List<Location> feederLocations = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ReferenceTubeFeeder feeder = new ReferenceTubeFeeder();
+            feeder.setPart(part);
+            feeder.setEnabled(true);
+            feeder.setLocation(new Location(LengthUnit.Millimeters, -1000 + 2000*i, 0, 0, 0));
+            machine.addFeeder(feeder);
+            feederLocations.add(feeder.getPickLocation());
+        }
+        JobPlacement first = jobPlacements.get(0);
+        Placement placement = new Placement("PLAN-F1");
+        placement.setPart(part);
+        placement.setLocation(first.getPlacement().getLocation());
+        JobPlacement jobPlacement = new JobPlacement(first.getBoardLocation(), placement);
+        // The feeder on the side of the place location.
+        Location nearest = feederLocations.get(
+                OptimizingPnpJobPlanner.getPlaceLocation(jobPlacement).getX() < 0 ? 0 : 1);
+
+        OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner();
+        FeederSelection feederSelection = jobProcessor.getFeederSelection();
+        try {
+            jobProcessor.setFeederSelection(FeederSelection.First);
+            Map<Part, Integer> feederTurns = new HashMap<>();
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(feederLocations.get(0), planner.getPickLocation(jobPlacement, feederTurns));
+            }
+
+            jobProcessor.setFeederSelection(FeederSelection.Nearest);
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(nearest, planner.getPickLocation(jobPlacement, feederTurns));
+            }
+
+            jobProcessor.setFeederSelection(FeederSelection.RoundRobin);
+            feederTurns.clear();
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(feederLocations.get(i % 2), planner.getPickLocation(jobPlacement, feederTurns));
+            }
+        }
+        finally {
+            jobProcessor.setFeederSelection(feederSelection);
+        }
+    }
+}
@@ -27,7 +27,16 @@ public class ReferenceBottomVisionTest {
         testError(new Location(LengthUnit.Millimeters, 1, 2, 0, -13));
     }
     
+    @Test
+    public void testPipelined() throws Exception {
+        testError(new Location(LengthUnit.Millimeters, 1, 2, 0, 13), true);
+    }
+    
     public static void testError(Location error) throws Exception {
+        testError(error, false);
+    }
+
+    public static void testError(Location error, boolean pipelined) throws Exception {
         Location maxError = new Location(LengthUnit.Millimeters, 0.1, 0.1, 0, 0.03);
 
         File workingDirectory = Files.createTempDir();
@@ -50,7 +59,9 @@ public class ReferenceBottomVisionTest {
         camera.setErrorOffsets(error);
         machine.setEnabled(true);
         nozzle.pick(part);
-        PartAlignmentOffset offset = bottomVision.findOffsets(part, null, null, nozzle);
+        PartAlignmentOffset offset = pipelined ? 
+                bottomVision.startAlignment(part, null, null, nozzle).getOffsets()
+                : bottomVision.findOffsets(part, null, null, nozzle);
         Location offsets = offset.getLocation();
         assertMaxDelta(offsets.getX(), error.getX(), maxError.getX());
         assertMaxDelta(offsets.getY(), error.getY(), maxError.getY());
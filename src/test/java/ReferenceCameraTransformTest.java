@@ -0,0 +1,253 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ReferenceCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.util.OpenCvUtils;
+
+import com.google.common.io.Files;
+
+public class ReferenceCameraTransformTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    static class TestCamera extends ReferenceCamera {
+        BufferedImage source;
+
+        @Override
+        protected BufferedImage internalCapture() {
+            return source;
+        }
+
+        BufferedImage transformFused(BufferedImage image) {
+            return transformImage(image);
+        }
+
+        BufferedImage transformChained(BufferedImage image) {
+            return transformImageChained(image);
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+    }
+
+    interface Setup {
+        void apply(TestCamera camera);
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+    }
+
+    /**
+     * Creates a smooth test image, so the single interpolation of the fused transform and the repeated
+     * interpolations of the chained transforms give similar results.
+     */
+    static BufferedImage createImage(int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_8UC3, new Scalar(40, 80, 120));
+        for (int i = 0; i < 20; i++) {
+            Imgproc.circle(mat, new Point(width*(i*0.37 % 1.0), height*(i*0.61 % 1.0)), 20 + 7*i,
+                    new Scalar(10*i, 255 - 10*i, 128 + 5*i), -1);
+        }
+        Imgproc.GaussianBlur(mat, mat, new org.opencv.core.Size(15, 15), 5);
+        BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+        mat.release();
+        return image;
+    }
+
+    static BufferedImage createWhiteImage(int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+        mat.release();
+        return image;
+    }
+
+    static double meanDifference(BufferedImage image1, BufferedImage image2) {
+        Assert.assertEquals(image1.getWidth(), image2.getWidth());
+        Assert.assertEquals(image1.getHeight(), image2.getHeight());
+        Mat mat1 = OpenCvUtils.toMat(image1);
+        Mat mat2 = OpenCvUtils.toMat(image2);
+        Mat diff = new Mat();
+        Core.absdiff(mat1, mat2, diff);
+        Scalar mean = Core.mean(diff);
+        mat1.release();
+        mat2.release();
+        diff.release();
+        return (mean.val[0] + mean.val[1] + mean.val[2])/3;
+    }
+
+    /**
+     * @return The maximum absolute difference of any pixel channel, where the valid image is fully white. Near the
+     * image borders, the chained transforms blend in black from each intermediate image border, so these pixels
+     * are not comparable.
+     */
+    static double maxDifference(BufferedImage image1, BufferedImage image2, BufferedImage valid) {
+        Assert.assertEquals(image1.getWidth(), image2.getWidth());
+        Assert.assertEquals(image1.getHeight(), image2.getHeight());
+        Mat mat1 = OpenCvUtils.toMat(image1);
+        Mat mat2 = OpenCvUtils.toMat(image2);
+        Mat diff = new Mat();
+        Core.absdiff(mat1, mat2, diff);
+        List<Mat> channels = new ArrayList<>();
+        Core.split(diff, channels);
+        Mat maxDiff = channels.get(0);
+        for (Mat channel : channels) {
+            Core.max(maxDiff, channel, maxDiff);
+        }
+        Mat validMat = OpenCvUtils.toMat(valid);
+        Mat mask = new Mat();
+        Core.inRange(validMat, new Scalar(255, 255, 255), new Scalar(255, 255, 255), mask);
+        Imgproc.erode(mask, mask, Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3)));
+        Assert.assertTrue(Core.countNonZero(mask) > mask.total()/2);
+        double max = Core.minMaxLoc(maxDiff, mask).maxVal;
+        for (Mat mat : channels) {
+            mat.release();
+        }
+        mask.release();
+        validMat.release();
+        mat1.release();
+        mat2.release();
+        diff.release();
+        return max;
+    }
+
+    static Setup[] setups() {
+        return new Setup[] {
+                camera -> {
+                    camera.setCropWidth(800);
+                    camera.setCropHeight(600);
+                },
+                camera -> {
+                    camera.setFlipX(true);
+                    camera.setFlipY(true);
+                },
+                camera -> {
+                    camera.setOffsetX(12);
+                    camera.setOffsetY(-7);
+                    camera.setDeinterlace(true);
+                },
+                camera -> {
+                    camera.setRotation(90);
+                    camera.setFlipX(true);
+                },
+                camera -> {
+                    camera.setCropWidth(1000);
+                    camera.setScaleWidth(640);
+                    camera.setScaleHeight(480);
+                },
+                camera -> {
+                    camera.setRotation(12.5);
+                    camera.setOffsetX(5);
+                },
+                camera -> {
+                    Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+                    cameraMatrix.put(0, 0, 1000, 0, 640, 0, 1000, 360, 0, 0, 1);
+                    Mat distortionCoefficients = new Mat(5, 1, CvType.CV_64FC1);
+                    distortionCoefficients.put(0, 0, -0.2, 0.05, 0, 0, 0);
+                    camera.getCalibration().setCameraMatrixMat(cameraMatrix);
+                    camera.getCalibration().setDistortionCoefficientsMat(distortionCoefficients);
+                    camera.getCalibration().setEnabled(true);
+                    camera.setCropWidth(1200);
+                    camera.setRotation(-3);
+                    camera.setFlipY(true);
+                },
+        };
+    }
+
+    /**
+     * The chained transforms interpolate repeatedly, the fused transform only once, so they may differ by rounding.
+     */
+    static final double maxInterpolationDifference = 2.0;
+
+    /**
+     * Tests that the fused transform yields the same as the chained transforms, pixel by pixel.
+     */
+    @Test
+    public void testTransformEquivalence() {
+        BufferedImage image = createImage(1280, 720);
+        BufferedImage white = createWhiteImage(1280, 720);
+        int n = 0;
+        for (Setup setup : setups()) {
+            TestCamera camera = new TestCamera();
+            setup.apply(camera);
+            BufferedImage expected = camera.transformChained(image);
+            BufferedImage fused = camera.transformFused(image);
+            double difference = maxDifference(expected, fused, camera.transformChained(white));
+            Assert.assertTrue("Setup "+n+" difference "+difference, difference <= maxInterpolationDifference);
+            // Again, with the compiled map reused.
+            Assert.assertEquals(0.0, meanDifference(fused, camera.transformFused(image)), 0.0);
+            n++;
+        }
+        // A mapping error of a single pixel must not pass.
+        TestCamera camera = new TestCamera();
+        camera.setRotation(12.5);
+        TestCamera shifted = new TestCamera();
+        shifted.setRotation(12.5);
+        shifted.setOffsetX(1);
+        double difference = maxDifference(camera.transformChained(image), shifted.transformFused(image),
+                camera.transformChained(white));
+        Assert.assertTrue("Shifted difference "+difference, difference > maxInterpolationDifference);
+    }
+
+    /**
+     * Simple benchmark of the chained transforms against the fused transform.
+     */
+    @Test
+    public void testTransformPerformance() {
+        BufferedImage image = createImage(1920, 1080);
+        int frames = 20;
+        int n = 0;
+        for (Setup setup : setups()) {
+            TestCamera camera = new TestCamera();
+            setup.apply(camera);
+            long t0 = 0;
+            long t1 = 0;
+            long t2 = 0;
+            for (int warmup = 0; warmup < 2; warmup++) {
+                t0 = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    camera.transformChained(image);
+                }
+                t1 = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    camera.transformFused(image);
+                }
+                t2 = System.nanoTime();
+            }
+            System.out.println("ReferenceCameraTransformTest.testTransformPerformance() setup "+n+", "+frames+" frames, chained: "
+                    +String.format("%.1f", (t1 - t0)*1e-6/frames)+"ms, fused: "
+                    +String.format("%.1f", (t2 - t1)*1e-6/frames)+"ms per frame");
+            n++;
+        }
+    }
+}
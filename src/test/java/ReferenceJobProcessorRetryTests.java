@@ -1,4 +1,11 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import javax.swing.Action;
+import javax.swing.Icon;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -10,6 +17,7 @@ import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.ReferenceNozzleTip;
 import org.openpnp.machine.reference.ReferenceNozzleTip.VacuumMeasurementMethod;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor;
 import org.openpnp.machine.reference.axis.ReferenceVirtualAxis;
 import org.openpnp.machine.reference.camera.ImageCamera;
 import org.openpnp.machine.reference.camera.SimulatedUpCamera;
@@ -25,9 +33,11 @@ import org.openpnp.model.Part;
 import org.openpnp.model.Placement;
 import org.openpnp.spi.Axis.Type;
 import org.openpnp.spi.Camera.Looking;
+import org.openpnp.spi.JobProcessor.JobProcessorException;
 import org.openpnp.spi.Machine;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PartAlignment;
 import org.openpnp.spi.PnpJobProcessor;
 import org.openpnp.spi.PropertySheetHolder;
 
@@ -190,6 +200,107 @@ public class ReferenceJobProcessorRetryTests {
         Assert.assertEquals("F2 Feed count should be 2.", 2, f2.feedCount);
         Assert.assertEquals("F3 Feed count should be 0.", 0, f3.feedCount);
     }
+
+    /**
+     * With pipelined alignment, the alignment of the next nozzle is started before waiting for the
+     * result of the current one. A failed pipelined alignment is retried. 
+     */
+    @Test
+    public void testPipelinedAlignmentRetry() throws Exception {
+        Configuration.initialize();
+        TestPartAlignment partAlignment = new TestPartAlignment();
+        // The second alignment started fails.
+        partAlignment.failingStarts.add(2);
+        ReferencePnpJobProcessor jobProcessor = buildPipelinedAlignmentJob(partAlignment, 2);
+
+        while (jobProcessor.next());
+
+        List<String> started = partAlignment.getStarted();
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(Arrays.asList(
+                "start " + started.get(0),
+                "start " + started.get(1),
+                "offsets " + started.get(0),
+                "start " + started.get(2),
+                "fail " + started.get(1),
+                "find " + started.get(1),
+                "offsets " + started.get(2)),
+                partAlignment.events);
+    }
+
+    /**
+     * If there are no retries left after a failed pipelined alignment, its error is reported, and the
+     * alignment started ahead for the next nozzle is cancelled when the job is aborted.
+     */
+    @Test
+    public void testPipelinedAlignmentFailure() throws Exception {
+        Configuration.initialize();
+        TestPartAlignment partAlignment = new TestPartAlignment();
+        partAlignment.failingStarts.add(2);
+        ReferencePnpJobProcessor jobProcessor = buildPipelinedAlignmentJob(partAlignment, 1);
+
+        try {
+            while (jobProcessor.next());
+            Assert.fail("alignment failure not reported");
+        }
+        catch (JobProcessorException e) {
+            Assert.assertEquals("Pipelined alignment failed.", e.getMessage());
+        }
+        jobProcessor.abort();
+
+        List<String> started = partAlignment.getStarted();
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(Arrays.asList(
+                "start " + started.get(0),
+                "start " + started.get(1),
+                "offsets " + started.get(0),
+                "start " + started.get(2),
+                "fail " + started.get(1),
+                "cancel " + started.get(2)),
+                partAlignment.events);
+    }
+
+    static ReferencePnpJobProcessor buildPipelinedAlignmentJob(TestPartAlignment partAlignment, 
+            int maxVisionRetries) throws Exception {
+        TestMachine machine = (TestMachine) new MachineBuilder()
+                .head("H1")
+                .nozzleTip("NT1")
+                .nozzleTip("NT2")
+                .nozzleTip("NT3")
+                .nozzle("N1", "NT1")
+                .nozzle("N2", "NT2")
+                .nozzle("N3", "NT3")
+                .topCamera("TOP")
+                .bottomCamera("BOTTOM")
+                .build();
+        machine.addPartAlignment(partAlignment);
+        Job job = new JobBuilder()
+                .board("B1", 10, 10, 10, -10)
+                .packag("P1", "NT1")
+                .packag("P2", "NT2")
+                .packag("P3", "NT3")
+                .part("PART1", "P1")
+                .part("PART2", "P2")
+                .part("PART3", "P3")
+                .feeder("F1", "PART1", 100, 20, -5, 0)
+                .feeder("F2", "PART2", 110, 20, -5, 0)
+                .feeder("F3", "PART3", 120, 20, -5, 0)
+                .placement("R1", "PART1", 10, 10, 0)
+                .placement("R2", "PART2", 20, 20, 0)
+                .placement("R3", "PART3", 30, 30, 0)
+                .build();
+        for (int i = 1; i <= 3; i++) {
+            ((TestFeeder) machine.getFeederByName("F" + i)).setPartCount(1);
+        }
+
+        ReferencePnpJobProcessor jobProcessor = (ReferencePnpJobProcessor) machine.getPnpJobProcessor();
+        jobProcessor.setPipelinedAlignment(true);
+        jobProcessor.setMaxVisionRetries(maxVisionRetries);
+        machine.setEnabled(true);
+        machine.home();
+        jobProcessor.initialize(job);
+        return jobProcessor;
+    }
     
 
     
@@ -251,6 +362,111 @@ public class ReferenceJobProcessorRetryTests {
         }
     }
     
+    /**
+     * Records the alignment operations by part id. The pipelined alignments started as numbered in 
+     * failingStarts (counting from 1) fail when their result is requested.
+     */
+    public static class TestPartAlignment implements PartAlignment {
+        List<String> events = new ArrayList<>();
+        Set<Integer> failingStarts = new HashSet<>();
+        int starts = 0;
+
+        List<String> getStarted() {
+            List<String> started = new ArrayList<>();
+            for (String event : events) {
+                if (event.startsWith("start ")) {
+                    started.add(event.substring(6));
+                }
+            }
+            return started;
+        }
+
+        @Override
+        public PartAlignmentOffset findOffsets(Part part, BoardLocation boardLocation,
+                Location placementLocation, Nozzle nozzle) throws Exception {
+            events.add("find " + part.getId());
+            return new PartAlignmentOffset(new Location(LengthUnit.Millimeters), false);
+        }
+
+        @Override
+        public PendingAlignment startAlignment(Part part, BoardLocation boardLocation,
+                Location placementLocation, Nozzle nozzle) throws Exception {
+            events.add("start " + part.getId());
+            boolean failing = failingStarts.contains(++starts);
+            return new PendingAlignment() {
+                @Override
+                public PartAlignmentOffset getOffsets() throws Exception {
+                    if (failing) {
+                        events.add("fail " + part.getId());
+                        throw new Exception("Pipelined alignment failed.");
+                    }
+                    events.add("offsets " + part.getId());
+                    return new PartAlignmentOffset(new Location(LengthUnit.Millimeters), false);
+                }
+
+                @Override
+                public void cancel() {
+                    events.add("cancel " + part.getId());
+                }
+            };
+        }
+
+        @Override
+        public boolean canHandle(Part part) {
+            return true;
+        }
+
+        @Override
+        public Wizard getPartConfigurationWizard(Part part) {
+            return null;
+        }
+
+        @Override
+        public String getId() {
+            return "TestPartAlignment";
+        }
+
+        @Override
+        public String getName() {
+            return getId();
+        }
+
+        @Override
+        public void setName(String name) {
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+
+        @Override
+        public PropertySheet[] getPropertySheets() {
+            return null;
+        }
+
+        @Override
+        public Action[] getPropertySheetHolderActions() {
+            return null;
+        }
+
+        @Override
+        public Icon getPropertySheetHolderIcon() {
+            return null;
+        }
+    }
+
+    public static class TestMachine extends ReferenceMachine {
+        public void addPartAlignment(PartAlignment partAlignment) {
+            partAlignments.add(partAlignment);
+        }
+    }
+
     public static class TestActuator extends ReferenceActuator {
         String readValue = "0.5";
         
@@ -288,7 +504,7 @@ public class ReferenceJobProcessorRetryTests {
         TestNozzle nozzle = null;
         
         public MachineBuilder() {
-            machine = new ReferenceMachine();
+            machine = new TestMachine();
             Configuration.get().setMachine(machine);
         }
 
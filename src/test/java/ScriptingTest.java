@@ -0,0 +1,107 @@
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openpnp.model.Configuration;
+import org.openpnp.scripting.Scripting;
+
+import com.google.common.io.Files;
+
+import bsh.engine.BshScriptEngineFactory;
+
+public class ScriptingTest {
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+    }
+
+    /**
+     * Tests that event scripts are found, get their globals and are picked up again when changed.
+     */
+    @Test
+    public void testEventScripts() throws Exception {
+        Scripting scripting = new Scripting(Files.createTempDir());
+        List<String> results = new java.util.ArrayList<>();
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("results", results);
+
+        // No script.
+        scripting.on("Test.Event", globals);
+        Assert.assertTrue(results.isEmpty());
+
+        File script = new File(scripting.getEventsDirectory(), "Test.Event.java");
+        FileUtils.writeStringToFile(script, "results.add(\"a\" + (scripting != null));", "UTF-8");
+        scripting.refreshEventScripts();
+        scripting.on("Test.Event", globals);
+        scripting.on("Test.Other", globals);
+        scripting.on("Test.Event", globals);
+        Assert.assertEquals(java.util.Arrays.asList("atrue", "atrue"), results);
+
+        // Changed script, with a different length, so it is detected regardless of the file time resolution.
+        FileUtils.writeStringToFile(script, "results.add(\"bb\");", "UTF-8");
+        scripting.on("Test.Event", globals);
+        Assert.assertEquals("bb", results.get(results.size() - 1));
+
+        Assert.assertEquals(3, scripting.getEventStatistics().get("Test.Event").getCount());
+        Assert.assertNull(scripting.getEventStatistics().get("Test.Other"));
+    }
+
+    /**
+     * Simple benchmark of the event dispatch, as it was done by listing the events directory and evaluating each
+     * matching script in a new engine, against the indexed and cached dispatch. 
+     */
+    @Test
+    public void testEventPerformance() throws Exception {
+        Scripting scripting = new Scripting(Files.createTempDir());
+        FileUtils.writeStringToFile(new File(scripting.getEventsDirectory(), "Job.Placement.Starting.java"),
+                "int i = 1 + 1;", "UTF-8");
+        for (int i = 0; i < 20; i++) {
+            FileUtils.writeStringToFile(new File(scripting.getEventsDirectory(), "Other.Event"+i+".java"),
+                    "int i = 1 + 1;", "UTF-8");
+        }
+        scripting.refreshEventScripts();
+        ScriptEngineManager manager = new ScriptEngineManager();
+        manager.registerEngineExtension("java", new BshScriptEngineFactory());
+        String[] events = new String[] { "Camera.BeforeCapture", "Camera.AfterCapture", "Job.Placement.Starting" };
+        Map<String, Object> globals = new HashMap<>();
+        int n = 300;
+        long t0 = 0;
+        long t1 = 0;
+        long t2 = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                for (String event : events) {
+                    for (File script : FileUtils.listFiles(scripting.getEventsDirectory(), scripting.getExtensions(), false)) {
+                        if (script.isFile() && FilenameUtils.getBaseName(script.getName()).equals(event)) {
+                            ScriptEngine engine = manager.getEngineByExtension("java");
+                            engine.put("config", Configuration.get());
+                            engine.eval(FileUtils.readFileToString(script, "UTF-8"));
+                        }
+                    }
+                }
+            }
+            t1 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                for (String event : events) {
+                    scripting.on(event, globals);
+                }
+            }
+            t2 = System.nanoTime();
+        }
+        System.out.println("ScriptingTest.testEventPerformance() "+n*events.length+" events, listing and new engine: "
+                +String.format("%.1f", (t1 - t0)*1e-6)+"ms, indexed and cached: "
+                +String.format("%.1f", (t2 - t1)*1e-6)+"ms, "+scripting.getEventStatistics());
+    }
+}
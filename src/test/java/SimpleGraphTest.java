@@ -0,0 +1,146 @@
+import java.awt.Color;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.util.SimpleGraph.DataRow;
+
+public class SimpleGraphTest {
+    /**
+     * Tests that the columnar data row behaves like the sorted map it replaced, including out of order and
+     * duplicate x.
+     */
+    @Test
+    public void testDataRowEquivalence() {
+        Random rnd = new Random(42);
+        DataRow dataRow = new DataRow("test", Color.black);
+        TreeMap<Double, Double> expected = new TreeMap<>();
+        double t = 0;
+        for (int i = 0; i < 20000; i++) {
+            double x;
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    // Out of order.
+                    x = t - rnd.nextInt(100);
+                    break;
+                case 1:
+                    // Nick.
+                    x = t - 0.5;
+                    break;
+                default:
+                    t += 1.0;
+                    x = t;
+                    break;
+            }
+            double y = rnd.nextGaussian();
+            dataRow.recordDataPoint(x, y);
+            expected.put(x, y);
+        }
+        dataRow.recordDataPoint(Double.NaN, 1.0);
+        dataRow.recordDataPoint(t + 1, Double.POSITIVE_INFINITY);
+        Assert.assertEquals(expected.size(), dataRow.size());
+        int i = 0;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (Entry<Double, Double> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getKey(), dataRow.getX(i), 0.0);
+            Assert.assertEquals(entry.getValue(), dataRow.getY(i), 0.0);
+            Assert.assertEquals(entry.getValue(), dataRow.getDataPoint(entry.getKey()));
+            yMin = Math.min(yMin, entry.getValue());
+            yMax = Math.max(yMax, entry.getValue());
+            i++;
+        }
+        Assert.assertEquals(expected.firstKey(), dataRow.getMinimum().x, 0.0);
+        Assert.assertEquals(expected.lastKey(), dataRow.getMaximum().x, 0.0);
+        Assert.assertEquals(yMin, dataRow.getMinimum().y, 0.0);
+        Assert.assertEquals(yMax, dataRow.getMaximum().y, 0.0);
+        Assert.assertNull(dataRow.getInterpolated(expected.firstKey() - 1));
+        Assert.assertNull(dataRow.getInterpolated(expected.lastKey() + 1));
+        double x0 = expected.floorKey(1000.25);
+        double x1 = expected.ceilingKey(1000.25);
+        Assert.assertEquals(expected.get(x0) + (1000.25 - x0)/(x1 - x0)*(expected.get(x1) - expected.get(x0)),
+                dataRow.getInterpolated(1000.25), 1e-12);
+    }
+
+    @Test
+    public void testDataRowRetention() {
+        DataRow dataRow = new DataRow("test", Color.black);
+        dataRow.setRetention(100);
+        for (int i = 0; i < 10000; i++) {
+            dataRow.recordDataPoint(i, i % 7);
+        }
+        Assert.assertEquals(101, dataRow.size());
+        Assert.assertEquals(9899, dataRow.getX(0), 0.0);
+        Assert.assertEquals(9899, dataRow.getMinimum().x, 0.0);
+        // Expired point is ignored.
+        dataRow.recordDataPoint(5, 100);
+        Assert.assertEquals(101, dataRow.size());
+        Assert.assertEquals(6, dataRow.getMaximum().y, 0.0);
+    }
+
+    /**
+     * Tests that decimation keeps the peaks of every column.
+     */
+    @Test
+    public void testDataRowDecimation() {
+        Random rnd = new Random(42);
+        DataRow dataRow = new DataRow("test", Color.black);
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            dataRow.recordDataPoint(i*0.01, rnd.nextGaussian());
+        }
+        int columns = 500;
+        double xMin = 0;
+        double xMax = (n - 1)*0.01;
+        double[] xOut = new double[DataRow.getDecimatedCapacity(columns)];
+        double[] yOut = new double[xOut.length];
+        int size = dataRow.getDecimated(xMin, xMax, columns, xOut, yOut);
+        Assert.assertTrue(size <= 4*columns);
+        Assert.assertEquals(xMin, xOut[0], 0.0);
+        Assert.assertEquals(xMax, xOut[size - 1], 0.0);
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                Assert.assertTrue(xOut[i] > xOut[i - 1]);
+            }
+            yMin = Math.min(yMin, yOut[i]);
+            yMax = Math.max(yMax, yOut[i]);
+        }
+        Assert.assertEquals(dataRow.getMinimum().y, yMin, 0.0);
+        Assert.assertEquals(dataRow.getMaximum().y, yMax, 0.0);
+    }
+
+    /**
+     * Simple benchmark of recording into the sorted map, as it was used in the DataRow, against the columnar
+     * data row.
+     */
+    @Test
+    public void testDataRowPerformance() {
+        int n = 1000000;
+        long checksum = 0;
+        long t0 = 0;
+        long t1 = 0;
+        long t2 = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            t0 = System.nanoTime();
+            TreeMap<Double, Double> map = new TreeMap<>();
+            for (int i = 0; i < n; i++) {
+                map.put(i*0.001, Math.sin(i*0.001));
+            }
+            checksum += map.size();
+            t1 = System.nanoTime();
+            DataRow dataRow = new DataRow("test", Color.black);
+            for (int i = 0; i < n; i++) {
+                dataRow.recordDataPoint(i*0.001, Math.sin(i*0.001));
+            }
+            checksum += dataRow.size();
+            t2 = System.nanoTime();
+        }
+        System.out.println("SimpleGraphTest.testDataRowPerformance() "+n+" points, TreeMap: "
+                +String.format("%.1f", (t1 - t0)*1e-6)+"ms, DataRow: "
+                +String.format("%.1f", (t2 - t1)*1e-6)+"ms, checksum: "+checksum);
+    }
+}
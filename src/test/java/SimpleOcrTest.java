@@ -0,0 +1,109 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.openpnp.machine.reference.camera.ImageCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.stages.SimpleOcr;
+
+import com.google.common.io.Files;
+
+public class SimpleOcrTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    // 1 pt = 3 pixels
+    static final double unitsPerPixel = 25.4/72/3;
+    static final String fontName = "Monospaced";
+    static final double fontSizePt = 6.0;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Configuration.initialize(new File(Files.createTempDir(), ".openpnp"));
+    }
+
+    /**
+     * Provides the text image, like an ImageCapture stage would.
+     */
+    static class TextStage extends CvStage {
+        final String[] lines;
+
+        TextStage(String... lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            Font font = new Font(fontName, Font.PLAIN, (int) Math.round(3*fontSizePt));
+            BufferedImage image = new BufferedImage(300, 30 + 25*lines.length, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(Color.black);
+            g2d.setFont(font);
+            FontMetrics fm = g2d.getFontMetrics();
+            for (int i = 0; i < lines.length; i++) {
+                g2d.drawString(lines[i], 15, 15 + fm.getAscent() + 25*i);
+            }
+            g2d.dispose();
+            return new Result(OpenCvUtils.toMat(image));
+        }
+    }
+
+    static CvPipeline createPipeline(String... lines) {
+        ImageCamera camera = new ImageCamera();
+        camera.setUnitsPerPixel(new Location(LengthUnit.Millimeters, unitsPerPixel, unitsPerPixel, 0, 0));
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.setProperty("camera", camera);
+        pipeline.add("text", new TextStage(lines));
+        SimpleOcr ocr = new SimpleOcr();
+        ocr.setFontName(fontName);
+        ocr.setFontSizePt(fontSizePt);
+        ocr.setDrawStyle(SimpleOcr.DrawStyle.None);
+        pipeline.add("ocr", ocr);
+        return pipeline;
+    }
+
+    /**
+     * Tests that the text is recognized, and that the cached character templates make repeated OCR faster.
+     */
+    @Test
+    public void testOcr() throws Exception {
+        CvPipeline pipeline = createPipeline("R0805 10K", "C0603-100N");
+        pipeline.setProperty("alphabet", "0123456789.-+_RCLKNQ");
+        pipeline.process();
+        SimpleOcr.OcrModel first = (SimpleOcr.OcrModel) pipeline.getResult("ocr").model;
+        Assert.assertEquals("R0805 10K\nC0603-100N", first.getText());
+        Assert.assertEquals(18, first.getNumChars());
+
+        int n = 10;
+        long t0 = System.nanoTime();
+        SimpleOcr.OcrModel model = null;
+        for (int i = 0; i < n; i++) {
+            pipeline.process();
+            model = (SimpleOcr.OcrModel) pipeline.getResult("ocr").model;
+        }
+        long t1 = System.nanoTime();
+        Assert.assertEquals(first.getText(), model.getText());
+        Assert.assertEquals(first.getOverallScore(), model.getOverallScore(), 1e-9);
+        Assert.assertTrue(model.getTemplateTimeMs() < first.getTemplateTimeMs());
+        System.out.println("SimpleOcrTest.testOcr() "+String.format("%.2f", (t1 - t0)*1e-6/n)
+                +"ms per process(), first "+first+", cached "+model);
+        pipeline.release();
+    }
+}
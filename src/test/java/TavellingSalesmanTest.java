@@ -91,4 +91,67 @@ public class TavellingSalesmanTest {
             }
         }
     }
+
+    /**
+     * Benchmark the solver against the old Simulated Annealing solver, for 10, 100 and 1000 Locations 
+     * like on a typical PNP machine. Checks that the solver is not worse than the annealer, by a margin.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSolverBenchmark() throws Exception {
+        for (int size : new int[] { 10, 100, 1000 }) {
+            List<Location> list = generateLocations(size, new Random(size));
+            TravellingSalesman<Location> annealer = createSolver(list);
+            double annealedDistance = annealer.solveByAnnealing();
+            TravellingSalesman<Location> solver = createSolver(list);
+            double solvedDistance = solver.solve();
+            TravellingSalesman<Location> restarting = createSolver(list);
+            restarting.setParallelRestarts(4);
+            double restartedDistance = restarting.solve();
+            System.out.println("TavellingSalesmanTest.testSolverBenchmark() "+size+" locations, "
+                    +"annealing: "+Math.round(annealedDistance)+"mm in "+annealer.getSolverDuration()+"ms, "
+                    +"local search: "+Math.round(solvedDistance)+"mm in "+solver.getSolverDuration()+"ms, "
+                    +"with restarts: "+Math.round(restartedDistance)+"mm in "+restarting.getSolverDuration()+"ms");
+            if (solvedDistance > annealedDistance*1.05) {
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+size+") distance "+solvedDistance
+                        +" is more than 5% greater than annealing " + annealedDistance);
+            }
+            if (restartedDistance > solvedDistance + 1e-6) {
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+size+") with restarts distance "
+                        +restartedDistance+" is greater than without " + solvedDistance);
+            }
+            if (solver.getTravel().size() != size || !solver.getTravel().containsAll(list)) {
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+size+") lost locations");
+            }
+        }
+    }
+
+    private static List<Location> generateLocations(int size, Random rnd) {
+        List<Location> list = new ArrayList<Location>();
+        for (int i = 0; i < size; i++) {
+            if (i % 2 == 0) {
+                // X-aligned rows of feeders
+                list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
+            }
+            else {
+                // random Locations all over
+                list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
+            }
+        }
+        return list;
+    }
+
+    private static TravellingSalesman<Location> createSolver(List<Location> list) {
+        return new TravellingSalesman<>(
+                list, 
+                new TravellingSalesman.Locator<Location>() { 
+                    @Override
+                    public Location getLocation(Location locatable) {
+                        return locatable;
+                    }
+                }, 
+                new Location(LengthUnit.Millimeters), 
+                null);
+    }
 }